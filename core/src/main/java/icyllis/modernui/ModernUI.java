@@ -26,6 +26,8 @@ import icyllis.modernui.graphics.Canvas;
 import icyllis.modernui.graphics.Image;
 import icyllis.modernui.graphics.drawable.Drawable;
 import icyllis.modernui.graphics.drawable.ImageDrawable;
+import icyllis.modernui.graphics.font.GlyphManager;
+import icyllis.modernui.graphics.font.LayoutCache;
 import icyllis.modernui.lifecycle.*;
 import icyllis.modernui.math.Matrix4;
 import icyllis.modernui.math.Rect;
@@ -80,6 +82,8 @@ public class ModernUI implements AutoCloseable, LifecycleOwner {
     private final VulkanManager mVulkanManager = VulkanManager.getInstance();
 
     private volatile MainWindow mWindow;
+    // the refresh rate of the monitor when started, 0 if unknown
+    private int mRefreshRate;
 
     private ViewRootImpl mRoot;
     private CoordinatorLayout mDecor;
@@ -157,6 +161,7 @@ public class ModernUI implements AutoCloseable, LifecycleOwner {
             mWindow = MainWindow.initialize(NAME_CPT, 1280, 720);
         } else {
             VideoMode mode = monitor.getCurrentMode();
+            mRefreshRate = mode.getRefreshRate();
             mWindow = MainWindow.initialize(NAME_CPT, (int) (mode.getWidth() * 0.75f),
                     (int) (mode.getHeight() * 0.75f));
             mWindow.center(monitor);
@@ -225,6 +230,8 @@ public class ModernUI implements AutoCloseable, LifecycleOwner {
                         width, height, 0, 0,
                         width, height, GL_COLOR_BUFFER_BIT, GL_LINEAR);
             }
+            // upload glyphs even if no frame was submitted, then start a new frame
+            GlyphManager.getInstance().nextFrame();
             if (mRoot != null) {
                 mRoot.mChoreographer.scheduleFrameAsync(Core.timeNanos());
             }
@@ -241,6 +248,9 @@ public class ModernUI implements AutoCloseable, LifecycleOwner {
         ViewConfiguration.get().setViewScale(2);
 
         mRoot = new ViewRootImpl();
+        if (mRefreshRate > 0) {
+            mRoot.mChoreographer.setFrameIntervalNanos(1_000_000_000L / mRefreshRate);
+        }
 
         mDecor = new CoordinatorLayout();
         mDecor.setClickable(true);
@@ -417,6 +427,8 @@ public class ModernUI implements AutoCloseable, LifecycleOwner {
                 }
             }
 
+            LayoutCache.saveDiskCache();
+
             if (mWindow != null) {
                 mWindow.close();
                 LOGGER.info(MARKER, "Closed main window");
@@ -439,12 +451,17 @@ public class ModernUI implements AutoCloseable, LifecycleOwner {
 
         @Nonnull
         @Override
-        protected Canvas beginRecording(int width, int height) {
+        protected Canvas beginRecording(int width, int height, @Nullable Rect damage) {
             GLSurfaceCanvas canvas = GLSurfaceCanvas.getInstance();
-            canvas.reset(width, height);
+            canvas.reset(width, height, damage);
             return canvas;
         }
 
+        @Override
+        protected void endRecording(@Nonnull Canvas canvas) {
+            ((GLSurfaceCanvas) canvas).publish();
+        }
+
         @Override
         protected boolean dispatchTouchEvent(MotionEvent event) {
             if (event.getAction() == MotionEvent.ACTION_DOWN) {
@@ -475,12 +492,8 @@ public class ModernUI implements AutoCloseable, LifecycleOwner {
 
         @RenderThread
         private void flushDrawCommands(GLSurfaceCanvas canvas, GLFramebuffer framebuffer) {
-            synchronized (mRenderLock) {
-                if (mRedrawn) {
-                    mRedrawn = false;
-                    canvas.draw(framebuffer);
-                }
-            }
+            // the latest completed frame if any, UI thread may be recording the next one
+            canvas.submit(framebuffer);
         }
 
         @Override
@@ -43,7 +43,7 @@ public class AnimationHandler {
     private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
         @Override
         public void doFrame(@Nonnull Choreographer choreographer, long frameTimeNanos) {
-            doAnimationFrame(frameTimeNanos / 1000000);
+            doAnimationFrame(frameTimeNanos);
             if (mAnimationCallbacks.size() > 0) {
                 choreographer.postFrameCallback(this);
             }
@@ -93,7 +93,7 @@ public class AnimationHandler {
             newlyAdded = false;
         }
         if (delay > 0) {
-            mDelayedStartTime.put(callback, Core.timeMillis() + delay);
+            mDelayedStartTime.put(callback, Core.timeNanos() + delay * 1000000);
         } else if (!newlyAdded) {
             // remove it if any
             mDelayedStartTime.removeLong(callback);
@@ -118,7 +118,7 @@ public class AnimationHandler {
 
     @SuppressWarnings("ForLoopReplaceableByForEach")
     private void doAnimationFrame(long frameTime) {
-        long currentTime = Core.timeMillis();
+        long currentTime = Core.timeNanos();
         // take a snapshot on currently
         // we don't accept newly added callbacks during handle these callbacks
         final int size = mAnimationCallbacks.size();
@@ -194,7 +194,7 @@ public class AnimationHandler {
         /**
          * Run animation based on the frame time.
          *
-         * @param frameTime the frame start time, in the {@link Core#timeMillis()} time base
+         * @param frameTime the frame start time, in the {@link Core#timeNanos()} time base
          * @return if the animation has finished.
          */
         boolean doAnimationFrame(long frameTime);
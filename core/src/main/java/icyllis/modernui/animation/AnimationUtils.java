@@ -28,14 +28,14 @@ public final class AnimationUtils {
 
     private static class AnimationState {
         boolean animationClockLocked;
-        long currentVsyncTimeMillis;
-        long lastReportedTimeMillis;
+        long currentVsyncTimeNanos;
+        long lastReportedTimeNanos;
     }
 
     private static final ThreadLocal<AnimationState> sAnimationState = ThreadLocal.withInitial(AnimationState::new);
 
     /**
-     * Locks AnimationUtils{@link #currentAnimationTimeMillis()} to a fixed value for the current
+     * Locks AnimationUtils{@link #currentAnimationTimeNanos()} to a fixed value for the current
      * thread.
      * <p>
      * Must be followed by a call to {@link #unlockAnimationClock()} to allow time to
@@ -45,13 +45,15 @@ public final class AnimationUtils {
      * lock may fail if the time is in the past from a previously returned value, however
      * time will be frozen for the duration of the lock. The clock is a thread-local, so
      * ensure that this method, {@link #unlockAnimationClock()}, and
-     * {@link #currentAnimationTimeMillis()} are all called on the same thread.
+     * {@link #currentAnimationTimeNanos()} are all called on the same thread.
+     *
+     * @param vsyncNanos the frame time, in the {@link Core#timeNanos()} time base
      */
     @ApiStatus.Internal
-    public static void lockAnimationClock(long vsyncMillis) {
+    public static void lockAnimationClock(long vsyncNanos) {
         AnimationState state = sAnimationState.get();
         state.animationClockLocked = true;
-        state.currentVsyncTimeMillis = vsyncMillis;
+        state.currentVsyncTimeNanos = vsyncNanos;
     }
 
     /**
@@ -71,14 +73,25 @@ public final class AnimationUtils {
      * @return the current animation time in milliseconds
      */
     public static long currentAnimationTimeMillis() {
+        return currentAnimationTimeNanos() / 1000000;
+    }
+
+    /**
+     * Same as {@link #currentAnimationTimeMillis()} but with nanosecond precision.
+     * Animators use this time base, so that they can advance smoothly on high refresh
+     * rate displays, where a frame is only a few milliseconds.
+     *
+     * @return the current animation time in nanoseconds
+     */
+    public static long currentAnimationTimeNanos() {
         AnimationState state = sAnimationState.get();
         if (state.animationClockLocked) {
             // It's important that time never rewinds
-            return Math.max(state.currentVsyncTimeMillis,
-                    state.lastReportedTimeMillis);
+            return Math.max(state.currentVsyncTimeNanos,
+                    state.lastReportedTimeNanos);
         }
-        state.lastReportedTimeMillis = Core.timeMillis();
-        return state.lastReportedTimeMillis;
+        state.lastReportedTimeNanos = Core.timeNanos();
+        return state.lastReportedTimeNanos;
     }
 
     private AnimationUtils() {
@@ -148,11 +148,11 @@ public final class AnimatorSet extends Animator implements AnimationHandler.Fram
     // it became necessary to use an sdk target guard for calling end().
     private final boolean mEndCanBeCalled;
 
-    // The time, in milliseconds, when last frame of the animation came in. -1 when the animation is
+    // The time, in nanoseconds, when last frame of the animation came in. -1 when the animation is
     // not running.
     private long mLastFrameTime = -1;
 
-    // The time, in milliseconds, when the first frame of the animation came in. This is the
+    // The time, in nanoseconds, when the first frame of the animation came in. This is the
     // frame before we start counting down the start delay, if any.
     // -1 when the animation is not running.
     private long mFirstFrame = -1;
@@ -407,14 +407,14 @@ public final class AnimatorSet extends Animator implements AnimationHandler.Fram
         // the case of developer calling end(), we still need to make sure end() is explicitly
         // called on the child animators to maintain the old behavior.
         if (mReversing) {
-            handleAnimationEvents(mLastEventId, 0, getTotalDuration());
+            handleAnimationEvents(mLastEventId, 0, getTotalDuration() * 1000000);
         } else {
             long zeroScalePlayTime = getTotalDuration();
             if (zeroScalePlayTime == DURATION_INFINITE) {
                 // Use a large number for the play time.
                 zeroScalePlayTime = Integer.MAX_VALUE;
             }
-            handleAnimationEvents(mLastEventId, mEvents.size() - 1, zeroScalePlayTime);
+            handleAnimationEvents(mLastEventId, mEvents.size() - 1, zeroScalePlayTime * 1000000);
         }
         mPlayingSet.clear();
         endAnimation();
@@ -915,9 +915,9 @@ public final class AnimatorSet extends Animator implements AnimationHandler.Fram
         float durationScale = ValueAnimator.sDurationScale;
         durationScale = durationScale == 0 ? 1 : durationScale;
         if (mReversing) {
-            return (long) ((mLastFrameTime - mFirstFrame) / durationScale);
+            return (long) ((mLastFrameTime - mFirstFrame) / durationScale / 1000000);
         } else {
-            return (long) ((mLastFrameTime - mFirstFrame - mStartDelay) / durationScale);
+            return (long) ((mLastFrameTime - mFirstFrame - mStartDelay * 1000000) / durationScale / 1000000);
         }
     }
 
@@ -932,7 +932,7 @@ public final class AnimatorSet extends Animator implements AnimationHandler.Fram
     }
 
     /**
-     * @param frameTime The frame start time, in the {@link Core#timeMillis()} time base
+     * @param frameTime The frame start time, in the {@link Core#timeNanos()} time base
      * @hide
      */
     @Override
@@ -968,37 +968,37 @@ public final class AnimatorSet extends Animator implements AnimationHandler.Fram
         if (mSeekState.isActive()) {
             mSeekState.updateSeekDirection(mReversing);
             if (mReversing) {
-                mFirstFrame = (long) (frameTime - mSeekState.getPlayTime() * durationScale);
+                mFirstFrame = (long) (frameTime - mSeekState.getPlayTime() * 1000000 * (double) durationScale);
             } else {
                 mFirstFrame = (long) (frameTime - (mSeekState.getPlayTime() + mStartDelay)
-                        * durationScale);
+                        * 1000000 * (double) durationScale);
             }
             mSeekState.reset();
         }
 
-        if (!mReversing && frameTime < mFirstFrame + mStartDelay * durationScale) {
+        if (!mReversing && frameTime < mFirstFrame + mStartDelay * 1000000 * (double) durationScale) {
             // Still during start delay in a forward playing case.
             return false;
         }
 
         // From here on, we always use unscaled play time. Note this unscaled playtime includes
-        // the start delay.
-        long unscaledPlayTime = (long) ((frameTime - mFirstFrame) / durationScale);
+        // the start delay. Events are in milliseconds, while children are pulsed in nanoseconds.
+        long unscaledPlayTimeNanos = (long) ((frameTime - mFirstFrame) / (double) durationScale);
         mLastFrameTime = frameTime;
 
         // 1. Pulse the animators that will start or end in this frame
         // 2. Pulse the animators that will finish in a later frame
-        int latestId = findLatestEventIdForTime(unscaledPlayTime);
+        int latestId = findLatestEventIdForTime(unscaledPlayTimeNanos / 1000000);
         int startId = mLastEventId;
 
-        handleAnimationEvents(startId, latestId, unscaledPlayTime);
+        handleAnimationEvents(startId, latestId, unscaledPlayTimeNanos);
 
         mLastEventId = latestId;
 
         // Pump a frame to the on-going animators
         for (Node node : mPlayingSet) {
             if (!node.mEnded) {
-                pulseFrame(node, getPlayTimeForNode(unscaledPlayTime, node));
+                pulseFrame(node, getPlayTimeNanosForNode(unscaledPlayTimeNanos, node));
             }
         }
 
@@ -1047,8 +1047,10 @@ public final class AnimatorSet extends Animator implements AnimationHandler.Fram
      * <p>
      * When playing in reverse, we should reverse the animation when we hit animation's end event,
      * and expect the animation to end at the its delay ended event, rather than start event.
+     *
+     * @param playTimeNanos unscaled play time (including start delay) in nanoseconds
      */
-    private void handleAnimationEvents(int startId, int latestId, long playTime) {
+    private void handleAnimationEvents(int startId, int latestId, long playTimeNanos) {
         if (mReversing) {
             startId = startId == -1 ? mEvents.size() : startId;
             for (int i = startId - 1; i >= latestId; i--) {
@@ -1068,7 +1070,7 @@ public final class AnimatorSet extends Animator implements AnimationHandler.Fram
                     pulseFrame(node, 0);
                 } else if (event.mEvent == AnimationEvent.ANIMATION_DELAY_ENDED && !node.mEnded) {
                     // end event:
-                    pulseFrame(node, getPlayTimeForNode(playTime, node));
+                    pulseFrame(node, getPlayTimeNanosForNode(playTimeNanos, node));
                 }
             }
         } else {
@@ -1089,7 +1091,7 @@ public final class AnimatorSet extends Animator implements AnimationHandler.Fram
                     pulseFrame(node, 0);
                 } else if (event.mEvent == AnimationEvent.ANIMATION_END && !node.mEnded) {
                     // start event:
-                    pulseFrame(node, getPlayTimeForNode(playTime, node));
+                    pulseFrame(node, getPlayTimeNanosForNode(playTimeNanos, node));
                 }
             }
         }
@@ -1100,21 +1102,18 @@ public final class AnimatorSet extends Animator implements AnimationHandler.Fram
      * with the duration scale and pass that to the child animation via pulseAnimationFrame(long).
      *
      * @param node         child animator node
-     * @param animPlayTime unscaled play time (including start delay) for the child animator
+     * @param animPlayTime unscaled play time (including start delay) for the child animator,
+     *                     in nanoseconds
      */
     private void pulseFrame(@Nonnull Node node, long animPlayTime) {
         if (!node.mEnded) {
             float durationScale = ValueAnimator.sDurationScale;
             durationScale = durationScale == 0 ? 1 : durationScale;
             node.mEnded = node.mAnimation.pulseAnimationFrame(
-                    (long) (animPlayTime * durationScale));
+                    (long) (animPlayTime * (double) durationScale));
         }
     }
 
-    private long getPlayTimeForNode(long overallPlayTime, Node node) {
-        return getPlayTimeForNode(overallPlayTime, node, mReversing);
-    }
-
     private long getPlayTimeForNode(long overallPlayTime, Node node, boolean inReverse) {
         if (inReverse) {
             overallPlayTime = getTotalDuration() - overallPlayTime;
@@ -1124,6 +1123,16 @@ public final class AnimatorSet extends Animator implements AnimationHandler.Fram
         }
     }
 
+    // same as getPlayTimeForNode() but in nanoseconds, node times are still in milliseconds
+    private long getPlayTimeNanosForNode(long overallPlayTimeNanos, Node node) {
+        if (mReversing) {
+            overallPlayTimeNanos = getTotalDuration() * 1000000 - overallPlayTimeNanos;
+            return node.mEndTime * 1000000 - overallPlayTimeNanos;
+        } else {
+            return overallPlayTimeNanos - node.mStartTime * 1000000;
+        }
+    }
+
     private void startAnimation() {
         addAnimationEndListener();
 
@@ -1170,7 +1179,7 @@ public final class AnimatorSet extends Animator implements AnimationHandler.Fram
                 playTime = 0;
             }
             int toId = findLatestEventIdForTime(playTime);
-            handleAnimationEvents(-1, toId, playTime);
+            handleAnimationEvents(-1, toId, playTime * 1000000);
             for (int i = mPlayingSet.size() - 1; i >= 0; i--) {
                 if (mPlayingSet.get(i).mEnded) {
                     mPlayingSet.remove(i);
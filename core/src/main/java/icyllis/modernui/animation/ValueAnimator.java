@@ -19,6 +19,7 @@
 package icyllis.modernui.animation;
 
 import icyllis.modernui.annotation.CallSuper;
+import icyllis.modernui.core.Core;
 import icyllis.modernui.core.Looper;
 import org.jetbrains.annotations.ApiStatus;
 
@@ -160,7 +161,7 @@ public class ValueAnimator extends Animator implements AnimationHandler.FrameCal
     /**
      * The first time that the animation's animateFrame() method is called. This time is used to
      * determine elapsed time (and therefore the elapsed fraction) in subsequent calls
-     * to animateFrame().
+     * to animateFrame(). In nanoseconds, in the {@link Core#timeNanos()} time base.
      * <p>
      * Whenever mStartTime is set, you must also update mStartTimeCommitted.
      */
@@ -169,7 +170,7 @@ public class ValueAnimator extends Animator implements AnimationHandler.FrameCal
     /**
      * Set on the next frame after pause() is called, used to calculate a new startTime
      * or delayStartTime which allows the animator to continue from the point at which
-     * it was paused. If negative, has not yet been set.
+     * it was paused. If negative, has not yet been set. In nanoseconds.
      */
     private long mPauseTime;
 
@@ -228,7 +229,7 @@ public class ValueAnimator extends Animator implements AnimationHandler.FrameCal
     private float mCurrentFraction = 0f;
 
     /**
-     * Tracks the time (in milliseconds) when the last frame arrived.
+     * Tracks the time (in nanoseconds) when the last frame arrived.
      */
     private long mLastFrameTime = -1;
 
@@ -409,8 +410,8 @@ public class ValueAnimator extends Animator implements AnimationHandler.FrameCal
         return this;
     }
 
-    private long getScaledDuration() {
-        return (long) (mDuration * sDurationScale);
+    private long getScaledDurationNanos() {
+        return (long) (mDuration * 1000000 * (double) sDurationScale);
     }
 
     /**
@@ -477,8 +478,8 @@ public class ValueAnimator extends Animator implements AnimationHandler.FrameCal
         fraction = clampFraction(fraction);
         mStartTimeCommitted = true; // do not allow start time to be compensated for jank
         if (isPulsingInternal()) {
-            long seekTime = (long) (getScaledDuration() * fraction);
-            long currentTime = AnimationUtils.currentAnimationTimeMillis();
+            long seekTime = (long) (getScaledDurationNanos() * (double) fraction);
+            long currentTime = AnimationUtils.currentAnimationTimeNanos();
             // Only modify the start time when the animation is running. Seek fraction will ensure
             // non-running animations skip to the correct start time.
             mStartTime = currentTime - seekTime;
@@ -577,7 +578,7 @@ public class ValueAnimator extends Animator implements AnimationHandler.FrameCal
         if (durationScale == 0f) {
             durationScale = 1f;
         }
-        return (long) ((AnimationUtils.currentAnimationTimeMillis() - mStartTime) / durationScale);
+        return (long) ((AnimationUtils.currentAnimationTimeNanos() - mStartTime) / durationScale / 1000000);
     }
 
     @Override
@@ -942,9 +943,9 @@ public class ValueAnimator extends Animator implements AnimationHandler.FrameCal
     @Override
     public void reverse() {
         if (isPulsingInternal()) {
-            long currentTime = AnimationUtils.currentAnimationTimeMillis();
+            long currentTime = AnimationUtils.currentAnimationTimeNanos();
             long currentPlayTime = currentTime - mStartTime;
-            long timeLeft = getScaledDuration() - currentPlayTime;
+            long timeLeft = getScaledDurationNanos() - currentPlayTime;
             mStartTime = currentTime - timeLeft;
             mStartTimeCommitted = true; // do not allow start time to be compensated for jank
             mReversing = !mReversing;
@@ -1019,6 +1020,8 @@ public class ValueAnimator extends Animator implements AnimationHandler.FrameCal
     /**
      * Applies an adjustment to the animation to compensate for jank between when
      * the animation first ran and when the frame was drawn.
+     *
+     * @param frameTime the frame time, in the {@link Core#timeNanos()} time base
      */
     public void commitAnimationFrame(long frameTime) {
         if (!mStartTimeCommitted) {
@@ -1038,16 +1041,17 @@ public class ValueAnimator extends Animator implements AnimationHandler.FrameCal
      * should be ended (which happens when the elapsed time of the animation exceeds the
      * animation's duration, including the repeatCount).
      *
-     * @param currentTime The current time, as tracked by the static timing handler
+     * @param currentTime The current time in nanoseconds, as tracked by the static timing handler
      * @return true if the animation's duration, including any repetitions due to
      * <code>repeatCount</code> has been exceeded and the animation should be ended.
      */
     boolean animateBasedOnTime(long currentTime) {
         boolean done = false;
         if (mRunning) {
-            final long scaledDuration = getScaledDuration();
+            final long scaledDuration = getScaledDurationNanos();
+            // use double precision, the play time may be longer than float's integer range
             final float fraction = scaledDuration > 0 ?
-                    (float) (currentTime - mStartTime) / scaledDuration : 1f;
+                    (float) ((double) (currentTime - mStartTime) / scaledDuration) : 1f;
             final float lastFraction = mOverallFraction;
             final boolean newIteration = (int) fraction > (int) lastFraction;
             final boolean lastIterationFinished = (fraction >= mRepeatCount + 1) &&
@@ -1142,7 +1146,7 @@ public class ValueAnimator extends Animator implements AnimationHandler.FrameCal
     /**
      * Processes a frame of the animation, adjusting the start time if needed.
      *
-     * @param frameTime The frame time.
+     * @param frameTime The frame time, in the {@link Core#timeNanos()} time base.
      * @return true if the animation has ended.
      */
     @Override
@@ -1152,7 +1156,7 @@ public class ValueAnimator extends Animator implements AnimationHandler.FrameCal
             // frame.
             mStartTime = mReversing
                     ? frameTime
-                    : frameTime + (long) (mStartDelay * sDurationScale);
+                    : frameTime + (long) (mStartDelay * 1000000 * (double) sDurationScale);
         }
 
         // Handle pause/resume
@@ -1186,7 +1190,7 @@ public class ValueAnimator extends Animator implements AnimationHandler.FrameCal
 
         if (mLastFrameTime < 0) {
             if (mSeekFraction >= 0) {
-                long seekTime = (long) (getScaledDuration() * mSeekFraction);
+                long seekTime = (long) (getScaledDurationNanos() * (double) mSeekFraction);
                 mStartTime = frameTime - seekTime;
                 mSeekFraction = -1;
             }
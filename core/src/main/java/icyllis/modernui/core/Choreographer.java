@@ -148,6 +148,14 @@ public final class Choreographer {
     private long mLastFrameTimeNanos;
     private long mTimestampNanos;
 
+    // the refresh period of the display, 0 if unknown
+    private long mFrameIntervalNanos;
+    // whether the last frame has scheduled the next frame, such as running animations
+    private boolean mFrameContinued;
+
+    private final FrameHistogram mFrameIntervalHistogram = new FrameHistogram();
+    private final FrameHistogram mFrameDurationHistogram = new FrameHistogram();
+
     private Choreographer(@Nonnull Looper looper) {
         mHandler = new Handler(looper, this::handleMessage);
 
@@ -350,6 +358,53 @@ public final class Choreographer {
         }
     }
 
+    /**
+     * Sets the refresh period of the display. If known, the frame time is aligned to
+     * whole refresh periods, so that animations advance evenly on every vsync even if
+     * the timestamps from render thread jitter. Pass 0 to disable the alignment.
+     *
+     * @param frameIntervalNanos the refresh period in nanoseconds, or 0 if unknown
+     */
+    public void setFrameIntervalNanos(long frameIntervalNanos) {
+        synchronized (mLock) {
+            mFrameIntervalNanos = Math.max(frameIntervalNanos, 0);
+        }
+    }
+
+    /**
+     * @return the refresh period of the display in nanoseconds, or 0 if unknown
+     * @see #setFrameIntervalNanos(long)
+     */
+    public long getFrameIntervalNanos() {
+        synchronized (mLock) {
+            return mFrameIntervalNanos;
+        }
+    }
+
+    /**
+     * Returns the histogram of intervals between frame times of consecutive frames. Only
+     * the frames that are continuously scheduled (such as running animations) are counted,
+     * so idle time is not included. On a smooth display, the intervals are all close to the
+     * refresh period.
+     *
+     * @return the frame interval histogram
+     */
+    @Nonnull
+    public FrameHistogram getFrameIntervalHistogram() {
+        return mFrameIntervalHistogram;
+    }
+
+    /**
+     * Returns the histogram of time spent running the callbacks of each frame on the looper
+     * thread, including input, animation, traversal and commit.
+     *
+     * @return the frame duration histogram
+     */
+    @Nonnull
+    public FrameHistogram getFrameDurationHistogram() {
+        return mFrameDurationHistogram;
+    }
+
     /**
      * Schedule a frame on render thread.
      *
@@ -366,6 +421,16 @@ public final class Choreographer {
             if (timestampNanos > now) {
                 timestampNanos = now;
             }
+            final long interval = mFrameIntervalNanos;
+            final long last = mLastFrameTimeNanos;
+            if (interval > 0 && last > 0 && timestampNanos > last) {
+                // snap to the vsync grid of the last frame, rounding to the nearest period
+                final long frames = Math.max((timestampNanos - last + (interval >> 1)) / interval, 1);
+                final long aligned = last + frames * interval;
+                // let the grid slowly follow real timestamps to absorb the drift of the period,
+                // the jitter is attenuated by 16 times
+                timestampNanos = Math.min(aligned + ((timestampNanos - aligned) >> 4), now);
+            }
             mTimestampNanos = timestampNanos;
 
             if (DEBUG_FRAMES) {
@@ -373,7 +438,7 @@ public final class Choreographer {
             }
             Message msg = mHandler.obtainMessage(MSG_DO_FRAME);
             msg.setAsynchronous(true);
-            mHandler.sendMessageAtTime(msg, timestampNanos / 1000000);
+            mHandler.sendMessageAtTimeNanos(msg, timestampNanos);
         }
     }
 
@@ -400,11 +465,15 @@ public final class Choreographer {
                     return;
                 }
 
+                if (mFrameContinued) {
+                    mFrameIntervalHistogram.record(frameTimeNanos - mLastFrameTimeNanos);
+                }
+
                 mFrameScheduled = false;
                 mLastFrameTimeNanos = frameTimeNanos;
             }
 
-            AnimationUtils.lockAnimationClock(frameTimeNanos / 1000000);
+            AnimationUtils.lockAnimationClock(frameTimeNanos);
 
             doCallbacks(Choreographer.CALLBACK_INPUT, frameTimeNanos);
 
@@ -417,8 +486,14 @@ public final class Choreographer {
             AnimationUtils.unlockAnimationClock();
         }
 
+        final long endNanos = Core.timeNanos();
+        mFrameDurationHistogram.record(endNanos - startNanos);
+        synchronized (mLock) {
+            // callbacks have requested the next frame
+            mFrameContinued = mFrameScheduled;
+        }
+
         if (DEBUG_FRAMES) {
-            final long endNanos = Core.timeNanos();
             LOGGER.info(MARKER, "Frame : Finished, took "
                     + (endNanos - startNanos) * 0.000001f + " ms, latency "
                     + (startNanos - frameTimeNanos) * 0.000001f + " ms.");
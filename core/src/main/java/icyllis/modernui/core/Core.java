@@ -37,7 +37,9 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import static icyllis.modernui.ModernUI.*;
 import static org.lwjgl.system.MemoryUtil.*;
@@ -59,6 +61,19 @@ public final class Core {
     private static final ConcurrentLinkedQueue<Runnable> sMainCalls = new ConcurrentLinkedQueue<>();
     private static final ConcurrentLinkedQueue<Runnable> sRenderCalls = new ConcurrentLinkedQueue<>();
 
+    private static volatile TaskExecutor sIoExecutor;
+    private static volatile TaskExecutor sComputeExecutor;
+
+    private static final Executor sUiThreadExecutor = r -> {
+        final Handler handler = sUiHandlerAsync;
+        if (handler == null) {
+            throw new RejectedExecutionException("UI thread was never initialized");
+        }
+        if (!handler.post(r)) {
+            throw new RejectedExecutionException("UI event loop is quitting");
+        }
+    };
+
     private Core() {
     }
 
@@ -358,6 +373,136 @@ public final class Core {
         return sUiHandlerAsync;
     }
 
+    /**
+     * Returns an executor that posts tasks to the shared async UI handler, so that results of
+     * background work can be handed back to UI thread, for example
+     * {@code future.thenAcceptAsync(result -> ..., Core.getUiThreadExecutor())}.
+     * Tasks are rejected if UI thread is not initialized or its event loop is quitting.
+     *
+     * @return the UI thread executor
+     * @see #getUiHandlerAsync()
+     */
+    @Nonnull
+    public static Executor getUiThreadExecutor() {
+        return sUiThreadExecutor;
+    }
+
+    /**
+     * Returns the shared executor for background work that mostly blocks, such as file I/O
+     * and decoding resources. Each task runs on a new virtual thread if the runtime supports
+     * them (Java 21 or above), otherwise on a cached pool of daemon threads. Do not use this
+     * for long computation, see {@link #getComputeExecutor()}.
+     *
+     * @return the shared I/O executor
+     */
+    @Nonnull
+    public static TaskExecutor getIoExecutor() {
+        if (sIoExecutor == null) {
+            synchronized (Core.class) {
+                if (sIoExecutor == null) {
+                    sIoExecutor = new TaskExecutor("IO", createIoExecutor());
+                }
+            }
+        }
+        return sIoExecutor;
+    }
+
+    @Nonnull
+    private static ExecutorService createIoExecutor() {
+        try {
+            // the project targets Java 17, look up the factory at runtime
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOGGER.info(MARKER, "Using virtual threads for I/O tasks");
+            return executor;
+        } catch (ReflectiveOperationException ignored) {
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "ModernUI-IO-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the shared executor for CPU-bound background work, such as text measurement
+     * and glyph rasterization. The pool is bounded to the number of available processors
+     * minus one, leaving room for UI thread and render thread. Tasks should not block.
+     *
+     * @return the shared compute executor
+     */
+    @Nonnull
+    public static TaskExecutor getComputeExecutor() {
+        if (sComputeExecutor == null) {
+            synchronized (Core.class) {
+                if (sComputeExecutor == null) {
+                    sComputeExecutor = new TaskExecutor("Compute", createComputeExecutor());
+                }
+            }
+        }
+        return sComputeExecutor;
+    }
+
+    @Nonnull
+    private static ExecutorService createComputeExecutor() {
+        final int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("ModernUI-Compute-" + t.getPoolIndex());
+            return t;
+        }, (t, e) -> LOGGER.error(MARKER, "Uncaught exception on {}", t.getName(), e),
+                true, 0, parallelism, 1, pool -> true, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs a task on the given executor, returns a future that completes with its result.
+     * The cancellation is propagated in both directions if a signal is given:
+     * <ul>
+     *     <li>If the signal is canceled before the task starts, the task will not run.
+     *     The task can also call {@link CancellationSignal#throwIfCanceled()} at any time.
+     *     In both cases, the future is canceled rather than completed exceptionally.</li>
+     *     <li>If the future is canceled, the signal is canceled as well, so that the task
+     *     can stop early.</li>
+     * </ul>
+     * Use {@link #getUiThreadExecutor()} with the returned future to deliver the result
+     * to UI thread.
+     *
+     * @param supplier           the task
+     * @param executor           the executor to run the task, such as {@link #getIoExecutor()}
+     * @param cancellationSignal the signal to cancel the task, or null
+     * @param <T>                the result type
+     * @return a future that completes with the result of the task
+     */
+    @Nonnull
+    public static <T> CompletableFuture<T> supplyAsync(@Nonnull Supplier<T> supplier,
+                                                       @Nonnull Executor executor,
+                                                       @Nullable CancellationSignal cancellationSignal) {
+        if (cancellationSignal == null) {
+            return CompletableFuture.supplyAsync(supplier, executor);
+        }
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.whenComplete((__, e) -> {
+            if (future.isCancelled()) {
+                cancellationSignal.cancel();
+            }
+        });
+        executor.execute(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                cancellationSignal.throwIfCanceled();
+                future.complete(supplier.get());
+            } catch (OperationCanceledException e) {
+                future.cancel(false);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
     /**
      * Returns the current value of GLFW's highest-resolution monotonic time source,
      * in nanoseconds. The resolution of the timer is system dependent, but is usually
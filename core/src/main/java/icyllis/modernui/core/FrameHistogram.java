@@ -0,0 +1,148 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.core;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * A histogram of frame times, in buckets of 0.1 milliseconds up to 100 milliseconds.
+ * Longer times are counted in an overflow bucket. It's used by {@link Choreographer}
+ * to track frame pacing, and can be read from any thread.
+ *
+ * @see Choreographer#getFrameIntervalHistogram()
+ * @see Choreographer#getFrameDurationHistogram()
+ * @since 3.4
+ */
+public final class FrameHistogram {
+
+    /**
+     * The width of a bucket, in nanoseconds.
+     */
+    public static final long BUCKET_NANOS = 100_000;
+
+    private static final int BUCKET_COUNT = 1000;
+
+    // the last one is the overflow bucket
+    private final int[] mBuckets = new int[BUCKET_COUNT + 1];
+
+    private long mCount;
+    private long mTotalNanos;
+    private long mMinNanos = Long.MAX_VALUE;
+    private long mMaxNanos;
+
+    FrameHistogram() {
+    }
+
+    synchronized void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        mBuckets[(int) Math.min(nanos / BUCKET_NANOS, BUCKET_COUNT)]++;
+        mCount++;
+        mTotalNanos += nanos;
+        mMinNanos = Math.min(mMinNanos, nanos);
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+    }
+
+    /**
+     * @return the number of frames recorded
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the mean frame time in nanoseconds, or 0 if empty
+     */
+    public synchronized long getMeanNanos() {
+        return mCount == 0 ? 0 : mTotalNanos / mCount;
+    }
+
+    /**
+     * @return the minimum frame time in nanoseconds, or 0 if empty
+     */
+    public synchronized long getMinNanos() {
+        return mCount == 0 ? 0 : mMinNanos;
+    }
+
+    /**
+     * @return the maximum frame time in nanoseconds, or 0 if empty
+     */
+    public synchronized long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * Returns the frame time that the given percentage of frames are not longer than.
+     * The result is the upper bound of the bucket, but no more than the maximum.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the frame time in nanoseconds, or 0 if empty
+     */
+    public synchronized long getPercentileNanos(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        final long target = (long) Math.ceil(mCount * Math.min(Math.max(percentile, 0), 100) / 100);
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mBuckets[i];
+            if (count >= target && count > 0) {
+                return Math.min((i + 1) * BUCKET_NANOS, mMaxNanos);
+            }
+        }
+        return mMaxNanos;
+    }
+
+    /**
+     * Returns the number of frames that are longer than the given time, which is rounded
+     * down to the bucket width. For frame intervals, this counts janky frames if the time
+     * is more than a refresh period.
+     *
+     * @param nanos the frame time in nanoseconds
+     * @return the number of frames
+     */
+    public synchronized long getCountAbove(long nanos) {
+        long count = 0;
+        for (int i = (int) Math.min(Math.max(nanos, 0) / BUCKET_NANOS + 1, BUCKET_COUNT); i <= BUCKET_COUNT; i++) {
+            count += mBuckets[i];
+        }
+        return count;
+    }
+
+    /**
+     * Clears all the recorded frames.
+     */
+    public synchronized void reset() {
+        Arrays.fill(mBuckets, 0);
+        mCount = 0;
+        mTotalNanos = 0;
+        mMinNanos = Long.MAX_VALUE;
+        mMaxNanos = 0;
+    }
+
+    @Nonnull
+    @Override
+    public synchronized String toString() {
+        return String.format("FrameHistogram{count=%d, mean=%.2fms, p50=%.1fms, p90=%.1fms, p99=%.1fms, max=%.2fms}",
+                mCount, getMeanNanos() / 1.0E6, getPercentileNanos(50) / 1.0E6, getPercentileNanos(90) / 1.0E6,
+                getPercentileNanos(99) / 1.0E6, getMaxNanos() / 1.0E6);
+    }
+}
@@ -21,6 +21,7 @@ package icyllis.modernui.core;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A Handler allows you to send and process {@link Message} and Runnable
@@ -272,6 +273,24 @@ public class Handler {
         return sendMessageAtTime(getPostMessage(r), timeMillis);
     }
 
+    /**
+     * Causes the Runnable r to be added to the message queue, to be run
+     * at a specific time given by <var>timeNanos</var>.
+     * <b>The time-base is {@link Core#timeNanos}.</b>
+     * The runnable will be run on the thread to which this handler is attached.
+     *
+     * @param r         The Runnable that will be executed.
+     * @param timeNanos The absolute time at which the callback should run,
+     *                  using the {@link Core#timeNanos} time-base.
+     * @return Returns true if the Runnable was successfully placed in to the
+     * message queue.  Returns false on failure, usually because the
+     * looper processing the message queue is exiting.
+     * @see #postAtTime(Runnable, long)
+     */
+    public final boolean postAtTimeNanos(@Nonnull Runnable r, long timeNanos) {
+        return sendMessageAtTimeNanos(getPostMessage(r), timeNanos);
+    }
+
     /**
      * Causes the Runnable r to be added to the message queue, to be run
      * at a specific time given by <var>timeMillis</var>.
@@ -443,10 +462,14 @@ public class Handler {
      * occurs then the message will be dropped.
      */
     public final boolean sendMessageDelayed(@Nonnull Message msg, long delayMillis) {
-        if (delayMillis < 0) {
-            delayMillis = 0;
+        if (delayMillis <= 0) {
+            // lock-free, the common case of posting from other threads
+            return enqueueMessageNow(msg);
         }
-        return sendMessageAtTime(msg, Core.timeMillis() + delayMillis);
+        // computed in nanoseconds, so that the delay is not truncated to milliseconds
+        final long now = Core.timeNanos();
+        final long when = now + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        return enqueueMessage(msg, when < now ? Long.MAX_VALUE : when);
     }
 
     /**
@@ -468,7 +491,26 @@ public class Handler {
      * occurs then the message will be dropped.
      */
     public final boolean sendMessageAtTime(@Nonnull Message msg, long timeMillis) {
-        return enqueueMessage(msg, timeMillis);
+        return enqueueMessage(msg, TimeUnit.MILLISECONDS.toNanos(timeMillis));
+    }
+
+    /**
+     * Enqueue a message into the message queue after all pending messages
+     * before the absolute time (in nanoseconds) <var>timeNanos</var>.
+     * <b>The time-base is {@link Core#timeNanos}.</b>
+     * You will receive it in {@link #handleMessage}, in the thread attached
+     * to this handler.
+     *
+     * @param timeNanos The absolute time at which the message should be
+     *                  delivered, using the
+     *                  {@link Core#timeNanos} time-base.
+     * @return Returns true if the message was successfully placed in to the
+     * message queue.  Returns false on failure, usually because the
+     * looper processing the message queue is exiting.
+     * @see #sendMessageAtTime(Message, long)
+     */
+    public final boolean sendMessageAtTimeNanos(@Nonnull Message msg, long timeNanos) {
+        return enqueueMessage(msg, timeNanos);
     }
 
     /**
@@ -487,12 +529,20 @@ public class Handler {
         return enqueueMessage(msg, 0);
     }
 
-    private boolean enqueueMessage(@Nonnull Message msg, long timeMillis) {
+    private boolean enqueueMessage(@Nonnull Message msg, long timeNanos) {
+        msg.target = this;
+        if (mAsynchronous) {
+            msg.setAsynchronous(true);
+        }
+        return mQueue.enqueueMessage(msg, timeNanos);
+    }
+
+    private boolean enqueueMessageNow(@Nonnull Message msg) {
         msg.target = this;
         if (mAsynchronous) {
             msg.setAsynchronous(true);
         }
-        return mQueue.enqueueMessage(msg, timeMillis);
+        return mQueue.enqueueMessageNow(msg);
     }
 
     /**
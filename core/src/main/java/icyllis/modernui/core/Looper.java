@@ -151,12 +151,12 @@ public final class Looper {
         }
         if (logSlowDelivery) {
             if (me.mSlowDeliveryDetected) {
-                if (dispatchStart - msg.when <= 10) {
+                if (dispatchStart - msg.getWhen() <= 10) {
                     ModernUI.LOGGER.warn(MARKER, "Drained");
                     me.mSlowDeliveryDetected = false;
                 }
             } else {
-                if (showSlowLog(slowDeliveryThresholdMs, msg.when, dispatchStart, "delivery", msg)) {
+                if (showSlowLog(slowDeliveryThresholdMs, msg.getWhen(), dispatchStart, "delivery", msg)) {
                     // Once we write a slow delivery log, suppress until the queue drains.
                     me.mSlowDeliveryDetected = true;
                 }
@@ -63,11 +63,17 @@ public final class Message {
     int flags;
 
     /**
-     * The targeted delivery time of this message. The time-base is
-     * {@link Core#timeMillis()}.
+     * The targeted delivery time of this message, in nanoseconds. The time-base is
+     * {@link Core#timeNanos()}, 0 means the front of the queue.
      */
     long when;
 
+    // the enqueue order among messages with the same delivery time
+    long sequence;
+
+    // the index in the heap of the message queue, -1 if not enqueued
+    int heapIndex = -1;
+
     Handler target;
 
     Runnable callback;
@@ -75,31 +81,61 @@ public final class Message {
     // sometimes we store linked lists of these things
     Message next;
 
-    private static final Object sPoolSync = new Object();
-    private static Message sPool;
-    private static int sPoolSize = 0;
-
+    // the maximum pool size of each stripe
     private static final int MAX_POOL_SIZE = 50;
 
+    // The global pool is striped by threads to reduce contention, a power of two.
+    // Messages are usually obtained by posting threads and recycled by looper threads,
+    // so a thread takes messages from other stripes if its own stripe is empty.
+    private static final Pool[] sPools;
+
+    static {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < processors && stripes < 16) {
+            stripes <<= 1;
+        }
+        sPools = new Pool[stripes];
+        for (int i = 0; i < stripes; i++) {
+            sPools[i] = new Pool();
+        }
+    }
+
     /**
      * Return a new Message instance from the global pool. Allows us to
      * avoid allocating new objects in many cases.
      */
     @Nonnull
     public static Message obtain() {
-        synchronized (sPoolSync) {
-            if (sPool != null) {
-                Message m = sPool;
-                sPool = m.next;
-                m.next = null;
-                m.flags = 0; // clear in-use flag
-                sPoolSize--;
-                return m;
+        final Pool[] pools = sPools;
+        final int mask = pools.length - 1;
+        final int start = stripe();
+        for (int i = 0; i <= mask; i++) {
+            final Pool pool = pools[(start + i) & mask];
+            // racy check to skip empty stripes without locking
+            if (pool.mHead == null) {
+                continue;
+            }
+            synchronized (pool) {
+                final Message m = pool.mHead;
+                if (m != null) {
+                    pool.mHead = m.next;
+                    m.next = null;
+                    m.flags = 0; // clear in-use flag
+                    pool.mSize--;
+                    return m;
+                }
             }
         }
         return new Message();
     }
 
+    // the pool stripe of the current thread
+    private static int stripe() {
+        int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (sPools.length - 1);
+    }
+
     /**
      * Same as {@link #obtain()}, but copies the values of an existing
      * message (including its target) into the new one.
@@ -258,22 +294,34 @@ public final class Message {
         arg2 = 0;
         obj = null;
         when = 0;
+        sequence = 0;
+        heapIndex = -1;
         target = null;
         callback = null;
 
-        synchronized (sPoolSync) {
-            if (sPoolSize < MAX_POOL_SIZE) {
-                next = sPool;
-                sPool = this;
-                sPoolSize++;
+        final Pool pool = sPools[stripe()];
+        synchronized (pool) {
+            if (pool.mSize < MAX_POOL_SIZE) {
+                next = pool.mHead;
+                pool.mHead = this;
+                pool.mSize++;
             }
         }
     }
 
     /**
      * Return the targeted delivery time of this message, in milliseconds.
+     * The time-base is {@link Core#timeMillis()}.
      */
     public long getWhen() {
+        return when / 1_000_000;
+    }
+
+    /**
+     * Return the targeted delivery time of this message, in nanoseconds.
+     * The time-base is {@link Core#timeNanos()}.
+     */
+    public long getWhenNanos() {
         return when;
     }
 
@@ -371,7 +419,7 @@ public final class Message {
     String toString(long now) {
         StringBuilder b = new StringBuilder();
         b.append("{ when=");
-        b.append(when - now);
+        b.append(getWhen() - now);
 
         if (target != null) {
             if (callback != null) {
@@ -407,4 +455,10 @@ public final class Message {
         b.append(" }");
         return b.toString();
     }
+
+    private static final class Pool {
+
+        Message mHead;
+        int mSize;
+    }
 }
@@ -27,7 +27,10 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
 
 /**
  * Low-level class holding the list of messages to be dispatched by a
@@ -36,6 +39,17 @@ import java.util.concurrent.locks.LockSupport;
  *
  * <p>You can retrieve the MessageQueue for the current thread with
  * {@link Looper#myQueue() Looper.myQueue()}.
+ *
+ * <p>Messages are kept in binary heaps ordered by their delivery time in nanoseconds
+ * and then by the order they were enqueued, so enqueueing and dequeueing are O(log n).
+ * Synchronous messages, asynchronous messages and barriers are in separate heaps, so
+ * the next asynchronous message can be found without scanning when the queue is stalled
+ * by a barrier. The delivery order is the same as a single sorted list.
+ *
+ * <p>Messages to be delivered immediately are pushed to a lock-free inbox instead, so
+ * that threads posting to a looper never contend for the lock with the looper thread.
+ * The inbox is drained in a batch before any operation that reads or modifies the
+ * heaps, so messages posted by a thread are still ordered with respect to one another.
  */
 public final class MessageQueue {
 
@@ -46,17 +60,32 @@ public final class MessageQueue {
     private final Thread mThread;
 
     @GuardedBy("this")
-    Message mMessages;
+    private final MessageHeap mMessages = new MessageHeap();
+    @GuardedBy("this")
+    private final MessageHeap mAsyncMessages = new MessageHeap();
+    @GuardedBy("this")
+    private final MessageHeap mBarriers = new MessageHeap();
+
+    // The enqueue order of messages with the same delivery time.
+    // Messages posted at the front of the queue count down, so the last posted is the first.
+    @GuardedBy("this")
+    private long mNextSequence;
+    @GuardedBy("this")
+    private long mNextFrontSequence = -1;
+
+    // Immediate messages posted without the lock, a stack linked by Message.next.
+    // The most recently posted is the first, multiple producers and single consumer.
+    private final AtomicReference<Message> mInbox = new AtomicReference<>();
     @GuardedBy("this")
     private final ArrayList<IdleHandler> mIdleHandlers = new ArrayList<>();
     private IdleHandler[] mPendingIdleHandlers;
-    @GuardedBy("this")
-    private boolean mQuitting;
+    // written with the lock held, read without the lock by posting threads
+    private volatile boolean mQuitting;
     private volatile boolean mPolling;
 
     // Indicates whether next() is blocked waiting in pollOnce() with a non-zero timeout.
-    @GuardedBy("this")
-    private boolean mBlocked;
+    // Written with the lock held, read without the lock by posting threads.
+    private volatile boolean mBlocked;
     private boolean mDisposed;
 
     // The next barrier token.
@@ -78,8 +107,9 @@ public final class MessageQueue {
      */
     public boolean isIdle() {
         synchronized (this) {
-            final long now = Core.timeMillis();
-            return mMessages == null || now < mMessages.when;
+            drainInboxLocked();
+            final Message head = peekLocked();
+            return head == null || Core.timeNanos() < head.when;
         }
     }
 
@@ -140,17 +170,17 @@ public final class MessageQueue {
             return null;
         }
         int pendingIdleHandlerCount = -1; // -1 only during first iteration
-        int nextPollTimeoutMillis = 0;
+        long nextPollTimeoutNanos = 0;
         for (;;) {
             if (mWindow != null) {
                 // Handling main thread
                 mPolling = true;
-                if (nextPollTimeoutMillis < 0) {
+                if (nextPollTimeoutNanos < 0) {
                     GLFW.glfwWaitEvents();
-                } else if (nextPollTimeoutMillis == 0) {
+                } else if (nextPollTimeoutNanos == 0) {
                     GLFW.glfwPollEvents();
                 } else {
-                    GLFW.glfwWaitEventsTimeout(nextPollTimeoutMillis / 1000D);
+                    GLFW.glfwWaitEventsTimeout(nextPollTimeoutNanos / 1.0E9);
                 }
                 mPolling = false;
 
@@ -162,46 +192,39 @@ public final class MessageQueue {
             } else {
                 // Blocking
                 mPolling = true;
-                if (nextPollTimeoutMillis < 0) {
+                if (nextPollTimeoutNanos < 0) {
                     LockSupport.park();
-                } else if (nextPollTimeoutMillis > 0) {
-                    LockSupport.parkNanos(nextPollTimeoutMillis * 1000L);
+                } else if (nextPollTimeoutNanos > 0) {
+                    LockSupport.parkNanos(nextPollTimeoutNanos);
                 }
                 mPolling = false;
             }
 
             synchronized (this) {
+                drainInboxLocked();
                 // Try to retrieve the next message.  Return if found.
-                final long now = Core.timeMillis();
-                Message prevMsg = null;
-                Message msg = mMessages;
+                final long now = Core.timeNanos();
+                final Message head = peekLocked();
+                Message msg = head;
                 if (msg != null && msg.target == null) {
                     // Stalled by a barrier.  Find the next asynchronous message in the queue.
-                    do {
-                        prevMsg = msg;
-                        msg = msg.next;
-                    } while (msg != null && !msg.isAsynchronous());
+                    msg = mAsyncMessages.peek();
                 }
                 if (msg != null) {
                     if (now < msg.when) {
                         // Next message is not ready.  Set a timeout to wake up when it is ready.
-                        nextPollTimeoutMillis = (int) Math.min(msg.when - now, Integer.MAX_VALUE);
+                        nextPollTimeoutNanos = msg.when - now;
                     } else {
                         // Got a message.
                         mBlocked = false;
-                        if (prevMsg != null) {
-                            prevMsg.next = msg.next;
-                        } else {
-                            mMessages = msg.next;
-                        }
-                        msg.next = null;
+                        heapOf(msg).remove(msg);
                         if (DEBUG) ModernUI.LOGGER.info(MARKER, "Returning message: " + msg);
                         msg.markInUse();
                         return msg;
                     }
                 } else {
                     // No more messages.
-                    nextPollTimeoutMillis = -1;
+                    nextPollTimeoutNanos = -1;
                 }
 
                 // Process the quit message now that all pending messages have been handled.
@@ -214,12 +237,16 @@ public final class MessageQueue {
                 // Idle handles only run if the queue is empty or if the first message
                 // in the queue (possibly a barrier) is due to be handled in the future.
                 if (pendingIdleHandlerCount < 0
-                        && (mMessages == null || now < mMessages.when)) {
+                        && (head == null || now < head.when)) {
                     pendingIdleHandlerCount = mIdleHandlers.size();
                 }
                 if (pendingIdleHandlerCount <= 0) {
                     // No idle handlers to run.  Loop and wait some more.
                     mBlocked = true;
+                    if (mInbox.get() != null) {
+                        // Posted after draining, the poster may not have seen us blocked.
+                        nextPollTimeoutNanos = 0;
+                    }
                     continue;
                 }
 
@@ -254,7 +281,7 @@ public final class MessageQueue {
 
             // While calling an idle handler, a new message could have been delivered
             // so go back and look again for a pending message without waiting.
-            nextPollTimeoutMillis = 0;
+            nextPollTimeoutNanos = 0;
         }
     }
 
@@ -268,6 +295,7 @@ public final class MessageQueue {
                 return;
             }
             mQuitting = true;
+            drainInboxLocked();
 
             if (safe) {
                 removeAllFutureMessagesLocked();
@@ -299,30 +327,18 @@ public final class MessageQueue {
      * passed to {@link #removeSyncBarrier} to release the barrier.
      */
     public int postSyncBarrier() {
-        final long when = Core.timeMillis();
+        final long when = Core.timeNanos();
         // Enqueue a new sync barrier token.
         // We don't need to wake the queue because the purpose of a barrier is to stall it.
         synchronized (this) {
+            drainInboxLocked();
             final int token = mNextBarrierToken++;
             final Message msg = Message.obtain();
             msg.markInUse();
             msg.when = when;
+            msg.sequence = mNextSequence++;
             msg.arg1 = token;
-
-            Message prev = null;
-            Message p = mMessages;
-            if (when != 0) {
-                while (p != null && p.when <= when) {
-                    prev = p;
-                    p = p.next;
-                }
-            }
-            msg.next = p;
-            if (prev != null) { // invariant: p == prev.next
-                prev.next = msg;
-            } else {
-                mMessages = msg;
-            }
+            mBarriers.add(msg);
             return token;
         }
     }
@@ -338,38 +354,45 @@ public final class MessageQueue {
         // Remove a sync barrier token from the queue.
         // If the queue is no longer stalled by a barrier then wake it.
         synchronized (this) {
-            Message prev = null;
-            Message p = mMessages;
-            while (p != null && (p.target != null || p.arg1 != token)) {
-                prev = p;
-                p = p.next;
+            drainInboxLocked();
+            final MessageHeap barriers = mBarriers;
+            Message p = null;
+            for (int i = 0, e = barriers.size(); i < e; i++) {
+                if (barriers.get(i).arg1 == token) {
+                    p = barriers.get(i);
+                    break;
+                }
             }
             if (p == null) {
                 throw new IllegalStateException("The specified message queue synchronization "
                         + " barrier token has not been posted or has already been removed.");
             }
+            final boolean wasHead = peekLocked() == p;
+            barriers.remove(p);
             final boolean needWake;
-            if (prev != null) {
-                prev.next = p.next;
-                needWake = false;
+            if (wasHead) {
+                final Message head = peekLocked();
+                needWake = head == null || head.target != null;
             } else {
-                mMessages = p.next;
-                needWake = mMessages == null || mMessages.target != null;
+                needWake = false;
             }
             p.recycleUnchecked();
 
             // If the loop is quitting then it is already awake.
             // We can assume mDisposed is false because mQuitting is false.
             if (needWake && !mQuitting) {
-                if (mWindow != null) {
-                    GLFW.glfwPostEmptyEvent();
-                } else {
-                    LockSupport.unpark(mThread);
-                }
+                wake();
             }
         }
     }
 
+    /**
+     * Enqueues a message to be delivered at the given time.
+     *
+     * @param msg  the message with a target
+     * @param when the delivery time in the {@link Core#timeNanos()} time-base,
+     *             or 0 to deliver before all pending messages
+     */
     boolean enqueueMessage(@Nonnull Message msg, long when) {
         if (msg.target == null) {
             throw new IllegalArgumentException("Message must have a target.");
@@ -388,117 +411,129 @@ public final class MessageQueue {
                 return false;
             }
 
+            // messages posted to the inbox before are enqueued first
+            drainInboxLocked();
             msg.markInUse();
             msg.when = when;
-            Message p = mMessages;
+            msg.sequence = when == 0 ? mNextFrontSequence-- : mNextSequence++;
+            final Message p = peekLocked();
+            heapOf(msg).add(msg);
             boolean needWake;
-            if (p == null || when == 0 || when < p.when) {
+            if (p == null || isBefore(msg, p)) {
                 // New head, wake up the event queue if blocked.
-                msg.next = p;
-                mMessages = msg;
                 needWake = mBlocked;
             } else {
                 // Inserted within the middle of the queue.  Usually we don't have to wake
                 // up the event queue unless there is a barrier at the head of the queue
                 // and the message are the earliest asynchronous message in the queue.
-                needWake = mBlocked && p.target == null && msg.isAsynchronous();
-                Message prev;
-                for (;;) {
-                    prev = p;
-                    p = p.next;
-                    if (p == null || when < p.when) {
-                        break;
-                    }
-                    if (needWake && p.isAsynchronous()) {
-                        needWake = false;
-                    }
-                }
-                msg.next = p; // invariant: p == prev.next
-                prev.next = msg;
+                needWake = mBlocked && p.target == null && msg.isAsynchronous()
+                        && mAsyncMessages.peek() == msg;
             }
 
             // We can assume mDisposed is false because mQuitting is false.
             if (needWake) {
-                if (mWindow != null) {
-                    GLFW.glfwPostEmptyEvent();
-                } else {
-                    LockSupport.unpark(mThread);
-                }
+                wake();
             }
         }
         return true;
     }
 
+    /**
+     * Enqueues a message to be delivered as soon as possible, after all pending messages
+     * that are due. This pushes the message to the inbox without acquiring the lock.
+     *
+     * @param msg the message with a target
+     */
+    boolean enqueueMessageNow(@Nonnull Message msg) {
+        if (msg.target == null) {
+            throw new IllegalArgumentException("Message must have a target.");
+        }
+        if (msg.isInUse()) {
+            throw new IllegalStateException(msg + " This message is already in use.");
+        }
+        if (mQuitting) {
+            // reports and recycles it
+            return enqueueMessage(msg, Core.timeNanos());
+        }
+
+        msg.markInUse();
+        msg.when = Core.timeNanos();
+        final AtomicReference<Message> inbox = mInbox;
+        Message head;
+        do {
+            head = inbox.get();
+            msg.next = head;
+        } while (!inbox.compareAndSet(head, msg));
+
+        // Only the first message since the last drain needs to wake up the event queue,
+        // the looper checks the inbox again after it's marked as blocked.
+        if (head == null && mBlocked) {
+            wake();
+        }
+        return true;
+    }
+
+    // moves the messages in the inbox to the heaps, in the order they were posted
+    @GuardedBy("this")
+    private void drainInboxLocked() {
+        Message p = mInbox.getAndSet(null);
+        if (p == null) {
+            return;
+        }
+        Message prev = null;
+        do {
+            final Message n = p.next;
+            p.next = prev;
+            prev = p;
+            p = n;
+        } while (p != null);
+        p = prev;
+        do {
+            final Message n = p.next;
+            p.next = null;
+            p.sequence = mNextSequence++;
+            heapOf(p).add(p);
+            p = n;
+        } while (p != null);
+    }
+
+    private void wake() {
+        if (mWindow != null) {
+            GLFW.glfwPostEmptyEvent();
+        } else {
+            LockSupport.unpark(mThread);
+        }
+    }
+
     boolean hasMessages(Handler h, int what, Object object) {
         if (h == null) {
             return false;
         }
 
         synchronized (this) {
-            Message p = mMessages;
-            while (p != null) {
-                if (p.target == h && p.what == what && (object == null || p.obj == object)) {
-                    return true;
-                }
-                p = p.next;
-            }
-            return false;
+            drainInboxLocked();
+            return anyMatchLocked(p -> p.target == h && p.what == what && (object == null || p.obj == object));
         }
     }
 
     boolean hasMessages(@Nonnull Handler h, Runnable r) {
         synchronized (this) {
-            Message p = mMessages;
-            while (p != null) {
-                if (p.target == h && p.callback == r) {
-                    return true;
-                }
-                p = p.next;
-            }
-            return false;
+            drainInboxLocked();
+            return anyMatchLocked(p -> p.target == h && p.callback == r);
         }
     }
 
     boolean hasMessages(@Nonnull Handler h) {
         synchronized (this) {
-            Message p = mMessages;
-            while (p != null) {
-                if (p.target == h) {
-                    return true;
-                }
-                p = p.next;
-            }
-            return false;
+            drainInboxLocked();
+            return anyMatchLocked(p -> p.target == h);
         }
     }
 
     void removeMessages(@Nonnull Handler h, int what, Object object) {
         synchronized (this) {
-            Message p = mMessages;
-
-            // Remove all messages at front.
-            while (p != null && p.target == h && p.what == what
-                    && (object == null || p.obj == object)) {
-                Message n = p.next;
-                mMessages = n;
-                p.recycleUnchecked();
-                p = n;
-            }
-
-            // Remove all messages after front.
-            while (p != null) {
-                Message n = p.next;
-                if (n != null) {
-                    if (n.target == h && n.what == what
-                            && (object == null || n.obj == object)) {
-                        Message nn = n.next;
-                        n.recycleUnchecked();
-                        p.next = nn;
-                        continue;
-                    }
-                }
-                p = n;
-            }
+            drainInboxLocked();
+            removeLocked(p -> p.target == h && p.what == what && (object == null || p.obj == object));
         }
     }
 
@@ -508,98 +543,183 @@ public final class MessageQueue {
         }
 
         synchronized (this) {
-            Message p = mMessages;
-
-            // Remove all messages at front.
-            while (p != null && p.target == h && p.callback == r
-                    && (object == null || p.obj == object)) {
-                Message n = p.next;
-                mMessages = n;
-                p.recycleUnchecked();
-                p = n;
+            drainInboxLocked();
+            removeLocked(p -> p.target == h && p.callback == r && (object == null || p.obj == object));
+        }
+    }
+
+    void removeCallbacksAndMessages(@Nonnull Handler h, Object object) {
+        synchronized (this) {
+            drainInboxLocked();
+            removeLocked(p -> p.target == h && (object == null || p.obj == object));
+        }
+    }
+
+    private void removeAllMessagesLocked() {
+        mMessages.removeIf(p -> true);
+        mAsyncMessages.removeIf(p -> true);
+        mBarriers.removeIf(p -> true);
+    }
+
+    private void removeAllFutureMessagesLocked() {
+        final long now = Core.timeNanos();
+        final Predicate<Message> filter = p -> p.when > now;
+        mMessages.removeIf(filter);
+        mAsyncMessages.removeIf(filter);
+        mBarriers.removeIf(filter);
+    }
+
+    // barriers have no target, so they never match handler filters
+    private boolean anyMatchLocked(@Nonnull Predicate<Message> filter) {
+        return mMessages.anyMatch(filter) || mAsyncMessages.anyMatch(filter);
+    }
+
+    private void removeLocked(@Nonnull Predicate<Message> filter) {
+        mMessages.removeIf(filter);
+        mAsyncMessages.removeIf(filter);
+    }
+
+    // the heap that contains or will contain the message
+    @Nonnull
+    private MessageHeap heapOf(@Nonnull Message msg) {
+        if (msg.target == null) {
+            return mBarriers;
+        }
+        return msg.isAsynchronous() ? mAsyncMessages : mMessages;
+    }
+
+    // the first message in delivery order, possibly a barrier
+    @Nullable
+    private Message peekLocked() {
+        Message head = mMessages.peek();
+        Message p = mAsyncMessages.peek();
+        if (p != null && (head == null || isBefore(p, head))) {
+            head = p;
+        }
+        p = mBarriers.peek();
+        if (p != null && (head == null || isBefore(p, head))) {
+            head = p;
+        }
+        return head;
+    }
+
+    static boolean isBefore(@Nonnull Message a, @Nonnull Message b) {
+        return a.when < b.when || (a.when == b.when && a.sequence < b.sequence);
+    }
+
+    /**
+     * A binary min-heap of messages in delivery order, each message records its index.
+     */
+    private static final class MessageHeap {
+
+        private Message[] mHeap = new Message[16];
+        private int mSize;
+
+        int size() {
+            return mSize;
+        }
+
+        @Nonnull
+        Message get(int index) {
+            return mHeap[index];
+        }
+
+        @Nullable
+        Message peek() {
+            return mSize == 0 ? null : mHeap[0];
+        }
+
+        void add(@Nonnull Message msg) {
+            if (mSize == mHeap.length) {
+                mHeap = Arrays.copyOf(mHeap, mSize << 1);
             }
+            siftUp(mSize++, msg);
+        }
 
-            // Remove all messages after front.
-            while (p != null) {
-                Message n = p.next;
-                if (n != null) {
-                    if (n.target == h && n.callback == r
-                            && (object == null || n.obj == object)) {
-                        Message nn = n.next;
-                        n.recycleUnchecked();
-                        p.next = nn;
-                        continue;
-                    }
+        void remove(@Nonnull Message msg) {
+            final int i = msg.heapIndex;
+            assert mHeap[i] == msg;
+            msg.heapIndex = -1;
+            final int s = --mSize;
+            final Message last = mHeap[s];
+            mHeap[s] = null;
+            if (i != s) {
+                siftDown(i, last);
+                if (mHeap[i] == last) {
+                    siftUp(i, last);
                 }
-                p = n;
             }
         }
-    }
 
-    void removeCallbacksAndMessages(@Nonnull Handler h, Object object) {
-        synchronized (this) {
-            Message p = mMessages;
-
-            // Remove all messages at front.
-            while (p != null && p.target == h
-                    && (object == null || p.obj == object)) {
-                Message n = p.next;
-                mMessages = n;
-                p.recycleUnchecked();
-                p = n;
+        boolean anyMatch(@Nonnull Predicate<Message> filter) {
+            for (int i = 0; i < mSize; i++) {
+                if (filter.test(mHeap[i])) {
+                    return true;
+                }
             }
+            return false;
+        }
 
-            // Remove all messages after front.
-            while (p != null) {
-                Message n = p.next;
-                if (n != null) {
-                    if (n.target == h && (object == null || n.obj == object)) {
-                        Message nn = n.next;
-                        n.recycleUnchecked();
-                        p.next = nn;
-                        continue;
-                    }
+        // recycles the removed messages, then restores the heap order in linear time
+        void removeIf(@Nonnull Predicate<Message> filter) {
+            final Message[] heap = mHeap;
+            final int size = mSize;
+            int j = 0;
+            for (int i = 0; i < size; i++) {
+                final Message p = heap[i];
+                if (filter.test(p)) {
+                    p.heapIndex = -1;
+                    p.recycleUnchecked();
+                } else {
+                    heap[j] = p;
+                    p.heapIndex = j++;
                 }
-                p = n;
+            }
+            if (j == size) {
+                return;
+            }
+            Arrays.fill(heap, j, size, null);
+            mSize = j;
+            for (int i = (j >>> 1) - 1; i >= 0; i--) {
+                siftDown(i, heap[i]);
             }
         }
-    }
 
-    private void removeAllMessagesLocked() {
-        Message p = mMessages;
-        while (p != null) {
-            Message n = p.next;
-            p.recycleUnchecked();
-            p = n;
+        private void siftUp(int k, @Nonnull Message msg) {
+            final Message[] heap = mHeap;
+            while (k > 0) {
+                final int parent = (k - 1) >>> 1;
+                final Message e = heap[parent];
+                if (!isBefore(msg, e)) {
+                    break;
+                }
+                heap[k] = e;
+                e.heapIndex = k;
+                k = parent;
+            }
+            heap[k] = msg;
+            msg.heapIndex = k;
         }
-        mMessages = null;
-    }
 
-    private void removeAllFutureMessagesLocked() {
-        final long now = Core.timeMillis();
-        Message p = mMessages;
-        if (p != null) {
-            if (p.when > now) {
-                removeAllMessagesLocked();
-            } else {
-                Message n;
-                for (;;) {
-                    n = p.next;
-                    if (n == null) {
-                        return;
-                    }
-                    if (n.when > now) {
-                        break;
-                    }
-                    p = n;
+        private void siftDown(int k, @Nonnull Message msg) {
+            final Message[] heap = mHeap;
+            final int half = mSize >>> 1;
+            while (k < half) {
+                int child = (k << 1) + 1;
+                Message c = heap[child];
+                final int right = child + 1;
+                if (right < mSize && isBefore(heap[right], c)) {
+                    c = heap[child = right];
                 }
-                p.next = null;
-                do {
-                    p = n;
-                    n = p.next;
-                    p.recycleUnchecked();
-                } while (n != null);
+                if (!isBefore(c, msg)) {
+                    break;
+                }
+                heap[k] = c;
+                c.heapIndex = k;
+                k = child;
             }
+            heap[k] = msg;
+            msg.heapIndex = k;
         }
     }
 
@@ -272,10 +272,25 @@ public final class NativeImage implements AutoCloseable {
      */
     @Nonnull
     public static NativeImage decode(@Nullable Format format, @Nonnull ReadableByteChannel channel) throws IOException {
+        return decode(format, channel, 0, 0);
+    }
+
+    /**
+     * Decodes an image from channel, and reduces it for the given display size, see
+     * {@link #downsample(int, int)}. This method closes the channel automatically.
+     *
+     * @param format       the format to convert to, or {@code null} to use format in file
+     * @param channel      input channel
+     * @param targetWidth  the display width in pixels, or 0 to keep the full size
+     * @param targetHeight the display height in pixels, or 0 to keep the full size
+     */
+    @Nonnull
+    public static NativeImage decode(@Nullable Format format, @Nonnull ReadableByteChannel channel,
+                                     int targetWidth, int targetHeight) throws IOException {
         ByteBuffer p = null;
         try (channel) {
             p = Core.readBuffer(channel);
-            return decode(format, p.rewind());
+            return decode(format, p.rewind(), targetWidth, targetHeight);
         } finally {
             MemoryUtil.memFree(p);
         }
@@ -289,10 +304,25 @@ public final class NativeImage implements AutoCloseable {
      */
     @Nonnull
     public static NativeImage decode(@Nullable Format format, @Nonnull InputStream stream) throws IOException {
+        return decode(format, stream, 0, 0);
+    }
+
+    /**
+     * Decodes an image from input stream, and reduces it for the given display size, see
+     * {@link #downsample(int, int)}. This method closes the input stream automatically.
+     *
+     * @param format       the format to convert to, or {@code null} to use format in file
+     * @param stream       input stream
+     * @param targetWidth  the display width in pixels, or 0 to keep the full size
+     * @param targetHeight the display height in pixels, or 0 to keep the full size
+     */
+    @Nonnull
+    public static NativeImage decode(@Nullable Format format, @Nonnull InputStream stream,
+                                     int targetWidth, int targetHeight) throws IOException {
         ByteBuffer p = null;
         try (stream) {
             p = Core.readBuffer(stream);
-            return decode(format, p.rewind());
+            return decode(format, p.rewind(), targetWidth, targetHeight);
         } finally {
             MemoryUtil.memFree(p);
         }
@@ -316,6 +346,109 @@ public final class NativeImage implements AutoCloseable {
         }
     }
 
+    // this method doesn't close/free the buffer
+    @Nonnull
+    public static NativeImage decode(@Nullable Format format, @Nonnull ByteBuffer buffer,
+                                     int targetWidth, int targetHeight) throws IOException {
+        final NativeImage image = decode(format, buffer);
+        final NativeImage result = image.downsample(targetWidth, targetHeight);
+        if (result != image) {
+            // free the full size one now, it can be large
+            image.close();
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new image of half the size, rounded down but at least 1. Each pixel is
+     * the average of a 2x2 box of this image, the last row or column of an odd size is
+     * dropped, as mipmap generation does.
+     *
+     * @return the new image
+     */
+    @Nonnull
+    public NativeImage downsample() {
+        checkReleased();
+        final int srcWidth = mWidth;
+        final int srcHeight = mHeight;
+        final int width = Math.max(1, srcWidth >> 1);
+        final int height = Math.max(1, srcHeight >> 1);
+        final int channels = mFormat.channels;
+        final NativeImage image = new NativeImage(mFormat, width, height, false);
+
+        final ByteBuffer src = memByteBuffer(mRef.mPixels, getSize());
+        final ByteBuffer dst = memByteBuffer(image.mRef.mPixels, image.getSize());
+        final int srcStride = srcWidth * channels;
+        // a dimension of 1 pixel is not halved, sample the same pixel twice
+        final int dx = srcWidth > 1 ? channels : 0;
+        final int dy = srcHeight > 1 ? srcStride : 0;
+        final int step = channels << 1;
+        final int rowBytes = width * channels;
+        for (int y = 0, o = 0; y < height; y++, o += rowBytes) {
+            final int row = y * (srcStride << 1);
+            // channels of a pixel are contiguous, the inner loops have no branches
+            for (int x = 0; x < width; x++) {
+                final int s = row + x * step;
+                final int d = o + x * channels;
+                for (int c = 0; c < channels; c++) {
+                    final int a = s + c;
+                    final int sum = (src.get(a) & 0xFF) + (src.get(a + dx) & 0xFF) +
+                            (src.get(a + dy) & 0xFF) + (src.get(a + dx + dy) & 0xFF);
+                    dst.put(d + c, (byte) ((sum + 2) >> 2));
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Reduces this image by powers of two, as long as it still covers the given display
+     * size in both dimensions, so that it can be sampled without losing details. This is
+     * the same as the sample size of decoders on Android. This image is not closed.
+     *
+     * @param targetWidth  the display width in pixels, or 0 to keep the full size
+     * @param targetHeight the display height in pixels, or 0 to keep the full size
+     * @return the reduced image, or this image if not reduced
+     */
+    @Nonnull
+    public NativeImage downsample(int targetWidth, int targetHeight) {
+        checkReleased();
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return this;
+        }
+        NativeImage image = this;
+        while ((image.mWidth >> 1) >= targetWidth && (image.mHeight >> 1) >= targetHeight) {
+            final NativeImage next = image.downsample();
+            if (image != this) {
+                image.close();
+            }
+            image = next;
+        }
+        return image;
+    }
+
+    /**
+     * Creates the mipmap chain of this image on the CPU, from level 1 to the given max level
+     * or until 1x1, each level is {@link #downsample()} of the previous one. The sizes are the
+     * same as texture storage levels, so they can be uploaded without generating mipmaps on
+     * the GPU.
+     *
+     * @param maxLevel the max mipmap level
+     * @return the images of level 1 to max level, may be empty
+     */
+    @Nonnull
+    public NativeImage[] createMipmaps(int maxLevel) {
+        checkReleased();
+        // floor(log2(max(width, height))), the number of levels after level 0
+        final int levels = Math.min(maxLevel, 31 - Integer.numberOfLeadingZeros(Math.max(mWidth, mHeight)));
+        final NativeImage[] mipmaps = new NativeImage[Math.max(levels, 0)];
+        NativeImage image = this;
+        for (int i = 0; i < mipmaps.length; i++) {
+            mipmaps[i] = image = image.downsample();
+        }
+        return mipmaps;
+    }
+
     @Nonnull
     public Format getFormat() {
         return mFormat;
@@ -0,0 +1,118 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.core;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A shared executor for background work, obtained from {@link Core#getIoExecutor()} or
+ * {@link Core#getComputeExecutor()}. It counts the tasks passing through it, so that
+ * the background load of all sub-systems can be observed in one place. The counters are
+ * for diagnostics only, they are not updated atomically with respect to each other.
+ *
+ * @since 3.4
+ */
+public final class TaskExecutor implements Executor {
+
+    private final String mName;
+    private final Executor mExecutor;
+
+    private final LongAdder mSubmittedCount = new LongAdder();
+    private final LongAdder mCompletedCount = new LongAdder();
+    private final AtomicInteger mActiveCount = new AtomicInteger();
+
+    TaskExecutor(@Nonnull String name, @Nonnull Executor executor) {
+        mName = name;
+        mExecutor = executor;
+    }
+
+    @Override
+    public void execute(@Nonnull Runnable command) {
+        Objects.requireNonNull(command);
+        mSubmittedCount.increment();
+        try {
+            mExecutor.execute(() -> run(command));
+        } catch (RejectedExecutionException e) {
+            mSubmittedCount.decrement();
+            throw e;
+        }
+    }
+
+    private void run(@Nonnull Runnable command) {
+        mActiveCount.incrementAndGet();
+        try {
+            command.run();
+        } finally {
+            mActiveCount.decrementAndGet();
+            mCompletedCount.increment();
+        }
+    }
+
+    /**
+     * @return the name of this executor
+     */
+    @Nonnull
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return the total number of tasks ever submitted
+     */
+    public long getSubmittedTaskCount() {
+        return mSubmittedCount.sum();
+    }
+
+    /**
+     * @return the total number of tasks that have finished, normally or not
+     */
+    public long getCompletedTaskCount() {
+        return mCompletedCount.sum();
+    }
+
+    /**
+     * @return the approximate number of tasks that are running
+     */
+    public int getActiveTaskCount() {
+        return mActiveCount.get();
+    }
+
+    /**
+     * @return the approximate number of tasks that are waiting to run
+     */
+    public long getPendingTaskCount() {
+        return Math.max(0, mSubmittedCount.sum() - mCompletedCount.sum() - mActiveCount.get());
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+        return "TaskExecutor{" +
+                "name=" + mName +
+                ", submitted=" + getSubmittedTaskCount() +
+                ", active=" + getActiveTaskCount() +
+                ", completed=" + getCompletedTaskCount() +
+                '}';
+    }
+}
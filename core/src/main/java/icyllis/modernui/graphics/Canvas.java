@@ -791,4 +791,17 @@ public abstract class Canvas {
      * @param paint the paint used to draw the text, only color will be taken
      */
     public abstract void drawTextRun(@Nonnull LayoutPiece piece, float x, float y, @Nonnull TextPaint paint);
+
+    /**
+     * Draws the given RenderNode with its render properties applied. The display list of
+     * the node must be recorded, otherwise nothing will be drawn.
+     * <p>
+     * A recording canvas records a reference to the node, so that the node can be
+     * recorded again without recording this canvas again.
+     *
+     * @param node the render node to draw
+     */
+    public void drawRenderNode(@Nonnull RenderNode node) {
+        node.draw(this);
+    }
 }
@@ -24,6 +24,7 @@ import icyllis.modernui.opengl.TextureManager;
 import org.jetbrains.annotations.ApiStatus;
 
 import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class is associated with an OpenGL 2D texture object or a Vulkan 2D image object,
@@ -59,6 +60,38 @@ public class Image {
                 TextureManager.CACHE_MASK | TextureManager.MIPMAP_MASK));
     }
 
+    /**
+     * Creates a new image object representing the target resource image asynchronously.
+     * The resource is decoded on a background thread, the returned future completes on
+     * render thread when the image is ready to draw. See {@link #create(String, String)}.
+     *
+     * @param ns      the application namespace
+     * @param subPath the sub path to the resource
+     * @return a future of the image
+     */
+    @Nonnull
+    public static CompletableFuture<Image> createAsync(@Nonnull String ns, @Nonnull String subPath) {
+        return TextureManager.getInstance().getOrCreateAsync(ns, "textures/" + subPath,
+                TextureManager.CACHE_MASK | TextureManager.MIPMAP_MASK).thenApply(Image::new);
+    }
+
+    /**
+     * Creates a new image object representing the target resource image asynchronously,
+     * reduced for the given display size. See {@link #createAsync(String, String)}.
+     *
+     * @param ns      the application namespace
+     * @param subPath the sub path to the resource
+     * @param width   the display width in pixels, or 0 to keep the full size
+     * @param height  the display height in pixels, or 0 to keep the full size
+     * @return a future of the image
+     */
+    @Nonnull
+    public static CompletableFuture<Image> createAsync(@Nonnull String ns, @Nonnull String subPath,
+                                                       int width, int height) {
+        return TextureManager.getInstance().getOrCreateAsync(ns, "textures/" + subPath,
+                TextureManager.CACHE_MASK | TextureManager.MIPMAP_MASK, width, height).thenApply(Image::new);
+    }
+
     /**
      * Returns the backing texture.
      *
@@ -0,0 +1,1092 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.graphics;
+
+import icyllis.modernui.core.Core;
+import icyllis.modernui.core.NativeImage;
+import icyllis.modernui.graphics.font.GlyphManager;
+import icyllis.modernui.graphics.font.GlyphMask;
+import icyllis.modernui.graphics.font.LayoutCache;
+import icyllis.modernui.graphics.font.LayoutPiece;
+import icyllis.modernui.math.MathUtil;
+import icyllis.modernui.math.Matrix4;
+import icyllis.modernui.math.Rect;
+import icyllis.modernui.math.RectF;
+import icyllis.modernui.text.TextPaint;
+import icyllis.modernui.util.Pool;
+import icyllis.modernui.util.Pools;
+import icyllis.modernui.view.Gravity;
+import icyllis.modernui.view.MeasureSpec;
+import icyllis.modernui.view.View;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.awt.Font;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import static org.lwjgl.system.MemoryUtil.memGetByte;
+import static org.lwjgl.system.MemoryUtil.memPutByte;
+
+/**
+ * A Canvas that rasterizes drawing operations on the CPU into a 32-bit pixel buffer,
+ * without a graphics context. It can be used to render views headlessly, such as
+ * for tests, thumbnails, or servers.
+ * <p>
+ * Geometries are rendered with the same analytic coverage functions as the shaders of
+ * the GPU canvas, evaluated at pixel centers in local coordinates, so the results are
+ * close to what's on screen. Large geometries are split into bands of scanlines that
+ * are rasterized in parallel.
+ * <p>
+ * Clipping uses the device-space bounding box of transformed rectangles. Layers are
+ * pushed by {@link #saveLayer(float, float, float, float, int)} only if the alpha is
+ * less than 255, and they are always as large as the clip bounds at that time.
+ * <p>
+ * Images backed by textures can only be read on the render thread, otherwise they are
+ * skipped, use {@link #drawNativeImage(NativeImage, float, float, float, float, float,
+ * float, float, float, Paint)} to draw images in memory instead.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @since 3.4
+ */
+public final class RasterCanvas extends Canvas {
+
+    // rows per parallel task
+    private static final int BAND_HEIGHT = 32;
+
+    // minimum pixels to rasterize in parallel
+    private static final int PARALLEL_THRESHOLD = 16384;
+
+    private final int mWidth;
+    private final int mHeight;
+
+    // premultiplied ARGB
+    private final int[] mPixels;
+
+    // local MC stack, the first is the top
+    private final ArrayDeque<Save> mSaves = new ArrayDeque<>();
+    private final Pool<Save> mSavePool = Pools.simple(20);
+
+    // free layer buffers, each is as large as this canvas
+    private final ArrayDeque<int[]> mLayerPool = new ArrayDeque<>();
+
+    private final Matrix4 mInverse = new Matrix4();
+    private final Rect mTmpRect = new Rect();
+    private final RectF mTmpRectF = new RectF();
+
+    /**
+     * Creates a raster canvas whose pixels are initialized to transparent.
+     *
+     * @param width  the width in pixels
+     * @param height the height in pixels
+     */
+    public RasterCanvas(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mPixels = new int[width * height];
+        Save s = new Save();
+        s.mClip.set(0, 0, width, height);
+        s.mTarget = mPixels;
+        mSaves.push(s);
+    }
+
+    /**
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Resets the clip bounds and matrix to root, discarding unrestored layers.
+     */
+    public void reset() {
+        while (mSaves.size() > 1) {
+            releaseSave(mSaves.pop());
+        }
+        Save s = mSaves.element();
+        s.mClip.set(0, 0, mWidth, mHeight);
+        s.mMatrix.setIdentity();
+    }
+
+    /**
+     * Fills the entire canvas with the given color, ignoring the clip and layers.
+     *
+     * @param color the color in ARGB
+     */
+    public void clear(int color) {
+        Arrays.fill(mPixels, premul(color, 1));
+    }
+
+    /**
+     * Returns the color of a pixel.
+     *
+     * @param x the x coordinate in pixels
+     * @param y the y coordinate in pixels
+     * @return the color in ARGB, not premultiplied
+     */
+    public int getPixel(int x, int y) {
+        if (x < 0 || x >= mWidth || y < 0 || y >= mHeight) {
+            throw new IndexOutOfBoundsException("(" + x + ", " + y + ")");
+        }
+        return unpremul(mPixels[y * mWidth + x]);
+    }
+
+    /**
+     * Copies the pixels of this canvas into a native image of the same size.
+     *
+     * @param image the destination image, in RGBA or RGB format
+     */
+    public void readPixels(@Nonnull NativeImage image) {
+        if (image.getWidth() != mWidth || image.getHeight() != mHeight) {
+            throw new IllegalArgumentException("Size mismatch " + image.getWidth() + "x" + image.getHeight());
+        }
+        final NativeImage.Format format = image.getFormat();
+        if (format != NativeImage.Format.RGBA && format != NativeImage.Format.RGB) {
+            throw new IllegalArgumentException("Unsupported format " + format);
+        }
+        final int channels = format.channels;
+        long p = image.getPixels();
+        for (int color : mPixels) {
+            color = unpremul(color);
+            memPutByte(p, (byte) (color >> 16));
+            memPutByte(p + 1, (byte) (color >> 8));
+            memPutByte(p + 2, (byte) color);
+            if (channels == 4) {
+                memPutByte(p + 3, (byte) (color >>> 24));
+            }
+            p += channels;
+        }
+    }
+
+    /**
+     * Creates a native image in RGBA format with the pixels of this canvas.
+     *
+     * @return the created native image
+     */
+    @Nonnull
+    public NativeImage toNativeImage() {
+        NativeImage image = new NativeImage(NativeImage.Format.RGBA, mWidth, mHeight, false);
+        readPixels(image);
+        return image;
+    }
+
+    /**
+     * Measures, lays out and draws a view hierarchy that fills this canvas.
+     *
+     * @param view the root view
+     */
+    public void drawView(@Nonnull View view) {
+        view.measure(MeasureSpec.makeMeasureSpec(mWidth, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(mHeight, MeasureSpec.EXACTLY));
+        view.layout(0, 0, mWidth, mHeight);
+        drawRenderNode(view.updateDisplayListIfDirty());
+    }
+
+    @Nonnull
+    private Save getSave() {
+        return mSaves.element();
+    }
+
+    @Nonnull
+    private Save obtainSave() {
+        Save s = mSavePool.acquire();
+        if (s == null) {
+            s = new Save();
+        }
+        s.set(getSave());
+        return s;
+    }
+
+    private void releaseSave(@Nonnull Save s) {
+        if (s.mLayerAlpha >= 0) {
+            mLayerPool.push(s.mTarget);
+        }
+        s.mTarget = null;
+        s.mLayerAlpha = -1;
+        mSavePool.release(s);
+    }
+
+    @Override
+    public int save() {
+        final int saveCount = getSaveCount();
+        mSaves.push(obtainSave());
+        return saveCount;
+    }
+
+    @Override
+    public int saveLayer(float left, float top, float right, float bottom, int alpha) {
+        final int saveCount = getSaveCount();
+        final Save s = obtainSave();
+        mSaves.push(s);
+        if (alpha <= 0) {
+            // will be quick rejected
+            s.mClip.setEmpty();
+        } else if (alpha < 255 && !s.mClip.isEmpty()) {
+            int[] layer = mLayerPool.poll();
+            if (layer == null) {
+                layer = new int[mWidth * mHeight];
+            }
+            final Rect b = s.mClip;
+            for (int y = b.top; y < b.bottom; y++) {
+                Arrays.fill(layer, y * mWidth + b.left, y * mWidth + b.right, 0);
+            }
+            s.mTarget = layer;
+            s.mLayerAlpha = alpha;
+            s.mLayerBounds.set(b);
+        }
+        return saveCount;
+    }
+
+    @Override
+    public void restore() {
+        if (mSaves.size() <= 1) {
+            throw new IllegalStateException("Underflow in restore");
+        }
+        final Save s = mSaves.pop();
+        if (s.mLayerAlpha >= 0) {
+            compositeLayer(s.mTarget, getSave().mTarget, s.mLayerBounds, s.mLayerAlpha);
+        }
+        releaseSave(s);
+    }
+
+    @Override
+    public int getSaveCount() {
+        return mSaves.size();
+    }
+
+    @Override
+    public void restoreToCount(int saveCount) {
+        if (saveCount < 1) {
+            throw new IllegalArgumentException("Underflow in restoreToCount");
+        }
+        while (mSaves.size() > saveCount) {
+            restore();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Matrix4 getMatrix() {
+        return getSave().mMatrix;
+    }
+
+    @Override
+    public boolean clipRect(float left, float top, float right, float bottom) {
+        final Rect clip = getSave().mClip;
+        // empty rect, ignore it
+        if (right <= left || bottom <= top) {
+            return !clip.isEmpty();
+        }
+        // already empty, return false
+        if (clip.isEmpty()) {
+            return false;
+        }
+        RectF temp = mTmpRectF;
+        temp.set(left, top, right, bottom);
+        getMatrix().transform(temp);
+
+        Rect test = mTmpRect;
+        temp.roundOut(test);
+        if (!clip.intersect(test)) {
+            clip.setEmpty();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean quickReject(float left, float top, float right, float bottom) {
+        // empty rect, always reject
+        if (right <= left || bottom <= top) {
+            return true;
+        }
+        final Rect clip = getSave().mClip;
+        // already empty, reject
+        if (clip.isEmpty()) {
+            return true;
+        }
+
+        RectF temp = mTmpRectF;
+        temp.set(left, top, right, bottom);
+        getMatrix().transform(temp);
+
+        Rect test = mTmpRect;
+        temp.roundOut(test);
+        return !Rect.intersects(clip, test);
+    }
+
+    @Override
+    public void drawArc(float cx, float cy, float radius, float startAngle,
+                        float sweepAngle, @Nonnull Paint paint) {
+        if (MathUtil.approxZero(sweepAngle) || radius < 0.0001f) {
+            return;
+        }
+        if (sweepAngle >= 360) {
+            drawCircle(cx, cy, radius, paint);
+            return;
+        }
+        sweepAngle %= 360;
+        final float middleAngle = (startAngle % 360) + sweepAngle * 0.5f;
+        final float strokeRadius;
+        final float maxRadius;
+        final float smooth;
+        if (paint.getStyle() == Paint.FILL) {
+            strokeRadius = -1;
+            maxRadius = radius;
+            smooth = Math.min(radius, paint.getSmoothRadius());
+        } else {
+            strokeRadius = Math.min(radius, paint.getStrokeWidth() * 0.5f);
+            if (strokeRadius < 0.0001f) {
+                return;
+            }
+            maxRadius = radius + strokeRadius;
+            smooth = Math.min(strokeRadius, paint.getSmoothRadius());
+        }
+        final float left = cx - maxRadius, top = cy - maxRadius;
+        final float right = cx + maxRadius, bottom = cy + maxRadius;
+        if (quickReject(left, top, right, bottom)) {
+            return;
+        }
+        final float c = (float) Math.cos(sweepAngle * 0.00872664626);
+        final float f = middleAngle * 0.01745329252f;
+        final float upX = MathUtil.cos(f);
+        final float upY = MathUtil.sin(f);
+        // the size of a device pixel in local space, replaces fwidth()
+        final float pixel = getLocalPixelSize();
+        fill(left, top, right, bottom, paint, (x, y) -> {
+            final float vx = x - cx, vy = y - cy;
+            final float len = (float) Math.sqrt(vx * vx + vy * vy);
+            if (len < 0.0001f) {
+                return 0;
+            }
+            final float d1 = strokeRadius < 0 ? len - radius : Math.abs(len - radius) - strokeRadius;
+            final float a1 = smoothstep(-smooth, 0, d1);
+            final float d2 = (upX * vx + upY * vy) / len - c;
+            final float w = smooth * pixel / len;
+            final float a2 = smoothstep(w * -0.5f, w * 0.5f, d2);
+            return (1 - a1) * a2;
+        });
+    }
+
+    @Override
+    public void drawBezier(float x0, float y0, float x1, float y1, float x2, float y2, @Nonnull Paint paint) {
+        final float strokeRadius = paint.getStrokeWidth() * 0.5f;
+        if (strokeRadius < 0.0001f) {
+            return;
+        }
+        final float left = Math.min(Math.min(x0, x1), x2) - strokeRadius;
+        final float top = Math.min(Math.min(y0, y1), y2) - strokeRadius;
+        final float right = Math.max(Math.max(x0, x1), x2) + strokeRadius;
+        final float bottom = Math.max(Math.max(y0, y1), y2) + strokeRadius;
+        if (quickReject(left, top, right, bottom)) {
+            return;
+        }
+        final float smooth = Math.min(strokeRadius, paint.getSmoothRadius());
+        fill(left, top, right, bottom, paint, (x, y) -> {
+            final float v = distanceToBezier(x0, y0, x1, y1, x2, y2, x, y) - strokeRadius;
+            if (v >= 0) {
+                return 0;
+            }
+            return 1 - smoothstep(-smooth, 0, v);
+        });
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, @Nonnull Paint paint) {
+        if (radius < 0.0001f) {
+            return;
+        }
+        if (paint.getStyle() == Paint.FILL) {
+            drawCircleFill(cx, cy, radius, paint);
+        } else {
+            drawCircleStroke(cx, cy, radius, paint);
+        }
+    }
+
+    private void drawCircleFill(float cx, float cy, float radius, @Nonnull Paint paint) {
+        if (quickReject(cx - radius, cy - radius, cx + radius, cy + radius)) {
+            return;
+        }
+        final float smooth = Math.min(radius, paint.getSmoothRadius());
+        fill(cx - radius, cy - radius, cx + radius, cy + radius, paint, (x, y) -> {
+            final float v = (float) Math.sqrt((x - cx) * (x - cx) + (y - cy) * (y - cy));
+            return 1 - smoothstep(radius - smooth, radius, v);
+        });
+    }
+
+    private void drawCircleStroke(float cx, float cy, float radius, @Nonnull Paint paint) {
+        final float strokeRadius = Math.min(radius, paint.getStrokeWidth() * 0.5f);
+        if (strokeRadius < 0.0001f) {
+            return;
+        }
+        final float maxRadius = radius + strokeRadius;
+        if (quickReject(cx - maxRadius, cy - maxRadius, cx + maxRadius, cy + maxRadius)) {
+            return;
+        }
+        final float smooth = Math.min(strokeRadius, paint.getSmoothRadius());
+        final float innerRadius = radius - strokeRadius;
+        fill(cx - maxRadius, cy - maxRadius, cx + maxRadius, cy + maxRadius, paint, (x, y) -> {
+            final float v = (float) Math.sqrt((x - cx) * (x - cx) + (y - cy) * (y - cy));
+            final float a1 = smoothstep(innerRadius, innerRadius + smooth, v);
+            final float a2 = smoothstep(maxRadius - smooth, maxRadius, v);
+            return a1 * (1 - a2);
+        });
+    }
+
+    @Override
+    public void drawTriangle(float x0, float y0, float x1, float y1, float x2, float y2, @Nonnull Paint paint) {
+        final float left = Math.min(Math.min(x0, x1), x2);
+        final float top = Math.min(Math.min(y0, y1), y2);
+        final float right = Math.max(Math.max(x0, x1), x2);
+        final float bottom = Math.max(Math.max(y0, y1), y2);
+        if (quickReject(left, top, right, bottom)) {
+            return;
+        }
+        final int color = premul(paint.getColor(), 1);
+        if (color == 0) {
+            return;
+        }
+        fill(left, top, right, bottom, (x, y) -> {
+            // edge functions, accept both windings
+            final float e0 = (x1 - x0) * (y - y0) - (y1 - y0) * (x - x0);
+            final float e1 = (x2 - x1) * (y - y1) - (y2 - y1) * (x - x1);
+            final float e2 = (x0 - x2) * (y - y2) - (y0 - y2) * (x - x2);
+            if ((e0 >= 0 && e1 >= 0 && e2 >= 0) || (e0 <= 0 && e1 <= 0 && e2 <= 0)) {
+                return color;
+            }
+            return 0;
+        });
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, @Nonnull Paint paint) {
+        if (quickReject(left, top, right, bottom)) {
+            return;
+        }
+        fill(left, top, right, bottom, paint, (x, y) -> 1);
+    }
+
+    @Override
+    public void drawImage(@Nonnull Image image, float left, float top, @Nullable Paint paint) {
+        drawImage(image, 0, 0, image.getWidth(), image.getHeight(),
+                left, top, left + image.getWidth(), top + image.getHeight(), paint);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The texture of the image can only be read on the render thread, otherwise nothing is
+     * drawn. Draw a {@link NativeImage} with {@link #drawNativeImage(NativeImage, float, float,
+     * float, float, float, float, float, float, Paint)} without a render thread.
+     */
+    @Override
+    public void drawImage(@Nonnull Image image, float srcLeft, float srcTop, float srcRight, float srcBottom,
+                          float dstLeft, float dstTop, float dstRight, float dstBottom, @Nullable Paint paint) {
+        if (quickReject(dstLeft, dstTop, dstRight, dstBottom)) {
+            return;
+        }
+        // texture memory is only accessible on render thread
+        if (Core.isOnRenderThread()) {
+            try (NativeImage pixels = NativeImage.download(NativeImage.Format.RGBA, image.getTexture(), false)) {
+                drawNativeImage(pixels, srcLeft, srcTop, srcRight, srcBottom,
+                        dstLeft, dstTop, dstRight, dstBottom, paint);
+            }
+        }
+    }
+
+    /**
+     * Draws the specified source rectangle of a native image, scaled and translated into
+     * the destination rectangle, with bilinear filtering. The image is modulated by the
+     * paint color, missing channels are treated the same as GL textures.
+     *
+     * @param image the image to draw
+     * @param paint the paint used to modulate the image, can be null
+     */
+    public void drawNativeImage(@Nonnull NativeImage image, float srcLeft, float srcTop, float srcRight,
+                                float srcBottom, float dstLeft, float dstTop, float dstRight, float dstBottom,
+                                @Nullable Paint paint) {
+        if (quickReject(dstLeft, dstTop, dstRight, dstBottom)) {
+            return;
+        }
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        srcLeft = Math.max(0, srcLeft);
+        srcTop = Math.max(0, srcTop);
+        srcRight = Math.min(srcRight, w);
+        srcBottom = Math.min(srcBottom, h);
+        if (srcRight <= srcLeft || srcBottom <= srcTop) {
+            return;
+        }
+        final int[] texels = readTexels(image);
+        final int color = paint == null ? ~0 : paint.getColor();
+        final float sx = (srcRight - srcLeft) / (dstRight - dstLeft);
+        final float sy = (srcBottom - srcTop) / (dstBottom - dstTop);
+        final float u0 = srcLeft - dstLeft * sx;
+        final float v0 = srcTop - dstTop * sy;
+        fill(dstLeft, dstTop, dstRight, dstBottom, (x, y) ->
+                modulate(sampleTexels(texels, w, h, u0 + x * sx, v0 + y * sy), color, 1));
+    }
+
+    @Override
+    public void drawRoundLine(float startX, float startY, float stopX, float stopY, @Nonnull Paint paint) {
+        float t = paint.getStrokeWidth() * 0.5f;
+        if (t < 0.0001f) {
+            return;
+        }
+        if (MathUtil.approxEqual(startX, stopX)) {
+            if (MathUtil.approxEqual(startY, stopY)) {
+                drawCircleFill(startX, startY, t, paint);
+            } else {
+                // vertical
+                float top = Math.min(startY, stopY);
+                float bottom = Math.max(startY, stopY);
+                drawRoundRectFill(startX - t, top - t, startX + t, bottom + t, t, 0, paint);
+            }
+        } else if (MathUtil.approxEqual(startY, stopY)) {
+            // horizontal
+            float left = Math.min(startX, stopX);
+            float right = Math.max(startX, stopX);
+            drawRoundRectFill(left - t, startY - t, right + t, startY + t, t, 0, paint);
+        } else {
+            float cx = (stopX + startX) * 0.5f;
+            float cy = (stopY + startY) * 0.5f;
+            float ang = MathUtil.atan2(stopY - startY, stopX - startX);
+            save();
+            Matrix4 mat = getMatrix();
+            // rotate the round rect
+            mat.translate(cx, cy, 0);
+            mat.rotateZ(ang);
+            mat.translate(-cx, -cy, 0);
+            // rotate positions to horizontal
+            float sin = MathUtil.sin(-ang);
+            float cos = MathUtil.cos(-ang);
+            float left = (startX - cx) * cos - (startY - cy) * sin + cx;
+            float right = (stopX - cx) * cos - (stopY - cy) * sin + cx;
+            drawRoundRectFill(left - t, cy - t, right + t, cy + t, t, 0, paint);
+            restore();
+        }
+    }
+
+    @Override
+    public void drawRoundRect(float left, float top, float right, float bottom, float radius,
+                              int sides, @Nonnull Paint paint) {
+        radius = Math.min(radius, Math.min(right - left, bottom - top) * 0.5f);
+        if (radius < 0) {
+            radius = 0;
+        }
+        if (paint.getStyle() == Paint.FILL) {
+            drawRoundRectFill(left, top, right, bottom, radius, sides, paint);
+        } else {
+            drawRoundRectStroke(left, top, right, bottom, radius, sides, paint);
+        }
+    }
+
+    private void drawRoundRectFill(float left, float top, float right, float bottom,
+                                   float radius, int sides, @Nonnull Paint paint) {
+        if (quickReject(left, top, right, bottom)) {
+            return;
+        }
+        final float smooth = Math.min(radius, paint.getSmoothRadius());
+        final float il = (sides & Gravity.RIGHT) == Gravity.RIGHT ? left : left + radius;
+        final float it = (sides & Gravity.BOTTOM) == Gravity.BOTTOM ? top : top + radius;
+        final float ir = (sides & Gravity.LEFT) == Gravity.LEFT ? right : right - radius;
+        final float ib = (sides & Gravity.TOP) == Gravity.TOP ? bottom : bottom - radius;
+        fill(left, top, right, bottom, paint, (x, y) ->
+                1 - smoothstep(-smooth, 0, distanceToRect(il, it, ir, ib, x, y) - radius));
+    }
+
+    private void drawRoundRectStroke(float left, float top, float right, float bottom,
+                                     float radius, int sides, @Nonnull Paint paint) {
+        final float strokeRadius = Math.min(radius, paint.getStrokeWidth() * 0.5f);
+        if (strokeRadius < 0.0001f) {
+            return;
+        }
+        if (quickReject(left - strokeRadius, top - strokeRadius, right + strokeRadius, bottom + strokeRadius)) {
+            return;
+        }
+        final float smooth = Math.min(strokeRadius, paint.getSmoothRadius());
+        final float il = (sides & Gravity.RIGHT) == Gravity.RIGHT ? left : left + radius;
+        final float it = (sides & Gravity.BOTTOM) == Gravity.BOTTOM ? top : top + radius;
+        final float ir = (sides & Gravity.LEFT) == Gravity.LEFT ? right : right - radius;
+        final float ib = (sides & Gravity.TOP) == Gravity.TOP ? bottom : bottom - radius;
+        fill(left - strokeRadius, top - strokeRadius, right + strokeRadius, bottom + strokeRadius, paint,
+                (x, y) -> {
+                    final float v = distanceToRect(il, it, ir, ib, x, y) - radius;
+                    return 1 - smoothstep(-smooth, 0, Math.abs(v) - strokeRadius);
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The texture of the image can only be read on the render thread, otherwise nothing is
+     * drawn. Draw a {@link NativeImage} with {@link #drawNativeImage(NativeImage, float, float,
+     * float, float, float, float, float, float, Paint)} without a render thread.
+     */
+    @Override
+    public void drawRoundImage(@Nonnull Image image, float left, float top, float radius, @Nonnull Paint paint) {
+        if (radius < 0) {
+            radius = 0;
+        }
+        final float right = left + image.getWidth();
+        final float bottom = top + image.getHeight();
+        if (quickReject(left, top, right, bottom)) {
+            return;
+        }
+        // texture memory is only accessible on render thread
+        if (!Core.isOnRenderThread()) {
+            return;
+        }
+        final int[] texels;
+        final int w, h;
+        try (NativeImage pixels = NativeImage.download(NativeImage.Format.RGBA, image.getTexture(), false)) {
+            texels = readTexels(pixels);
+            w = pixels.getWidth();
+            h = pixels.getHeight();
+        }
+        final float r = radius;
+        final float smooth = Math.min(radius, paint.getSmoothRadius());
+        final int color = paint.getColor();
+        fill(left, top, right, bottom, (x, y) -> {
+            final float v = distanceToRect(left + r, top + r, right - r, bottom - r, x, y) - r;
+            return modulate(sampleTexels(texels, w, h, x - left, y - top), color,
+                    1 - smoothstep(-smooth, 0, v));
+        });
+    }
+
+    @Override
+    public void drawText(@Nonnull CharSequence text, int start, int end, float x, float y,
+                         int align, @Nonnull TextPaint paint) {
+        if ((start | end | end - start | text.length() - end) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (start == end) {
+            return;
+        }
+        final int color = paint.getColor();
+        if (end - start <= LayoutCache.MAX_PIECE_LENGTH) {
+            LayoutPiece piece = LayoutCache.getOrCreate(text, start, end, false, paint, false, true);
+            switch (align & Gravity.HORIZONTAL_GRAVITY_MASK) {
+                case Gravity.CENTER_HORIZONTAL -> x -= piece.getAdvance() / 2f;
+                case Gravity.RIGHT -> x -= piece.getAdvance();
+            }
+            drawTextRun(piece, x, y, color);
+        } else {
+            // the total advance is needed for alignment before drawing
+            final List<LayoutPiece> pieces = new ArrayList<>();
+            float advance = 0;
+            int s = start, e = s;
+            do {
+                e = Math.min(e + LayoutCache.MAX_PIECE_LENGTH, end);
+                LayoutPiece piece = LayoutCache.getOrCreate(text, s, e, false, paint, false, true);
+                pieces.add(piece);
+                advance += piece.getAdvance();
+                s = e;
+            } while (s < end);
+            switch (align & Gravity.HORIZONTAL_GRAVITY_MASK) {
+                case Gravity.CENTER_HORIZONTAL -> x -= advance / 2f;
+                case Gravity.RIGHT -> x -= advance;
+            }
+            for (LayoutPiece piece : pieces) {
+                drawTextRun(piece, x, y, color);
+                x += piece.getAdvance();
+            }
+        }
+    }
+
+    @Override
+    public void drawTextRun(@Nonnull LayoutPiece piece, float x, float y, @Nonnull TextPaint paint) {
+        drawTextRun(piece, x, y, paint.getColor());
+    }
+
+    private void drawTextRun(@Nonnull LayoutPiece piece, float x, float y, int color) {
+        // textured glyphs are only available on the render thread, use glyph codes instead
+        final Font[] fonts = piece.getGlyphFonts();
+        if (piece.getAdvance() == 0 || fonts == null || fonts.length == 0
+                || quickReject(x, y - piece.getAscent(),
+                x + piece.getAdvance(), y + piece.getDescent())) {
+            return;
+        }
+        final int[] glyphCodes = piece.getGlyphCodes();
+        final float[] positions = piece.getGlyphPositions();
+        final GlyphManager manager = GlyphManager.getInstance();
+        for (int i = 0, e = fonts.length; i < e; i++) {
+            final GlyphMask mask = manager.getGlyphMask(fonts[i], glyphCodes[i]);
+            if (mask == null) {
+                continue;
+            }
+            final float left = x + positions[i * 2] + mask.offsetX;
+            final float top = y + positions[i * 2 + 1] + mask.offsetY;
+            fill(left, top, left + mask.width, top + mask.height, (px, py) ->
+                    premul(color, sampleMask(mask, px - left, py - top)));
+        }
+    }
+
+    /**
+     * @return the approximate size of a device pixel in local space
+     */
+    private float getLocalPixelSize() {
+        final Matrix4 matrix = getMatrix();
+        final float ox = matrix.transformPointX(0, 0), oy = matrix.transformPointY(0, 0);
+        final float ax = matrix.transformPointX(1, 0) - ox, ay = matrix.transformPointY(1, 0) - oy;
+        final float bx = matrix.transformPointX(0, 1) - ox, by = matrix.transformPointY(0, 1) - oy;
+        final float det = Math.abs(ax * by - ay * bx);
+        return det < 1.0e-6f ? 1 : (float) (1 / Math.sqrt(det));
+    }
+
+    private void fill(float left, float top, float right, float bottom, @Nonnull Paint paint,
+                      @Nonnull Coverage coverage) {
+        if (paint.isGradient()) {
+            final int[] colors = paint.getColors();
+            final float invWidth = 1 / (right - left);
+            final float invHeight = 1 / (bottom - top);
+            fill(left, top, right, bottom, (x, y) -> {
+                final float a = coverage.at(x, y);
+                if (a <= 0) {
+                    return 0;
+                }
+                final float u = (x - left) * invWidth;
+                final float v = (y - top) * invHeight;
+                return premul(lerpColor(lerpColor(colors[0], colors[1], u),
+                        lerpColor(colors[2], colors[3], u), v), a);
+            });
+        } else {
+            final int color = paint.getColor();
+            if ((color >>> 24) == 0) {
+                return;
+            }
+            fill(left, top, right, bottom, (x, y) -> {
+                final float a = coverage.at(x, y);
+                return a <= 0 ? 0 : premul(color, a);
+            });
+        }
+    }
+
+    /**
+     * Rasterizes a local rectangle with the current matrix and clip, the shader is invoked
+     * at the center of each pixel in local coordinates.
+     */
+    private void fill(float left, float top, float right, float bottom, @Nonnull Shader shader) {
+        final Save save = getSave();
+        final RectF temp = mTmpRectF;
+        temp.set(left, top, right, bottom);
+        save.mMatrix.transform(temp);
+        final Rect bounds = mTmpRect;
+        temp.roundOut(bounds);
+        if (!bounds.intersect(save.mClip)) {
+            return;
+        }
+        final Matrix4 inverse = mInverse;
+        if (!save.mMatrix.invert(inverse)) {
+            return;
+        }
+        // device to local, affine part
+        final float tx = inverse.transformPointX(0, 0);
+        final float ty = inverse.transformPointY(0, 0);
+        final float a = inverse.transformPointX(1, 0) - tx;
+        final float b = inverse.transformPointY(1, 0) - ty;
+        final float c = inverse.transformPointX(0, 1) - tx;
+        final float d = inverse.transformPointY(0, 1) - ty;
+
+        final int[] target = save.mTarget;
+        final int width = mWidth;
+        final int l = bounds.left, t = bounds.top, r = bounds.right, bt = bounds.bottom;
+        final IntConsumer band = i -> {
+            final int y0 = t + i * BAND_HEIGHT;
+            final int y1 = Math.min(y0 + BAND_HEIGHT, bt);
+            for (int y = y0; y < y1; y++) {
+                final float py = y + 0.5f;
+                float lx = a * (l + 0.5f) + c * py + tx;
+                float ly = b * (l + 0.5f) + d * py + ty;
+                for (int x = l, index = y * width + l; x < r; x++, index++, lx += a, ly += b) {
+                    if (lx >= left && lx < right && ly >= top && ly < bottom) {
+                        final int src = shader.shade(lx, ly);
+                        if (src != 0) {
+                            target[index] = blend(src, target[index]);
+                        }
+                    }
+                }
+            }
+        };
+        final int bands = (bt - t + BAND_HEIGHT - 1) / BAND_HEIGHT;
+        if (bands > 1 && (r - l) * (bt - t) >= PARALLEL_THRESHOLD) {
+            IntStream.range(0, bands).parallel().forEach(band);
+        } else {
+            for (int i = 0; i < bands; i++) {
+                band.accept(i);
+            }
+        }
+    }
+
+    private void compositeLayer(@Nonnull int[] layer, @Nonnull int[] target, @Nonnull Rect b, int alpha) {
+        for (int y = b.top; y < b.bottom; y++) {
+            for (int i = y * mWidth + b.left, e = y * mWidth + b.right; i < e; i++) {
+                final int src = layer[i];
+                if (src != 0) {
+                    target[i] = blend(scale(src, alpha), target[i]);
+                }
+            }
+        }
+    }
+
+    // source-over, both are premultiplied
+    private static int blend(int src, int dst) {
+        final int ia = 255 - (src >>> 24);
+        if (ia == 0) {
+            return src;
+        }
+        final int a = (src >>> 24) + ((dst >>> 24) * ia + 127) / 255;
+        final int r = ((src >> 16) & 0xff) + (((dst >> 16) & 0xff) * ia + 127) / 255;
+        final int g = ((src >> 8) & 0xff) + (((dst >> 8) & 0xff) * ia + 127) / 255;
+        final int bl = (src & 0xff) + ((dst & 0xff) * ia + 127) / 255;
+        return (a << 24) | (r << 16) | (g << 8) | bl;
+    }
+
+    // multiplies all components of a premultiplied color
+    private static int scale(int color, int alpha) {
+        final int a = ((color >>> 24) * alpha + 127) / 255;
+        final int r = (((color >> 16) & 0xff) * alpha + 127) / 255;
+        final int g = (((color >> 8) & 0xff) * alpha + 127) / 255;
+        final int b = ((color & 0xff) * alpha + 127) / 255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    // straight to premultiplied, with coverage
+    private static int premul(int color, float coverage) {
+        final int a = (int) ((color >>> 24) * Math.min(coverage, 1) + 0.5f);
+        if (a <= 0) {
+            return 0;
+        }
+        final int r = (((color >> 16) & 0xff) * a + 127) / 255;
+        final int g = (((color >> 8) & 0xff) * a + 127) / 255;
+        final int b = ((color & 0xff) * a + 127) / 255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int unpremul(int color) {
+        final int a = color >>> 24;
+        if (a == 0) {
+            return 0;
+        }
+        if (a == 255) {
+            return color;
+        }
+        final int r = Math.min((((color >> 16) & 0xff) * 255 + (a >> 1)) / a, 255);
+        final int g = Math.min((((color >> 8) & 0xff) * 255 + (a >> 1)) / a, 255);
+        final int b = Math.min(((color & 0xff) * 255 + (a >> 1)) / a, 255);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    // premultiplied texel times straight color and coverage, gives premultiplied
+    private static int modulate(int texel, int color, float coverage) {
+        final int ca = (int) ((color >>> 24) * Math.min(coverage, 1) + 0.5f);
+        if (texel == 0 || ca <= 0) {
+            return 0;
+        }
+        final int a = ((texel >>> 24) * ca + 127) / 255;
+        final int r = ((((texel >> 16) & 0xff) * ((color >> 16) & 0xff) + 127) / 255 * ca + 127) / 255;
+        final int g = ((((texel >> 8) & 0xff) * ((color >> 8) & 0xff) + 127) / 255 * ca + 127) / 255;
+        final int b = (((texel & 0xff) * (color & 0xff) + 127) / 255 * ca + 127) / 255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    // straight colors
+    private static int lerpColor(int c0, int c1, float t) {
+        if (c0 == c1) {
+            return c0;
+        }
+        t = MathUtil.clamp(t, 0, 1);
+        final int a = (int) ((c0 >>> 24) + ((c1 >>> 24) - (c0 >>> 24)) * t + 0.5f);
+        final int r = (int) (((c0 >> 16) & 0xff) + (((c1 >> 16) & 0xff) - ((c0 >> 16) & 0xff)) * t + 0.5f);
+        final int g = (int) (((c0 >> 8) & 0xff) + (((c1 >> 8) & 0xff) - ((c0 >> 8) & 0xff)) * t + 0.5f);
+        final int b = (int) ((c0 & 0xff) + ((c1 & 0xff) - (c0 & 0xff)) * t + 0.5f);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static float smoothstep(float edge0, float edge1, float x) {
+        if (edge1 <= edge0) {
+            return x < edge0 ? 0 : 1;
+        }
+        final float t = MathUtil.clamp((x - edge0) / (edge1 - edge0), 0, 1);
+        return t * t * (3 - 2 * t);
+    }
+
+    // distance from a point to a rectangle, zero if inside
+    private static float distanceToRect(float left, float top, float right, float bottom, float x, float y) {
+        final float dx = Math.max(0, Math.max(left - x, x - right));
+        final float dy = Math.max(0, Math.max(top - y, y - bottom));
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    // distance from a point to a quadratic Bézier curve, solves the cubic equation
+    private static float distanceToBezier(float ax, float ay, float bx, float by, float cx, float cy,
+                                          float px, float py) {
+        final float aX = bx - ax, aY = by - ay;
+        final float bX = ax - bx * 2 + cx, bY = ay - by * 2 + cy;
+        final float cX = aX * 2, cY = aY * 2;
+        final float dX = ax - px, dY = ay - py;
+        final float bb = bX * bX + bY * bY;
+        if (bb < 1.0e-6f) {
+            // degenerated to a line segment
+            final float lx = cx - ax, ly = cy - ay;
+            final float ll = lx * lx + ly * ly;
+            final float t = ll < 1.0e-6f ? 0 : MathUtil.clamp(-(dX * lx + dY * ly) / ll, 0, 1);
+            return (float) Math.sqrt((dX + lx * t) * (dX + lx * t) + (dY + ly * t) * (dY + ly * t));
+        }
+        final float kx = 3 * (aX * bX + aY * bY) / bb;
+        final float ky = (2 * (aX * aX + aY * aY) + dX * bX + dY * bY) / bb;
+        final float kz = (dX * aX + dY * aY) / bb;
+
+        final float p = ky - kx * kx / 3, p3 = p * p * p;
+        final float q = kx * (2 * kx * kx - 9 * ky) / 27 + kz;
+        final float disc = q * q + 4 * p3 / 27;
+        final float offset = -kx / 3;
+        if (disc >= 0) {
+            final float z = (float) Math.sqrt(disc);
+            final float t = offset + (float) (Math.cbrt((z - q) / 2) + Math.cbrt((-z - q) / 2));
+            return distanceToBezierAt(bX, bY, cX, cY, dX, dY, t);
+        }
+        final double v = Math.acos(MathUtil.clamp((float) (-Math.sqrt(-27 / p3) * q / 2), -1, 1)) / 3;
+        final float m = (float) Math.cos(v), n = (float) Math.sin(v) * 1.732050808f;
+        final float s = (float) Math.sqrt(-p / 3);
+        float dis = distanceToBezierAt(bX, bY, cX, cY, dX, dY, (m + m) * s + offset);
+        dis = Math.min(dis, distanceToBezierAt(bX, bY, cX, cY, dX, dY, (-n - m) * s + offset));
+        return Math.min(dis, distanceToBezierAt(bX, bY, cX, cY, dX, dY, (n - m) * s + offset));
+    }
+
+    private static float distanceToBezierAt(float bX, float bY, float cX, float cY, float dX, float dY, float t) {
+        t = MathUtil.clamp(t, 0, 1);
+        final float x = dX + (cX + bX * t) * t;
+        final float y = dY + (cY + bY * t) * t;
+        return (float) Math.sqrt(x * x + y * y);
+    }
+
+    // converts an image to premultiplied ARGB, missing channels are the same as GL
+    @Nonnull
+    private static int[] readTexels(@Nonnull NativeImage image) {
+        final int channels = image.getFormat().channels;
+        final int size = image.getWidth() * image.getHeight();
+        final int[] texels = new int[size];
+        long p = image.getPixels();
+        for (int i = 0; i < size; i++, p += channels) {
+            final int r = memGetByte(p) & 0xff;
+            final int g = channels > 1 ? memGetByte(p + 1) & 0xff : 0;
+            final int b = channels > 2 ? memGetByte(p + 2) & 0xff : 0;
+            final int a = channels > 3 ? memGetByte(p + 3) & 0xff : 0xff;
+            texels[i] = premul((a << 24) | (r << 16) | (g << 8) | b, 1);
+        }
+        return texels;
+    }
+
+    // bilinear filtering, clamp to edge
+    private static int sampleTexels(@Nonnull int[] texels, int width, int height, float u, float v) {
+        u = MathUtil.clamp(u - 0.5f, 0, width - 1);
+        v = MathUtil.clamp(v - 0.5f, 0, height - 1);
+        final int x0 = (int) u, y0 = (int) v;
+        final int x1 = Math.min(x0 + 1, width - 1), y1 = Math.min(y0 + 1, height - 1);
+        final float fx = u - x0, fy = v - y0;
+        return lerpPremul(
+                lerpPremul(texels[y0 * width + x0], texels[y0 * width + x1], fx),
+                lerpPremul(texels[y1 * width + x0], texels[y1 * width + x1], fx), fy);
+    }
+
+    private static int lerpPremul(int c0, int c1, float t) {
+        if (c0 == c1) {
+            return c0;
+        }
+        // premultiplied colors are interpolated the same as straight colors
+        return lerpColor(c0, c1, t);
+    }
+
+    // bilinear filtering, transparent outside
+    private static float sampleMask(@Nonnull GlyphMask mask, float u, float v) {
+        u -= 0.5f;
+        v -= 0.5f;
+        final int x0 = (int) Math.floor(u), y0 = (int) Math.floor(v);
+        final float fx = u - x0, fy = v - y0;
+        final float top = maskAt(mask, x0, y0) * (1 - fx) + maskAt(mask, x0 + 1, y0) * fx;
+        final float bottom = maskAt(mask, x0, y0 + 1) * (1 - fx) + maskAt(mask, x0 + 1, y0 + 1) * fx;
+        return (top * (1 - fy) + bottom * fy) / 255f;
+    }
+
+    private static int maskAt(@Nonnull GlyphMask mask, int x, int y) {
+        if (x < 0 || x >= mask.width || y < 0 || y >= mask.height) {
+            return 0;
+        }
+        return mask.pixels[y * mask.width + x] & 0xff;
+    }
+
+    /**
+     * Computes the premultiplied color of a pixel in local coordinates, 0 to discard.
+     */
+    @FunctionalInterface
+    private interface Shader {
+
+        int shade(float x, float y);
+    }
+
+    /**
+     * Computes the coverage of a geometry in local coordinates, 0 to 1.
+     */
+    @FunctionalInterface
+    private interface Coverage {
+
+        float at(float x, float y);
+    }
+
+    private static final class Save {
+
+        // device clip bounds
+        final Rect mClip = new Rect();
+
+        // local to device
+        final Matrix4 mMatrix = Matrix4.identity();
+
+        // the pixels to draw into, the canvas or a layer
+        int[] mTarget;
+
+        // the alpha of the layer pushed by this save, or -1
+        int mLayerAlpha = -1;
+        final Rect mLayerBounds = new Rect();
+
+        // the layer is owned by the save that pushed it
+        void set(@Nonnull Save s) {
+            mClip.set(s.mClip);
+            mMatrix.set(s.mMatrix);
+            mTarget = s.mTarget;
+            mLayerAlpha = -1;
+        }
+    }
+}
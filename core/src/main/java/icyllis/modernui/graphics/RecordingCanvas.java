@@ -0,0 +1,325 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.graphics;
+
+import icyllis.modernui.graphics.font.LayoutPiece;
+import icyllis.modernui.math.Matrix4;
+import icyllis.modernui.text.TextPaint;
+import icyllis.modernui.util.Pool;
+import icyllis.modernui.util.Pools;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+
+/**
+ * A Canvas that records drawing operations into the display list of a {@link RenderNode}.
+ * The recorded operations are replayed later by {@link RenderNode#replay(Canvas)}.
+ * <p>
+ * Matrix operations are not recorded one by one, since they directly modify the matrix.
+ * Instead, the local matrix (relative to the node) is recorded before a drawing operation
+ * if it was changed. Paints are copied, because they are usually reused by views.
+ *
+ * @since 3.4
+ */
+final class RecordingCanvas extends Canvas {
+
+    static final byte OP_SAVE = 0;
+    static final byte OP_SAVE_LAYER = 1;
+    static final byte OP_RESTORE = 2;
+    static final byte OP_SET_MATRIX = 3;
+    static final byte OP_CLIP_RECT = 4;
+    static final byte OP_DRAW_ARC = 5;
+    static final byte OP_DRAW_BEZIER = 6;
+    static final byte OP_DRAW_CIRCLE = 7;
+    static final byte OP_DRAW_TRIANGLE = 8;
+    static final byte OP_DRAW_RECT = 9;
+    static final byte OP_DRAW_IMAGE = 10;
+    static final byte OP_DRAW_IMAGE_RECT = 11;
+    static final byte OP_DRAW_ROUND_LINE = 12;
+    static final byte OP_DRAW_ROUND_RECT = 13;
+    static final byte OP_DRAW_ROUND_IMAGE = 14;
+    static final byte OP_DRAW_TEXT = 15;
+    static final byte OP_DRAW_TEXT_RUN = 16;
+    static final byte OP_DRAW_RENDER_NODE = 17;
+
+    // recording happens on UI thread, nested for child nodes
+    private static final Pool<RecordingCanvas> sPool = Pools.simple(25);
+    private static final Pool<Matrix4> sMatrixPool = Pools.simple(50);
+
+    private RenderNode mNode;
+
+    // local MC stack, the first is the top
+    private final ArrayDeque<Matrix4> mMatrices = new ArrayDeque<>();
+
+    // the local matrix when the last OP_SET_MATRIX replayed, identity at the beginning
+    private final Matrix4 mLastMatrix = new Matrix4();
+    private boolean mMatrixSynced;
+
+    private RecordingCanvas() {
+    }
+
+    @Nonnull
+    static RecordingCanvas obtain(@Nonnull RenderNode node) {
+        RecordingCanvas canvas = sPool.acquire();
+        if (canvas == null) {
+            canvas = new RecordingCanvas();
+        }
+        canvas.mNode = node;
+        canvas.mMatrices.push(obtainMatrix());
+        canvas.mLastMatrix.setIdentity();
+        canvas.mMatrixSynced = true;
+        return canvas;
+    }
+
+    void recycle() {
+        for (Matrix4 matrix : mMatrices) {
+            sMatrixPool.release(matrix);
+        }
+        mMatrices.clear();
+        mNode = null;
+        sPool.release(this);
+    }
+
+    @Nonnull
+    private static Matrix4 obtainMatrix() {
+        Matrix4 matrix = sMatrixPool.acquire();
+        if (matrix == null) {
+            return Matrix4.identity();
+        }
+        matrix.setIdentity();
+        return matrix;
+    }
+
+    // records the local matrix if changed, must be called before any op depending on it
+    private void syncMatrix() {
+        final Matrix4 matrix = mMatrices.element();
+        if (!mMatrixSynced || !mLastMatrix.equals(matrix)) {
+            mLastMatrix.set(matrix);
+            mMatrixSynced = true;
+            mNode.addOp(OP_SET_MATRIX);
+            mNode.addObject(new Matrix4(matrix));
+        }
+    }
+
+    @Override
+    public int save() {
+        final int saveCount = mMatrices.size();
+        Matrix4 matrix = obtainMatrix();
+        matrix.set(mMatrices.element());
+        mMatrices.push(matrix);
+        mNode.addOp(OP_SAVE);
+        return saveCount;
+    }
+
+    @Override
+    public int saveLayer(float left, float top, float right, float bottom, int alpha) {
+        syncMatrix();
+        final int saveCount = mMatrices.size();
+        Matrix4 matrix = obtainMatrix();
+        matrix.set(mMatrices.element());
+        mMatrices.push(matrix);
+        mNode.addOp(OP_SAVE_LAYER);
+        mNode.addFloats(left, top, right, bottom, alpha);
+        return saveCount;
+    }
+
+    @Override
+    public void restore() {
+        if (mMatrices.size() <= 1) {
+            throw new IllegalStateException("Underflow in restore");
+        }
+        sMatrixPool.release(mMatrices.pop());
+        // the target canvas restores the matrix at the time of save(),
+        // which may not be the last recorded one
+        mMatrixSynced = false;
+        mNode.addOp(OP_RESTORE);
+    }
+
+    @Override
+    public int getSaveCount() {
+        return mMatrices.size();
+    }
+
+    @Override
+    public void restoreToCount(int saveCount) {
+        if (saveCount < 1) {
+            throw new IllegalArgumentException("Underflow in restoreToCount");
+        }
+        while (mMatrices.size() > saveCount) {
+            restore();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Matrix4 getMatrix() {
+        return mMatrices.element();
+    }
+
+    /**
+     * The clip is computed when replaying, so returns true unless the rect is empty.
+     */
+    @Override
+    public boolean clipRect(float left, float top, float right, float bottom) {
+        syncMatrix();
+        mNode.addOp(OP_CLIP_RECT);
+        mNode.addFloats(left, top, right, bottom);
+        return left < right && top < bottom;
+    }
+
+    /**
+     * The clip is unknown when recording, so never rejects.
+     */
+    @Override
+    public boolean quickReject(float left, float top, float right, float bottom) {
+        return false;
+    }
+
+    @Override
+    public void drawArc(float cx, float cy, float radius, float startAngle, float sweepAngle,
+                        @Nonnull Paint paint) {
+        syncMatrix();
+        mNode.addOp(OP_DRAW_ARC);
+        mNode.addFloats(cx, cy, radius, startAngle, sweepAngle);
+        mNode.addObject(new Paint(paint));
+    }
+
+    @Override
+    public void drawBezier(float x0, float y0, float x1, float y1, float x2, float y2,
+                           @Nonnull Paint paint) {
+        syncMatrix();
+        mNode.addOp(OP_DRAW_BEZIER);
+        mNode.addFloats(x0, y0, x1, y1, x2, y2);
+        mNode.addObject(new Paint(paint));
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, @Nonnull Paint paint) {
+        syncMatrix();
+        mNode.addOp(OP_DRAW_CIRCLE);
+        mNode.addFloats(cx, cy, radius);
+        mNode.addObject(new Paint(paint));
+    }
+
+    @Override
+    public void drawTriangle(float x0, float y0, float x1, float y1, float x2, float y2,
+                             @Nonnull Paint paint) {
+        syncMatrix();
+        mNode.addOp(OP_DRAW_TRIANGLE);
+        mNode.addFloats(x0, y0, x1, y1, x2, y2);
+        mNode.addObject(new Paint(paint));
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, @Nonnull Paint paint) {
+        syncMatrix();
+        mNode.addOp(OP_DRAW_RECT);
+        mNode.addFloats(left, top, right, bottom);
+        mNode.addObject(new Paint(paint));
+    }
+
+    @Override
+    public void drawImage(@Nonnull Image image, float left, float top, @Nullable Paint paint) {
+        syncMatrix();
+        mNode.addOp(OP_DRAW_IMAGE);
+        mNode.addFloats(left, top);
+        mNode.addObject(image);
+        mNode.addObject(paint == null ? null : new Paint(paint));
+    }
+
+    @Override
+    public void drawImage(@Nonnull Image image, float srcLeft, float srcTop, float srcRight, float srcBottom,
+                          float dstLeft, float dstTop, float dstRight, float dstBottom, @Nullable Paint paint) {
+        syncMatrix();
+        mNode.addOp(OP_DRAW_IMAGE_RECT);
+        mNode.addFloats(srcLeft, srcTop, srcRight, srcBottom);
+        mNode.addFloats(dstLeft, dstTop, dstRight, dstBottom);
+        mNode.addObject(image);
+        mNode.addObject(paint == null ? null : new Paint(paint));
+    }
+
+    @Override
+    public void drawRoundLine(float startX, float startY, float stopX, float stopY, @Nonnull Paint paint) {
+        syncMatrix();
+        mNode.addOp(OP_DRAW_ROUND_LINE);
+        mNode.addFloats(startX, startY, stopX, stopY);
+        mNode.addObject(new Paint(paint));
+    }
+
+    @Override
+    public void drawRoundRect(float left, float top, float right, float bottom, float radius, int sides,
+                              @Nonnull Paint paint) {
+        syncMatrix();
+        mNode.addOp(OP_DRAW_ROUND_RECT);
+        mNode.addFloats(left, top, right, bottom, radius);
+        mNode.addObject(sides);
+        mNode.addObject(new Paint(paint));
+    }
+
+    @Override
+    public void drawRoundImage(@Nonnull Image image, float left, float top, float radius, @Nonnull Paint paint) {
+        syncMatrix();
+        mNode.addOp(OP_DRAW_ROUND_IMAGE);
+        mNode.addFloats(left, top, radius);
+        mNode.addObject(image);
+        mNode.addObject(new Paint(paint));
+    }
+
+    @Override
+    public void drawText(@Nonnull CharSequence text, int start, int end, float x, float y, int align,
+                         @Nonnull TextPaint paint) {
+        if ((start | end | end - start | text.length() - end) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        syncMatrix();
+        mNode.addOp(OP_DRAW_TEXT);
+        mNode.addFloats(x, y);
+        // the text may be mutable
+        mNode.addObject(text.subSequence(start, end).toString());
+        mNode.addObject(align);
+        mNode.addObject(copyPaint(paint));
+    }
+
+    @Override
+    public void drawTextRun(@Nonnull LayoutPiece piece, float x, float y, @Nonnull TextPaint paint) {
+        syncMatrix();
+        mNode.addOp(OP_DRAW_TEXT_RUN);
+        mNode.addFloats(x, y);
+        mNode.addObject(piece);
+        mNode.addObject(copyPaint(paint));
+    }
+
+    @Override
+    public void drawRenderNode(@Nonnull RenderNode node) {
+        if (node == mNode) {
+            throw new IllegalArgumentException("Can't draw a node into itself");
+        }
+        syncMatrix();
+        mNode.addOp(OP_DRAW_RENDER_NODE);
+        mNode.addObject(node);
+    }
+
+    @Nonnull
+    private static TextPaint copyPaint(@Nonnull TextPaint paint) {
+        TextPaint copy = new TextPaint();
+        copy.set(paint);
+        return copy;
+    }
+}
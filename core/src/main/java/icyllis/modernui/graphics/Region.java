@@ -18,6 +18,21 @@
 
 package icyllis.modernui.graphics;
 
+import icyllis.modernui.math.Rect;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * A region describes an area with integer coordinates, it's the union of a set of
+ * non-overlapping rectangles. The area is stored as horizontal bands from top to bottom,
+ * each band has sorted disjoint spans, and adjacent bands with the same spans are merged.
+ * <p>
+ * For example, regions are used to accumulate damaged areas of a window.
+ *
+ * @since 3.4
+ */
 public class Region {
 
     /**
@@ -47,6 +62,499 @@ public class Region {
         /**
          * replace target with operand
          */
-        REPLACE
+        REPLACE;
+
+        boolean test(boolean inTarget, boolean inOperand) {
+            return switch (this) {
+                case DIFFERENCE -> inTarget && !inOperand;
+                case INTERSECT -> inTarget && inOperand;
+                case UNION -> inTarget || inOperand;
+                case XOR -> inTarget != inOperand;
+                case REVERSE_DIFFERENCE -> inOperand && !inTarget;
+                case REPLACE -> inOperand;
+            };
+        }
+    }
+
+    // for each band: top, bottom, span count, then left and right of each span
+    private IntArrayList mRuns = new IntArrayList();
+    private final Rect mBounds = new Rect();
+
+    /**
+     * Creates an empty region.
+     */
+    public Region() {
+    }
+
+    public Region(@Nonnull Region region) {
+        set(region);
+    }
+
+    public Region(@Nonnull Rect r) {
+        set(r);
+    }
+
+    public Region(int left, int top, int right, int bottom) {
+        set(left, top, right, bottom);
+    }
+
+    /**
+     * Sets this region to empty.
+     */
+    public void setEmpty() {
+        mRuns.clear();
+        mBounds.setEmpty();
+    }
+
+    /**
+     * Sets this region to the specified region.
+     *
+     * @return true if the result is not empty
+     */
+    public boolean set(@Nonnull Region region) {
+        if (region != this) {
+            mRuns.clear();
+            mRuns.addAll(region.mRuns);
+            mBounds.set(region.mBounds);
+        }
+        return !isEmpty();
+    }
+
+    /**
+     * Sets this region to the specified rectangle.
+     *
+     * @return true if the result is not empty
+     */
+    public boolean set(@Nonnull Rect r) {
+        return set(r.left, r.top, r.right, r.bottom);
+    }
+
+    /**
+     * Sets this region to the specified rectangle.
+     *
+     * @return true if the result is not empty
+     */
+    public boolean set(int left, int top, int right, int bottom) {
+        mRuns.clear();
+        if (left >= right || top >= bottom) {
+            mBounds.setEmpty();
+            return false;
+        }
+        mRuns.add(top);
+        mRuns.add(bottom);
+        mRuns.add(1);
+        mRuns.add(left);
+        mRuns.add(right);
+        mBounds.set(left, top, right, bottom);
+        return true;
+    }
+
+    /**
+     * @return true if this region is empty
+     */
+    public boolean isEmpty() {
+        return mRuns.isEmpty();
+    }
+
+    /**
+     * @return true if this region is a single rectangle, which is also its bounds
+     */
+    public boolean isRect() {
+        return mRuns.size() == 5;
+    }
+
+    /**
+     * @return true if this region consists of more than one rectangle
+     */
+    public boolean isComplex() {
+        return mRuns.size() > 5;
+    }
+
+    /**
+     * Returns a new Rect set to the bounds of this region.
+     *
+     * @return the bounds
+     */
+    @Nonnull
+    public Rect getBounds() {
+        return new Rect(mBounds);
+    }
+
+    /**
+     * Sets the Rect to the bounds of this region.
+     *
+     * @param r the rect to receive the bounds
+     * @return true if this region is not empty
+     */
+    public boolean getBounds(@Nonnull Rect r) {
+        r.set(mBounds);
+        return !isEmpty();
+    }
+
+    /**
+     * Returns the number of rectangles of this region, a rectangle is a span of a band.
+     *
+     * @return the rectangle count
+     */
+    public int getRectCount() {
+        final int[] runs = mRuns.elements();
+        int count = 0;
+        for (int i = 0, e = mRuns.size(); i < e; i += 3 + runs[i + 2] * 2) {
+            count += runs[i + 2];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the rectangle at the given index, in the order of bands and spans.
+     *
+     * @param index the rectangle index
+     * @param r     the rect to receive the rectangle
+     */
+    public void getRect(int index, @Nonnull Rect r) {
+        final int[] runs = mRuns.elements();
+        for (int i = 0, e = mRuns.size(); i < e; i += 3 + runs[i + 2] * 2) {
+            final int n = runs[i + 2];
+            if (index < n) {
+                r.set(runs[i + 3 + index * 2], runs[i], runs[i + 4 + index * 2], runs[i + 1]);
+                return;
+            }
+            index -= n;
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    /**
+     * @return true if this region contains the specified point
+     */
+    public boolean contains(int x, int y) {
+        if (!mBounds.contains(x, y)) {
+            return false;
+        }
+        final int[] runs = mRuns.elements();
+        for (int i = 0, e = mRuns.size(); i < e; i += 3 + runs[i + 2] * 2) {
+            if (y < runs[i + 1]) {
+                if (y < runs[i]) {
+                    return false;
+                }
+                for (int j = i + 3, je = j + runs[i + 2] * 2; j < je; j += 2) {
+                    if (x < runs[j + 1]) {
+                        return x >= runs[j];
+                    }
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if this region is a single rectangle that contains the specified rectangle.
+     * Returning false is not a guarantee that the rectangle is not contained by this region.
+     */
+    public boolean quickContains(@Nonnull Rect r) {
+        return quickContains(r.left, r.top, r.right, r.bottom);
+    }
+
+    /**
+     * Returns true if this region is a single rectangle that contains the specified rectangle.
+     * Returning false is not a guarantee that the rectangle is not contained by this region.
+     */
+    public boolean quickContains(int left, int top, int right, int bottom) {
+        return isRect() && mBounds.contains(left, top, right, bottom);
+    }
+
+    /**
+     * Returns true if this region is empty, or if the specified rectangle does not intersect
+     * the bounds of this region. Returning false is not a guarantee that they intersect.
+     */
+    public boolean quickReject(@Nonnull Rect r) {
+        return quickReject(r.left, r.top, r.right, r.bottom);
+    }
+
+    /**
+     * Returns true if this region is empty, or if the specified rectangle does not intersect
+     * the bounds of this region. Returning false is not a guarantee that they intersect.
+     */
+    public boolean quickReject(int left, int top, int right, int bottom) {
+        return isEmpty() || !mBounds.intersects(left, top, right, bottom);
+    }
+
+    /**
+     * Returns true if either region is empty, or if their bounds do not intersect.
+     * Returning false is not a guarantee that they intersect.
+     */
+    public boolean quickReject(@Nonnull Region region) {
+        return isEmpty() || region.isEmpty() || !Rect.intersects(mBounds, region.mBounds);
+    }
+
+    /**
+     * Translates this region by the specified amount.
+     */
+    public void translate(int dx, int dy) {
+        if (isEmpty()) {
+            return;
+        }
+        final int[] runs = mRuns.elements();
+        for (int i = 0, e = mRuns.size(); i < e; ) {
+            runs[i] += dy;
+            runs[i + 1] += dy;
+            final int je = i + 3 + runs[i + 2] * 2;
+            for (int j = i + 3; j < je; j++) {
+                runs[j] += dx;
+            }
+            i = je;
+        }
+        mBounds.offset(dx, dy);
+    }
+
+    /**
+     * Sets this region to the union of itself and the specified rectangle.
+     *
+     * @return true if the result is not empty
+     */
+    public boolean union(@Nonnull Rect r) {
+        return op(r.left, r.top, r.right, r.bottom, Op.UNION);
+    }
+
+    /**
+     * Sets this region to the result of this region op the specified rectangle.
+     *
+     * @return true if the result is not empty
+     */
+    public boolean op(@Nonnull Rect r, @Nonnull Op op) {
+        return op(r.left, r.top, r.right, r.bottom, op);
+    }
+
+    /**
+     * Sets this region to the result of this region op the specified rectangle.
+     *
+     * @return true if the result is not empty
+     */
+    public boolean op(int left, int top, int right, int bottom, @Nonnull Op op) {
+        if (left >= right || top >= bottom) {
+            return switch (op) {
+                case INTERSECT, REPLACE, REVERSE_DIFFERENCE -> {
+                    setEmpty();
+                    yield false;
+                }
+                default -> !isEmpty();
+            };
+        }
+        // fast paths for accumulating rectangles
+        if (op == Op.UNION) {
+            if (isEmpty()) {
+                return set(left, top, right, bottom);
+            }
+            if (quickContains(left, top, right, bottom)) {
+                return true;
+            }
+        }
+        if (op == Op.INTERSECT && isRect()) {
+            final Rect b = mBounds;
+            return set(Math.max(b.left, left), Math.max(b.top, top),
+                    Math.min(b.right, right), Math.min(b.bottom, bottom));
+        }
+        if (op == Op.REPLACE) {
+            return set(left, top, right, bottom);
+        }
+        return op(this, new Region(left, top, right, bottom), op);
+    }
+
+    /**
+     * Sets this region to the result of this region op the specified region.
+     *
+     * @return true if the result is not empty
+     */
+    public boolean op(@Nonnull Region region, @Nonnull Op op) {
+        return op(this, region, op);
+    }
+
+    /**
+     * Sets this region to the result of the specified rectangle op the specified region.
+     *
+     * @return true if the result is not empty
+     */
+    public boolean op(@Nonnull Rect r, @Nonnull Region region, @Nonnull Op op) {
+        return op(new Region(r), region, op);
+    }
+
+    /**
+     * Sets this region to the result of the first region op the second region.
+     *
+     * @return true if the result is not empty
+     */
+    public boolean op(@Nonnull Region target, @Nonnull Region operand, @Nonnull Op op) {
+        final int[] a = target.mRuns.elements(), b = operand.mRuns.elements();
+        final int aSize = target.mRuns.size(), bSize = operand.mRuns.size();
+        // the result may be this region, so write to a new list
+        final IntArrayList out = new IntArrayList(aSize + bSize);
+        final int[] xs = new int[maxSpans(a, aSize) * 2 + maxSpans(b, bSize) * 2];
+
+        int ai = 0, bi = 0;
+        // the current y, bands above it have been handled
+        int y = Integer.MIN_VALUE;
+        // the last band of the result
+        int prev = -1;
+        while (ai < aSize || bi < bSize) {
+            // skip bands that end above y
+            if (ai < aSize && a[ai + 1] <= y) {
+                ai += 3 + a[ai + 2] * 2;
+                continue;
+            }
+            if (bi < bSize && b[bi + 1] <= y) {
+                bi += 3 + b[bi + 2] * 2;
+                continue;
+            }
+            // find the next horizontal edge
+            int top = Integer.MAX_VALUE;
+            if (ai < aSize) {
+                top = Math.max(a[ai], y);
+            }
+            if (bi < bSize) {
+                top = Math.min(top, Math.max(b[bi], y));
+            }
+            int bottom = Integer.MAX_VALUE;
+            final boolean inA = ai < aSize && a[ai] <= top;
+            final boolean inB = bi < bSize && b[bi] <= top;
+            if (ai < aSize) {
+                bottom = inA ? a[ai + 1] : a[ai];
+            }
+            if (bi < bSize) {
+                bottom = Math.min(bottom, inB ? b[bi + 1] : b[bi]);
+            }
+            y = bottom;
+
+            final int start = out.size();
+            out.add(top);
+            out.add(bottom);
+            out.add(0);
+            final int n = opSpans(a, inA ? ai : -1, b, inB ? bi : -1, op, xs, out);
+            if (n == 0) {
+                out.size(start);
+                continue;
+            }
+            out.set(start + 2, n);
+            // merge with the band above if they have the same spans
+            if (prev >= 0 && out.getInt(prev + 1) == top && sameSpans(out, prev, start)) {
+                out.set(prev + 1, bottom);
+                out.size(start);
+            } else {
+                prev = start;
+            }
+        }
+        mRuns = out;
+        computeBounds();
+        return !isEmpty();
+    }
+
+    // returns the max span count of bands
+    private static int maxSpans(int[] runs, int size) {
+        int max = 0;
+        for (int i = 0; i < size; i += 3 + runs[i + 2] * 2) {
+            max = Math.max(max, runs[i + 2]);
+        }
+        return max;
+    }
+
+    // combines the spans of two bands (-1 means no band), returns the span count
+    private static int opSpans(int[] a, int ai, int[] b, int bi, Op op, int[] xs, IntArrayList out) {
+        // x edges of both bands, sorted
+        int ae = ai < 0 ? 0 : a[ai + 2] * 2, be = bi < 0 ? 0 : b[bi + 2] * 2;
+        int i = 0, j = 0, k = 0;
+        while (i < ae || j < be) {
+            if (j >= be || (i < ae && a[ai + 3 + i] <= b[bi + 3 + j])) {
+                // odd index is the right edge, use negative to mark the operand
+                xs[k++] = i++;
+            } else {
+                xs[k++] = ~j++;
+            }
+        }
+        boolean inA = false, inB = false, in = false;
+        int count = 0;
+        int left = 0;
+        for (int m = 0; m < k; ) {
+            final int x = edgeX(a, ai, b, bi, xs[m]);
+            // apply all edges at x
+            while (m < k && edgeX(a, ai, b, bi, xs[m]) == x) {
+                final int e = xs[m++];
+                if (e >= 0) {
+                    inA = (e & 1) == 0;
+                } else {
+                    inB = (~e & 1) == 0;
+                }
+            }
+            final boolean now = op.test(inA, inB);
+            if (now != in) {
+                if (now) {
+                    left = x;
+                } else {
+                    out.add(left);
+                    out.add(x);
+                    count++;
+                }
+                in = now;
+            }
+        }
+        return count;
+    }
+
+    private static int edgeX(int[] a, int ai, int[] b, int bi, int e) {
+        return e >= 0 ? a[ai + 3 + e] : b[bi + 3 + ~e];
+    }
+
+    private static boolean sameSpans(IntArrayList runs, int i, int j) {
+        final int[] r = runs.elements();
+        final int n = r[i + 2];
+        if (n != r[j + 2]) {
+            return false;
+        }
+        return Arrays.equals(r, i + 3, i + 3 + n * 2, r, j + 3, j + 3 + n * 2);
+    }
+
+    private void computeBounds() {
+        if (isEmpty()) {
+            mBounds.setEmpty();
+            return;
+        }
+        final int[] runs = mRuns.elements();
+        int left = Integer.MAX_VALUE, right = Integer.MIN_VALUE, bottom = 0;
+        for (int i = 0, e = mRuns.size(); i < e; i += 3 + runs[i + 2] * 2) {
+            left = Math.min(left, runs[i + 3]);
+            right = Math.max(right, runs[i + 2 + runs[i + 2] * 2]);
+            bottom = runs[i + 1];
+        }
+        mBounds.set(left, runs[0], right, bottom);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return mRuns.equals(((Region) o).mRuns);
+    }
+
+    @Override
+    public int hashCode() {
+        return mRuns.hashCode();
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("Region(");
+        final Rect r = new Rect();
+        for (int i = 0, e = getRectCount(); i < e; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            getRect(i, r);
+            sb.append(r.toShortString());
+        }
+        return sb.append(')').toString();
     }
 }
@@ -18,14 +18,49 @@
 
 package icyllis.modernui.graphics;
 
+import icyllis.modernui.graphics.font.LayoutPiece;
+import icyllis.modernui.math.Matrix4;
 import icyllis.modernui.math.Rect;
+import icyllis.modernui.text.TextPaint;
+import icyllis.modernui.util.Pool;
+import icyllis.modernui.util.Pools;
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
 
-//TODO wip
+import static icyllis.modernui.graphics.RecordingCanvas.*;
+
+/**
+ * A RenderNode holds a display list, which is a recorded batch of drawing operations,
+ * and the render properties (position, translation, scale, rotation, alpha, clipping)
+ * that are applied when it's drawn.
+ * <p>
+ * Views own a RenderNode each. When a child view is drawn, its parent only records
+ * a reference to the child's RenderNode, so the parent's display list is reused when
+ * the child is recorded again, and the child's display list is reused when only its
+ * render properties are changed. Property changes don't require any recording.
+ * <p>
+ * Recording and drawing must be on the UI thread, a RenderNode is not thread-safe.
+ *
+ * @see Canvas#drawRenderNode(RenderNode)
+ */
 public final class RenderNode extends RenderProperties {
 
-    private Canvas mCurrentRecordingCanvas;
+    // the replaying matrices, used on UI thread
+    private static final Pool<Matrix4> sMatrixPool = Pools.simple(50);
+
+    // the total number of recorded ops, for profiling
+    private static long sRecordedOpCount;
+
+    // the display list, see RecordingCanvas
+    private final ByteArrayList mOps = new ByteArrayList();
+    private final FloatArrayList mFloats = new FloatArrayList();
+    private final ArrayList<Object> mObjects = new ArrayList<>();
+
+    private RecordingCanvas mCurrentRecordingCanvas;
+    private boolean mHasDisplayList;
 
     /**
      * Creates a new RenderNode that can be used to record batches of
@@ -58,7 +93,8 @@ public final class RenderNode extends RenderProperties {
         if (mCurrentRecordingCanvas != null) {
             throw new IllegalStateException("Recording currently in progress - missing #endRecording() call?");
         }
-        //mCurrentRecordingCanvas = RecordingCanvas.obtain(this, width, height);
+        discardDisplayList();
+        mCurrentRecordingCanvas = RecordingCanvas.obtain(this);
         return mCurrentRecordingCanvas;
     }
 
@@ -73,9 +109,245 @@ public final class RenderNode extends RenderProperties {
         if (mCurrentRecordingCanvas == null) {
             throw new IllegalStateException("No recording in progress, forgot to call #beginRecording()?");
         }
-        Canvas canvas = mCurrentRecordingCanvas;
+        RecordingCanvas canvas = mCurrentRecordingCanvas;
         mCurrentRecordingCanvas = null;
-        //canvas.finishRecording(this);
-        //canvas.recycle();
+        canvas.recycle();
+        mHasDisplayList = true;
+    }
+
+    /**
+     * Returns whether the RenderNode has a display list. If this returns false, the RenderNode
+     * should be re-recorded with {@link #beginRecording(int, int)} and {@link #endRecording()}.
+     *
+     * @return true if this RenderNode has a display list, false otherwise
+     */
+    public boolean hasDisplayList() {
+        return mHasDisplayList;
+    }
+
+    /**
+     * Resets the display list and releases the references to the recorded objects.
+     * {@link #hasDisplayList()} will return false.
+     */
+    public void discardDisplayList() {
+        mOps.clear();
+        mFloats.clear();
+        mObjects.clear();
+        mHasDisplayList = false;
+    }
+
+    /**
+     * Returns the number of operations in this display list, excluding the operations
+     * of child nodes.
+     *
+     * @return the op count
+     */
+    public int getOpCount() {
+        return mOps.size();
+    }
+
+    /**
+     * Returns the total number of operations recorded by all RenderNodes, this can be
+     * used to profile how much is recorded per frame.
+     *
+     * @return the total recorded op count
+     */
+    public static long getRecordedOpCount() {
+        return sRecordedOpCount;
+    }
+
+    void addOp(byte op) {
+        mOps.add(op);
+        sRecordedOpCount++;
+    }
+
+    void addFloats(float a, float b) {
+        mFloats.add(a);
+        mFloats.add(b);
+    }
+
+    void addFloats(float a, float b, float c) {
+        mFloats.add(a);
+        mFloats.add(b);
+        mFloats.add(c);
+    }
+
+    void addFloats(float a, float b, float c, float d) {
+        mFloats.add(a);
+        mFloats.add(b);
+        mFloats.add(c);
+        mFloats.add(d);
+    }
+
+    void addFloats(float a, float b, float c, float d, float e) {
+        addFloats(a, b, c, d);
+        mFloats.add(e);
+    }
+
+    void addFloats(float a, float b, float c, float d, float e, float f) {
+        addFloats(a, b, c, d);
+        mFloats.add(e);
+        mFloats.add(f);
+    }
+
+    void addObject(Object o) {
+        mObjects.add(o);
+    }
+
+    /**
+     * Draws this node to the given canvas, applying the render properties.
+     *
+     * @param canvas the canvas to draw on
+     */
+    void draw(@Nonnull Canvas canvas) {
+        if (!mHasDisplayList) {
+            return;
+        }
+        final float alpha = getAlpha();
+        if (alpha <= 0) {
+            // completely transparent
+            return;
+        }
+        final Matrix4 matrix = getMatrix();
+        final boolean identity = matrix == null || matrix.isIdentity();
+        final boolean clip = getClipToBounds();
+        if (clip && identity &&
+                canvas.quickReject(getLeft(), getTop(), getRight(), getBottom())) {
+            // quick rejected
+            return;
+        }
+
+        int saveCount = canvas.save();
+        canvas.translate(getLeft(), getTop());
+
+        if (getAnimationMatrix() != null) {
+            canvas.concat(getAnimationMatrix());
+        }
+        if (!identity) {
+            canvas.concat(matrix);
+        }
+
+        // true if clip region is not empty, or quick rejected
+        boolean hasSpace = true;
+        if (clip) {
+            hasSpace = canvas.clipRect(0, 0, getWidth(), getHeight());
+        }
+
+        if (hasSpace) {
+            if (alpha < 1) {
+                canvas.saveLayer(0, 0, getWidth(), getHeight(), (int) (alpha * 255));
+            }
+            replay(canvas);
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Replays the display list to the given canvas, without render properties.
+     *
+     * @param canvas the canvas to draw on
+     */
+    void replay(@Nonnull Canvas canvas) {
+        final byte[] ops = mOps.elements();
+        final int opCount = mOps.size();
+        final float[] f = mFloats.elements();
+        final ArrayList<Object> objects = mObjects;
+        int fi = 0, oi = 0;
+        // the matrix at the beginning, local matrices are relative to it
+        Matrix4 base = null;
+        for (int i = 0; i < opCount; i++) {
+            switch (ops[i]) {
+                case OP_SAVE -> canvas.save();
+                case OP_SAVE_LAYER -> {
+                    canvas.saveLayer(f[fi], f[fi + 1], f[fi + 2], f[fi + 3], (int) f[fi + 4]);
+                    fi += 5;
+                }
+                case OP_RESTORE -> canvas.restore();
+                case OP_SET_MATRIX -> {
+                    if (base == null) {
+                        base = sMatrixPool.acquire();
+                        if (base == null) {
+                            base = new Matrix4();
+                        }
+                        base.set(canvas.getMatrix());
+                    }
+                    final Matrix4 m = canvas.getMatrix();
+                    m.set(base);
+                    m.multiply((Matrix4) objects.get(oi++));
+                }
+                case OP_CLIP_RECT -> {
+                    canvas.clipRect(f[fi], f[fi + 1], f[fi + 2], f[fi + 3]);
+                    fi += 4;
+                }
+                case OP_DRAW_ARC -> {
+                    canvas.drawArc(f[fi], f[fi + 1], f[fi + 2], f[fi + 3], f[fi + 4],
+                            (Paint) objects.get(oi++));
+                    fi += 5;
+                }
+                case OP_DRAW_BEZIER -> {
+                    canvas.drawBezier(f[fi], f[fi + 1], f[fi + 2], f[fi + 3], f[fi + 4], f[fi + 5],
+                            (Paint) objects.get(oi++));
+                    fi += 6;
+                }
+                case OP_DRAW_CIRCLE -> {
+                    canvas.drawCircle(f[fi], f[fi + 1], f[fi + 2], (Paint) objects.get(oi++));
+                    fi += 3;
+                }
+                case OP_DRAW_TRIANGLE -> {
+                    canvas.drawTriangle(f[fi], f[fi + 1], f[fi + 2], f[fi + 3], f[fi + 4], f[fi + 5],
+                            (Paint) objects.get(oi++));
+                    fi += 6;
+                }
+                case OP_DRAW_RECT -> {
+                    canvas.drawRect(f[fi], f[fi + 1], f[fi + 2], f[fi + 3], (Paint) objects.get(oi++));
+                    fi += 4;
+                }
+                case OP_DRAW_IMAGE -> {
+                    canvas.drawImage((Image) objects.get(oi), f[fi], f[fi + 1], (Paint) objects.get(oi + 1));
+                    oi += 2;
+                    fi += 2;
+                }
+                case OP_DRAW_IMAGE_RECT -> {
+                    canvas.drawImage((Image) objects.get(oi), f[fi], f[fi + 1], f[fi + 2], f[fi + 3],
+                            f[fi + 4], f[fi + 5], f[fi + 6], f[fi + 7], (Paint) objects.get(oi + 1));
+                    oi += 2;
+                    fi += 8;
+                }
+                case OP_DRAW_ROUND_LINE -> {
+                    canvas.drawRoundLine(f[fi], f[fi + 1], f[fi + 2], f[fi + 3], (Paint) objects.get(oi++));
+                    fi += 4;
+                }
+                case OP_DRAW_ROUND_RECT -> {
+                    canvas.drawRoundRect(f[fi], f[fi + 1], f[fi + 2], f[fi + 3], f[fi + 4],
+                            (Integer) objects.get(oi), (Paint) objects.get(oi + 1));
+                    oi += 2;
+                    fi += 5;
+                }
+                case OP_DRAW_ROUND_IMAGE -> {
+                    canvas.drawRoundImage((Image) objects.get(oi), f[fi], f[fi + 1], f[fi + 2],
+                            (Paint) objects.get(oi + 1));
+                    oi += 2;
+                    fi += 3;
+                }
+                case OP_DRAW_TEXT -> {
+                    final String text = (String) objects.get(oi);
+                    canvas.drawText(text, 0, text.length(), f[fi], f[fi + 1],
+                            (Integer) objects.get(oi + 1), (TextPaint) objects.get(oi + 2));
+                    oi += 3;
+                    fi += 2;
+                }
+                case OP_DRAW_TEXT_RUN -> {
+                    canvas.drawTextRun((LayoutPiece) objects.get(oi), f[fi], f[fi + 1],
+                            (TextPaint) objects.get(oi + 1));
+                    oi += 2;
+                    fi += 2;
+                }
+                case OP_DRAW_RENDER_NODE -> canvas.drawRenderNode((RenderNode) objects.get(oi++));
+                default -> throw new IllegalStateException("Unknown op " + ops[i]);
+            }
+        }
+        if (base != null) {
+            sMatrixPool.release(base);
+        }
     }
 }
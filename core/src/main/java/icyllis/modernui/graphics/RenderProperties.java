@@ -297,8 +297,8 @@ public class RenderProperties {
      */
     public boolean setAnimationMatrix(@Nullable Matrix4 matrix) {
         if (matrix == null) {
-            if (mMatrix != null) {
-                mMatrix = null;
+            if (mAnimationMatrix != null) {
+                mAnimationMatrix = null;
                 return true;
             }
             return false;
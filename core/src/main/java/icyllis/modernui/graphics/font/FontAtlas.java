@@ -22,25 +22,33 @@ import icyllis.modernui.ModernUI;
 import icyllis.modernui.annotation.RenderThread;
 import icyllis.modernui.core.Core;
 import icyllis.modernui.core.NativeImage;
+import icyllis.modernui.math.Point;
 import icyllis.modernui.opengl.GLTexture;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.awt.Font;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.IntFunction;
 
 import static icyllis.modernui.opengl.GLCore.*;
 
 /**
- * Maintains a font texture atlas, which is specified with a font family, size and style.
- * The glyphs in the texture are tightly packed, dynamically generated with mipmaps. Each
- * glyph is represented as a {@link TexturedGlyph}.
+ * Maintains font texture atlases, which are specified with a font family, size and style.
+ * The glyphs in the textures are tightly packed by {@link SkylinePacker}, dynamically
+ * generated with mipmaps. Each glyph is represented as a {@link TexturedGlyph}.
  * <p>
- * The initial texture size is 256*256, and each enlargement double the height and width
- * alternately. The max texture size would be 16384*16384 and the image is 8-bit grayscale.
- * The OpenGL texture id may change due to enlarging the texture size.
+ * The atlas consists of pages, each page is a texture that never changes its size.
+ * The first page is 256*256, each new page doubles the size up to 1024*1024, and a full
+ * page opens a new one, so glyphs never move and the texture ID of a glyph never changes.
+ * The image is 8-bit grayscale.
+ * <p>
+ * When the total memory usage of all atlases exceeds {@link GlyphManager#sMaxAtlasMemoryUsage},
+ * the least recently used pages will be evicted, see {@link GlyphManager#validateGlyph(TexturedGlyph)}.
  *
  * @see GlyphManager
  * @see TexturedGlyph
@@ -54,6 +62,7 @@ public class FontAtlas {
      */
     private static final int GLYPH_BORDER = 1;
     private static final int INITIAL_SIZE = 256;
+    private static final int MAX_PAGE_SIZE = 1024;
     /**
      * Max mipmap level.
      */
@@ -64,33 +73,29 @@ public class FontAtlas {
      */
     public static volatile boolean sLinearSampling = true;
 
-    // cached factory
-    private static final IntFunction<TexturedGlyph> sFactory = i -> new TexturedGlyph();
+    final Font mFont;
 
-    // texture object is immutable, but texture ID (the int) can change by resizing
-    public final GLTexture mTexture = new GLTexture(GL_TEXTURE_2D);
+    // cached factory
+    private final IntFunction<TexturedGlyph> mFactory = code -> new TexturedGlyph(this, code);
 
-    // OpenHashMap uses less memory than RBTree/AVLTree, but higher than ArrayMap
+    // OpenHashMap uses less memory than RBTree/AVLTree, but higher than ArrayMap,
+    // not synchronized, render thread only
     private final Int2ObjectMap<TexturedGlyph> mGlyphs = new Int2ObjectOpenHashMap<>();
 
-    // position for next glyph sprite
-    private int mPosX = GLYPH_BORDER;
-    private int mPosY = GLYPH_BORDER;
-
-    // max height of current line
-    private int mLineHeight;
+    // texture pages, in creation order
+    private final List<Page> mPages = new ArrayList<>();
 
-    // current texture size
-    private int mWidth;
-    private int mHeight;
+    // cached location
+    private final Point mLoc = new Point();
 
     // create from any thread
-    public FontAtlas() {
+    public FontAtlas(@Nonnull Font font) {
+        mFont = font;
     }
 
     @Nullable
     public TexturedGlyph getGlyph(int glyphCode) {
-        return mGlyphs.computeIfAbsent(glyphCode, sFactory);
+        return mGlyphs.computeIfAbsent(glyphCode, mFactory);
     }
 
     // needed when the glyph has nothing to render
@@ -102,97 +107,197 @@ public class FontAtlas {
         for (var glyph : mGlyphs.int2ObjectEntrySet()) {
             ModernUI.LOGGER.info(GlyphManager.MARKER, "GlyphCode {}: {}", glyph.getIntKey(), glyph.getValue());
         }
+        ModernUI.LOGGER.info(GlyphManager.MARKER, "Pages: {}, MemoryUsage: {} bytes, Efficiency: {}",
+                getPageCount(), getMemoryUsage(), getEfficiency());
         if (Core.isOnRenderThread()) {
-            try {
-                NativeImage.download(NativeImage.Format.RGBA, mTexture, false)
-                        .saveDialog(NativeImage.SaveFormat.PNG);
-            } catch (IOException e) {
-                e.printStackTrace();
+            for (Page page : mPages) {
+                try {
+                    NativeImage.download(NativeImage.Format.RGBA, page.mTexture, false)
+                            .saveDialog(NativeImage.SaveFormat.PNG);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
     }
 
     public void stitch(@Nonnull TexturedGlyph glyph, long data) {
-        if (mWidth == 0) {
-            resize();
-        }
-        if (mPosX + glyph.width + GLYPH_BORDER >= mWidth) {
-            mPosX = GLYPH_BORDER;
-            // we are on the right half
-            if (mWidth == mHeight && mWidth != INITIAL_SIZE) {
-                mPosX += mWidth >> 1;
+        final int width = glyph.width + GLYPH_BORDER * 2;
+        final int height = glyph.height + GLYPH_BORDER * 2;
+        final Point loc = mLoc;
+
+        Page page = null;
+        // try newer pages first, they are larger and less filled
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            if (mPages.get(i).mPacker.addRect(width, height, loc)) {
+                page = mPages.get(i);
+                break;
             }
-            mPosY += mLineHeight + GLYPH_BORDER * 2;
-            mLineHeight = 0;
         }
-        if (mPosY + glyph.height + GLYPH_BORDER >= mHeight) {
-            // move to the right half
-            if (mWidth != mHeight) {
-                mPosX = GLYPH_BORDER + mWidth;
-                mPosY = GLYPH_BORDER;
-            }
-            resize();
+        if (page == null) {
+            page = createPage(Math.max(width, height));
+            boolean success = page.mPacker.addRect(width, height, loc);
+            assert success;
         }
 
-        mTexture.upload(0, mPosX, mPosY, glyph.width, glyph.height, glyph.width,
+        final int x = loc.x + GLYPH_BORDER;
+        final int y = loc.y + GLYPH_BORDER;
+        final int size = page.mPacker.getWidth();
+
+        page.mTexture.upload(0, x, y, glyph.width, glyph.height, glyph.width,
                 0, 0, 1, GL_RED, GL_UNSIGNED_BYTE, data);
-        mTexture.generateMipmap();
+        // mipmaps are generated in flush()
+        page.mDirty = true;
 
-        glyph.u1 = (float) mPosX / mWidth;
-        glyph.v1 = (float) mPosY / mHeight;
-        glyph.u2 = (float) (mPosX + glyph.width) / mWidth;
-        glyph.v2 = (float) (mPosY + glyph.height) / mHeight;
+        page.mGlyphs.add(glyph);
+        page.mLastUsedFrame = GlyphManager.getInstance().getFrameIndex();
 
-        mPosX += glyph.width + GLYPH_BORDER * 2;
-        mLineHeight = Math.max(mLineHeight, glyph.height);
+        glyph.texture = page.mTexture.get();
+        glyph.page = page;
+        glyph.state = TexturedGlyph.STATE_READY;
+        glyph.u1 = (float) x / size;
+        glyph.v1 = (float) y / size;
+        glyph.u2 = (float) (x + glyph.width) / size;
+        glyph.v2 = (float) (y + glyph.height) / size;
     }
 
-    private void resize() {
-        // never initialized
-        if (mWidth == 0) {
-            mWidth = mHeight = INITIAL_SIZE;
-            mTexture.allocate2DM(GL_R8, INITIAL_SIZE, INITIAL_SIZE, MIPMAP_LEVEL);
-            // we have border that not upload data, so generate mipmap may leave undefined data
-            mTexture.clear(0);
-        } else {
-            final boolean vertical;
-            if (mHeight != mWidth) {
-                mWidth <<= 1;
-                vertical = false;
-            } else {
-                mHeight <<= 1;
-                vertical = true;
+    /**
+     * Generates mipmaps for pages that have new glyphs stitched, so that a batch of
+     * uploads only regenerates mipmaps once.
+     */
+    public void flush() {
+        for (Page page : mPages) {
+            if (page.mDirty) {
+                page.mTexture.generateMipmap();
+                page.mDirty = false;
             }
+        }
+    }
 
-            mTexture.resize(mWidth, mHeight, true);
-
-            if (vertical) {
-                mTexture.clear(0, 0, mHeight >> 1, mWidth, mHeight >> 1);
-                for (TexturedGlyph glyph : mGlyphs.values()) {
-                    if (glyph == null) {
-                        continue;
-                    }
-                    glyph.v1 *= 0.5;
-                    glyph.v2 *= 0.5;
-                    // texture id changed
-                    glyph.texture = mTexture.get();
-                }
-            } else {
-                mTexture.clear(0, mWidth >> 1, 0, mWidth >> 1, mHeight);
-                for (TexturedGlyph glyph : mGlyphs.values()) {
-                    if (glyph == null) {
-                        continue;
-                    }
-                    glyph.u1 *= 0.5;
-                    glyph.u2 *= 0.5;
-                    // texture id changed
-                    glyph.texture = mTexture.get();
-                }
+    @Nonnull
+    private Page createPage(int minSize) {
+        int size = Math.min(INITIAL_SIZE << mPages.size(), MAX_PAGE_SIZE);
+        // a large glyph may require a dedicated page
+        while (size < minSize) {
+            size <<= 1;
+        }
+        GlyphManager.getInstance().trimAtlases(getPageMemoryUsage(size));
+        Page page = new Page(size);
+        mPages.add(page);
+        return page;
+    }
+
+    /**
+     * @return the number of texture pages
+     */
+    public int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * Returns the approximate GPU memory usage of all pages, including mipmaps.
+     *
+     * @return memory usage in bytes
+     */
+    public long getMemoryUsage() {
+        long size = 0;
+        for (Page page : mPages) {
+            size += getPageMemoryUsage(page.mPacker.getWidth());
+        }
+        return size;
+    }
+
+    private static long getPageMemoryUsage(int size) {
+        // R8 format, plus about 1/3 for mipmaps
+        return (long) size * size * 4 / 3;
+    }
+
+    /**
+     * Returns the frame index when the least recently used page was last used.
+     *
+     * @return the frame index, or {@link Long#MAX_VALUE} if there's no page
+     */
+    long getLeastRecentlyUsedFrame() {
+        long frame = Long.MAX_VALUE;
+        for (Page page : mPages) {
+            frame = Math.min(frame, page.mLastUsedFrame);
+        }
+        return frame;
+    }
+
+    /**
+     * Deletes the least recently used page. The glyph objects remain in this atlas, so that
+     * they can be re-rasterized on demand.
+     *
+     * @return the memory freed in bytes
+     */
+    long evictLeastRecentlyUsed() {
+        Page target = null;
+        for (Page page : mPages) {
+            if (target == null || page.mLastUsedFrame < target.mLastUsedFrame) {
+                target = page;
             }
+        }
+        if (target == null) {
+            return 0;
+        }
+        mPages.remove(target);
+        target.close();
+        return getPageMemoryUsage(target.mPacker.getWidth());
+    }
 
-            // we later generate mipmap
+    /**
+     * Returns the fraction of the total page area used by glyphs, including borders.
+     *
+     * @return the packing efficiency, 0 to 1
+     */
+    public float getEfficiency() {
+        long used = 0, total = 0;
+        for (Page page : mPages) {
+            used += page.mPacker.getUsedArea();
+            total += (long) page.mPacker.getWidth() * page.mPacker.getHeight();
+        }
+        return total == 0 ? 0 : (float) ((double) used / total);
+    }
+
+    /**
+     * Deletes all textures, the glyphs become invalid.
+     */
+    public void close() {
+        for (Page page : mPages) {
+            page.close();
+        }
+        mPages.clear();
+        mGlyphs.clear();
+    }
+
+    static final class Page {
+
+        final GLTexture mTexture = new GLTexture(GL_TEXTURE_2D);
+        final SkylinePacker mPacker;
+        final List<TexturedGlyph> mGlyphs = new ArrayList<>();
+
+        long mLastUsedFrame;
+        boolean mDirty;
+
+        Page(int size) {
+            mPacker = new SkylinePacker(size, size);
+            mTexture.allocate2DM(GL_R8, size, size, MIPMAP_LEVEL);
+            // we have border that not upload data, so generate mipmap may leave undefined data
+            mTexture.clear(0);
+            mTexture.setFilter(sLinearSampling ? GL_LINEAR_MIPMAP_LINEAR : GL_NEAREST, GL_NEAREST);
+            mTexture.swizzleRGBA(GL_ONE, GL_ONE, GL_ONE, GL_RED);
+        }
+
+        // glyphs become placeholders
+        void close() {
+            for (TexturedGlyph glyph : mGlyphs) {
+                glyph.texture = 0;
+                glyph.page = null;
+                glyph.state = TexturedGlyph.STATE_NONE;
+            }
+            mGlyphs.clear();
+            mTexture.close();
         }
-        mTexture.setFilter(sLinearSampling ? GL_LINEAR_MIPMAP_LINEAR : GL_NEAREST, GL_NEAREST);
-        mTexture.swizzleRGBA(GL_ONE, GL_ONE, GL_ONE, GL_RED);
     }
 }
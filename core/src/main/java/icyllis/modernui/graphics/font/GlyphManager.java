@@ -20,6 +20,7 @@ package icyllis.modernui.graphics.font;
 
 import icyllis.modernui.ModernUI;
 import icyllis.modernui.annotation.RenderThread;
+import icyllis.modernui.core.Core;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
 import org.lwjgl.BufferUtils;
@@ -31,8 +32,12 @@ import java.awt.*;
 import java.awt.font.GlyphVector;
 import java.awt.image.BufferedImage;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
 
 /**
@@ -57,7 +62,23 @@ public class GlyphManager {
      */
     public static volatile boolean sBitmapLike = false;
 
-    private static final Function<Font, FontAtlas> sFactory = f -> new FontAtlas();
+    /**
+     * The maximum GPU memory usage of all font atlases, in bytes. When exceeded, the least
+     * recently used atlas pages will be evicted, except those used in the current frame.
+     */
+    public static volatile long sMaxAtlasMemoryUsage = 64 * 1024 * 1024;
+
+    /**
+     * Whether to rasterize missing glyphs on worker threads. If true, a glyph looked up for the
+     * first time is a placeholder that renders nothing, until its image is uploaded at the
+     * beginning of a later frame. Otherwise, glyphs are rasterized and uploaded synchronously.
+     */
+    public static volatile boolean sAsyncRasterization = true;
+
+    private static final Function<Font, FontAtlas> sFactory = FontAtlas::new;
+
+    // Graphics2D is not thread-safe, each thread has its own
+    private static final ThreadLocal<Rasterizer> sRasterizers = ThreadLocal.withInitial(Rasterizer::new);
 
     /**
      * The global instance.
@@ -65,29 +86,45 @@ public class GlyphManager {
     private static volatile GlyphManager sInstance;
 
     /**
-     * All font atlases, with specified font family, size and style.
+     * All font atlases, with specified font family, size and style. The glyphs of an atlas
+     * are only accessed on render thread, worker threads only rasterize the glyph images.
+     * The map is concurrent so that the memory usage can be queried from any thread.
      */
     private Map<Font, FontAtlas> mAtlases;
 
     /**
-     * Draw a single glyph onto this image and then loaded from here into an OpenGL texture.
+     * The image of the Graphics2D used for measurement.
      */
     private BufferedImage mImage;
 
     /**
-     * The Graphics2D associated with glyph image and used for bit blit.
+     * The Graphics2D that provides the font render context.
      */
     private Graphics2D mGraphics;
 
     /**
-     * Intermediate data array for use with image.
+     * A direct buffer used for loading the pre-rendered glyph images into OpenGL textures.
      */
-    private int[] mImageData;
+    private ByteBuffer mImageBuffer;
 
     /**
-     * A direct buffer used for loading the pre-rendered glyph images into OpenGL textures.
+     * Glyphs rasterized on worker threads, waiting for uploading on the render thread.
      */
-    private ByteBuffer mImageBuffer;
+    private final Queue<StagedGlyph> mStagedGlyphs = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Called on render thread when glyphs rasterized by worker threads are uploaded.
+     */
+    private final CopyOnWriteArrayList<Runnable> mUploadListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Glyph images for software rendering, they are never uploaded to textures.
+     */
+    private final Map<Font, Map<Integer, GlyphMask>> mGlyphMasks = new ConcurrentHashMap<>();
+
+    // incremented once per frame by nextFrame(), for atlas page eviction
+    private long mFrameIndex;
+    private int mEvictionCount;
 
     private GlyphManager() {
         // init
@@ -112,11 +149,14 @@ public class GlyphManager {
     public void reload() {
         if (mAtlases != null) {
             for (FontAtlas atlas : mAtlases.values()) {
-                atlas.mTexture.close();
+                atlas.close();
             }
         }
-        mAtlases = new HashMap<>();
-        allocateImage(64, 64);
+        mAtlases = new ConcurrentHashMap<>();
+        mGlyphMasks.clear();
+        allocateImage();
+        // layout pieces hold the glyphs of closed textures, and measurement may change
+        LayoutCache.clear();
     }
 
     /**
@@ -144,6 +184,10 @@ public class GlyphManager {
      * Given a derived font and a glyph code within that font, locate the glyph's pre-rendered image
      * in the glyph atlas and return its cache entry. The entry stores the texture with the
      * pre-rendered glyph image, as well as the position and size of that image within the texture.
+     * <p>
+     * If {@link #sAsyncRasterization} is true, the glyph may be a placeholder for now, and its
+     * page may be evicted later. Renderers must call {@link #validateGlyph(TexturedGlyph)} each
+     * time before using the texture, and someone must call {@link #nextFrame()} every frame.
      *
      * @param font      the font (with size and style) to which this glyphCode belongs and which
      *                  was used to pre-render the glyph
@@ -153,99 +197,382 @@ public class GlyphManager {
     @Nullable
     @RenderThread
     public TexturedGlyph lookupGlyph(@Nonnull Font font, int glyphCode) {
+        // the glyph map and glyph states are not synchronized
+        Core.checkRenderThread();
         FontAtlas atlas = mAtlases.computeIfAbsent(font, sFactory);
         TexturedGlyph glyph = atlas.getGlyph(glyphCode);
-        if (glyph != null && glyph.texture == 0) {
-            glyph.texture = atlas.mTexture.get();
-            if (cacheGlyph(font, glyphCode, atlas, glyph)) {
+        if (glyph != null && glyph.state == TexturedGlyph.STATE_NONE) {
+            requestGlyph(atlas, glyph);
+            if (glyph.state == TexturedGlyph.STATE_EMPTY) {
                 return null;
             }
         }
         return glyph;
     }
 
+    /**
+     * Makes sure the glyph is rasterized in its atlas, and marks it as used in the current
+     * frame. If the glyph was evicted, it will be re-rasterized into the same object.
+     *
+     * @param glyph a glyph returned by {@link #lookupGlyph(Font, int)}
+     * @return true if the glyph is ready to render, false if it's a placeholder for now
+     */
     @RenderThread
-    public void debug() {
-        for (var atlas : mAtlases.entrySet()) {
-            ModernUI.LOGGER.info(MARKER, atlas.getKey());
-            atlas.getValue().debug();
+    public boolean validateGlyph(@Nonnull TexturedGlyph glyph) {
+        final FontAtlas atlas = glyph.atlas;
+        if (atlas == null) {
+            return glyph.texture != 0;
+        }
+        // evicted, but the atlas may be closed by reload()
+        if (glyph.state == TexturedGlyph.STATE_NONE && mAtlases.get(atlas.mFont) == atlas) {
+            requestGlyph(atlas, glyph);
         }
+        if (glyph.state == TexturedGlyph.STATE_READY) {
+            glyph.page.mLastUsedFrame = mFrameIndex;
+            return true;
+        }
+        return false;
     }
 
-    @RenderThread
-    private boolean cacheGlyph(@Nonnull Font font, int glyphCode, @Nonnull FontAtlas atlas,
-                               @Nonnull TexturedGlyph glyph) {
-        // there's no need to layout glyph vector, we only draw the specific glyphCode
-        // which is already laid-out in LayoutEngine
-        GlyphVector vector = font.createGlyphVector(mGraphics.getFontRenderContext(), new int[]{glyphCode});
-
-        Rectangle bounds = vector.getPixelBounds(null, 0, 0);
+    /**
+     * Returns the 8-bit alpha image of a glyph, rasterized on the calling thread for software
+     * rendering without a graphics context. The result is cached until {@link #reload()}.
+     *
+     * @param glyph a glyph returned by {@link #lookupGlyph(Font, int)}
+     * @return the glyph image, or null if the glyph has nothing to render
+     * @see #getGlyphMask(Font, int)
+     */
+    @Nullable
+    public GlyphMask getGlyphMask(@Nonnull TexturedGlyph glyph) {
+        final FontAtlas atlas = glyph.atlas;
+        if (atlas == null) {
+            return null;
+        }
+        return getGlyphMask(atlas.mFont, glyph.glyphCode);
+    }
 
-        if (bounds.width == 0 || bounds.height == 0) {
-            atlas.setEmpty(glyphCode);
-            return true;
+    /**
+     * Returns the 8-bit alpha image of a glyph, rasterized on the calling thread for software
+     * rendering without a graphics context. Unlike {@link #lookupGlyph(Font, int)}, this can
+     * be called from any thread. The result is cached until {@link #reload()}.
+     *
+     * @param font      the derived font, see {@link LayoutPiece#getGlyphFonts()}
+     * @param glyphCode the glyph code of the font
+     * @return the glyph image, or null if the glyph has nothing to render
+     */
+    @Nullable
+    public GlyphMask getGlyphMask(@Nonnull Font font, int glyphCode) {
+        final Map<Integer, GlyphMask> masks = mGlyphMasks.computeIfAbsent(font, f -> new ConcurrentHashMap<>());
+        GlyphMask mask = masks.get(glyphCode);
+        if (mask == null) {
+            final StagedGlyph staged = sRasterizers.get().rasterize(null, font, glyphCode);
+            if (staged.mPixels == null) {
+                mask = GlyphMask.EMPTY;
+            } else {
+                mask = new GlyphMask(staged.mOffsetX, staged.mOffsetY, staged.mWidth, staged.mHeight,
+                        staged.mPixels);
+            }
+            masks.put(glyphCode, mask);
         }
+        return mask == GlyphMask.EMPTY ? null : mask;
+    }
 
-        //glyph.advance = vector.getGlyphMetrics(0).getAdvanceX();
-        glyph.offsetX = bounds.x;
-        glyph.offsetY = bounds.y;
-        glyph.width = bounds.width;
-        glyph.height = bounds.height;
+    /**
+     * Called by the frame loop once per frame, after everything is drawn. Uploads glyphs
+     * rasterized by worker threads, then starts a new frame. Pages used in a frame are not
+     * evicted until the frame ends.
+     */
+    @RenderThread
+    public void nextFrame() {
+        // upload before increasing the frame index, pages used in the last frame are protected
+        uploadStagedGlyphs();
+        mFrameIndex++;
+    }
 
-        if (bounds.width > mImage.getWidth() || bounds.height > mImage.getHeight()) {
-            allocateImage(mImage.getWidth() << 1, mImage.getHeight() << 1);
+    /**
+     * Uploads glyphs rasterized by worker threads, called by the canvas before drawing.
+     * This doesn't start a new frame, since a frame may be drawn by several canvases and
+     * text renderers, some of which buffer their draws until the end of the frame.
+     */
+    @RenderThread
+    public void uploadStagedGlyphs() {
+        boolean uploaded = false;
+        StagedGlyph staged;
+        while ((staged = mStagedGlyphs.poll()) != null) {
+            uploaded |= uploadGlyph(staged);
         }
+        if (uploaded) {
+            for (FontAtlas atlas : mAtlases.values()) {
+                atlas.flush();
+            }
+            for (Runnable listener : mUploadListeners) {
+                listener.run();
+            }
+        }
+    }
 
-        // give it an offset to draw at origin
-        mGraphics.drawGlyphVector(vector, -bounds.x, -bounds.y);
+    /**
+     * Adds a listener called on render thread when glyphs rasterized by worker threads are
+     * uploaded. A frame that was built before that has drawn nothing for these glyphs, and
+     * it should be drawn again.
+     *
+     * @param listener the listener to add
+     */
+    public void addUploadListener(@Nonnull Runnable listener) {
+        mUploadListeners.addIfAbsent(listener);
+    }
 
-        // copy raw pixel data from BufferedImage to imageData array with one integer per pixel in 0xAARRGGBB form
-        mImage.getRGB(0, 0, bounds.width, bounds.height, mImageData, 0, bounds.width);
+    /**
+     * Removes a listener added by {@link #addUploadListener(Runnable)}.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeUploadListener(@Nonnull Runnable listener) {
+        mUploadListeners.remove(listener);
+    }
 
-        final int size = bounds.width * bounds.height;
-        for (int i = 0; i < size; i++) {
-            // alpha channel for grayscale texture
-            mImageBuffer.put((byte) (mImageData[i] >>> 24));
+    long getFrameIndex() {
+        return mFrameIndex;
+    }
+
+    @RenderThread
+    private void requestGlyph(@Nonnull FontAtlas atlas, @Nonnull TexturedGlyph glyph) {
+        final Font font = atlas.mFont;
+        final int glyphCode = glyph.glyphCode;
+        if (sAsyncRasterization) {
+            glyph.state = TexturedGlyph.STATE_PENDING;
+            CompletableFuture.runAsync(() -> mStagedGlyphs.add(sRasterizers.get().rasterize(glyph, font, glyphCode)),
+                            Core.getComputeExecutor())
+                    .exceptionally(e -> {
+                        ModernUI.LOGGER.error(MARKER, "Failed to rasterize glyph {} of {}", glyphCode, font, e);
+                        mStagedGlyphs.add(new StagedGlyph(glyph));
+                        return null;
+                    });
+        } else {
+            if (uploadGlyph(sRasterizers.get().rasterize(glyph, font, glyphCode))) {
+                atlas.flush();
+            }
         }
-        mImageBuffer.flip();
+    }
 
-        atlas.stitch(glyph, MemoryUtil.memAddress(mImageBuffer));
+    // returns true if the glyph is stitched
+    @RenderThread
+    private boolean uploadGlyph(@Nonnull StagedGlyph staged) {
+        final TexturedGlyph glyph = staged.mGlyph;
+        assert glyph != null;
+        final FontAtlas atlas = glyph.atlas;
+        assert atlas != null;
+        if (mAtlases.get(atlas.mFont) != atlas) {
+            // closed by reload()
+            return false;
+        }
+        final byte[] pixels = staged.mPixels;
+        if (pixels == null) {
+            glyph.state = TexturedGlyph.STATE_EMPTY;
+            atlas.setEmpty(glyph.glyphCode);
+            return false;
+        }
+        glyph.offsetX = staged.mOffsetX;
+        glyph.offsetY = staged.mOffsetY;
+        glyph.width = staged.mWidth;
+        glyph.height = staged.mHeight;
 
-        mGraphics.clearRect(0, 0, mImage.getWidth(), mImage.getHeight());
+        if (mImageBuffer.capacity() < pixels.length) {
+            mImageBuffer = BufferUtils.createByteBuffer(Math.max(pixels.length, mImageBuffer.capacity() << 1));
+        }
+        mImageBuffer.put(pixels).flip();
+        atlas.stitch(glyph, MemoryUtil.memAddress(mImageBuffer));
         mImageBuffer.clear();
-        return false;
+        return true;
     }
 
-    private void allocateImage(int width, int height) {
-        mImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        mGraphics = mImage.createGraphics();
+    /**
+     * Evicts least recently used atlas pages until there's enough room for a new page.
+     *
+     * @param bytesToAdd the memory usage of the new page
+     */
+    @RenderThread
+    void trimAtlases(long bytesToAdd) {
+        long usage = getAtlasMemoryUsage();
+        final long maxUsage = sMaxAtlasMemoryUsage;
+        while (usage + bytesToAdd > maxUsage) {
+            FontAtlas target = null;
+            long oldest = mFrameIndex;
+            for (FontAtlas atlas : mAtlases.values()) {
+                long frame = atlas.getLeastRecentlyUsedFrame();
+                if (frame < oldest) {
+                    oldest = frame;
+                    target = atlas;
+                }
+            }
+            if (target == null) {
+                // all pages are used in the current frame
+                break;
+            }
+            usage -= target.evictLeastRecentlyUsed();
+            mEvictionCount++;
+        }
+    }
 
-        mImageData = new int[width * height];
-        mImageBuffer = BufferUtils.createByteBuffer(mImageData.length);
+    /**
+     * @return the approximate GPU memory usage of all font atlases in bytes
+     */
+    public long getAtlasMemoryUsage() {
+        long usage = 0;
+        for (FontAtlas atlas : mAtlases.values()) {
+            usage += atlas.getMemoryUsage();
+        }
+        return usage;
+    }
 
+    @RenderThread
+    public void debug() {
+        long memoryUsage = 0;
+        int pageCount = 0;
+        for (var atlas : mAtlases.entrySet()) {
+            ModernUI.LOGGER.info(MARKER, atlas.getKey());
+            atlas.getValue().debug();
+            memoryUsage += atlas.getValue().getMemoryUsage();
+            pageCount += atlas.getValue().getPageCount();
+        }
+        ModernUI.LOGGER.info(MARKER, "Total atlases: {}, pages: {}, memory usage: {} bytes, evictions: {}",
+                mAtlases.size(), pageCount, memoryUsage, mEvictionCount);
+    }
+
+    private void allocateImage() {
+        mImage = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        mGraphics = mImage.createGraphics();
+        setupGraphics(mGraphics);
+        mImageBuffer = BufferUtils.createByteBuffer(64 * 64);
+    }
+
+    private static void setupGraphics(@Nonnull Graphics2D graphics) {
         // set background color for use with clearRect()
-        mGraphics.setBackground(BG_COLOR);
+        graphics.setBackground(BG_COLOR);
 
         // drawImage() to this buffer will copy all source pixels instead of alpha blending them into the current image
-        mGraphics.setComposite(AlphaComposite.Src);
+        graphics.setComposite(AlphaComposite.Src);
 
         // this only for shape rendering, so we turn it off
-        mGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
 
         if (sBitmapLike) {
-            mGraphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
                     RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
-            mGraphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
+            graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
                     RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
         } else {
             // enable text antialias and highly precise rendering
-            mGraphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
                     RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-            mGraphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
+            graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
                     RenderingHints.VALUE_FRACTIONALMETRICS_ON);
         }
     }
 
+    /**
+     * Draws single glyphs onto an image and copies the alpha channel, can be used
+     * on any thread, but an instance is confined to one thread.
+     */
+    private static final class Rasterizer {
+
+        private BufferedImage mImage;
+        private Graphics2D mGraphics;
+
+        // intermediate data array for use with image
+        private int[] mImageData;
+
+        // the rendering hints may change on reload
+        private boolean mBitmapLike;
+
+        Rasterizer() {
+            allocate(64, 64);
+        }
+
+        private void allocate(int width, int height) {
+            mImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            mGraphics = mImage.createGraphics();
+            mImageData = new int[width * height];
+            mBitmapLike = sBitmapLike;
+            setupGraphics(mGraphics);
+        }
+
+        @Nonnull
+        StagedGlyph rasterize(@Nullable TexturedGlyph glyph, @Nonnull Font font, int glyphCode) {
+            if (mBitmapLike != sBitmapLike) {
+                allocate(mImage.getWidth(), mImage.getHeight());
+            }
+            // there's no need to layout glyph vector, we only draw the specific glyphCode
+            // which is already laid-out in LayoutEngine
+            GlyphVector vector = font.createGlyphVector(mGraphics.getFontRenderContext(), new int[]{glyphCode});
+
+            Rectangle bounds = vector.getPixelBounds(null, 0, 0);
+
+            if (bounds.width == 0 || bounds.height == 0) {
+                return new StagedGlyph(glyph);
+            }
+
+            int width = mImage.getWidth();
+            int height = mImage.getHeight();
+            if (bounds.width > width || bounds.height > height) {
+                while (bounds.width > width || bounds.height > height) {
+                    width <<= 1;
+                    height <<= 1;
+                }
+                allocate(width, height);
+            }
+
+            // give it an offset to draw at origin
+            mGraphics.drawGlyphVector(vector, -bounds.x, -bounds.y);
+
+            // copy raw pixel data from BufferedImage to imageData array with one integer per pixel in 0xAARRGGBB form
+            mImage.getRGB(0, 0, bounds.width, bounds.height, mImageData, 0, bounds.width);
+
+            final int size = bounds.width * bounds.height;
+            final byte[] pixels = new byte[size];
+            for (int i = 0; i < size; i++) {
+                // alpha channel for grayscale texture
+                pixels[i] = (byte) (mImageData[i] >>> 24);
+            }
+
+            mGraphics.clearRect(0, 0, mImage.getWidth(), mImage.getHeight());
+            return new StagedGlyph(glyph, bounds, pixels);
+        }
+    }
+
+    /**
+     * The rasterization result of a glyph, waiting for uploading.
+     */
+    private static final class StagedGlyph {
+
+        // null if rasterized for a glyph mask
+        @Nullable
+        final TexturedGlyph mGlyph;
+        final int mOffsetX;
+        final int mOffsetY;
+        final int mWidth;
+        final int mHeight;
+
+        // null if nothing to render
+        @Nullable
+        final byte[] mPixels;
+
+        StagedGlyph(@Nullable TexturedGlyph glyph) {
+            mGlyph = glyph;
+            mOffsetX = mOffsetY = mWidth = mHeight = 0;
+            mPixels = null;
+        }
+
+        StagedGlyph(@Nullable TexturedGlyph glyph, @Nonnull Rectangle bounds, @Nonnull byte[] pixels) {
+            mGlyph = glyph;
+            mOffsetX = bounds.x;
+            mOffsetY = bounds.y;
+            mWidth = bounds.width;
+            mHeight = bounds.height;
+            mPixels = pixels;
+        }
+    }
+
     /**
      * Re-calculate font metrics in pixels, the higher 32 bits are ascent and
      * lower 32 bits are descent.
@@ -0,0 +1,67 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.graphics.font;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The 8-bit alpha image of a glyph in heap memory, for software rendering without
+ * a graphics context.
+ *
+ * @see GlyphManager#getGlyphMask(TexturedGlyph)
+ * @since 3.4
+ */
+public final class GlyphMask {
+
+    // placeholder of glyphs that have nothing to render
+    static final GlyphMask EMPTY = new GlyphMask(0, 0, 0, 0, new byte[0]);
+
+    /**
+     * The horizontal offset to baseline.
+     */
+    public final int offsetX;
+
+    /**
+     * The vertical offset to baseline.
+     */
+    public final int offsetY;
+
+    /**
+     * The width of this glyph image in pixels.
+     */
+    public final int width;
+
+    /**
+     * The height of this glyph image in pixels.
+     */
+    public final int height;
+
+    /**
+     * The alpha values, row-major, width * height.
+     */
+    public final byte[] pixels;
+
+    GlyphMask(int offsetX, int offsetY, int width, int height, @Nonnull byte[] pixels) {
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+}
@@ -20,19 +20,24 @@ package icyllis.modernui.graphics.font;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
 import icyllis.modernui.math.MathUtil;
 import icyllis.modernui.text.TextUtils;
 import icyllis.modernui.util.Pool;
 import icyllis.modernui.util.Pools;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Locale;
 
 /**
  * Globally shared layout cache. Useful when recycling layouts, or raw data source and
- * layout information are separated. Max memory usage: 3~4 MB.
+ * layout information are separated. Entries are weighted by their estimated memory usage,
+ * the budget is {@link #DEFAULT_MAX_MEMORY_USAGE} by default.
  *
  * @see LayoutPiece
  * @since 2.6
@@ -45,9 +50,22 @@ public class LayoutCache {
      */
     public static final int MAX_PIECE_LENGTH = 128;
 
+    /**
+     * The default budget of estimated memory usage in bytes.
+     *
+     * @see #setMaxMemoryUsage(long)
+     */
+    public static final long DEFAULT_MAX_MEMORY_USAGE = 4 * 1024 * 1024;
+
     private static final Pool<LookupKey> sLookupKeys = Pools.concurrent(2);
     private static final Pool<char[]> sCharBuffers = Pools.concurrent(1);
     private static volatile Cache<Key, LayoutPiece> sCache;
+    private static volatile LayoutDiskCache sDiskCache;
+
+    private static volatile long sMaxMemoryUsage = DEFAULT_MAX_MEMORY_USAGE;
+
+    // pieces are created outside the cache, so their creation time is recorded manually
+    private static final ConcurrentStatsCounter sStats = new ConcurrentStatsCounter();
 
     /**
      * Get or create the layout piece from the global cache with given requirements.
@@ -105,7 +123,9 @@ public class LayoutCache {
             synchronized (LayoutCache.class) {
                 if (sCache == null) {
                     sCache = Caffeine.newBuilder()
-                            .maximumSize(1000)
+                            .maximumWeight(sMaxMemoryUsage)
+                            .weigher(LayoutCache::weigh)
+                            .recordStats(() -> sStats)
                             .build();
                 }
             }
@@ -116,36 +136,160 @@ public class LayoutCache {
         }
         LayoutPiece piece = sCache.getIfPresent(
                 key.update(buf, start, end, paint, isRtl));
+        final LayoutDiskCache diskCache = sDiskCache;
+        boolean restored = false;
+        if (piece == null && diskCache != null) {
+            piece = diskCache.read(buf, start, end, key.mFontCollection, key.mFontStyle,
+                    key.mFontSize, key.mLocale, isRtl);
+            restored = piece != null;
+        }
         // create new or re-compute for more params
         if (piece == null || (measure && (piece.mAscent & 0x80000000) == 0)
                 || (layout && (piece.mDescent & 0x80000000) == 0)) {
             final Key k = key.copy();
             // recycle the lookup key earlier, since creating layout is heavy
             sLookupKeys.release(key);
+            final boolean measured = piece != null && (piece.mAscent & 0x80000000) != 0;
+            final long startTime = System.nanoTime();
             piece = new LayoutPiece(buf, start, end, isRtl, paint, measure, layout, piece);
+            sStats.recordLoadSuccess(System.nanoTime() - startTime);
             sCache.put(k, piece);
+            if (diskCache != null && !measured && (piece.mAscent & 0x80000000) != 0) {
+                diskCache.write(k.mChars, k.mFontCollection, k.mFontStyle, k.mFontSize,
+                        k.mLocale, k.mIsRtl, piece);
+            }
         } else {
+            if (restored) {
+                sCache.put(key.copy(), piece);
+            }
             sLookupKeys.release(key);
         }
         return piece;
     }
 
     /**
-     * This only returns measurable memory usage, in other words, at least
+     * Enables or disables the persistent layout cache shared across sessions. Only
+     * measurement results are persisted, the file is indexed lazily in background
+     * and discarded when installed fonts or glyph rendering mode change.
+     * <p>
+     * Pending entries are written to the file by {@link #saveDiskCache()}, which
+     * should be called when the application exits.
+     *
+     * @param path the cache file, or null to disable
+     */
+    public static void setDiskCache(@Nullable Path path) {
+        synchronized (LayoutCache.class) {
+            if (sDiskCache != null) {
+                sDiskCache.save();
+            }
+            if (path != null) {
+                LayoutDiskCache diskCache = new LayoutDiskCache(path);
+                diskCache.warm();
+                sDiskCache = diskCache;
+            } else {
+                sDiskCache = null;
+            }
+        }
+    }
+
+    /**
+     * Writes pending entries to the persistent layout cache if enabled.
+     *
+     * @see #setDiskCache(Path)
+     */
+    public static void saveDiskCache() {
+        final LayoutDiskCache diskCache = sDiskCache;
+        if (diskCache != null) {
+            diskCache.save();
+        }
+    }
+
+    /**
+     * Clears the memory cache and invalidates the persistent cache, called when
+     * fonts or the glyph manager reload.
+     */
+    public static void clear() {
+        if (sCache != null) {
+            sCache.invalidateAll();
+        }
+        final LayoutDiskCache diskCache = sDiskCache;
+        if (diskCache != null) {
+            diskCache.invalidate();
+        }
+    }
+
+    // the weight is estimated when the entry is inserted, the rendering layout of a piece
+    // created off the render thread is assigned later, and is not counted
+    private static int weigh(@Nonnull Key key, @Nonnull LayoutPiece piece) {
+        return key.getMemoryUsage() + piece.getMemoryUsage() + 40; // a node object
+    }
+
+    /**
+     * This only returns measurable memory usage, in other words, at least.
+     * The value is tracked by the cache, this method is O(1).
      *
      * @return memory usage in bytes
      */
     public static int getMemoryUsage() {
-        if (sCache == null) {
+        final Cache<Key, LayoutPiece> cache = sCache;
+        if (cache == null) {
             return 0;
         }
-        int size = 0;
-        for (var entry : sCache.asMap().entrySet()) {
-            size += entry.getKey().getMemoryUsage();
-            size += entry.getValue().getMemoryUsage();
-            size += 40; // a node object
+        return cache.policy().eviction()
+                .map(e -> (int) e.weightedSize().orElse(0))
+                .orElse(0);
+    }
+
+    /**
+     * Sets the budget of estimated memory usage, entries that are least likely to be
+     * used again will be evicted when the budget is exceeded.
+     *
+     * @param maxMemoryUsage the budget in bytes
+     * @see #getMemoryUsage()
+     */
+    public static void setMaxMemoryUsage(long maxMemoryUsage) {
+        if (maxMemoryUsage < 0) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (LayoutCache.class) {
+            sMaxMemoryUsage = maxMemoryUsage;
+            final Cache<Key, LayoutPiece> cache = sCache;
+            if (cache != null) {
+                cache.policy().eviction().ifPresent(e -> e.setMaximum(maxMemoryUsage));
+            }
         }
-        return size;
+    }
+
+    /**
+     * Returns the budget of estimated memory usage.
+     *
+     * @return the budget in bytes
+     * @see #setMaxMemoryUsage(long)
+     */
+    public static long getMaxMemoryUsage() {
+        return sMaxMemoryUsage;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return the approximate entry count
+     */
+    public static long getEntryCount() {
+        final Cache<Key, LayoutPiece> cache = sCache;
+        return cache == null ? 0 : cache.estimatedSize();
+    }
+
+    /**
+     * Returns a snapshot of the cache statistics since the cache was created,
+     * including hit/miss counts, eviction count and weight, and total time spent
+     * creating layout pieces.
+     *
+     * @return cache statistics
+     */
+    @Nonnull
+    public static CacheStats getStats() {
+        return sStats.snapshot();
     }
 
     /**
@@ -0,0 +1,415 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.graphics.font;
+
+import icyllis.modernui.ModernUI;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Versioned on-disk store of {@link LayoutPiece} measurement, shared across sessions.
+ * Only measurement results (per-cluster advances, extent and total advance) are
+ * persisted, glyph textures are always re-created on the render thread on demand.
+ * <p>
+ * The file is read into memory and indexed lazily on a background thread, lookups
+ * just miss until the index is ready. No file handle or mapping is held after that.
+ * New entries are queued in memory and written by {@link #save()}, which writes the
+ * stored and new entries to a temporary file and replaces the cache file with it,
+ * so that a crash while saving never leaves a partially written cache file.
+ * The whole file is discarded when its fingerprint (installed fonts, glyph rendering
+ * mode and format version) changes.
+ *
+ * @see LayoutCache#setDiskCache(Path)
+ * @since 3.4
+ */
+@ThreadSafe
+final class LayoutDiskCache {
+
+    private static final int MAGIC = 0x4D554C43; // MULC
+    private static final int VERSION = 1;
+
+    // magic, version, fingerprint
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+
+    /**
+     * The maximum size of the cache file, new entries are dropped beyond this size.
+     */
+    private static final int MAX_FILE_SIZE = 16 * 1024 * 1024;
+
+    private final Path mPath;
+
+    // font collection -> persistent name, the same collection always has the same fonts
+    private final Map<FontCollection, String> mCollectionNames = new ConcurrentHashMap<>();
+
+    // pending entries, encoded, and their key hashes
+    private final ConcurrentLinkedQueue<byte[]> mPending = new ConcurrentLinkedQueue<>();
+    private final Set<Long> mPendingKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger mPendingBytes = new AtomicInteger();
+
+    // index and file content, both null until warmed, the buffer is published before
+    // the index, and a new buffer always contains the entries of the previous one
+    private volatile Long2IntOpenHashMap mIndex;
+    private volatile ByteBuffer mBuffer;
+    private volatile CompletableFuture<Void> mWarming;
+
+    private long mFingerprint;
+    private int mFileSize;
+
+    LayoutDiskCache(@Nonnull Path path) {
+        mPath = path;
+    }
+
+    /**
+     * Starts indexing the cache file in background if not yet. Lookups before the index is
+     * ready simply miss.
+     */
+    void warm() {
+        if (mWarming == null) {
+            synchronized (this) {
+                if (mWarming == null) {
+                    mWarming = CompletableFuture.runAsync(this::load);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the current index, and schedules a re-index with a re-computed fingerprint.
+     * Called when fonts or the glyph manager reload.
+     */
+    synchronized void invalidate() {
+        mIndex = null;
+        mBuffer = null;
+        mWarming = null;
+        mPending.clear();
+        mPendingKeys.clear();
+        mPendingBytes.set(0);
+        mCollectionNames.clear();
+    }
+
+    private synchronized void load() {
+        mFingerprint = computeFingerprint();
+        mFileSize = 0;
+        final Long2IntOpenHashMap index = new Long2IntOpenHashMap();
+        ByteBuffer buffer = null;
+        try (FileChannel channel = FileChannel.open(mPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= HEADER_SIZE && size <= MAX_FILE_SIZE) {
+                // copy rather than map, a mapped file can't be replaced on some platforms
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        // truncated by another process, the rest will be overwritten
+                        size = buffer.position();
+                        break;
+                    }
+                }
+                if (size >= HEADER_SIZE && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION &&
+                        buffer.getLong(8) == mFingerprint) {
+                    int pos = HEADER_SIZE;
+                    while (pos + 4 <= size) {
+                        int length = buffer.getInt(pos);
+                        if (length <= 0 || pos + 4 + length > size) {
+                            // truncated entry, the rest will be overwritten
+                            break;
+                        }
+                        index.put(buffer.getLong(pos + 4), pos + 4);
+                        pos += 4 + length;
+                    }
+                    mFileSize = pos;
+                } else {
+                    buffer = null;
+                }
+            }
+        } catch (IOException ignored) {
+            // no cache file yet
+            buffer = null;
+        }
+        if (buffer == null) {
+            index.clear();
+        }
+        mBuffer = buffer;
+        mIndex = index;
+        ModernUI.LOGGER.debug(GlyphManager.MARKER, "Loaded {} layout entries from {}", index.size(), mPath);
+    }
+
+    /**
+     * Reads the measurement of the given key, or returns null if it's not stored or
+     * the cache is not ready.
+     */
+    @Nullable
+    LayoutPiece read(@Nonnull char[] buf, int start, int end, @Nonnull FontCollection collection,
+                     int style, int size, @Nonnull Locale locale, boolean isRtl) {
+        final Long2IntOpenHashMap index = mIndex;
+        final ByteBuffer buffer = mBuffer;
+        if (index == null || buffer == null) {
+            warm();
+            return null;
+        }
+        final String name = getCollectionName(collection);
+        final String tag = locale.toLanguageTag();
+        final long hash = hash(buf, start, end, name, style, size, tag, isRtl);
+        int pos = index.getOrDefault(hash, -1);
+        if (pos < 0) {
+            return null;
+        }
+        // skip the hash, verify the full key in case of collision
+        pos += 8;
+        if (buffer.getInt(pos) != style || buffer.getInt(pos + 4) != size ||
+                (buffer.get(pos + 8) != 0) != isRtl) {
+            return null;
+        }
+        pos += 9;
+        if ((pos = matchString(buffer, pos, name)) < 0 ||
+                (pos = matchString(buffer, pos, tag)) < 0) {
+            return null;
+        }
+        final int count = end - start;
+        if (buffer.getShort(pos) != count) {
+            return null;
+        }
+        pos += 2;
+        for (int i = start; i < end; i++, pos += 2) {
+            if (buffer.getChar(pos) != buf[i]) {
+                return null;
+            }
+        }
+        final int ascent = buffer.getInt(pos);
+        final int descent = buffer.getInt(pos + 4);
+        final float advance = buffer.getFloat(pos + 8);
+        pos += 12;
+        final float[] advances = new float[count];
+        for (int i = 0; i < count; i++, pos += 4) {
+            advances[i] = buffer.getFloat(pos);
+        }
+        return new LayoutPiece(advances, ascent, descent, advance);
+    }
+
+    /**
+     * Queues the measurement of a newly created piece, written to file on next {@link #save()}.
+     */
+    void write(@Nonnull char[] chars, @Nonnull FontCollection collection, int style, int size,
+               @Nonnull Locale locale, boolean isRtl, @Nonnull LayoutPiece piece) {
+        final float[] advances = piece.getAdvances();
+        final Long2IntOpenHashMap index = mIndex;
+        if (advances == null || index == null) {
+            // write only after warmed, otherwise the entries will be duplicated
+            return;
+        }
+        final String name = getCollectionName(collection);
+        final String tag = locale.toLanguageTag();
+        final long hash = hash(chars, 0, chars.length, name, style, size, tag, isRtl);
+        // re-created after evicted from memory, or created again before stored
+        if (index.containsKey(hash) || !mPendingKeys.add(hash)) {
+            return;
+        }
+        final int length = 8 + 9 + 2 + (name.length() << 1) + 2 + (tag.length() << 1) +
+                2 + (chars.length << 1) + 12 + (advances.length << 2);
+        if (mFileSize + mPendingBytes.addAndGet(4 + length) > MAX_FILE_SIZE) {
+            mPendingBytes.addAndGet(-4 - length);
+            mPendingKeys.remove(hash);
+            return;
+        }
+        final ByteBuffer entry = ByteBuffer.allocate(4 + length);
+        entry.putInt(length);
+        entry.putLong(hash);
+        entry.putInt(style);
+        entry.putInt(size);
+        entry.put((byte) (isRtl ? 1 : 0));
+        putString(entry, name);
+        putString(entry, tag);
+        entry.putShort((short) chars.length);
+        for (char c : chars) {
+            entry.putChar(c);
+        }
+        entry.putInt(piece.getAscent());
+        entry.putInt(piece.getDescent());
+        entry.putFloat(piece.getAdvance());
+        for (float adv : advances) {
+            entry.putFloat(adv);
+        }
+        mPending.offer(entry.array());
+    }
+
+    /**
+     * Writes all pending entries to the cache file. A new file will be created if the
+     * current file does not exist or is outdated. The file is replaced rather than modified,
+     * and the written content becomes the new in-memory buffer. If the file can't be written,
+     * the entries are queued again for the next save.
+     */
+    synchronized void save() {
+        final Long2IntOpenHashMap index = mIndex;
+        if (index == null || mPending.isEmpty()) {
+            return;
+        }
+        final List<byte[]> entries = new ArrayList<>();
+        int newBytes = 0;
+        byte[] e;
+        while ((e = mPending.poll()) != null) {
+            entries.add(e);
+            newBytes += e.length;
+        }
+        mPendingKeys.clear();
+        mPendingBytes.set(0);
+
+        final ByteBuffer buffer = mBuffer;
+        final int oldSize = buffer != null ? mFileSize : HEADER_SIZE;
+        final ByteBuffer data = ByteBuffer.allocate(oldSize + newBytes);
+        data.putInt(MAGIC).putInt(VERSION).putLong(mFingerprint);
+        if (buffer != null) {
+            // a truncated tail if any is dropped, the stored entries keep their positions
+            data.put(HEADER_SIZE, buffer, HEADER_SIZE, oldSize - HEADER_SIZE);
+        }
+        data.position(oldSize);
+        final Long2IntOpenHashMap newIndex = new Long2IntOpenHashMap(index);
+        int count = 0;
+        for (byte[] entry : entries) {
+            final long hash = ByteBuffer.wrap(entry).getLong(4);
+            // skip the keys already stored, in case of racing with write()
+            if (!newIndex.containsKey(hash)) {
+                newIndex.put(hash, data.position() + 4);
+                data.put(entry);
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        data.flip();
+
+        try {
+            Path parent = mPath.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, mPath.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    while (data.hasRemaining()) {
+                        channel.write(data);
+                    }
+                    channel.force(false);
+                }
+                try {
+                    Files.move(temp, mPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(temp, mPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                // no-op if moved
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException ex) {
+            ModernUI.LOGGER.warn(GlyphManager.MARKER, "Failed to save layout cache to {}", mPath, ex);
+            // the file is unchanged, retry on next save
+            for (byte[] entry : entries) {
+                if (mPendingKeys.add(ByteBuffer.wrap(entry).getLong(4))) {
+                    mPendingBytes.addAndGet(entry.length);
+                    mPending.offer(entry);
+                }
+            }
+            return;
+        }
+        mFileSize = data.limit();
+        // reset for absolute reads only, never modified from now on
+        data.rewind();
+        mBuffer = data;
+        mIndex = newIndex;
+        ModernUI.LOGGER.debug(GlyphManager.MARKER, "Saved {} layout entries to {}", count, mPath);
+    }
+
+    @Nonnull
+    private String getCollectionName(@Nonnull FontCollection collection) {
+        return mCollectionNames.computeIfAbsent(collection, c -> {
+            StringBuilder s = new StringBuilder();
+            for (Font font : c.getFonts()) {
+                if (!s.isEmpty()) {
+                    s.append(',');
+                }
+                s.append(font.getFontName(Locale.ROOT));
+            }
+            return s.toString();
+        });
+    }
+
+    private static long computeFingerprint() {
+        long h = VERSION;
+        for (Font font : FontCollection.sAllFontFamilies) {
+            h = 31 * h + font.getFontName(Locale.ROOT).hashCode();
+        }
+        h = 31 * h + (GlyphManager.sBitmapLike ? 1 : 0);
+        // text shaping may differ between Java versions
+        h = 31 * h + Runtime.version().feature();
+        return h;
+    }
+
+    private static long hash(@Nonnull char[] buf, int start, int end, @Nonnull String name,
+                             int style, int size, @Nonnull String tag, boolean isRtl) {
+        long h = 1;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + buf[i];
+        }
+        h = 31 * h + name.hashCode();
+        h = 31 * h + style;
+        h = 31 * h + size;
+        h = 31 * h + tag.hashCode();
+        h = 31 * h + (isRtl ? 1 : 0);
+        // mix the bits to reduce collisions of the 32-bit components
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static void putString(@Nonnull ByteBuffer buffer, @Nonnull String s) {
+        buffer.putShort((short) s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer.putChar(s.charAt(i));
+        }
+    }
+
+    // returns the position after the string, or -1 if not matched
+    private static int matchString(@Nonnull ByteBuffer buffer, int pos, @Nonnull String s) {
+        if (buffer.getShort(pos) != s.length()) {
+            return -1;
+        }
+        pos += 2;
+        for (int i = 0; i < s.length(); i++, pos += 2) {
+            if (buffer.getChar(pos) != s.charAt(i)) {
+                return -1;
+            }
+        }
+        return pos;
+    }
+}
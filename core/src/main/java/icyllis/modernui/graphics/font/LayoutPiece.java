@@ -23,6 +23,8 @@ import icyllis.modernui.core.Core;
 import icyllis.modernui.graphics.font.FontCollection.Run;
 import it.unimi.dsi.fastutil.floats.FloatArrayList;
 import it.unimi.dsi.fastutil.floats.FloatList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -50,6 +52,13 @@ public class LayoutPiece {
     // x1 y1 x2 y2... relative to the same pivot, for rendering mGlyphs
     private float[] mPositions;
 
+    // all glyphs for software rendering, computed on the layout thread, including
+    // invisible glyphs, the order is visually left-to-right. shared pointers
+    private Font[] mGlyphFonts;
+    private int[] mGlyphCodes;
+    // x1 y1 x2 y2... relative to the same pivot as mPositions
+    private float[] mGlyphPositions;
+
     // glyphs to char indices
     //private int[] mCharIndices;
 
@@ -93,6 +102,9 @@ public class LayoutPiece {
                 assert mAdvances != null;
             }
             if ((hint.mDescent & 0x80000000) != 0) {
+                mGlyphFonts = hint.mGlyphFonts;
+                mGlyphCodes = hint.mGlyphCodes;
+                mGlyphPositions = hint.mGlyphPositions;
                 if (Core.isOnRenderThread()) {
                     mGlyphs = hint.mGlyphs;
                     mPositions = hint.mPositions;
@@ -121,6 +133,9 @@ public class LayoutPiece {
         final List<TexturedGlyph> glyphs = new ArrayList<>();
         final FloatList positions = new FloatArrayList();
         //final IntList charIndices = new IntArrayList();
+        final List<Font> glyphFonts = new ArrayList<>();
+        final IntList glyphCodes = new IntArrayList();
+        final FloatList glyphPositions = new FloatArrayList();
 
         final List<Run> items = paint.mFontCollection.itemize(buf, start, end);
         for (int runIndex = isRtl ? items.size() - 1 : 0;
@@ -138,6 +153,13 @@ public class LayoutPiece {
             if (layout) {
                 TextureWork textureWork = new TextureWork(vector, glyphs, positions, mAdvance);
                 Core.executeOnRenderThread(textureWork);
+                for (int i = 0, e = vector.getNumGlyphs(); i < e; i++) {
+                    glyphFonts.add(derived);
+                    glyphCodes.add(vector.getGlyphCode(i));
+                    Point2D point = vector.getGlyphPosition(i);
+                    glyphPositions.add((float) point.getX() + mAdvance);
+                    glyphPositions.add((float) point.getY());
+                }
             }
 
             mAdvance += vector.getGlyphPosition(vector.getNumGlyphs()).getX();
@@ -149,6 +171,9 @@ public class LayoutPiece {
             }
         }
         if (layout) {
+            mGlyphFonts = glyphFonts.toArray(new Font[0]);
+            mGlyphCodes = glyphCodes.toIntArray();
+            mGlyphPositions = glyphPositions.toFloatArray();
             if (Core.isOnRenderThread()) {
                 mGlyphs = glyphs.toArray(new TexturedGlyph[0]);
                 mPositions = positions.toFloatArray();
@@ -170,6 +195,19 @@ public class LayoutPiece {
         }
     }
 
+    /**
+     * Creates a measurement-only layout piece restored from a persistent store.
+     * Full layout can be computed later by passing this as a hint.
+     *
+     * @see LayoutDiskCache
+     */
+    LayoutPiece(@Nonnull float[] advances, int ascent, int descent, float advance) {
+        mAdvances = advances;
+        mAscent = ascent | 0x80000000;
+        mDescent = descent;
+        mAdvance = advance;
+    }
+
     private static class ClusterWork implements GraphemeBreak.RunConsumer {
 
         private final Font mFont;
@@ -248,6 +286,43 @@ public class LayoutPiece {
         return mPositions;
     }
 
+    /**
+     * The array is about the derived fonts of all glyphs for software rendering, in order from
+     * left to right, including invisible glyphs. Unlike {@link #getGlyphs()}, this is available
+     * from any thread, see {@link GlyphManager#getGlyphMask(Font, int)}.
+     * <p>
+     * May null if not compute full layout.
+     *
+     * @return glyph fonts
+     */
+    public Font[] getGlyphFonts() {
+        return mGlyphFonts;
+    }
+
+    /**
+     * This array holds the glyph codes of {@link #getGlyphFonts()}, the length is equal to
+     * that of the font array.
+     * <p>
+     * May null if not compute full layout.
+     *
+     * @return glyph codes
+     */
+    public int[] getGlyphCodes() {
+        return mGlyphCodes;
+    }
+
+    /**
+     * This array holds the repeat of x offset, y offset of {@link #getGlyphFonts()}.
+     * The length is twice as long as the font array.
+     * <p>
+     * May null if not compute full layout.
+     *
+     * @return glyph positions
+     */
+    public float[] getGlyphPositions() {
+        return mGlyphPositions;
+    }
+
     /**
      * This array maps glyph to start char index of original text buffer with constructor char offset.
      * For RTL text is in descending order, since glyphs array is always left to right.
@@ -316,6 +391,9 @@ public class LayoutPiece {
         if (mGlyphs != null) {
             m += 16 + 16 + (mGlyphs.length << 4);
         }
+        if (mGlyphCodes != null) {
+            m += 16 + 16 + 16 + (mGlyphCodes.length << 4);
+        }
         if (mAdvances != null) {
             m += 16 + (mAdvances.length << 2);
         }
@@ -20,23 +20,55 @@ package icyllis.modernui.graphics.font;
 
 import com.ibm.icu.text.BreakIterator;
 import icyllis.modernui.text.TabStops;
+import it.unimi.dsi.fastutil.floats.FloatArrays;
 import it.unimi.dsi.fastutil.ints.IntArrays;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.text.CharacterIterator;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Provides automatic line breaking for a <em>single</em> paragraph.
+ * <p>
+ * This class is thread-safe, line break iterators are cached per thread, so layouts
+ * can be built concurrently.
  */
 public class LineBreaker {
 
+    /**
+     * Value for break strategy indicating simple line breaking. Automatic hyphens are not added
+     * (though soft hyphens are respected), and modifying text generally doesn't affect the layout
+     * before it (which yields a more consistent user experience when editing), but layout may not
+     * be the highest quality.
+     */
+    public static final int BREAK_STRATEGY_SIMPLE = 0;
+
+    /**
+     * Value for break strategy indicating high quality line breaking. Line breaks are chosen
+     * for the whole paragraph to minimize the total badness of all lines except the last one,
+     * like Knuth-Plass.
+     */
+    public static final int BREAK_STRATEGY_HIGH_QUALITY = 1;
+
+    /**
+     * Value for break strategy indicating balanced line breaking. The breaks are chosen to
+     * make all lines as close to the same length as possible, including the last one.
+     */
+    public static final int BREAK_STRATEGY_BALANCED = 2;
+
     private static final int NOWHERE = 0xFFFFFFFF;
 
-    private static final BreakIterator sBreaker = BreakIterator.getLineInstance(Locale.ROOT);
+    // the penalty of each line relative to the square of line width, to prefer fewer lines
+    private static final float LINE_PENALTY_MULTIPLIER = 0.01f;
+
+    // per-thread break iterators, since they are stateful and expensive to create
+    private static final ThreadLocal<Map<Locale, BreakIterator>> sBreakers =
+            ThreadLocal.withInitial(HashMap::new);
 
     // This function determines whether a character is a space that disappears at end of line.
     // It is the Unicode set: [[:General_Category=Space_Separator:]-[:Line_Break=Glue:]], plus '\n'.
@@ -99,6 +131,29 @@ public class LineBreaker {
     public static Result computeLineBreaks(@Nullable MeasuredText measuredText,
                                            @Nonnull ParagraphConstraints constraints,
                                            @Nullable int[] indents, int lineNumber) {
+        return computeLineBreaks(measuredText, BREAK_STRATEGY_SIMPLE, constraints, indents, lineNumber);
+    }
+
+    /**
+     * Break paragraph into lines with the given strategy.
+     * <p>
+     * The result is filled to out param.
+     *
+     * @param measuredText  a result of the text measurement
+     * @param breakStrategy the break strategy, one of {@link #BREAK_STRATEGY_SIMPLE},
+     *                      {@link #BREAK_STRATEGY_HIGH_QUALITY} and {@link #BREAK_STRATEGY_BALANCED}
+     * @param constraints   constraints for a single paragraph
+     * @param indents       the supplied array provides the total amount of indentation per
+     *                      line, in pixel. This amount is the sum of both left and right
+     *                      indentations. For lines past the last element in the array, the
+     *                      indentation amount of the last element is used.
+     * @param lineNumber    a line number (index offset) of this paragraph
+     * @return the result of line break
+     */
+    @Nonnull
+    public static Result computeLineBreaks(@Nullable MeasuredText measuredText, int breakStrategy,
+                                           @Nonnull ParagraphConstraints constraints,
+                                           @Nullable int[] indents, int lineNumber) {
         if (measuredText == null || measuredText.getTextBuf().length == 0) {
             return new Result();
         }
@@ -106,12 +161,20 @@ public class LineBreaker {
                 lineNumber);
         TabStops tabStops = new TabStops(constraints.mVariableTabStops, constraints.mDefaultTabStop);
         LineBreaker breaker = new LineBreaker(measuredText.getTextBuf(), measuredText, lineWidth, tabStops);
-        breaker.process();
+        if (breakStrategy == BREAK_STRATEGY_SIMPLE ||
+                !breaker.processOptimal(breakStrategy == BREAK_STRATEGY_BALANCED)) {
+            breaker.process();
+        }
         return breaker.getResult();
     }
 
+    @Nonnull
+    private static BreakIterator getBreakIterator(@Nonnull Locale locale) {
+        return sBreakers.get().computeIfAbsent(locale, BreakIterator::getLineInstance);
+    }
+
     private void process() {
-        BreakIterator breaker = sBreaker;
+        BreakIterator breaker = null;
         final CharacterIterator iterator = new CharArrayIterator(mTextBuf);
 
         Locale locale = null;
@@ -121,7 +184,7 @@ public class LineBreaker {
             Locale newLocale = run.getLocale();
             if (locale != newLocale) {
                 locale = newLocale;
-                breaker = BreakIterator.getLineInstance(locale);
+                breaker = getBreakIterator(locale);
                 breaker.setText(iterator);
                 nextBoundary = breaker.following(run.mStart);
             }
@@ -147,6 +210,121 @@ public class LineBreaker {
         }
     }
 
+    /**
+     * Chooses breaks for the whole paragraph by dynamic programming over all break
+     * opportunities, minimizing the sum of squared remaining space of lines plus a
+     * penalty per line. Only lines that fit the width are considered.
+     *
+     * @param balanced whether to count the last line in
+     * @return false if there's no such solution, the caller should fall back to greedy
+     */
+    private boolean processOptimal(boolean balanced) {
+        final char[] text = mTextBuf;
+        final int length = text.length;
+        // tab stops depend on line start, not supported
+        for (char c : text) {
+            if (c == '\u0009') {
+                return false;
+            }
+        }
+
+        // candidate break offsets, width until the last non-space char, and total advance
+        int count = 1;
+        int[] offsets = new int[16];
+        float[] preBreaks = new float[16];
+        float[] postBreaks = new float[16];
+
+        BreakIterator breaker = null;
+        final CharacterIterator iterator = new CharArrayIterator(text);
+        Locale locale = null;
+        int nextBoundary = 0;
+        float lineWidth = 0;
+        float charsAdvance = 0;
+        for (var run : mMeasuredText.getRuns()) {
+            Locale newLocale = run.getLocale();
+            if (locale != newLocale) {
+                locale = newLocale;
+                breaker = getBreakIterator(locale);
+                breaker.setText(iterator);
+                nextBoundary = breaker.following(run.mStart);
+            }
+            for (int i = run.mStart; i < run.mEnd; i++) {
+                charsAdvance += mMeasuredText.getAdvance(i);
+                if (!isLineEndSpace(text[i])) {
+                    lineWidth = charsAdvance;
+                }
+                if (i + 1 == nextBoundary) {
+                    if (run.canBreak() || nextBoundary == run.mEnd) {
+                        if (count == offsets.length) {
+                            offsets = IntArrays.grow(offsets, count + 1);
+                            preBreaks = FloatArrays.grow(preBreaks, count + 1);
+                            postBreaks = FloatArrays.grow(postBreaks, count + 1);
+                        }
+                        offsets[count] = i + 1;
+                        preBreaks[count] = lineWidth;
+                        postBreaks[count] = charsAdvance;
+                        count++;
+                    }
+                    nextBoundary = breaker.next();
+                    if (nextBoundary == BreakIterator.DONE) {
+                        nextBoundary = length;
+                    }
+                }
+            }
+        }
+        if (offsets[count - 1] != length) {
+            return false;
+        }
+
+        // the best score to break at each candidate, the previous break and the line number
+        final double[] scores = new double[count];
+        final int[] prevs = new int[count];
+        final int[] lines = new int[count];
+        for (int j = 1; j < count; j++) {
+            double best = Double.POSITIVE_INFINITY;
+            int bestPrev = -1;
+            for (int i = j - 1; i >= 0; i--) {
+                if (scores[i] == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                final float limit = mLineWidthLimits.getAt(lines[i]);
+                final float width = preBreaks[j] - postBreaks[i];
+                if (width > limit) {
+                    // lines only get longer from here
+                    break;
+                }
+                final float delta = limit - width;
+                double score = scores[i] + LINE_PENALTY_MULTIPLIER * limit * limit;
+                if (balanced || j != count - 1) {
+                    score += (double) delta * delta;
+                }
+                if (score < best) {
+                    best = score;
+                    bestPrev = i;
+                }
+            }
+            scores[j] = best;
+            prevs[j] = bestPrev;
+            lines[j] = bestPrev < 0 ? 0 : lines[bestPrev] + 1;
+        }
+        if (prevs[count - 1] < 0) {
+            // some words don't fit the width, requires desperate breaks
+            return false;
+        }
+
+        // backtrack, reuse the line number array as the path, it's no longer needed
+        final int lineCount = lines[count - 1];
+        for (int j = count - 1, k = lineCount; j > 0; j = prevs[j]) {
+            lines[--k] = j;
+        }
+        for (int k = 0; k < lineCount; k++) {
+            final int j = lines[k];
+            final int i = prevs[j];
+            breakLineAt(offsets[j], Math.max(0, preBreaks[j] - postBreaks[i]), 0, 0);
+        }
+        return true;
+    }
+
     private void processLineBreak(int offset) {
         while (mLineWidth > mLineWidthLimit) {
             int start = getPrevLineBreakOffset();
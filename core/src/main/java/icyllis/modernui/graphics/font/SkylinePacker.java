@@ -0,0 +1,203 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.graphics.font;
+
+import icyllis.modernui.math.Point;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Packs rectangles into a fixed-size area using the skyline bottom-left algorithm.
+ * The skyline is the top edge of the packed rectangles, each new rectangle is placed
+ * at the lowest position where it fits, the narrower segment wins on ties.
+ * <p>
+ * This class has nothing to do with graphics API, it only computes locations.
+ *
+ * @see FontAtlas
+ * @since 3.4
+ */
+public class SkylinePacker {
+
+    private final int mWidth;
+    private final int mHeight;
+
+    // x, y, width of each segment, from left to right
+    private final IntArrayList mSkyline = new IntArrayList();
+
+    // sum of packed rectangle areas
+    private long mArea;
+    private int mRectCount;
+
+    /**
+     * Creates a packer with the given area size.
+     *
+     * @param width  the width of the area
+     * @param height the height of the area
+     */
+    public SkylinePacker(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        reset();
+    }
+
+    /**
+     * Clears all packed rectangles.
+     */
+    public void reset() {
+        mSkyline.clear();
+        mSkyline.add(0);
+        mSkyline.add(0);
+        mSkyline.add(mWidth);
+        mArea = 0;
+        mRectCount = 0;
+    }
+
+    /**
+     * Finds a location for a rectangle of the given size.
+     *
+     * @param width  the width of the rectangle
+     * @param height the height of the rectangle
+     * @param loc    receives the upper-left corner if packed
+     * @return true if packed, or false if there's no more room for it
+     */
+    public boolean addRect(int width, int height, @Nonnull Point loc) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid rect " + width + "x" + height);
+        }
+        if (width > mWidth || height > mHeight) {
+            return false;
+        }
+        final int[] s = mSkyline.elements();
+        final int count = mSkyline.size() / 3;
+        int bestIndex = -1;
+        int bestX = 0;
+        int bestY = Integer.MAX_VALUE;
+        int bestWidth = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            final int y = rectangleFits(i, width, height);
+            if (y >= 0) {
+                final int w = s[i * 3 + 2];
+                if (y < bestY || (y == bestY && w < bestWidth)) {
+                    bestIndex = i;
+                    bestX = s[i * 3];
+                    bestY = y;
+                    bestWidth = w;
+                }
+            }
+        }
+        if (bestIndex == -1) {
+            return false;
+        }
+        addSkylineLevel(bestIndex, bestX, bestY, width, height);
+        loc.set(bestX, bestY);
+        mArea += (long) width * height;
+        mRectCount++;
+        return true;
+    }
+
+    // returns the y of the rectangle if placed at the segment, or -1 if it doesn't fit
+    private int rectangleFits(int index, int width, int height) {
+        final int[] s = mSkyline.elements();
+        final int count = mSkyline.size() / 3;
+        final int x = s[index * 3];
+        if (x + width > mWidth) {
+            return -1;
+        }
+        int widthLeft = width;
+        int y = s[index * 3 + 1];
+        while (widthLeft > 0) {
+            y = Math.max(y, s[index * 3 + 1]);
+            if (y + height > mHeight) {
+                return -1;
+            }
+            widthLeft -= s[index * 3 + 2];
+            if (++index == count && widthLeft > 0) {
+                return -1;
+            }
+        }
+        return y;
+    }
+
+    private void addSkylineLevel(int index, int x, int y, int width, int height) {
+        mSkyline.addElements(index * 3, new int[]{x, y + height, width});
+
+        // shrink or remove the segments covered by the new one
+        for (int i = index + 1; i < mSkyline.size() / 3; ) {
+            final int[] s = mSkyline.elements();
+            final int prevRight = s[(i - 1) * 3] + s[(i - 1) * 3 + 2];
+            if (s[i * 3] < prevRight) {
+                final int shrink = prevRight - s[i * 3];
+                s[i * 3] += shrink;
+                s[i * 3 + 2] -= shrink;
+                if (s[i * 3 + 2] <= 0) {
+                    mSkyline.removeElements(i * 3, i * 3 + 3);
+                    continue;
+                }
+            }
+            break;
+        }
+
+        // merge segments at the same level
+        for (int i = 0; i < mSkyline.size() / 3 - 1; ) {
+            final int[] s = mSkyline.elements();
+            if (s[i * 3 + 1] == s[(i + 1) * 3 + 1]) {
+                s[i * 3 + 2] += s[(i + 1) * 3 + 2];
+                mSkyline.removeElements((i + 1) * 3, (i + 1) * 3 + 3);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return the number of packed rectangles
+     */
+    public int getRectCount() {
+        return mRectCount;
+    }
+
+    /**
+     * @return the sum of packed rectangle areas
+     */
+    public long getUsedArea() {
+        return mArea;
+    }
+
+    /**
+     * Returns the fraction of the area that is used by packed rectangles, 0 to 1.
+     * Note that the area below the skyline that cannot be used anymore is wasted.
+     *
+     * @return the packing efficiency
+     */
+    public float getEfficiency() {
+        return (float) ((double) mArea / ((long) mWidth * mHeight));
+    }
+}
@@ -22,6 +22,11 @@ package icyllis.modernui.graphics.font;
  * This class holds information for a glyph about its pre-rendered image in an
  * OpenGL texture. The glyph must be laid-out so that it has something to render
  * in a context.
+ * <p>
+ * A glyph may be evicted from the atlas to save memory, its {@link #texture} will be
+ * reset to 0. The same object will be re-rasterized on demand, so it's safe to hold it.
+ * Before the rasterization completes, the glyph is a placeholder that renders nothing,
+ * see {@link GlyphManager#validateGlyph(TexturedGlyph)}.
  *
  * @see GlyphManager
  * @see FontAtlas
@@ -74,7 +79,29 @@ public class TexturedGlyph {
      */
     public float v2;
 
+    // the owner and the key, to re-rasterize the glyph if evicted
+    final FontAtlas atlas;
+    final int glyphCode;
+
+    // the page containing this glyph, null if evicted or not rasterized yet
+    FontAtlas.Page page;
+
+    // rasterization state, render thread only
+    static final int STATE_NONE = 0;    // not rasterized yet or evicted
+    static final int STATE_PENDING = 1; // rasterizing on a worker thread
+    static final int STATE_READY = 2;
+    static final int STATE_EMPTY = 3;   // nothing to render
+
+    int state;
+
     public TexturedGlyph() {
+        atlas = null;
+        glyphCode = 0;
+    }
+
+    TexturedGlyph(FontAtlas atlas, int glyphCode) {
+        this.atlas = atlas;
+        this.glyphCode = glyphCode;
     }
 
     @Override
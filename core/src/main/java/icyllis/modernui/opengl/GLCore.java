@@ -73,6 +73,8 @@ public final class GLCore extends GL45C {
     private static int sMaxTextureSize = 1024;
     private static int sMaxRenderBufferSize = 2048;
 
+    private static boolean sBufferStorage = false;
+
     // enabled or disabled
     //private static boolean sCullState = false;
     //private static int sCullMode = GL_BACK;
@@ -260,6 +262,13 @@ public final class GLCore extends GL45C {
         } else {
             LOGGER.debug(MARKER, "NV or KHR blend equation advanced disabled");
         }
+        // persistent mapping, OpenGL 4.4
+        sBufferStorage = caps.OpenGL44 || caps.GL_ARB_buffer_storage;
+        if (sBufferStorage) {
+            LOGGER.debug(MARKER, "ARB buffer storage enabled");
+        } else {
+            LOGGER.debug(MARKER, "ARB buffer storage disabled");
+        }
 
         if (count > 0) {
             LOGGER.fatal(MARKER, "Oops, your GPU has {} capabilities unavailable", count);
@@ -320,6 +329,15 @@ public final class GLCore extends GL45C {
         return sMaxRenderBufferSize;
     }
 
+    /**
+     * Returns whether immutable buffer storage and persistent mapping are supported.
+     *
+     * @return true if OpenGL 4.4 or ARB_buffer_storage is available
+     */
+    public static boolean isBufferStorageSupported() {
+        return sBufferStorage;
+    }
+
     /**
      * Resets states before rendering a new frame.
      *
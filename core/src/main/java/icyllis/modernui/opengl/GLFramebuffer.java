@@ -242,13 +242,20 @@ public final class GLFramebuffer extends GLObject {
         throw new IllegalStateException("No attachment " + attachmentPoint);
     }
 
-    public void makeBuffers(int width, int height, boolean exactly) {
+    /**
+     * Reallocates the attachments if their sizes don't match.
+     *
+     * @return true if any attachment was reallocated, its contents are undefined
+     */
+    public boolean makeBuffers(int width, int height, boolean exactly) {
         if (mAttachments == null) {
-            return;
+            return false;
         }
+        boolean changed = false;
         for (Attachment attachment : mAttachments.values()) {
-            attachment.make(width, height, exactly);
+            changed |= attachment.make(width, height, exactly);
         }
+        return changed;
     }
 
     @Override
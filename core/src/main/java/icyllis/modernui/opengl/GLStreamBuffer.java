@@ -0,0 +1,173 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.opengl;
+
+import icyllis.modernui.ModernUI;
+
+import static icyllis.modernui.opengl.GLCore.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * A buffer object for streaming data that changes every frame, without orphaning the
+ * data store or copying through the driver. The data store is persistently mapped and
+ * divided into {@link #REGION_COUNT} regions used in turn, one per frame. Each region is
+ * guarded by a fence when its frame is submitted, and waited before it's written again,
+ * so the CPU never overwrites data that the GPU may still read.
+ * <p>
+ * Requires OpenGL 4.4 or ARB_buffer_storage, see {@link GLCore#isBufferStorageSupported()}.
+ *
+ * @since 3.4
+ */
+public final class GLStreamBuffer extends GLBuffer {
+
+    /**
+     * The number of regions, the CPU can be up to two frames ahead of the GPU.
+     */
+    public static final int REGION_COUNT = 3;
+
+    private static final int MAP_FLAGS = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+
+    private final long[] mFences = new long[REGION_COUNT];
+
+    private long mRegionSize;
+    private long mMappedAddress = NULL;
+
+    private int mRegion;
+    // the write position in the current region
+    private long mPosition;
+
+    public GLStreamBuffer() {
+    }
+
+    /**
+     * Starts writing a frame into the next region, waits until the GPU finished reading it.
+     * The data store is recreated if the region size is less than the given size.
+     *
+     * @param size the maximum bytes to be written in this frame, including alignment
+     */
+    public void begin(long size) {
+        if (size > mRegionSize) {
+            reallocate(size);
+        } else {
+            mRegion = (mRegion + 1) % REGION_COUNT;
+            waitFence(mRegion);
+        }
+        mPosition = 0;
+    }
+
+    /**
+     * Reserves bytes in the current region, the start offset is aligned first.
+     *
+     * @param size      the size in bytes
+     * @param alignment the alignment of the start offset in bytes
+     * @return the offset into this buffer object's data store
+     * @see #getAddress(long)
+     */
+    public long reserve(long size, int alignment) {
+        final long pos = (mPosition + alignment - 1) / alignment * alignment;
+        if (pos + size > mRegionSize) {
+            throw new IllegalStateException("Stream region overflow, size " + mRegionSize);
+        }
+        mPosition = pos + size;
+        return mRegion * mRegionSize + pos;
+    }
+
+    /**
+     * Copies data into the current region, the start offset is aligned first.
+     *
+     * @param data      the address of the data
+     * @param size      the size in bytes
+     * @param alignment the alignment of the start offset in bytes
+     * @return the offset into this buffer object's data store
+     */
+    public long write(long data, long size, int alignment) {
+        final long offset = reserve(size, alignment);
+        memCopy(data, mMappedAddress + offset, size);
+        return offset;
+    }
+
+    /**
+     * Returns the client address of an offset into this buffer object's data store.
+     *
+     * @param offset the offset in bytes
+     * @return the mapped address
+     */
+    public long getAddress(long offset) {
+        return mMappedAddress + offset;
+    }
+
+    /**
+     * @return the bytes reserved in the current region, including alignment
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Ends writing the current region, the fence is signaled when all the commands issued
+     * so far are completed. Call this after the last draw call reading this frame's data.
+     */
+    public void end() {
+        mFences[mRegion] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    private void reallocate(long size) {
+        final long regionSize = Math.max(size + (size >> 1), mRegionSize << 1);
+        // deleting the old data store is deferred by the driver if it's still in use
+        close();
+        allocate(regionSize * REGION_COUNT, NULL, MAP_FLAGS);
+        mMappedAddress = nglMapNamedBufferRange(get(), 0, regionSize * REGION_COUNT, MAP_FLAGS);
+        if (mMappedAddress == NULL) {
+            throw new IllegalStateException("Failed to map stream buffer");
+        }
+        mRegionSize = regionSize;
+        mRegion = 0;
+        ModernUI.LOGGER.debug(MARKER, "Allocate stream buffer {} with {} bytes per region",
+                get(), regionSize);
+    }
+
+    private void waitFence(int region) {
+        final long fence = mFences[region];
+        if (fence != NULL) {
+            int status = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+            while (status == GL_TIMEOUT_EXPIRED) {
+                // 1 millisecond
+                status = glClientWaitSync(fence, 0, 1_000_000);
+            }
+            glDeleteSync(fence);
+            mFences[region] = NULL;
+        }
+    }
+
+    /**
+     * Deletes the data store and the fences, unmapping it implicitly.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < REGION_COUNT; i++) {
+            if (mFences[i] != NULL) {
+                glDeleteSync(mFences[i]);
+                mFences[i] = NULL;
+            }
+        }
+        super.close();
+        mMappedAddress = NULL;
+        mRegionSize = 0;
+    }
+}
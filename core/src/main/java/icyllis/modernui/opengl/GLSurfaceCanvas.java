@@ -20,6 +20,7 @@ package icyllis.modernui.opengl;
 
 import icyllis.modernui.ModernUI;
 import icyllis.modernui.annotation.RenderThread;
+import icyllis.modernui.annotation.UiThread;
 import icyllis.modernui.core.Core;
 import icyllis.modernui.graphics.Image;
 import icyllis.modernui.graphics.Paint;
@@ -38,7 +39,10 @@ import javax.annotation.concurrent.NotThreadSafe;
 import java.lang.annotation.Native;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static icyllis.modernui.opengl.GLCore.*;
 import static org.lwjgl.system.MemoryUtil.*;
@@ -65,6 +69,17 @@ import static org.lwjgl.system.MemoryUtil.*;
  * {@link #draw(GLFramebuffer)} for calling OpenGL functions on the render thread.
  * The color buffer drawn to must be at index 0, and stencil buffer must be 8-bit.
  * <p>
+ * The recorded data of a frame is held by a frame packet. When the UI thread finishes
+ * a frame, it calls {@link #publish()} to hand off the packet and continues recording
+ * into another one, the render thread calls {@link #submit(GLFramebuffer)} to draw the
+ * latest published packet. There are at most three packets (one being recorded, one
+ * published and one being drawn), so that neither thread waits for the other. Drawing
+ * immediately on render thread, such as tooltips, should use another instance.
+ * <p>
+ * A frame may be partial, see {@link #reset(int, int, Rect)}. Only the damaged area of
+ * the framebuffer is cleared and redrawn (by scissor test), the other area keeps the
+ * contents of the previous frame.
+ * <p>
  * For multiple off-screen rendering targets, Modern UI allocates up to four
  * color buffers as attachments to the target framebuffer. This handles global
  * alpha transformation.
@@ -80,13 +95,18 @@ public final class GLSurfaceCanvas extends GLCanvas {
 
     private static volatile GLSurfaceCanvas sInstance;
 
-    // we have only one instance called on UI thread only
-    private static final Pool<DrawText> sDrawTextPool = Pools.simple(60);
+    // acquired on UI thread, released when a frame packet is cleared on either thread
+    private static final Pool<DrawText> sDrawTextPool = Pools.concurrent(60);
 
     /**
      * Uniform block binding points (sequential)
      */
     public static final int MATRIX_BLOCK_BINDING = 0;
+    public static final int SMOOTH_BLOCK_BINDING = 1;
+    public static final int ARC_BLOCK_BINDING = 2;
+    public static final int BEZIER_BLOCK_BINDING = 3;
+    public static final int CIRCLE_BLOCK_BINDING = 4;
+    public static final int ROUND_RECT_BLOCK_BINDING = 5;
 
     /**
      * Vertex buffer binding points
@@ -157,6 +177,11 @@ public final class GLSurfaceCanvas extends GLCanvas {
     public static final int CIRCLE_UNIFORM_SIZE = 16;
     public static final int ROUND_RECT_UNIFORM_SIZE = 24;
 
+    /**
+     * The range bound for each paint block, not less than any paint block size above
+     */
+    public static final int PAINT_UNIFORM_SIZE = 32;
+
     @Native
     public static final int POS_COLOR_TEX_VERTEX_SIZE = 20;
 
@@ -172,17 +197,24 @@ public final class GLSurfaceCanvas extends GLCanvas {
         ShaderManager.getInstance().addListener(GLSurfaceCanvas::onLoadShaders);
     }
 
+    // the packet being recorded, the recording states below are taken from it
+    private FramePacket mRecording;
+
+    // the latest published packet, waiting to be consumed by render thread
+    private final AtomicReference<FramePacket> mPending = new AtomicReference<>();
+    private final Queue<FramePacket> mFreePackets = new ConcurrentLinkedQueue<>();
+
     // recorded operations
-    private final ByteArrayList mDrawOps = new ByteArrayList();
+    private ByteArrayList mDrawOps;
 
-    // vertex buffer objects
+    // vertex buffer objects, the sizes are updated on render thread
     private final GLBuffer mPosColorVBO = new GLBuffer();
-    private ByteBuffer mPosColorMemory = memAlloc(4096);
-    private boolean mPosColorResized = true;
+    private ByteBuffer mPosColorMemory;
+    private int mPosColorVBOSize;
 
     private final GLBuffer mPosColorTexVBO = new GLBuffer();
-    private ByteBuffer mPosColorTexMemory = memAlloc(4096);
-    private boolean mPosColorTexResized = true;
+    private ByteBuffer mPosColorTexMemory;
+    private int mPosColorTexVBOSize;
 
     // dynamic update on render thread
     private final GLBuffer mPosTexVBO = new GLBuffer();
@@ -194,20 +226,55 @@ public final class GLSurfaceCanvas extends GLCanvas {
     private boolean mRecreateModelView = true;*/
 
     // the client buffer used for updating the uniform blocks
-    private ByteBuffer mUniformMemory = memAlloc(4096);
+    private ByteBuffer mUniformMemory;
+
+    // the client buffer of paint blocks (arc, bezier, circle and round rect), each block
+    // starts at a multiple of the stride, uploaded once and bound by range when rendering
+    private ByteBuffer mPaintUniformMemory;
+    private final int mPaintUniformStride;
 
     // immutable uniform buffer objects
     private final GLBuffer mMatrixUBO = new GLBuffer();
     private final GLBuffer mSmoothUBO = new GLBuffer();
-    private final GLBuffer mArcUBO = new GLBuffer();
-    private final GLBuffer mBezierUBO = new GLBuffer();
-    private final GLBuffer mCircleUBO = new GLBuffer();
-    private final GLBuffer mRoundRectUBO = new GLBuffer();
+
+    // streaming uniform buffer object, respecified every frame
+    private final GLBuffer mPaintUBO = new GLBuffer();
+
+    // persistently mapped ring buffer holding all the vertices and uniforms of a frame,
+    // or null if not supported, then they are uploaded to the buffer objects above
+    @Nullable
+    private final GLStreamBuffer mStream;
+    private final int mUniformAlignment;
+
+    // the client copy of the matrix block, a new block is streamed for each change
+    private final long mMatrixBlock = nmemAlloc(MATRIX_UNIFORM_SIZE);
+
+    // where the paint blocks of the current frame are
+    private GLBuffer mPaintBuffer;
+    private long mPaintBase;
+
+    // where the pos color tex vertices of the current frame are, and the next
+    // vertex index for layer quads, when streaming
+    private long mPosColorTexBase;
+    private int mLayerQuadIndex;
+
+    // the number of bytes uploaded or streamed in rendering, and of the last drawn packet
+    private long mStreamedBytes;
+    private volatile long mLastStreamedBytes;
 
     // mag filter = linear
     private final int mFontSampler;
 
-    private final long mUniformBuffers = nmemAlloc(24);
+    private final long mUniformBuffers = nmemAlloc(8);
+
+    // the pending draws of a batch, the first vertex and the vertex count of each
+    private IntBuffer mBatchFirsts = memAllocInt(64);
+    private IntBuffer mBatchCounts = memAllocInt(64);
+    private final IntList mGlyphTextures = new IntArrayList();
+
+    // the number of draw calls in rendering, and of the last drawn packet
+    private int mDrawCalls;
+    private volatile int mLastDrawCalls;
 
     private final ByteBuffer mLayerImageMemory = memAlloc(POS_COLOR_TEX_VERTEX_SIZE * 4);
 
@@ -219,14 +286,27 @@ public final class GLSurfaceCanvas extends GLCanvas {
 
     // absolute value presents the reference value, and sign represents whether to
     // update the stencil buffer (positive = update, or just change stencil func)
-    private final IntList mClipRefs = new IntArrayList();
-    private final IntList mLayerAlphas = new IntArrayList();
+    private IntList mClipRefs;
+    private IntList mLayerAlphas;
     private final IntStack mLayerStack = new IntArrayList(3);
 
     // using textures of draw states, in the order of calling
-    private final Queue<GLTexture> mTextures = new ArrayDeque<>();
-    private final List<DrawText> mDrawTexts = new ArrayList<>();
-    private final Queue<Runnable> mCustoms = new ArrayDeque<>();
+    private Queue<GLTexture> mTextures;
+    private List<DrawText> mDrawTexts;
+    private Queue<Runnable> mCustoms;
+
+    // frame statistics, in nanoseconds
+    private volatile long mLastRecordTime;
+    private volatile long mLastSubmitTime;
+    private volatile int mDroppedFrames;
+
+    // whether the latest submitted frame has something drawn
+    private boolean mLastFrameDrawn;
+
+    // the framebuffer holding the contents of the previous frame
+    private GLFramebuffer mLastFramebuffer;
+    // set on render thread if a partial frame can't be drawn partially
+    private volatile boolean mContentLost;
 
     private final Matrix4 mProjection = new Matrix4();
     private final FloatBuffer mProjectionUpload = memAllocFloat(16);
@@ -250,17 +330,16 @@ public final class GLSurfaceCanvas extends GLCanvas {
 
         mMatrixUBO.allocate(MATRIX_UNIFORM_SIZE, NULL, GL_DYNAMIC_STORAGE_BIT);
         mSmoothUBO.allocate(SMOOTH_UNIFORM_SIZE, NULL, GL_DYNAMIC_STORAGE_BIT);
-        mArcUBO.allocate(ARC_UNIFORM_SIZE, NULL, GL_DYNAMIC_STORAGE_BIT);
-        mBezierUBO.allocate(BEZIER_UNIFORM_SIZE, NULL, GL_DYNAMIC_STORAGE_BIT);
-        mCircleUBO.allocate(CIRCLE_UNIFORM_SIZE, NULL, GL_DYNAMIC_STORAGE_BIT);
-        mRoundRectUBO.allocate(ROUND_RECT_UNIFORM_SIZE, NULL, GL_DYNAMIC_STORAGE_BIT);
 
         memPutInt(mUniformBuffers, mMatrixUBO.get());
         memPutInt(mUniformBuffers + 4, mSmoothUBO.get());
-        memPutInt(mUniformBuffers + 8, mArcUBO.get());
-        memPutInt(mUniformBuffers + 12, mBezierUBO.get());
-        memPutInt(mUniformBuffers + 16, mCircleUBO.get());
-        memPutInt(mUniformBuffers + 20, mRoundRectUBO.get());
+
+        mUniformAlignment = glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT);
+        // the alignment is a power of two
+        mPaintUniformStride = Math.max(PAINT_UNIFORM_SIZE, mUniformAlignment);
+
+        mStream = isBufferStorageSupported() ? new GLStreamBuffer() : null;
+        ModernUI.LOGGER.debug(MARKER, "Streaming mode: {}", mStream != null ? "persistent mapping" : "buffer upload");
 
         mFontSampler = glCreateSamplers();
         glSamplerParameteri(mFontSampler, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
@@ -278,6 +357,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
                 mPosColorVBO.get(), mPosColorTexVBO.get(), mPosTexVBO.get());
 
         mSaves.push(new Save());
+        bindPacket(new FramePacket());
 
         ModernUI.LOGGER.info(MARKER, "Created OpenGL surface canvas");
     }
@@ -336,16 +416,185 @@ public final class GLSurfaceCanvas extends GLCanvas {
         ModernUI.LOGGER.info(MARKER, "Loaded OpenGL canvas shaders");
     }
 
+    /**
+     * Starts recording a new frame, the recorded but not published operations are discarded.
+     */
     @Override
     public void reset(int width, int height) {
         super.reset(width, height);
-        mDrawOps.clear();
-        mClipRefs.clear();
-        mLayerAlphas.clear();
-        mDrawTexts.clear();
-        mPosColorMemory.clear();
-        mPosColorTexMemory.clear();
-        mUniformMemory.clear();
+        final FramePacket packet = unbindPacket();
+        packet.clear();
+        packet.mWidth = width;
+        packet.mHeight = height;
+        packet.mRecordStartTime = Core.timeNanos();
+        bindPacket(packet);
+    }
+
+    /**
+     * Starts recording a new frame that only redraws the damaged area. The drawing operations
+     * outside the area will be rejected, see {@link #quickReject(float, float, float, float)}.
+     * If the previously published frame has not been consumed yet, its damaged area is also
+     * included, since it may be dropped.
+     *
+     * @param damage the damaged area, or null to redraw the whole frame
+     */
+    @UiThread
+    public void reset(int width, int height, @Nullable Rect damage) {
+        reset(width, height);
+        if (damage == null || mContentLost) {
+            mContentLost = false;
+            return;
+        }
+        final FramePacket packet = mRecording;
+        packet.mDamage.set(damage);
+        // only UI thread publishes, so it's either this one or consumed when publishing
+        final FramePacket pending = mPending.get();
+        if (pending != null) {
+            if (!pending.mPartial) {
+                return;
+            }
+            packet.mDamage.union(pending.mDamage);
+        }
+        if (!packet.mDamage.intersect(0, 0, width, height)) {
+            packet.mDamage.setEmpty();
+        }
+        packet.mPartial = true;
+        // the base clip, no need to update the stencil, the scissor does it
+        getSave().mClip.set(packet.mDamage);
+    }
+
+    /**
+     * Completes the frame recorded since the last {@link #reset(int, int)} and hands it off to
+     * render thread, then takes a free packet for the next frame. If the previously published
+     * frame has not been consumed yet, it will be dropped.
+     */
+    @UiThread
+    public void publish() {
+        if (getSaveCount() != 1) {
+            throw new IllegalStateException("Unbalanced save-restore pair: " + getSaveCount());
+        }
+        // the canvas may be used for immediate drawing before the next frame
+        getSave().mClip.set(0, 0, mWidth, mHeight);
+        final FramePacket packet = unbindPacket();
+        packet.mRecordTime = Core.timeNanos() - packet.mRecordStartTime;
+        final FramePacket dropped = mPending.getAndSet(packet);
+        if (dropped != null) {
+            dropped.clear();
+            mFreePackets.offer(dropped);
+            mDroppedFrames++;
+        }
+        FramePacket next = mFreePackets.poll();
+        if (next == null) {
+            next = new FramePacket();
+        }
+        bindPacket(next);
+    }
+
+    /**
+     * Draws the latest frame published by {@link #publish()} if there's one, then gives the packet
+     * back. Otherwise, the framebuffer is not touched and still holds the previous frame.
+     *
+     * @param framebuffer the framebuffer to draw, or null to draw the current one
+     * @return whether the latest drawn frame has something drawn
+     */
+    @RenderThread
+    public boolean submit(@Nullable GLFramebuffer framebuffer) {
+        final FramePacket packet = mPending.getAndSet(null);
+        if (packet == null) {
+            return mLastFrameDrawn;
+        }
+        final long startTime = Core.timeNanos();
+        try {
+            final boolean drawn = draw(packet, framebuffer);
+            // the area outside the damage keeps the previous contents
+            mLastFrameDrawn = packet.mPartial ? drawn || mLastFrameDrawn : drawn;
+        } finally {
+            mLastRecordTime = packet.mRecordTime;
+            packet.clear();
+            mFreePackets.offer(packet);
+        }
+        mLastSubmitTime = Core.timeNanos() - startTime;
+        return mLastFrameDrawn;
+    }
+
+    /**
+     * Returns the time spent recording the latest submitted frame on UI thread, from
+     * {@link #reset(int, int)} to {@link #publish()}.
+     *
+     * @return the record time in nanoseconds
+     */
+    public long getLastRecordTime() {
+        return mLastRecordTime;
+    }
+
+    /**
+     * Returns the CPU time spent issuing the OpenGL commands of the latest submitted frame
+     * on render thread, this doesn't include the time the GPU takes to execute them.
+     *
+     * @return the submit time in nanoseconds
+     */
+    public long getLastSubmitTime() {
+        return mLastSubmitTime;
+    }
+
+    /**
+     * @return the number of published frames that were replaced before being submitted
+     */
+    public int getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * Returns the number of draw calls issued for the last drawn frame, consecutive draws
+     * sharing the same states are merged into one call.
+     *
+     * @return the number of draw calls
+     */
+    public int getLastDrawCallCount() {
+        return mLastDrawCalls;
+    }
+
+    /**
+     * Returns the number of vertex and uniform bytes transferred for the last drawn frame.
+     * They are written into a persistently mapped ring buffer if supported, or uploaded
+     * to buffer objects otherwise.
+     *
+     * @return the number of bytes
+     */
+    public long getLastStreamedBytes() {
+        return mLastStreamedBytes;
+    }
+
+    /**
+     * @return true if vertices and uniforms are written into a persistently mapped ring buffer
+     */
+    public boolean isPersistentStreaming() {
+        return mStream != null;
+    }
+
+    private void bindPacket(@Nonnull FramePacket packet) {
+        mRecording = packet;
+        mDrawOps = packet.mDrawOps;
+        mPosColorMemory = packet.mPosColorMemory;
+        mPosColorTexMemory = packet.mPosColorTexMemory;
+        mUniformMemory = packet.mUniformMemory;
+        mPaintUniformMemory = packet.mPaintUniformMemory;
+        mClipRefs = packet.mClipRefs;
+        mLayerAlphas = packet.mLayerAlphas;
+        mTextures = packet.mTextures;
+        mDrawTexts = packet.mDrawTexts;
+        mCustoms = packet.mCustoms;
+    }
+
+    // the client buffers may be reallocated when recording
+    @Nonnull
+    private FramePacket unbindPacket() {
+        final FramePacket packet = mRecording;
+        packet.mPosColorMemory = mPosColorMemory;
+        packet.mPosColorTexMemory = mPosColorTexMemory;
+        packet.mUniformMemory = mUniformMemory;
+        packet.mPaintUniformMemory = mPaintUniformMemory;
+        return packet;
     }
 
     @RenderThread
@@ -393,34 +642,72 @@ public final class GLSurfaceCanvas extends GLCanvas {
         }
     }
 
+    /**
+     * Draws the operations recorded since the last {@link #reset(int, int)} immediately,
+     * they must be recorded on render thread.
+     *
+     * @param framebuffer the framebuffer to draw, or null to draw the current one
+     * @return whether there's something drawn
+     */
     @RenderThread
     public boolean draw(@Nullable GLFramebuffer framebuffer) {
+        if (getSaveCount() != 1) {
+            throw new IllegalStateException("Unbalanced save-restore pair: " + getSaveCount());
+        }
+        final FramePacket packet = unbindPacket();
+        try {
+            return draw(packet, framebuffer);
+        } finally {
+            packet.clear();
+            bindPacket(packet);
+        }
+    }
+
+    @RenderThread
+    private boolean draw(@Nonnull FramePacket packet, @Nullable GLFramebuffer framebuffer) {
         Core.checkRenderThread();
         Core.flushRenderCalls();
+        TextureManager.getInstance().processUploads();
+        boolean scissor = false;
         if (framebuffer != null) {
             // there's a bug on NVIDIA driver with DSA, allocate them always
-            framebuffer.makeBuffers(mWidth, mHeight, true);
+            boolean valid = !framebuffer.makeBuffers(packet.mWidth, packet.mHeight, true) &&
+                    framebuffer == mLastFramebuffer;
+            mLastFramebuffer = framebuffer;
+            if (packet.mPartial) {
+                if (valid) {
+                    // window coordinates are bottom-up
+                    final Rect damage = packet.mDamage;
+                    glEnable(GL_SCISSOR_TEST);
+                    glScissor(damage.left, packet.mHeight - damage.bottom, damage.width(), damage.height());
+                    scissor = true;
+                } else {
+                    // the previous contents are lost, the next frame should redraw all
+                    mContentLost = true;
+                }
+            }
 
             framebuffer.clearColorBuffer();
             framebuffer.clearDepthStencilBuffer();
         }
-        if (mDrawOps.isEmpty()) {
+        if (packet.mDrawOps.isEmpty()) {
+            if (scissor) {
+                glDisable(GL_SCISSOR_TEST);
+            }
+            mLastDrawCalls = 0;
+            mLastStreamedBytes = 0;
             return false;
         }
-        if (getSaveCount() != 1) {
-            throw new IllegalStateException("Unbalanced save-restore pair: " + getSaveCount());
-        }
         if (framebuffer != null) {
             framebuffer.bindDraw();
         }
 
-        // upload projection matrix
-        mMatrixUBO.upload(0, 64, memAddress(mProjectionUpload.flip()));
-
-        uploadBuffers();
-
-        // uniform bindings are globally shared, we must re-bind before we use them
-        nglBindBuffersBase(GL_UNIFORM_BUFFER, MATRIX_BLOCK_BINDING, 6, mUniformBuffers);
+        mStreamedBytes = 0;
+        if (mStream != null) {
+            streamBuffers(packet, mStream);
+        } else {
+            uploadBuffers(packet);
+        }
 
         glStencilFuncSeparate(GL_FRONT, GL_EQUAL, 0, 0xff);
         glStencilMaskSeparate(GL_FRONT, 0xff);
@@ -430,7 +717,12 @@ public final class GLSurfaceCanvas extends GLCanvas {
         mCurrSampler = 0;
         mCurrTexture = 0;
 
-        long uniformDataPtr = memAddress(mUniformMemory.flip());
+        // upload glyphs rasterized since the last draw, the frame loop starts new frames
+        GlyphManager.getInstance().uploadStagedGlyphs();
+
+        long uniformDataPtr = memAddress(packet.mUniformMemory.flip());
+        // paint blocks are bound by range, the offset of the next one
+        int paintOffset = 0;
 
         // generic array index
         int posColorIndex = 0;
@@ -443,104 +735,104 @@ public final class GLSurfaceCanvas extends GLCanvas {
         // draw buffers
         int colorBuffer = GL_COLOR_ATTACHMENT0;
 
-        for (int op : mDrawOps) {
+        mDrawCalls = 0;
+
+        // consecutive draws using the same states are merged into one call,
+        // the blending order is the same as the recording order
+        final byte[] ops = packet.mDrawOps.elements();
+        for (int i = 0, e = packet.mDrawOps.size(); i < e; i++) {
+            final byte op = ops[i];
             switch (op) {
-                case DRAW_TRIANGLE -> {
+                case DRAW_TRIANGLE, DRAW_RECT -> {
                     bindVertexArray(POS_COLOR.getVertexArray());
                     useProgram(COLOR_FILL.get());
-                    glDrawArrays(GL_TRIANGLES, posColorIndex, 3);
-                    posColorIndex += 3;
-                }
-                case DRAW_RECT -> {
-                    bindVertexArray(POS_COLOR.getVertexArray());
-                    useProgram(COLOR_FILL.get());
-                    glDrawArrays(GL_TRIANGLE_STRIP, posColorIndex, 4);
-                    posColorIndex += 4;
+                    // a triangle is a triangle strip of three vertices
+                    int count = op == DRAW_TRIANGLE ? 3 : 4;
+                    batch(posColorIndex, count);
+                    posColorIndex += count;
+                    while (i + 1 < e && (ops[i + 1] == DRAW_TRIANGLE || ops[i + 1] == DRAW_RECT)) {
+                        count = ops[++i] == DRAW_TRIANGLE ? 3 : 4;
+                        batch(posColorIndex, count);
+                        posColorIndex += count;
+                    }
+                    flushBatch();
                 }
                 case DRAW_ROUND_RECT_FILL -> {
                     bindVertexArray(POS_COLOR.getVertexArray());
                     useProgram(ROUND_RECT_FILL.get());
-                    mRoundRectUBO.upload(0, 20, uniformDataPtr);
-                    uniformDataPtr += 20;
-                    glDrawArrays(GL_TRIANGLE_STRIP, posColorIndex, 4);
+                    paintOffset = bindPaintBlock(ROUND_RECT_BLOCK_BINDING, paintOffset);
+                    drawStrip(posColorIndex);
                     posColorIndex += 4;
                 }
                 case DRAW_ROUND_RECT_STROKE -> {
                     bindVertexArray(POS_COLOR.getVertexArray());
                     useProgram(ROUND_RECT_STROKE.get());
-                    mRoundRectUBO.upload(0, 24, uniformDataPtr);
-                    uniformDataPtr += 24;
-                    glDrawArrays(GL_TRIANGLE_STRIP, posColorIndex, 4);
+                    paintOffset = bindPaintBlock(ROUND_RECT_BLOCK_BINDING, paintOffset);
+                    drawStrip(posColorIndex);
                     posColorIndex += 4;
                 }
                 case DRAW_ROUND_IMAGE -> {
                     bindVertexArray(POS_COLOR_TEX.getVertexArray());
                     useProgram(ROUND_RECT_TEX.get());
                     bindSampler(0);
-                    bindTexture(mTextures.remove().get());
-                    mRoundRectUBO.upload(0, 20, uniformDataPtr);
-                    uniformDataPtr += 20;
-                    glDrawArrays(GL_TRIANGLE_STRIP, posColorTexIndex, 4);
+                    bindTexture(packet.mTextures.remove().get());
+                    paintOffset = bindPaintBlock(ROUND_RECT_BLOCK_BINDING, paintOffset);
+                    drawStrip(posColorTexIndex);
                     posColorTexIndex += 4;
                 }
-                case DRAW_IMAGE -> {
+                case DRAW_IMAGE, DRAW_IMAGE_MS -> {
                     bindVertexArray(POS_COLOR_TEX.getVertexArray());
-                    useProgram(COLOR_TEX.get());
+                    useProgram(op == DRAW_IMAGE ? COLOR_TEX.get() : COLOR_TEX_MS.get());
                     bindSampler(0);
-                    bindTexture(mTextures.remove().get());
-                    glDrawArrays(GL_TRIANGLE_STRIP, posColorTexIndex, 4);
-                    posColorTexIndex += 4;
-                }
-                case DRAW_IMAGE_MS -> {
-                    bindVertexArray(POS_COLOR_TEX.getVertexArray());
-                    useProgram(COLOR_TEX_MS.get());
-                    bindSampler(0);
-                    bindTexture(mTextures.remove().get());
-                    glDrawArrays(GL_TRIANGLE_STRIP, posColorTexIndex, 4);
+                    final int texture = packet.mTextures.remove().get();
+                    bindTexture(texture);
+                    batch(posColorTexIndex, 4);
                     posColorTexIndex += 4;
+                    while (i + 1 < e && ops[i + 1] == op && packet.mTextures.element().get() == texture) {
+                        packet.mTextures.remove();
+                        batch(posColorTexIndex, 4);
+                        posColorTexIndex += 4;
+                        i++;
+                    }
+                    flushBatch();
                 }
                 case DRAW_CIRCLE_FILL -> {
                     bindVertexArray(POS_COLOR.getVertexArray());
                     useProgram(CIRCLE_FILL.get());
-                    mCircleUBO.upload(0, 12, uniformDataPtr);
-                    uniformDataPtr += 12;
-                    glDrawArrays(GL_TRIANGLE_STRIP, posColorIndex, 4);
+                    paintOffset = bindPaintBlock(CIRCLE_BLOCK_BINDING, paintOffset);
+                    drawStrip(posColorIndex);
                     posColorIndex += 4;
                 }
                 case DRAW_CIRCLE_STROKE -> {
                     bindVertexArray(POS_COLOR.getVertexArray());
                     useProgram(CIRCLE_STROKE.get());
-                    mCircleUBO.upload(0, 16, uniformDataPtr);
-                    uniformDataPtr += 16;
-                    glDrawArrays(GL_TRIANGLE_STRIP, posColorIndex, 4);
+                    paintOffset = bindPaintBlock(CIRCLE_BLOCK_BINDING, paintOffset);
+                    drawStrip(posColorIndex);
                     posColorIndex += 4;
                 }
                 case DRAW_ARC_FILL -> {
                     bindVertexArray(POS_COLOR.getVertexArray());
                     useProgram(ARC_FILL.get());
-                    mArcUBO.upload(0, 20, uniformDataPtr);
-                    uniformDataPtr += 20;
-                    glDrawArrays(GL_TRIANGLE_STRIP, posColorIndex, 4);
+                    paintOffset = bindPaintBlock(ARC_BLOCK_BINDING, paintOffset);
+                    drawStrip(posColorIndex);
                     posColorIndex += 4;
                 }
                 case DRAW_ARC_STROKE -> {
                     bindVertexArray(POS_COLOR.getVertexArray());
                     useProgram(ARC_STROKE.get());
-                    mArcUBO.upload(0, 24, uniformDataPtr);
-                    uniformDataPtr += 24;
-                    glDrawArrays(GL_TRIANGLE_STRIP, posColorIndex, 4);
+                    paintOffset = bindPaintBlock(ARC_BLOCK_BINDING, paintOffset);
+                    drawStrip(posColorIndex);
                     posColorIndex += 4;
                 }
                 case DRAW_BEZIER -> {
                     bindVertexArray(POS_COLOR.getVertexArray());
                     useProgram(BEZIER_CURVE.get());
-                    mBezierUBO.upload(0, 28, uniformDataPtr);
-                    uniformDataPtr += 28;
-                    glDrawArrays(GL_TRIANGLE_STRIP, posColorIndex, 4);
+                    paintOffset = bindPaintBlock(BEZIER_BLOCK_BINDING, paintOffset);
+                    drawStrip(posColorIndex);
                     posColorIndex += 4;
                 }
                 case DRAW_CLIP_PUSH -> {
-                    int clipRef = mClipRefs.getInt(clipIndex);
+                    int clipRef = packet.mClipRefs.getInt(clipIndex);
 
                     if (clipRef >= 0) {
                         glStencilOpSeparate(GL_FRONT, GL_KEEP, GL_KEEP, GL_INCR);
@@ -548,7 +840,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
 
                         bindVertexArray(POS_COLOR.getVertexArray());
                         useProgram(COLOR_FILL.get());
-                        glDrawArrays(GL_TRIANGLE_STRIP, posColorIndex, 4);
+                        drawStrip(posColorIndex);
                         posColorIndex += 4;
 
                         glStencilOpSeparate(GL_FRONT, GL_KEEP, GL_KEEP, GL_KEEP);
@@ -559,7 +851,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
                     clipIndex++;
                 }
                 case DRAW_CLIP_POP -> {
-                    int clipRef = mClipRefs.getInt(clipIndex);
+                    int clipRef = packet.mClipRefs.getInt(clipIndex);
 
                     if (clipRef >= 0) {
                         glStencilFuncSeparate(GL_FRONT, GL_LESS, clipRef, 0xff);
@@ -568,7 +860,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
 
                         bindVertexArray(POS_COLOR.getVertexArray());
                         useProgram(COLOR_FILL.get());
-                        glDrawArrays(GL_TRIANGLE_STRIP, posColorIndex, 4);
+                        drawStrip(posColorIndex);
                         posColorIndex += 4;
 
                         glStencilOpSeparate(GL_FRONT, GL_KEEP, GL_KEEP, GL_KEEP);
@@ -582,34 +874,43 @@ public final class GLSurfaceCanvas extends GLCanvas {
                     bindVertexArray(POS_TEX.getVertexArray());
                     useProgram(ALPHA_TEX.get());
                     bindSampler(mFontSampler);
-                    mMatrixUBO.upload(128, 16, uniformDataPtr);
+                    updateMatrixBlock(128, 16, uniformDataPtr);
                     uniformDataPtr += 16;
 
-                    final TexturedGlyph[] glyphs = mDrawTexts.get(textIndex++).build(this);
+                    final TexturedGlyph[] glyphs = packet.mDrawTexts.get(textIndex++).build(this);
+                    uploadGlyphs();
 
-                    if (mPosTexResized) {
-                        mPosTexVBO.allocateM(mPosTexMemory.capacity(), NULL, GL_DYNAMIC_DRAW);
-                        mPosTexResized = false;
+                    // glyphs of a run have the same color, the blending result is independent
+                    // of their order, so draw them grouped by texture
+                    final IntList textures = mGlyphTextures;
+                    for (TexturedGlyph glyph : glyphs) {
+                        if (!textures.contains(glyph.texture)) {
+                            textures.add(glyph.texture);
+                        }
                     }
-                    mPosTexVBO.upload(0, mPosTexMemory.flip());
-                    mPosTexMemory.clear();
-
-                    for (int i = 0, e = glyphs.length; i < e; i++) {
-                        bindTexture(glyphs[i].texture);
-                        glDrawArrays(GL_TRIANGLE_STRIP, i << 2, 4);
+                    for (int t = 0, n = textures.size(); t < n; t++) {
+                        final int texture = textures.getInt(t);
+                        for (int j = 0, c = glyphs.length; j < c; j++) {
+                            if (glyphs[j].texture == texture) {
+                                batch(j << 2, 4);
+                            }
+                        }
+                        bindTexture(texture);
+                        flushBatch();
                     }
+                    textures.clear();
                 }
                 case DRAW_MATRIX -> {
-                    mMatrixUBO.upload(64, 64, uniformDataPtr);
+                    updateMatrixBlock(64, 64, uniformDataPtr);
                     uniformDataPtr += 64;
                 }
                 case DRAW_SMOOTH -> {
-                    mSmoothUBO.upload(0, 4, uniformDataPtr);
+                    updateSmoothBlock(uniformDataPtr);
                     uniformDataPtr += 4;
                 }
                 case DRAW_LAYER_PUSH -> {
                     assert framebuffer != null;
-                    mLayerStack.push(mLayerAlphas.getInt(alphaIndex));
+                    mLayerStack.push(packet.mLayerAlphas.getInt(alphaIndex));
                     framebuffer.setDrawBuffer(++colorBuffer);
                     framebuffer.clearColorBuffer();
                     alphaIndex++;
@@ -617,11 +918,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
                 case DRAW_LAYER_POP -> {
                     assert framebuffer != null;
                     int alpha = mLayerStack.popInt();
-                    putRectColorUV(mLayerImageMemory, 0, 0, mWidth, mHeight,
-                            alpha << 24 | alpha << 16 | alpha << 8 | alpha,
-                            0, 1, 1, 0);
-                    mPosColorTexVBO.upload(0, mLayerImageMemory.flip());
-                    mLayerImageMemory.clear();
+                    final int first = uploadLayerQuad(packet.mWidth, packet.mHeight, alpha);
 
                     bindVertexArray(POS_COLOR_TEX.getVertexArray());
                     useProgram(COLOR_TEX_MS.get());
@@ -629,44 +926,175 @@ public final class GLSurfaceCanvas extends GLCanvas {
                     bindTexture(framebuffer.getAttachedTexture(colorBuffer).get());
                     framebuffer.setDrawBuffer(--colorBuffer);
                     glBlendFunc(GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
-                    glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+                    drawStrip(first);
                     glBlendFuncSeparate(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA, GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
                 }
-                case DRAW_CUSTOM -> mCustoms.remove().run();
+                case DRAW_CUSTOM -> packet.mCustoms.remove().run();
                 default -> throw new IllegalStateException("Unexpected draw op " + op);
             }
         }
         assert mLayerStack.isEmpty();
-        assert mTextures.isEmpty();
-        assert mCustoms.isEmpty();
+        assert packet.mTextures.isEmpty();
+        assert packet.mCustoms.isEmpty();
 
         bindSampler(0);
-
-        mDrawOps.clear();
-        mClipRefs.clear();
-        mLayerAlphas.clear();
-        mDrawTexts.clear();
-        mUniformMemory.clear();
+        if (scissor) {
+            glDisable(GL_SCISSOR_TEST);
+        }
+        if (mStream != null) {
+            mStream.end();
+        }
+        mLastDrawCalls = mDrawCalls;
+        mLastStreamedBytes = mStreamedBytes;
         return true;
     }
 
+    // draws a quad of the current vertex array
     @RenderThread
-    private void uploadBuffers() {
-        if (mPosColorResized) {
-            mPosColorVBO.allocateM(mPosColorMemory.capacity(), NULL, GL_DYNAMIC_DRAW);
-            mPosColorResized = false;
+    private void drawStrip(int first) {
+        glDrawArrays(GL_TRIANGLE_STRIP, first, 4);
+        mDrawCalls++;
+    }
+
+    @RenderThread
+    private int bindPaintBlock(int binding, int offset) {
+        mPaintBuffer.bindRange(GL_UNIFORM_BUFFER, binding, mPaintBase + offset, PAINT_UNIFORM_SIZE);
+        return offset + mPaintUniformStride;
+    }
+
+    // updates a part of the matrix block, a whole new block is written when streaming
+    @RenderThread
+    private void updateMatrixBlock(int offset, int size, long data) {
+        if (mStream != null) {
+            memCopy(data, mMatrixBlock + offset, size);
+            final long block = mStream.write(mMatrixBlock, MATRIX_UNIFORM_SIZE, mUniformAlignment);
+            mStream.bindRange(GL_UNIFORM_BUFFER, MATRIX_BLOCK_BINDING, block, MATRIX_UNIFORM_SIZE);
+            mStreamedBytes += MATRIX_UNIFORM_SIZE;
+        } else {
+            mMatrixUBO.upload(offset, size, data);
+            mStreamedBytes += size;
         }
-        mPosColorVBO.upload(0, mPosColorMemory.flip());
-        mPosColorMemory.clear();
+    }
+
+    @RenderThread
+    private void updateSmoothBlock(long data) {
+        if (mStream != null) {
+            final long block = mStream.write(data, SMOOTH_UNIFORM_SIZE, mUniformAlignment);
+            mStream.bindRange(GL_UNIFORM_BUFFER, SMOOTH_BLOCK_BINDING, block, SMOOTH_UNIFORM_SIZE);
+        } else {
+            mSmoothUBO.upload(0, SMOOTH_UNIFORM_SIZE, data);
+        }
+        mStreamedBytes += SMOOTH_UNIFORM_SIZE;
+    }
+
+    // uploads the glyph vertices of a text, just built
+    @RenderThread
+    private void uploadGlyphs() {
+        final ByteBuffer buffer = mPosTexMemory.flip();
+        final int size = buffer.remaining();
+        if (mStream != null) {
+            final long offset = mStream.write(memAddress(buffer), size, 16);
+            POS_TEX.setVertexBuffer(GENERIC_BINDING, mStream, (int) offset);
+        } else {
+            if (mPosTexResized) {
+                mPosTexVBO.allocateM(mPosTexMemory.capacity(), NULL, GL_DYNAMIC_DRAW);
+                mPosTexResized = false;
+            }
+            mPosTexVBO.upload(0, buffer);
+            POS_TEX.setVertexBuffer(GENERIC_BINDING, mPosTexVBO, 0);
+        }
+        buffer.clear();
+        mStreamedBytes += size;
+    }
+
+    // uploads the quad of a layer, returns the first vertex index
+    @RenderThread
+    private int uploadLayerQuad(int width, int height, int alpha) {
+        putRectColorUV(mLayerImageMemory, 0, 0, width, height,
+                alpha << 24 | alpha << 16 | alpha << 8 | alpha,
+                0, 1, 1, 0);
+        final ByteBuffer buffer = mLayerImageMemory.flip();
+        final int first;
+        if (mStream != null) {
+            // quads of layers are preserved after the vertices
+            first = mLayerQuadIndex;
+            mLayerQuadIndex += 4;
+            memCopy(memAddress(buffer),
+                    mStream.getAddress(mPosColorTexBase + (long) first * POS_COLOR_TEX_VERTEX_SIZE),
+                    buffer.remaining());
+        } else {
+            first = 0;
+            mPosColorTexVBO.upload(0, buffer);
+        }
+        mStreamedBytes += buffer.remaining();
+        buffer.clear();
+        return first;
+    }
+
+    // adds a triangle strip to the pending batch
+    @RenderThread
+    private void batch(int first, int count) {
+        if (!mBatchFirsts.hasRemaining()) {
+            final int newCap = mBatchFirsts.capacity() << 1;
+            mBatchFirsts = memRealloc(mBatchFirsts, newCap);
+            mBatchCounts = memRealloc(mBatchCounts, newCap);
+        }
+        mBatchFirsts.put(first);
+        mBatchCounts.put(count);
+    }
+
+    // draws the pending batch in one call
+    @RenderThread
+    private void flushBatch() {
+        final int n = mBatchFirsts.position();
+        if (n == 1) {
+            glDrawArrays(GL_TRIANGLE_STRIP, mBatchFirsts.get(0), mBatchCounts.get(0));
+        } else if (n > 1) {
+            glMultiDrawArrays(GL_TRIANGLE_STRIP, mBatchFirsts.flip(), mBatchCounts.flip());
+        } else {
+            return;
+        }
+        mBatchFirsts.clear();
+        mBatchCounts.clear();
+        mDrawCalls++;
+    }
 
-        if (mPosColorTexResized) {
-            mPosColorTexVBO.allocateM(mPosColorTexMemory.capacity() + POS_COLOR_TEX_VERTEX_SIZE * 4, NULL,
+    @RenderThread
+    private void uploadBuffers(@Nonnull FramePacket packet) {
+        // upload projection matrix
+        mMatrixUBO.upload(0, 64, memAddress0(mProjectionUpload));
+
+        // packets may have different capacities, reallocate only if the largest one grows
+        if (packet.mPosColorMemory.capacity() > mPosColorVBOSize) {
+            mPosColorVBOSize = packet.mPosColorMemory.capacity();
+            mPosColorVBO.allocateM(mPosColorVBOSize, NULL, GL_DYNAMIC_DRAW);
+        }
+        mPosColorVBO.upload(0, packet.mPosColorMemory.flip());
+        // vertex arrays are shared by instances
+        POS_COLOR.setVertexBuffer(GENERIC_BINDING, mPosColorVBO, 0);
+
+        if (packet.mPosColorTexMemory.capacity() > mPosColorTexVBOSize) {
+            mPosColorTexVBOSize = packet.mPosColorTexMemory.capacity();
+            mPosColorTexVBO.allocateM(mPosColorTexVBOSize + POS_COLOR_TEX_VERTEX_SIZE * 4, NULL,
                     GL_DYNAMIC_DRAW);
-            mPosColorTexResized = false;
         }
         // preserve memory for layer rendering
-        mPosColorTexVBO.upload(POS_COLOR_TEX_VERTEX_SIZE * 4, mPosColorTexMemory.flip());
-        mPosColorTexMemory.clear();
+        mPosColorTexVBO.upload(POS_COLOR_TEX_VERTEX_SIZE * 4, packet.mPosColorTexMemory.flip());
+        POS_COLOR_TEX.setVertexBuffer(GENERIC_BINDING, mPosColorTexVBO, 0);
+
+        // respecify the whole store, the last block is padded to the stride
+        final int paintSize = getPaintUniformSize(packet);
+        if (paintSize > 0) {
+            mPaintUBO.allocateM(paintSize, memAddress0(packet.mPaintUniformMemory), GL_STREAM_DRAW);
+        }
+        mPaintBuffer = mPaintUBO;
+        mPaintBase = 0;
+
+        mStreamedBytes += 64 + packet.mPosColorMemory.remaining() + packet.mPosColorTexMemory.remaining() +
+                paintSize;
+
+        // uniform bindings are globally shared, we must re-bind before we use them
+        nglBindBuffersBase(GL_UNIFORM_BUFFER, MATRIX_BLOCK_BINDING, 2, mUniformBuffers);
 
         /*checkModelViewVBO();
         mModelViewData.flip();
@@ -674,6 +1102,68 @@ public final class GLSurfaceCanvas extends GLCanvas {
         mModelViewData.clear();*/
     }
 
+    /**
+     * Writes the vertices and uniforms of a packet into the next region of the stream
+     * buffer, the uniforms changed in rendering are appended to the region later.
+     */
+    @RenderThread
+    private void streamBuffers(@Nonnull FramePacket packet, @Nonnull GLStreamBuffer stream) {
+        int matrixBlocks = 1;
+        int smoothBlocks = 0;
+        int layerQuads = 0;
+        final byte[] ops = packet.mDrawOps.elements();
+        for (int i = 0, e = packet.mDrawOps.size(); i < e; i++) {
+            switch (ops[i]) {
+                case DRAW_MATRIX, DRAW_TEXT -> matrixBlocks++;
+                case DRAW_SMOOTH -> smoothBlocks++;
+                case DRAW_LAYER_POP -> layerQuads++;
+            }
+        }
+        long glyphSize = 0;
+        for (DrawText t : packet.mDrawTexts) {
+            final TexturedGlyph[] glyphs = t.piece.getGlyphs();
+            if (glyphs != null) {
+                glyphSize += glyphs.length * 64L + 16;
+            }
+        }
+        final ByteBuffer posColor = packet.mPosColorMemory.flip();
+        final ByteBuffer posColorTex = packet.mPosColorTexMemory.flip();
+        final int paintSize = getPaintUniformSize(packet);
+        final int alignment = mUniformAlignment;
+        // the maximum size, including alignment
+        final long posColorTexSize = (long) (4 + layerQuads * 4) * POS_COLOR_TEX_VERTEX_SIZE + posColorTex.remaining();
+        stream.begin(16 + posColor.remaining() +
+                16 + posColorTexSize +
+                alignment + paintSize +
+                (long) matrixBlocks * (MATRIX_UNIFORM_SIZE + alignment) +
+                (long) smoothBlocks * (SMOOTH_UNIFORM_SIZE + alignment) +
+                glyphSize);
+
+        final long posColorBase = stream.write(memAddress(posColor), posColor.remaining(), 16);
+        POS_COLOR.setVertexBuffer(GENERIC_BINDING, stream, (int) posColorBase);
+
+        // preserve two triangles at the beginning like uploading, quads of layers are at the end
+        mPosColorTexBase = stream.reserve(posColorTexSize, 16);
+        memCopy(memAddress(posColorTex), stream.getAddress(mPosColorTexBase + POS_COLOR_TEX_VERTEX_SIZE * 4),
+                posColorTex.remaining());
+        mLayerQuadIndex = 4 + posColorTex.remaining() / POS_COLOR_TEX_VERTEX_SIZE;
+        POS_COLOR_TEX.setVertexBuffer(GENERIC_BINDING, stream, (int) mPosColorTexBase);
+
+        mPaintBuffer = stream;
+        mPaintBase = paintSize > 0 ? stream.write(memAddress0(packet.mPaintUniformMemory), paintSize, alignment) : 0;
+
+        mStreamedBytes += posColor.remaining() + posColorTex.remaining() + paintSize;
+
+        // the first block with the projection matrix, the model view matrix is updated later
+        updateMatrixBlock(0, 64, memAddress0(mProjectionUpload));
+    }
+
+    // the last block is padded to the stride, so that any block can be bound as a whole
+    private int getPaintUniformSize(@Nonnull FramePacket packet) {
+        final int stride = mPaintUniformStride;
+        return (packet.mPaintUniformMemory.position() + stride - 1) / stride * stride;
+    }
+
     /*@RenderThread
     private void checkModelViewVBO() {
         if (!mRecreateModelView)
@@ -690,7 +1180,6 @@ public final class GLSurfaceCanvas extends GLCanvas {
         if (mPosColorMemory.remaining() < 48) {
             int newCap = grow(mPosColorMemory.capacity());
             mPosColorMemory = memRealloc(mPosColorMemory, newCap);
-            mPosColorResized = true;
             ModernUI.LOGGER.debug(MARKER, "Grow pos color buffer to {} bytes", newCap);
         }
         return mPosColorMemory;
@@ -700,7 +1189,6 @@ public final class GLSurfaceCanvas extends GLCanvas {
         if (mPosColorTexMemory.remaining() < POS_COLOR_TEX_VERTEX_SIZE * 4) {
             int newCap = grow(mPosColorTexMemory.capacity());
             mPosColorTexMemory = memRealloc(mPosColorTexMemory, newCap);
-            mPosColorTexResized = true;
             ModernUI.LOGGER.debug(MARKER, "Grow pos color tex buffer to {} bytes", newCap);
         }
         return mPosColorTexMemory;
@@ -735,8 +1223,21 @@ public final class GLSurfaceCanvas extends GLCanvas {
         return mUniformMemory;
     }
 
+    // each paint block starts at a multiple of the stride, so that it can be bound by range
+    private ByteBuffer checkPaintUniformMemory() {
+        final int stride = mPaintUniformStride;
+        final int pos = (mPaintUniformMemory.position() + stride - 1) / stride * stride;
+        if (mPaintUniformMemory.capacity() - pos < stride) {
+            int newCap = Math.max(grow(mPaintUniformMemory.capacity()), pos + stride);
+            mPaintUniformMemory = memRealloc(mPaintUniformMemory, newCap);
+            ModernUI.LOGGER.debug(MARKER, "Grow paint uniform buffer to {} bytes", newCap);
+        }
+        return mPaintUniformMemory.position(pos);
+    }
+
     public int getNativeMemoryUsage() {
-        return mPosColorMemory.capacity() + mPosColorTexMemory.capacity() + mPosTexMemory.capacity() + mUniformMemory.capacity();
+        return mPosColorMemory.capacity() + mPosColorTexMemory.capacity() + mPosTexMemory.capacity() +
+                mUniformMemory.capacity() + mPaintUniformMemory.capacity();
     }
 
     private static int grow(int cap) {
@@ -1153,6 +1654,14 @@ public final class GLSurfaceCanvas extends GLCanvas {
                 .putFloat(glyph.u2).putFloat(glyph.v1);
     }
 
+    @RenderThread
+    private void putEmptyGlyph() {
+        ByteBuffer buffer = checkPosTexMemory();
+        for (int i = 0; i < 16; i++) {
+            buffer.putFloat(0);
+        }
+    }
+
     /**
      * Record an operation to update smooth radius later for geometries that use smooth radius.
      *
@@ -1194,7 +1703,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
         drawMatrix();
         drawSmooth(Math.min(radius, paint.getSmoothRadius()));
         putRectColor(cx - radius, cy - radius, cx + radius, cy + radius, paint);
-        checkUniformMemory()
+        checkPaintUniformMemory()
                 .putFloat(cx)
                 .putFloat(cy)
                 .putFloat(middleAngle)
@@ -1216,7 +1725,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
         drawMatrix();
         drawSmooth(Math.min(strokeRadius, paint.getSmoothRadius()));
         putRectColor(cx - maxRadius, cy - maxRadius, cx + maxRadius, cy + maxRadius, paint);
-        checkUniformMemory()
+        checkPaintUniformMemory()
                 .putFloat(cx)
                 .putFloat(cy)
                 .putFloat(middleAngle)
@@ -1242,7 +1751,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
         drawMatrix();
         drawSmooth(Math.min(strokeRadius, paint.getSmoothRadius()));
         putRectColor(left, top, right, bottom, paint);
-        checkUniformMemory()
+        checkPaintUniformMemory()
                 .putFloat(x0)
                 .putFloat(y0)
                 .putFloat(x1)
@@ -1272,7 +1781,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
         drawMatrix();
         drawSmooth(Math.min(radius, paint.getSmoothRadius()));
         putRectColor(cx - radius, cy - radius, cx + radius, cy + radius, paint);
-        checkUniformMemory()
+        checkPaintUniformMemory()
                 .putFloat(cx)
                 .putFloat(cy)
                 .putFloat(radius);
@@ -1291,7 +1800,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
         drawMatrix();
         drawSmooth(Math.min(strokeRadius, paint.getSmoothRadius()));
         putRectColor(cx - maxRadius, cy - maxRadius, cx + maxRadius, cy + maxRadius, paint);
-        checkUniformMemory()
+        checkPaintUniformMemory()
                 .putFloat(cx)
                 .putFloat(cy)
                 .putFloat(radius - strokeRadius) // inner radius
@@ -1473,7 +1982,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
         drawMatrix();
         drawSmooth(Math.min(radius, paint.getSmoothRadius()));
         putRectColor(left, top, right, bottom, paint);
-        ByteBuffer buffer = checkUniformMemory();
+        ByteBuffer buffer = checkPaintUniformMemory();
         if ((sides & Gravity.RIGHT) == Gravity.RIGHT) {
             buffer.putFloat(left);
         } else {
@@ -1510,7 +2019,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
         drawMatrix();
         drawSmooth(Math.min(strokeRadius, paint.getSmoothRadius()));
         putRectColor(left - strokeRadius, top - strokeRadius, right + strokeRadius, bottom + strokeRadius, paint);
-        ByteBuffer buffer = checkUniformMemory();
+        ByteBuffer buffer = checkPaintUniformMemory();
         if ((sides & Gravity.RIGHT) == Gravity.RIGHT) {
             buffer.putFloat(left);
         } else {
@@ -1551,7 +2060,7 @@ public final class GLSurfaceCanvas extends GLCanvas {
         drawSmooth(Math.min(radius, paint.getSmoothRadius()));
         putRectColorUV(left, top, right, bottom, paint,
                 0, 0, 1, 1);
-        checkUniformMemory()
+        checkPaintUniformMemory()
                 .putFloat(left + radius)
                 .putFloat(top + radius)
                 .putFloat(right - radius)
@@ -1656,13 +2165,70 @@ public final class GLSurfaceCanvas extends GLCanvas {
         private TexturedGlyph[] build(@Nonnull GLSurfaceCanvas canvas) {
             final TexturedGlyph[] glyphs = piece.getGlyphs();
             final float[] positions = piece.getPositions();
-            piece = null;
+            final GlyphManager manager = GlyphManager.getInstance();
             for (int i = 0, e = glyphs.length; i < e; i++) {
-                canvas.putGlyph(glyphs[i], x + positions[i * 2], y + positions[i * 2 + 1]);
+                // re-rasterize if evicted, placeholders are degenerate
+                if (manager.validateGlyph(glyphs[i])) {
+                    canvas.putGlyph(glyphs[i], x + positions[i * 2], y + positions[i * 2 + 1]);
+                } else {
+                    canvas.putEmptyGlyph();
+                }
             }
-            sDrawTextPool.release(this);
             return glyphs;
         }
+
+        private void recycle() {
+            piece = null;
+            sDrawTextPool.release(this);
+        }
+    }
+
+    /**
+     * Holds the recorded operations of a frame with their vertex and uniform data.
+     * A packet is owned by one thread at a time, the recording thread or render thread.
+     */
+    private static final class FramePacket {
+
+        private final ByteArrayList mDrawOps = new ByteArrayList();
+
+        private ByteBuffer mPosColorMemory = memAlloc(4096);
+        private ByteBuffer mPosColorTexMemory = memAlloc(4096);
+        private ByteBuffer mUniformMemory = memAlloc(4096);
+        private ByteBuffer mPaintUniformMemory = memAlloc(4096);
+
+        private final IntList mClipRefs = new IntArrayList();
+        private final IntList mLayerAlphas = new IntArrayList();
+
+        private final Queue<GLTexture> mTextures = new ArrayDeque<>();
+        private final List<DrawText> mDrawTexts = new ArrayList<>();
+        private final Queue<Runnable> mCustoms = new ArrayDeque<>();
+
+        private int mWidth;
+        private int mHeight;
+
+        // if partial, only the damaged area is redrawn
+        private final Rect mDamage = new Rect();
+        private boolean mPartial;
+
+        private long mRecordStartTime;
+        private long mRecordTime;
+
+        private void clear() {
+            mDrawOps.clear();
+            mPosColorMemory.clear();
+            mPosColorTexMemory.clear();
+            mUniformMemory.clear();
+            mPaintUniformMemory.clear();
+            mClipRefs.clear();
+            mLayerAlphas.clear();
+            mTextures.clear();
+            for (DrawText t : mDrawTexts) {
+                t.recycle();
+            }
+            mDrawTexts.clear();
+            mCustoms.clear();
+            mPartial = false;
+        }
     }
 
     /**
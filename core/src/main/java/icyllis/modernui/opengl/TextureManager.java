@@ -19,19 +19,33 @@
 package icyllis.modernui.opengl;
 
 import icyllis.modernui.ModernUI;
+import icyllis.modernui.annotation.RenderThread;
 import icyllis.modernui.core.Core;
 import icyllis.modernui.core.NativeImage;
 import org.jetbrains.annotations.ApiStatus;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.ReadableByteChannel;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * This class maintains OpenGL 2D textures decoded from local client resources.
+ * <p>
+ * Cached textures are kept in a LRU cache bounded by their estimated sizes in bytes.
+ * Textures {@link #acquire(String, String, int) acquired} are never evicted until they are
+ * {@link #release(String, String) released}. Evicted textures are not deleted explicitly,
+ * they are deleted once they are no longer referenced, see {@link GLObject}.
+ * <p>
+ * Asynchronous requests are decoded on {@link Core#getIoExecutor()} and uploaded on
+ * render thread in {@link #processUploads()}, at most {@link #UPLOAD_BUDGET_BYTES} per frame.
+ * They may specify the display size, then images are reduced to that size before uploading,
+ * and mipmaps are built on the background thread as well.
  */
 @ApiStatus.Internal
 public class TextureManager {
@@ -41,8 +55,25 @@ public class TextureManager {
     public static final int CACHE_MASK = 0x1;
     public static final int MIPMAP_MASK = 0x2;
 
+    /**
+     * The default maximum size of cached textures in bytes.
+     */
+    public static final long DEFAULT_CACHE_BYTES = 64L << 20;
+
+    /**
+     * The maximum size of texture uploads in bytes per frame. One texture is uploaded
+     * anyway even if it exceeds the budget.
+     */
+    public static final long UPLOAD_BUDGET_BYTES = 8L << 20;
+
     private final Object mLock = new Object();
-    private Map<String, Map<String, GLTexture>> mTextures = new HashMap<>();
+
+    // access-ordered, the eldest is the least recently used
+    private LinkedHashMap<String, Entry> mCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long mCacheBytes;
+    private long mMaxCacheBytes = DEFAULT_CACHE_BYTES;
+
+    private final ConcurrentLinkedQueue<Upload> mPendingUploads = new ConcurrentLinkedQueue<>();
 
     private TextureManager() {
     }
@@ -58,8 +89,46 @@ public class TextureManager {
     public void reload() {
         synchronized (mLock) {
             // see Cleaner
-            mTextures.clear();
-            mTextures = new HashMap<>();
+            for (Entry entry : mCache.values()) {
+                entry.mCached = false;
+            }
+            mCache.clear();
+            mCache = new LinkedHashMap<>(16, 0.75f, true);
+            mCacheBytes = 0;
+        }
+    }
+
+    /**
+     * Sets the maximum size of cached textures in bytes, textures that are acquired are
+     * not counted for the limit. The cache will be trimmed immediately.
+     *
+     * @param maxBytes the maximum size in bytes
+     */
+    public void setMaxCacheBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (mLock) {
+            mMaxCacheBytes = maxBytes;
+            trimLocked();
+        }
+    }
+
+    /**
+     * @return the maximum size of cached textures in bytes
+     */
+    public long getMaxCacheBytes() {
+        synchronized (mLock) {
+            return mMaxCacheBytes;
+        }
+    }
+
+    /**
+     * @return the estimated size of all cached textures in bytes
+     */
+    public long getCacheBytes() {
+        synchronized (mLock) {
+            return mCacheBytes;
         }
     }
 
@@ -67,6 +136,9 @@ public class TextureManager {
      * Get or create an OpenGL 2D texture from the given resource. {@link #CACHE_MASK} will use
      * cache or create into the cache. {@link #MIPMAP_MASK} will generate mipmaps for
      * the resource texture.
+     * <p>
+     * The resource is decoded on the calling thread, consider using
+     * {@link #getOrCreateAsync(String, String, int)} instead.
      *
      * @param namespace the application namespace
      * @param path      the path to the resource
@@ -75,28 +147,187 @@ public class TextureManager {
      */
     @Nonnull
     public GLTexture getOrCreate(@Nonnull String namespace, @Nonnull String path, int flags) {
-        final GLTexture texture;
+        final Entry entry;
         if ((flags & CACHE_MASK) != 0) {
+            final String key = namespace + ':' + path;
             synchronized (mLock) {
-                Map<String, GLTexture> cache = mTextures.computeIfAbsent(namespace, n -> new HashMap<>());
-                GLTexture entry = cache.get(path);
-                if (entry != null) {
-                    return entry;
-                } else {
-                    texture = new GLTexture(GLCore.GL_TEXTURE_2D);
-                    cache.put(path, texture);
+                Entry e = mCache.get(key);
+                if (e != null) {
+                    return e.mTexture;
                 }
+                entry = new Entry(key);
+                mCache.put(key, entry);
             }
         } else {
-            texture = new GLTexture(GLCore.GL_TEXTURE_2D);
+            entry = new Entry(null);
         }
         try (InputStream stream = ModernUI.getInstance().getResourceStream(namespace, path)) {
             NativeImage image = NativeImage.decode(null, stream);
-            create(texture, image, (flags & MIPMAP_MASK) != 0);
+            create(entry, image, (flags & MIPMAP_MASK) != 0);
         } catch (IOException e) {
             e.printStackTrace();
+            fail(entry, e);
+        }
+        return entry.mTexture;
+    }
+
+    /**
+     * Get or create an OpenGL 2D texture from the given resource asynchronously. The resource
+     * is decoded on a background thread and uploaded on render thread. See
+     * {@link #getOrCreate(String, String, int)} for flags.
+     *
+     * @param namespace the application namespace
+     * @param path      the path to the resource
+     * @param flags     behavior flags
+     * @return a future that completes with the texture on render thread
+     */
+    @Nonnull
+    public CompletableFuture<GLTexture> getOrCreateAsync(@Nonnull String namespace, @Nonnull String path,
+                                                         int flags) {
+        return load(namespace, path, flags, 0, 0, false);
+    }
+
+    /**
+     * Get or create an OpenGL 2D texture from the given resource asynchronously, reduced for
+     * the given display size, see {@link NativeImage#downsample(int, int)}. Textures of
+     * different display sizes are cached separately.
+     *
+     * @param namespace the application namespace
+     * @param path      the path to the resource
+     * @param flags     behavior flags
+     * @param width     the display width in pixels, or 0 to keep the full size
+     * @param height    the display height in pixels, or 0 to keep the full size
+     * @return a future that completes with the texture on render thread
+     */
+    @Nonnull
+    public CompletableFuture<GLTexture> getOrCreateAsync(@Nonnull String namespace, @Nonnull String path,
+                                                         int flags, int width, int height) {
+        return load(namespace, path, flags, width, height, false);
+    }
+
+    /**
+     * Get or create an OpenGL 2D texture from the given resource asynchronously, the same as
+     * {@link #getOrCreateAsync(String, String, int)} with {@link #CACHE_MASK}, and increments
+     * its reference count. An acquired texture is never evicted from the cache, each call
+     * must be paired with a {@link #release(String, String)} call.
+     *
+     * @param namespace the application namespace
+     * @param path      the path to the resource
+     * @param flags     behavior flags
+     * @return a future that completes with the texture on render thread
+     */
+    @Nonnull
+    public CompletableFuture<GLTexture> acquire(@Nonnull String namespace, @Nonnull String path, int flags) {
+        return load(namespace, path, flags | CACHE_MASK, 0, 0, true);
+    }
+
+    /**
+     * Same as {@link #acquire(String, String, int)}, reduced for the given display size.
+     * Release it with {@link #release(String, String, int, int)} and the same size.
+     *
+     * @param namespace the application namespace
+     * @param path      the path to the resource
+     * @param flags     behavior flags
+     * @param width     the display width in pixels, or 0 to keep the full size
+     * @param height    the display height in pixels, or 0 to keep the full size
+     * @return a future that completes with the texture on render thread
+     */
+    @Nonnull
+    public CompletableFuture<GLTexture> acquire(@Nonnull String namespace, @Nonnull String path, int flags,
+                                                int width, int height) {
+        return load(namespace, path, flags | CACHE_MASK, width, height, true);
+    }
+
+    /**
+     * Decrements the reference count of a texture previously acquired, so that it can be
+     * evicted from the cache.
+     *
+     * @param namespace the application namespace
+     * @param path      the path to the resource
+     * @see #acquire(String, String, int)
+     */
+    public void release(@Nonnull String namespace, @Nonnull String path) {
+        release(namespace, path, 0, 0);
+    }
+
+    /**
+     * Decrements the reference count of a texture previously acquired with a display size.
+     *
+     * @param namespace the application namespace
+     * @param path      the path to the resource
+     * @param width     the display width passed to acquire
+     * @param height    the display height passed to acquire
+     * @see #acquire(String, String, int, int, int)
+     */
+    public void release(@Nonnull String namespace, @Nonnull String path, int width, int height) {
+        final String key = key(namespace, path, width, height);
+        synchronized (mLock) {
+            Entry entry = mCache.get(key);
+            if (entry != null && entry.mRefs > 0 && --entry.mRefs == 0) {
+                trimLocked();
+            }
+        }
+    }
+
+    @Nonnull
+    private static String key(@Nonnull String namespace, @Nonnull String path, int width, int height) {
+        if (width > 0 && height > 0) {
+            return namespace + ':' + path + '@' + width + 'x' + height;
+        }
+        return namespace + ':' + path;
+    }
+
+    @Nonnull
+    private CompletableFuture<GLTexture> load(@Nonnull String namespace, @Nonnull String path, int flags,
+                                              int width, int height, boolean acquire) {
+        final Entry entry;
+        if ((flags & CACHE_MASK) != 0) {
+            final String key = key(namespace, path, width, height);
+            synchronized (mLock) {
+                Entry e = mCache.get(key);
+                if (e != null) {
+                    if (acquire) {
+                        e.mRefs++;
+                    }
+                    return e.mFuture;
+                }
+                entry = new Entry(key);
+                if (acquire) {
+                    entry.mRefs++;
+                }
+                mCache.put(key, entry);
+            }
+        } else {
+            entry = new Entry(null);
+        }
+        final boolean mipmap = (flags & MIPMAP_MASK) != 0;
+        Core.getIoExecutor().execute(() -> {
+            try (InputStream stream = ModernUI.getInstance().getResourceStream(namespace, path)) {
+                NativeImage image = NativeImage.decode(null, stream, width, height);
+                entry.mTexture.setDimension(image.getWidth(), image.getHeight(), 1);
+                mPendingUploads.offer(new Upload(entry, image, mipmap ? image.createMipmaps(4) : null));
+            } catch (Throwable t) {
+                fail(entry, t);
+            }
+        });
+        return entry.mFuture;
+    }
+
+    /**
+     * Uploads decoded images of asynchronous requests, at most {@link #UPLOAD_BUDGET_BYTES}.
+     * This is called once per frame.
+     */
+    @RenderThread
+    public void processUploads() {
+        long budget = UPLOAD_BUDGET_BYTES;
+        Upload u;
+        while (budget > 0 && (u = mPendingUploads.poll()) != null) {
+            budget -= u.image().getSize();
+            if (u.mipmaps() != null) {
+                budget -= u.image().getSize() / 3;
+            }
+            upload(u.entry(), u.image(), u.mipmaps() != null, u.mipmaps());
         }
-        return texture;
     }
 
     /**
@@ -109,14 +340,14 @@ public class TextureManager {
      */
     @Nonnull
     public GLTexture create(@Nonnull InputStream stream, boolean mipmap) {
-        GLTexture texture = new GLTexture(GLCore.GL_TEXTURE_2D);
+        final Entry entry = new Entry(null);
         try (stream) {
             NativeImage image = NativeImage.decode(null, stream);
-            create(texture, image, mipmap);
+            create(entry, image, mipmap);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return texture;
+        return entry.mTexture;
     }
 
     /**
@@ -129,52 +360,117 @@ public class TextureManager {
      */
     @Nonnull
     public GLTexture create(@Nonnull ReadableByteChannel channel, boolean mipmap) {
-        GLTexture texture = new GLTexture(GLCore.GL_TEXTURE_2D);
+        final Entry entry = new Entry(null);
         try (channel) {
             NativeImage image = NativeImage.decode(null, channel);
-            create(texture, image, mipmap);
+            create(entry, image, mipmap);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return texture;
+        return entry.mTexture;
     }
 
-    private void create(@Nonnull GLTexture texture, @Nonnull NativeImage image, boolean mipmap) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-        texture.setDimension(width, height, 1);
+    private void create(@Nonnull Entry entry, @Nonnull NativeImage image, boolean mipmap) {
+        entry.mTexture.setDimension(image.getWidth(), image.getHeight(), 1);
         if (Core.isOnRenderThread()) {
-            texture.allocate2D(image.getInternalGlFormat(), width, height, mipmap ? 4 : 0);
+            upload(entry, image, mipmap, null);
+        } else {
+            Core.postOnRenderThread(() -> upload(entry, image, mipmap, null));
+        }
+    }
+
+    // mipmaps are generated on the GPU if they are not given
+    @RenderThread
+    private void upload(@Nonnull Entry entry, @Nonnull NativeImage image, boolean mipmap,
+                        @Nullable NativeImage[] mipmaps) {
+        final GLTexture texture = entry.mTexture;
+        try {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            if (mipmaps != null) {
+                texture.allocate2D(image.getInternalGlFormat(), width, height, mipmaps.length);
+            } else {
+                texture.allocate2D(image.getInternalGlFormat(), width, height, mipmap ? 4 : 0);
+            }
             texture.upload(0, 0, 0, width, height, 0,
                     0, 0, 1, image.getGlFormat(), GLCore.GL_UNSIGNED_BYTE, image.getPixels());
             texture.setFilter(true, true);
-            if (mipmap) {
+            if (mipmaps != null) {
+                for (int i = 0; i < mipmaps.length; i++) {
+                    final NativeImage level = mipmaps[i];
+                    texture.upload(i + 1, 0, 0, level.getWidth(), level.getHeight(), 0,
+                            0, 0, 1, level.getGlFormat(), GLCore.GL_UNSIGNED_BYTE, level.getPixels());
+                }
+            } else if (mipmap) {
                 texture.generateMipmap();
             }
+        } catch (Throwable t) {
+            fail(entry, t);
+            return;
+        } finally {
             image.close();
-        } else {
-            if (mipmap) {
-                Core.postOnRenderThread(() -> {
-                    int w = image.getWidth();
-                    int h = image.getHeight();
-                    texture.allocate2D(image.getInternalGlFormat(), w, h, 4);
-                    texture.upload(0, 0, 0, w, h, 0,
-                            0, 0, 1, image.getGlFormat(), GLCore.GL_UNSIGNED_BYTE, image.getPixels());
-                    texture.setFilter(true, true);
-                    texture.generateMipmap();
-                    image.close();
-                });
-            } else {
-                Core.postOnRenderThread(() -> {
-                    int w = image.getWidth();
-                    int h = image.getHeight();
-                    texture.allocate2D(image.getInternalGlFormat(), w, h, 0);
-                    texture.upload(0, 0, 0, w, h, 0,
-                            0, 0, 1, image.getGlFormat(), GLCore.GL_UNSIGNED_BYTE, image.getPixels());
-                    texture.setFilter(true, true);
-                    image.close();
-                });
+            if (mipmaps != null) {
+                for (NativeImage level : mipmaps) {
+                    level.close();
+                }
+            }
+        }
+        // mipmaps take one third more
+        final long bytes = mipmap ? (long) image.getSize() * 4 / 3 : image.getSize();
+        synchronized (mLock) {
+            if (entry.mCached) {
+                entry.mBytes = bytes;
+                mCacheBytes += bytes;
             }
         }
+        entry.mFuture.complete(texture);
+        synchronized (mLock) {
+            trimLocked();
+        }
+    }
+
+    private void fail(@Nonnull Entry entry, @Nonnull Throwable t) {
+        synchronized (mLock) {
+            if (entry.mCached) {
+                mCache.remove(entry.mKey);
+                mCacheBytes -= entry.mBytes;
+                entry.mCached = false;
+            }
+        }
+        entry.mFuture.completeExceptionally(t);
+    }
+
+    // evict the least recently used textures that are loaded and not acquired
+    private void trimLocked() {
+        final Iterator<Entry> it = mCache.values().iterator();
+        while (mCacheBytes > mMaxCacheBytes && it.hasNext()) {
+            final Entry entry = it.next();
+            if (entry.mRefs == 0 && entry.mFuture.isDone()) {
+                it.remove();
+                mCacheBytes -= entry.mBytes;
+                entry.mCached = false;
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        @Nullable
+        final String mKey;
+        final GLTexture mTexture = new GLTexture(GLCore.GL_TEXTURE_2D);
+        final CompletableFuture<GLTexture> mFuture = new CompletableFuture<>();
+
+        // guarded by mLock
+        long mBytes;
+        int mRefs;
+        boolean mCached;
+
+        Entry(@Nullable String key) {
+            mKey = key;
+            mCached = key != null;
+        }
+    }
+
+    private record Upload(Entry entry, NativeImage image, @Nullable NativeImage[] mipmaps) {
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.test;
+
+import icyllis.modernui.ModernUI;
+import icyllis.modernui.core.NativeImage;
+import icyllis.modernui.graphics.RasterCanvas;
+import icyllis.modernui.view.Gravity;
+import icyllis.modernui.widget.TextView;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Renders a TextView to a native image without a render thread or a graphics context.
+ *
+ * @since 3.4
+ */
+public class TestRasterCanvas {
+
+    public static void main(String[] args) throws IOException {
+        // views query the instance, no window or thread is created
+        new ModernUI();
+
+        TextView textView = new TextView();
+        textView.setText("Modern UI headless text");
+        textView.setTextSize(24);
+        textView.setGravity(Gravity.CENTER);
+
+        RasterCanvas canvas = new RasterCanvas(480, 96);
+        canvas.clear(0xFF202020);
+        canvas.drawView(textView);
+
+        int inked = 0;
+        for (int y = 0; y < canvas.getHeight(); y++) {
+            for (int x = 0; x < canvas.getWidth(); x++) {
+                if (canvas.getPixel(x, y) != 0xFF202020) {
+                    inked++;
+                }
+            }
+        }
+        if (inked == 0) {
+            throw new IllegalStateException("No text was rendered");
+        }
+
+        Path path = Path.of(args.length > 0 ? args[0] : "raster_text.png");
+        try (NativeImage image = canvas.toNativeImage()) {
+            image.saveToPath(path, NativeImage.SaveFormat.PNG, 0);
+        }
+        System.out.println("Rendered " + inked + " text pixels to " + path.toAbsolutePath());
+    }
+}
@@ -223,6 +223,11 @@ public class DynamicLayout extends Layout {
     private static final int PRIORITY = 128;
     private static final int BLOCK_MINIMUM_CHARACTER_LENGTH = 400;
 
+    // paragraphs shorter than this are always re-broken as a whole
+    private static final int PARTIAL_REFLOW_MINIMUM_LENGTH = BLOCK_MINIMUM_CHARACTER_LENGTH;
+    // the number of old lines after the edit to re-break, before looking for convergence
+    private static final int PARTIAL_REFLOW_WINDOW_LINES = 3;
+
     // START, DIR, and TAB share the same entry.
     private static final int START = 0;
     private static final int DIR = START;
@@ -390,6 +395,11 @@ public class DynamicLayout extends Layout {
         CharSequence text = mDisplay;
         int len = text.length();
 
+        // the original edit, in new text
+        final int editWhere = where;
+        final int editBefore = before;
+        final int editAfter = after;
+
         // seek back to the start of the paragraph
 
         int find = TextUtils.lastIndexOf(text, '\n', where - 1);
@@ -424,17 +434,6 @@ public class DynamicLayout extends Layout {
             Spanned sp = (Spanned) text;
         }
 
-        // find affected region of old layout
-
-        int startline = getLineForOffset(where);
-        int startv = getLineTop(startline);
-
-        int endline = getLineForOffset(where + before);
-        if (where + after == len)
-            endline = getLineCount();
-        int endv = getLineTop(endline);
-        boolean islast = (endline == getLineCount());
-
         // generate new layout for affected text
 
         StaticLayout reflowed;
@@ -452,22 +451,47 @@ public class DynamicLayout extends Layout {
             b = StaticLayout.builder(text, where, where + after, getPaint(), getWidth());
         }
 
-        b.setText(text, where, where + after)
-                .setPaint(getPaint())
+        b.setPaint(getPaint())
                 .setWidth(getWidth())
-                .setTextDirection(getTextDirectionHeuristic())
                 .setFallbackLineSpacing(mFallbackLineSpacing)
                 .setEllipsizedWidth(mEllipsizedWidth)
                 .setEllipsize(mEllipsizeAt);
 
-        reflowed.generate(b, false /*includepad*/, true /*trackpad*/);
-        int n = reflowed.getLineCount();
-        // If the new layout has a blank line at the end, but it is not
-        // the very end of the buffer, then we already have a line that
-        // starts there, so disregard the blank line.
+        // try to re-break only the lines around the edit, instead of the whole paragraph
+        int n = reflowPartially(reflowed, b, text, where, where + after,
+                editWhere, editBefore, editAfter);
+        if (n > 0) {
+            // the affected region is narrowed to the converged lines
+            int start = reflowed.getLineStart(0);
+            int newEnd = reflowed.getLineStart(n);
+            int delta = editAfter - editBefore;
+            before = newEnd - delta - start;
+            after = newEnd - start;
+            where = start;
+        } else {
+            b.setText(text, where, where + after)
+                    .setTextDirection(getTextDirectionHeuristic());
+
+            reflowed.generate(b, false /*includepad*/, true /*trackpad*/);
+            n = reflowed.getLineCount();
+            // If the new layout has a blank line at the end, but it is not
+            // the very end of the buffer, then we already have a line that
+            // starts there, so disregard the blank line.
+
+            if (where + after != len && reflowed.getLineStart(n - 1) == where + after)
+                n--;
+        }
+
+        // find affected region of old layout
 
-        if (where + after != len && reflowed.getLineStart(n - 1) == where + after)
-            n--;
+        int startline = getLineForOffset(where);
+        int startv = getLineTop(startline);
+
+        int endline = getLineForOffset(where + before);
+        if (where + after == len)
+            endline = getLineCount();
+        int endv = getLineTop(endline);
+        boolean islast = (endline == getLineCount());
 
         // remove affected lines from old layout
         mInts.deleteAt(startline, endline - startline);
@@ -541,6 +565,64 @@ public class DynamicLayout extends Layout {
         }
     }
 
+    /**
+     * Re-breaks a window of lines around the edit instead of the whole paragraph. Since lines
+     * are broken greedily, once a new line starts at the same place as an old line after
+     * the edit, all following lines of the paragraph are the same as before, so the window
+     * is enough if it converges. This is only done for long left-to-right paragraphs, so the
+     * bidi analysis of the window is the same as that of the paragraph.
+     *
+     * @return the number of new lines before the converged line, or 0 if not converged
+     */
+    private int reflowPartially(@Nonnull StaticLayout reflowed, @Nonnull StaticLayout.Builder b,
+                                @Nonnull CharSequence text, int paraStart, int paraEnd,
+                                int editWhere, int editBefore, int editAfter) {
+        if (mEllipsize || paraEnd - paraStart < PARTIAL_REFLOW_MINIMUM_LENGTH) {
+            return 0;
+        }
+        // start from the line before the edited line, the edit may pull words into it
+        final int firstLine = Math.max(getLineForOffset(editWhere) - 1, 0);
+        final int start = getLineStart(firstLine);
+        if (start < paraStart || getParagraphDirection(firstLine) != DIR_LEFT_TO_RIGHT ||
+                getLineDirections(firstLine) != Directions.ALL_LEFT_TO_RIGHT) {
+            return 0;
+        }
+        // window end, in new text, must be an old line start after the edit
+        final int delta = editAfter - editBefore;
+        final int lastLine = getLineForOffset(editWhere + editBefore) + PARTIAL_REFLOW_WINDOW_LINES;
+        if (lastLine >= getLineCount()) {
+            return 0;
+        }
+        final int end = getLineStart(lastLine) + delta;
+        if (end >= paraEnd || end <= editWhere + editAfter ||
+                TextUtils.indexOf(text, '\n', start, end) >= 0 ||
+                getTextDirectionHeuristic().isRtl(text, paraStart, paraEnd - paraStart)) {
+            return 0;
+        }
+
+        b.setText(text, start, end)
+                .setTextDirection(TextDirectionHeuristics.LTR);
+        reflowed.generate(b, false /*includepad*/, true /*trackpad*/);
+
+        final int count = reflowed.getLineCount();
+        for (int i = 0; i < count; i++) {
+            // the last line is cut by the window end, but its start is still natural
+            if (i > 0) {
+                final int lineStart = reflowed.getLineStart(i);
+                if (lineStart >= editWhere + editAfter) {
+                    final int oldStart = lineStart - delta;
+                    if (getLineStart(getLineForOffset(oldStart)) == oldStart) {
+                        return i;
+                    }
+                }
+            }
+            if (reflowed.getLineDirections(i) != Directions.ALL_LEFT_TO_RIGHT) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
     /**
      * Create the initial block structure, cutting the text into blocks of at least
      * BLOCK_MINIMUM_CHARACTER_SIZE characters, aligned on the ends of paragraphs.
@@ -103,6 +103,14 @@ public class MeasuredParagraph {
     @Nonnull
     private final FontMetricsInt mCachedFm = new FontMetricsInt();
 
+    // reused to iterate spans without allocation
+    private final SpanSet<MetricAffectingSpan> mMetricAffectingSpanSet =
+            new SpanSet<>(MetricAffectingSpan.class);
+    private final SpanSet<CharacterStyle> mCharacterStyleSpanSet =
+            new SpanSet<>(CharacterStyle.class);
+    private final SpanSet<ReplacementSpan> mReplacementSpanSet =
+            new SpanSet<>(ReplacementSpan.class);
+
     private MeasuredParagraph() {
     }
 
@@ -125,6 +133,9 @@ public class MeasuredParagraph {
         mSpanEndCache.clear();
         mFontMetrics.clear();
         mMeasuredText = null;
+        mMetricAffectingSpanSet.recycle();
+        mCharacterStyleSpanSet.recycle();
+        mReplacementSpanSet.recycle();
     }
 
     /**
@@ -434,16 +445,12 @@ public class MeasuredParagraph {
             } else {
                 // There may be a MetricsAffectingSpan. Split into span transitions and apply
                 // styles.
+                final SpanSet<MetricAffectingSpan> spans = c.mMetricAffectingSpanSet;
+                spans.init(c.mSpanned, start, end);
+                c.mCharacterStyleSpanSet.init(c.mSpanned, start, end);
                 int spanEnd;
                 for (int spanStart = start; spanStart < end; spanStart = spanEnd) {
-                    spanEnd = c.mSpanned.nextSpanTransition(spanStart, end,
-                            MetricAffectingSpan.class);
-                    MetricAffectingSpan[] spans = c.mSpanned.getSpans(spanStart, spanEnd,
-                            MetricAffectingSpan.class);
-                    if (spans != null) {
-                        spans = TextUtils.removeEmptySpans(spans, c.mSpanned,
-                                MetricAffectingSpan.class);
-                    }
+                    spanEnd = spans.getNextTransition(spanStart, end);
                     c.applyMetricsAffectingSpan(paint, spans, spanStart, spanEnd, builder);
                     c.mSpanEndCache.add(spanEnd);
                 }
@@ -467,11 +474,11 @@ public class MeasuredParagraph {
 
         // Replace characters associated with ReplacementSpan to U+FFFC.
         if (mSpanned != null) {
-            final ReplacementSpan[] spans = mSpanned.getSpans(start, end, ReplacementSpan.class);
-            if (spans != null) {
-                for (ReplacementSpan span : spans) {
-                    int startInPara = mSpanned.getSpanStart(span) - start;
-                    int endInPara = mSpanned.getSpanEnd(span) - start;
+            final SpanSet<ReplacementSpan> spans = mReplacementSpanSet;
+            if (spans.init(mSpanned, start, end)) {
+                for (int i = 0; i < spans.size(); i++) {
+                    int startInPara = spans.mSpanStarts[i] - start;
+                    int endInPara = spans.mSpanEnds[i] - start;
                     // The span interval may be larger and must be restricted to [start, end)
                     if (startInPara < 0)
                         startInPara = 0;
@@ -509,7 +516,7 @@ public class MeasuredParagraph {
         }
     }
 
-    private void applyMetricsAffectingSpan(@Nonnull FontPaint paint, @Nullable MetricAffectingSpan[] spans,
+    private void applyMetricsAffectingSpan(@Nonnull FontPaint paint, @Nullable SpanSet<MetricAffectingSpan> spans,
                                            int start, int end, @Nonnull MeasuredText.Builder builder) {
         assert start != end;
         TextPaint tp = TextPaint.obtain();
@@ -517,7 +524,12 @@ public class MeasuredParagraph {
 
         ReplacementSpan replacement = null;
         if (spans != null) {
-            for (MetricAffectingSpan span : spans) {
+            for (int i = 0; i < spans.size(); i++) {
+                // empty spans are excluded by the span set, so the range is open at both ends
+                if (spans.mSpanStarts[i] >= end || spans.mSpanEnds[i] <= start) {
+                    continue;
+                }
+                final MetricAffectingSpan span = spans.get(i);
                 if (span instanceof ReplacementSpan) {
                     // The last ReplacementSpan is effective for backward compatibility reasons.
                     replacement = (ReplacementSpan) span;
@@ -539,7 +551,7 @@ public class MeasuredParagraph {
             if (mSpanned != null) {
                 int spanEnd;
                 for (int spanStart = start; spanStart < end; spanStart = spanEnd) {
-                    spanEnd = mSpanned.nextSpanTransition(spanStart, end, CharacterStyle.class);
+                    spanEnd = mCharacterStyleSpanSet.getNextTransition(spanStart, end);
                     applyStyleRun(base, spanStart - offset, spanEnd - offset, builder);
                 }
             } else {
@@ -18,34 +18,99 @@
 
 package icyllis.modernui.text;
 
+import icyllis.modernui.core.Core;
 import icyllis.modernui.graphics.font.FontPaint;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
-//TODO
-public class PrecomputedText {
+/**
+ * A text which has the character metrics data.
+ * <p>
+ * A text object that contains the character metrics data and can be used to improve the performance
+ * of text layout operations. When a PrecomputedText is created with a given {@link CharSequence},
+ * it will measure the text metrics during the creation. This PrecomputedText instance can be set on
+ * {@link icyllis.modernui.widget.TextView} or {@link StaticLayout}. Since the text layout information
+ * will be included in this instance, {@link icyllis.modernui.widget.TextView} or {@link StaticLayout}
+ * will not have to recalculate this information.
+ * <p>
+ * Note that the {@link PrecomputedText} created from different parameters of the target
+ * {@link icyllis.modernui.widget.TextView} will be rejected internally and compute the text layout
+ * again with the current {@link icyllis.modernui.widget.TextView} parameters.
+ * <p>
+ * For large text, use {@link #createAsync(CharSequence, FontPaint, TextDirectionHeuristic, Executor)}
+ * to measure paragraphs in parallel off the UI thread. The result is exactly the same as
+ * {@link #create(CharSequence, FontPaint, TextDirectionHeuristic)}.
+ */
+public class PrecomputedText implements Spanned, GetChars {
 
     private final SpannableString mText;
     private final FontPaint mPaint;
     private final TextDirectionHeuristic mTextDir;
     private final MeasuredParagraph[] mParagraphs;
 
+    // the end offset of each paragraph, exclusive
+    private final int[] mParagraphEnds;
+
     private PrecomputedText(@Nonnull SpannableString text, @Nonnull FontPaint paint,
                             @Nonnull TextDirectionHeuristic textDir, @Nonnull MeasuredParagraph[] paragraphs) {
         mText = text;
         mPaint = paint;
         mTextDir = textDir;
         mParagraphs = paragraphs;
+        mParagraphEnds = new int[paragraphs.length];
+        for (int i = 0; i < paragraphs.length; i++) {
+            mParagraphEnds[i] = paragraphs[i].getTextStart() + paragraphs[i].getTextLength();
+        }
     }
 
+    /**
+     * Create a new {@link PrecomputedText} which will pre-compute text measurement and glyph
+     * positioning information.
+     * <p>
+     * This can be expensive, so computing this on a background thread before your text will be
+     * presented can save work on the UI thread.
+     *
+     * @param text    the text to be measured
+     * @param paint   the paint used to measure, a copy will be held
+     * @param textDir the text direction heuristic
+     * @return A {@link PrecomputedText}
+     */
     @Nonnull
     public static PrecomputedText create(@Nonnull CharSequence text, @Nonnull FontPaint paint,
                                          @Nonnull TextDirectionHeuristic textDir) {
         // always create new spannable, in case of original text changed but we don't have watchers
-        return new PrecomputedText(new SpannableString(text, true), paint, textDir,
-                createMeasuredParagraphs(text, 0, text.length(), paint, textDir, true));
+        final SpannableString copy = new SpannableString(text, true);
+        final FontPaint p = new FontPaint(paint);
+        return new PrecomputedText(copy, p, textDir,
+                createMeasuredParagraphs(copy, 0, copy.length(), p, textDir, true));
+    }
+
+    /**
+     * Create a new {@link PrecomputedText} asynchronously, paragraphs are measured in parallel.
+     * The text and the paint are copied on the calling thread, so they can be modified
+     * after this method returns.
+     *
+     * @param text     the text to be measured
+     * @param paint    the paint used to measure, a copy will be held
+     * @param textDir  the text direction heuristic
+     * @param executor the executor to measure paragraphs, or null to use {@link Core#getComputeExecutor()}
+     * @return a future that completes with the {@link PrecomputedText}
+     */
+    @Nonnull
+    public static CompletableFuture<PrecomputedText> createAsync(@Nonnull CharSequence text,
+                                                                 @Nonnull FontPaint paint,
+                                                                 @Nonnull TextDirectionHeuristic textDir,
+                                                                 @Nullable Executor executor) {
+        final SpannableString copy = new SpannableString(text, true);
+        final FontPaint p = new FontPaint(paint);
+        return createMeasuredParagraphsAsync(copy, 0, copy.length(), p, textDir, true, executor)
+                .thenApply(paragraphs -> new PrecomputedText(copy, p, textDir, paragraphs));
     }
 
     @Nonnull
@@ -69,22 +134,199 @@ public class PrecomputedText {
         return list.toArray(new MeasuredParagraph[0]);
     }
 
+    /**
+     * Same as {@link #createMeasuredParagraphs(CharSequence, int, int, FontPaint, TextDirectionHeuristic,
+     * boolean)}, but each paragraph is measured as a separate task on the given executor. The
+     * order and the results are the same as the serial version. The text and the paint must not
+     * be modified until the returned future completes.
+     *
+     * @param executor the executor to measure paragraphs, or null to use {@link Core#getComputeExecutor()}
+     * @return a future that completes with the measured paragraphs
+     */
+    @Nonnull
+    public static CompletableFuture<MeasuredParagraph[]> createMeasuredParagraphsAsync(
+            @Nonnull CharSequence text, int start, int end, @Nonnull FontPaint paint,
+            @Nonnull TextDirectionHeuristic textDir, boolean computeLayout, @Nullable Executor executor) {
+        if (executor == null) {
+            executor = Core.getComputeExecutor();
+        }
+        // finding paragraph bounds is cheap, do it on the calling thread
+        final IntArrayList bounds = new IntArrayList();
+        int paraEnd;
+        for (int paraStart = start; paraStart < end; paraStart = paraEnd) {
+            paraEnd = TextUtils.indexOf(text, '\n', paraStart, end);
+            if (paraEnd < 0) {
+                paraEnd = end;
+            } else {
+                paraEnd++;
+            }
+            bounds.add(paraStart);
+            bounds.add(paraEnd);
+        }
+        final int count = bounds.size() >> 1;
+        final List<CompletableFuture<MeasuredParagraph>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int paraStart = bounds.getInt(i << 1);
+            final int paraLimit = bounds.getInt((i << 1) + 1);
+            tasks.add(CompletableFuture.supplyAsync(() -> MeasuredParagraph.buildForStaticLayout(
+                    paint, text, paraStart, paraLimit, textDir, computeLayout, null), executor));
+        }
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).thenApply(__ -> {
+            final MeasuredParagraph[] result = new MeasuredParagraph[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = tasks.get(i).join();
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Returns the paragraph index of the given position.
+     *
+     * @param pos the char index in the text
+     * @return the paragraph index, or -1 if the position is not in any paragraph,
+     * for example, the text is empty or the position is out of range
+     */
     public int findParaIndex(int pos) {
         // TODO: Maybe good to remove paragraph concept from PrecomputedText and add substring
         //       layout support to StaticLayout.
-        for (int i = mParagraphs.length - 1; i >= 0; --i) {
-            if (pos > mParagraphs[i].getTextStart()) {
+        if (pos < 0) {
+            return -1;
+        }
+        for (int i = 0; i < mParagraphEnds.length; i++) {
+            if (pos < mParagraphEnds[i]) {
                 return i;
             }
         }
         return -1;
     }
 
+    /**
+     * Returns the number of paragraphs.
+     */
+    public int getParagraphCount() {
+        return mParagraphs.length;
+    }
+
+    /**
+     * Returns the measured paragraphs, in order.
+     */
+    @Nonnull
+    public MeasuredParagraph[] getMeasuredParagraphs() {
+        return mParagraphs;
+    }
+
+    /**
+     * Returns the paint used to measure this text.
+     */
+    @Nonnull
     public FontPaint getPaint() {
         return mPaint;
     }
 
-    public float getWidth(int i, int i1) {
-        return 0;
+    /**
+     * Returns the text direction heuristic used to measure this text.
+     */
+    @Nonnull
+    public TextDirectionHeuristic getTextDirection() {
+        return mTextDir;
+    }
+
+    /**
+     * Returns true if the measurement of this text can be used to layout the given range
+     * with the given parameters.
+     *
+     * @param start   the start of the range
+     * @param end     the end of the range
+     * @param textDir the text direction heuristic
+     * @param paint   the paint to layout
+     * @return whether the result is usable
+     */
+    public boolean isResultUsable(int start, int end, @Nonnull TextDirectionHeuristic textDir,
+                                  @Nonnull FontPaint paint) {
+        return start == 0 && end == mText.length() && mTextDir == textDir
+                && !mPaint.isMetricAffecting(paint);
+    }
+
+    /**
+     * Returns text width for the given range.
+     * Both {@code start} and {@code end} offset need to be in the same paragraph, otherwise
+     * IllegalArgumentException will be thrown.
+     *
+     * @param start the inclusive start offset in the text
+     * @param end   the exclusive end offset in the text
+     * @return the text width
+     */
+    public float getWidth(int start, int end) {
+        if (start < 0 || end > mText.length() || start > end) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (start == end) {
+            return 0;
+        }
+        final int paraIndex = findParaIndex(start);
+        if (paraIndex < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        final int paraStart = mParagraphs[paraIndex].getTextStart();
+        if (end > mParagraphEnds[paraIndex]) {
+            throw new IllegalArgumentException("Cannot measured across the paragraph:"
+                    + "para: (" + paraStart + ", " + mParagraphEnds[paraIndex] + "), "
+                    + "request: (" + start + ", " + end + ")");
+        }
+        return mParagraphs[paraIndex].getAdvance(start - paraStart, end - paraStart);
+    }
+
+    @Nullable
+    @Override
+    public <T> T[] getSpans(int start, int end, @Nullable Class<? extends T> type, @Nullable List<T> out) {
+        return mText.getSpans(start, end, type, out);
+    }
+
+    @Override
+    public int getSpanStart(@Nonnull Object span) {
+        return mText.getSpanStart(span);
+    }
+
+    @Override
+    public int getSpanEnd(@Nonnull Object span) {
+        return mText.getSpanEnd(span);
+    }
+
+    @Override
+    public int getSpanFlags(@Nonnull Object span) {
+        return mText.getSpanFlags(span);
+    }
+
+    @Override
+    public int nextSpanTransition(int start, int limit, @Nullable Class<?> type) {
+        return mText.nextSpanTransition(start, limit, type);
+    }
+
+    @Override
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        mText.getChars(srcBegin, srcEnd, dst, dstBegin);
+    }
+
+    @Override
+    public int length() {
+        return mText.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return mText.charAt(index);
+    }
+
+    @Nonnull
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return create(mText.subSequence(start, end), mPaint, mTextDir);
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+        return mText.toString();
     }
 }
@@ -0,0 +1,196 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.text;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * An immutable interval index over the spans of a {@link SpannableStringInternal}, optionally
+ * restricted to the spans of one type, so that queries neither visit spans out of range nor
+ * test the type of each span.
+ * <p>
+ * Spans are sorted by their starts, and viewed as an implicit binary tree augmented with the
+ * maximum span end of each subtree, the same structure as {@link SpannableStringBuilder} uses.
+ * The results are indices into the span array, in no particular order.
+ *
+ * @since 3.4
+ */
+final class SpanIndex {
+
+    private final int mCount;
+
+    // sorted by start, and by insertion order for equal starts
+    private final int[] mStarts;
+    private final int[] mEnds;
+    private final int[] mPositions;
+
+    // see SpannableStringBuilder.calcMax()
+    private final int[] mMax;
+
+    // all ends in ascending order, for span transitions
+    private final int[] mSortedEnds;
+
+    /**
+     * Builds an index for the given spans.
+     *
+     * @param spans   the span array
+     * @param data    the span data array, in {@link SpannableStringInternal#COLUMNS} columns
+     * @param count   the number of spans
+     * @param type    the type of spans to index, or null for all
+     */
+    SpanIndex(@Nonnull Object[] spans, @Nonnull int[] data, int count, @Nullable Class<?> type) {
+        final int[] positions = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (type == null || type.isInstance(spans[i])) {
+                positions[n++] = i;
+            }
+        }
+        // merge sort is stable, equal starts keep the insertion order
+        IntArrays.mergeSort(positions, 0, n, (a, b) -> Integer.compare(
+                data[a * SpannableStringInternal.COLUMNS + SpannableStringInternal.START],
+                data[b * SpannableStringInternal.COLUMNS + SpannableStringInternal.START]));
+
+        mCount = n;
+        mStarts = new int[n];
+        mEnds = new int[n];
+        mPositions = Arrays.copyOf(positions, n);
+        for (int i = 0; i < n; i++) {
+            final int p = positions[i] * SpannableStringInternal.COLUMNS;
+            mStarts[i] = data[p + SpannableStringInternal.START];
+            mEnds[i] = data[p + SpannableStringInternal.END];
+        }
+        if (n > 0) {
+            mMax = new int[2 * treeRoot() + 1];
+            calcMax(treeRoot());
+        } else {
+            mMax = IntArrays.EMPTY_ARRAY;
+        }
+        mSortedEnds = mEnds.clone();
+        Arrays.sort(mSortedEnds);
+    }
+
+    private int treeRoot() {
+        return Integer.highestOneBit(mCount) - 1;
+    }
+
+    // (i+1) & ~i is equal to 2^(the number of trailing ones in i)
+    private static int leftChild(int i) {
+        return i - (((i + 1) & ~i) >> 1);
+    }
+
+    private static int rightChild(int i) {
+        return i + (((i + 1) & ~i) >> 1);
+    }
+
+    private int calcMax(int i) {
+        int max = 0;
+        if ((i & 1) != 0) {
+            // internal tree node
+            max = calcMax(leftChild(i));
+        }
+        if (i < mCount) {
+            max = Math.max(max, mEnds[i]);
+            if ((i & 1) != 0) {
+                max = Math.max(max, calcMax(rightChild(i)));
+            }
+        }
+        mMax[i] = max;
+        return max;
+    }
+
+    /**
+     * @return the number of indexed spans
+     */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Finds the spans that intersect the given range, with the same rules as
+     * {@link Spanned#getSpans(int, int, Class)}.
+     *
+     * @param start the start of the range
+     * @param end   the end of the range
+     * @param out   the list to add the positions of found spans into the span array
+     */
+    void query(int start, int end, @Nonnull IntArrayList out) {
+        if (mCount > 0) {
+            query(treeRoot(), start, end, out);
+        }
+    }
+
+    private void query(int i, int start, int end, @Nonnull IntArrayList out) {
+        if ((i & 1) != 0) {
+            // internal tree node
+            int left = leftChild(i);
+            if (mMax[left] >= start) {
+                query(left, start, end, out);
+            }
+        }
+        if (i < mCount) {
+            final int spanStart = mStarts[i];
+            if (spanStart <= end) {
+                final int spanEnd = mEnds[i];
+                if (spanEnd >= start && (spanStart == spanEnd || start == end ||
+                        (spanStart != end && spanEnd != start))) {
+                    out.add(mPositions[i]);
+                }
+                if ((i & 1) != 0) {
+                    query(rightChild(i), start, end, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as {@link Spanned#nextSpanTransition(int, int, Class)}.
+     */
+    int nextSpanTransition(int start, int limit) {
+        int i = upperBound(mStarts, mCount, start);
+        if (i < mCount && mStarts[i] < limit) {
+            limit = mStarts[i];
+        }
+        i = upperBound(mSortedEnds, mCount, start);
+        if (i < mCount && mSortedEnds[i] < limit) {
+            limit = mSortedEnds[i];
+        }
+        return limit;
+    }
+
+    // returns the first index whose value is greater than the key
+    private static int upperBound(@Nonnull int[] a, int size, int key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (a[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
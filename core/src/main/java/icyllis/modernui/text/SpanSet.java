@@ -1,6 +1,6 @@
 /*
  * Modern UI.
- * Copyright (C) 2019-2021 BloCamLimb. All rights reserved.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
  *
  * Modern UI is free software; you can redistribute it and/or
  * modify it under the terms of the GNU Lesser General Public
@@ -20,6 +20,7 @@ package icyllis.modernui.text;
 
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 
 /**
@@ -29,6 +30,9 @@ import java.util.Iterator;
  * Fields are public for a convenient direct access (read only).
  * <p>
  * Note that empty spans are ignored by this class.
+ * <p>
+ * A span set is meant to be reused, its arrays only grow, so that iterating spans of
+ * text that is drawn or measured repeatedly does not allocate.
  */
 public class SpanSet<E> extends ArrayList<E> {
 
@@ -38,6 +42,10 @@ public class SpanSet<E> extends ArrayList<E> {
     public int[] mSpanEnds;
     public int[] mSpanFlags;
 
+    // distinct span starts and ends in ascending order
+    private int[] mTransitions;
+    private int mTransitionCount;
+
     public SpanSet(@Nonnull Class<? extends E> type) {
         mType = type;
     }
@@ -45,6 +53,7 @@ public class SpanSet<E> extends ArrayList<E> {
     public boolean init(@Nonnull Spanned spanned, int start, int limit) {
         spanned.getSpans(start, limit, mType, this);
         final int length = size();
+        mTransitionCount = 0;
 
         if (length > 0) {
             if (mSpanStarts == null || mSpanStarts.length < length) {
@@ -72,11 +81,32 @@ public class SpanSet<E> extends ArrayList<E> {
 
                 size++;
             }
-            return size > 0;
+            if (size > 0) {
+                initTransitions(size);
+                return true;
+            }
+            return false;
         }
         return false;
     }
 
+    private void initTransitions(int size) {
+        int[] transitions = mTransitions;
+        if (transitions == null || transitions.length < size << 1) {
+            mTransitions = transitions = new int[mSpanStarts.length << 1];
+        }
+        System.arraycopy(mSpanStarts, 0, transitions, 0, size);
+        System.arraycopy(mSpanEnds, 0, transitions, size, size);
+        Arrays.sort(transitions, 0, size << 1);
+        int count = 1;
+        for (int i = 1, e = size << 1; i < e; i++) {
+            if (transitions[i] != transitions[count - 1]) {
+                transitions[count++] = transitions[i];
+            }
+        }
+        mTransitionCount = count;
+    }
+
     /**
      * Returns true if there are spans intersecting the given interval.
      *
@@ -95,13 +125,20 @@ public class SpanSet<E> extends ArrayList<E> {
      * Similar to {@link Spanned#nextSpanTransition(int, int, Class)}
      */
     public int getNextTransition(int start, int limit) {
-        for (int i = 0; i < size(); i++) {
-            final int spanStart = mSpanStarts[i];
-            final int spanEnd = mSpanEnds[i];
-            if (spanStart > start && spanStart < limit)
-                limit = spanStart;
-            if (spanEnd > start && spanEnd < limit)
-                limit = spanEnd;
+        final int[] transitions = mTransitions;
+        // binary search the first transition greater than start
+        int low = 0;
+        int high = mTransitionCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (transitions[mid] <= start) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low < mTransitionCount && transitions[low] < limit) {
+            return transitions[low];
         }
         return limit;
     }
@@ -111,5 +148,6 @@ public class SpanSet<E> extends ArrayList<E> {
      */
     public void recycle() {
         clear();
+        mTransitionCount = 0;
     }
 }
@@ -1,6 +1,6 @@
 /*
  * Modern UI.
- * Copyright (C) 2019-2021 BloCamLimb. All rights reserved.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
  *
  * Modern UI is free software; you can redistribute it and/or
  * modify it under the terms of the GNU Lesser General Public
@@ -37,30 +37,43 @@ package icyllis.modernui.text;
 import icyllis.modernui.util.GrowingArrayUtils;
 import icyllis.modernui.util.Pool;
 import icyllis.modernui.util.Pools;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.objects.ObjectArrays;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 // modified version of https://android.googlesource.com/
 abstract class SpannableStringInternal implements Spanned, GetChars {
 
     private static final Pool<ArrayList<Object>> sListPool = Pools.concurrent(1);
+    private static final Pool<IntArrayList> sIndexListPool = Pools.concurrent(1);
 
-    private static final int START = 0;
-    private static final int END = 1;
-    private static final int FLAGS = 2;
-    private static final int COLUMNS = 3;
+    static final int START = 0;
+    static final int END = 1;
+    static final int FLAGS = 2;
+    static final int COLUMNS = 3;
+
+    // linear scans are faster for a few spans
+    private static final int INDEX_THRESHOLD = 16;
 
     private final String mText;
     private Object[] mSpans;
     private int[] mSpanData;
     private int mSpanCount;
 
+    // lazily built on queries, discarded once spans change, see getSpanIndex()
+    private volatile SpanIndex mSpanIndex;
+    private volatile ConcurrentHashMap<Class<?>, SpanIndex> mTypedSpanIndices;
+    private volatile Reference2IntOpenHashMap<Object> mSpanPositions;
+    private int mQueriesSinceChange;
+
     SpannableStringInternal(CharSequence source, int start, int end, boolean ignoreNoCopySpan) {
         if (start == 0 && end == source.length())
             mText = source.toString();
@@ -229,6 +242,7 @@ abstract class SpannableStringInternal implements Spanned, GetChars {
                 data[i * COLUMNS + START] = start;
                 data[i * COLUMNS + END] = end;
                 data[i * COLUMNS + FLAGS] = flags;
+                invalidateIndices();
 
                 sendSpanChanged(span, ost, oen, start, end);
                 return;
@@ -251,6 +265,7 @@ abstract class SpannableStringInternal implements Spanned, GetChars {
         mSpanData[mSpanCount * COLUMNS + END] = end;
         mSpanData[mSpanCount * COLUMNS + FLAGS] = flags;
         mSpanCount++;
+        invalidateIndices();
 
         if (this instanceof Spannable) {
             sendSpanAdded(span, start, end);
@@ -278,6 +293,7 @@ abstract class SpannableStringInternal implements Spanned, GetChars {
                         data, i * COLUMNS, c * COLUMNS);
 
                 mSpanCount--;
+                invalidateIndices();
 
                 if ((flags & Spanned.SPAN_INTERMEDIATE) == 0) {
                     sendSpanRemoved(span, ost, oen);
@@ -419,6 +435,11 @@ abstract class SpannableStringInternal implements Spanned, GetChars {
     }
 
     private void getSpansList(int start, int end, @Nullable Class<?> type, @Nonnull List<Object> out) {
+        final SpanIndex index = getSpanIndex(type);
+        if (index != null) {
+            getSpansIndexed(index, start, end, out);
+            return;
+        }
         final int count = mSpanCount;
         final Object[] spans = mSpans;
         final int[] data = mSpanData;
@@ -461,8 +482,47 @@ abstract class SpannableStringInternal implements Spanned, GetChars {
         }
     }
 
+    private void getSpansIndexed(@Nonnull SpanIndex index, int start, int end, @Nonnull List<Object> out) {
+        IntArrayList list = sIndexListPool.acquire();
+        if (list == null) {
+            list = new IntArrayList();
+        }
+        index.query(start, end, list);
+        final int found = list.size();
+        if (found != 0) {
+            final Object[] spans = mSpans;
+            final int[] data = mSpanData;
+            final int[] positions = list.elements();
+            // restore the insertion order, then the priority insertion of the linear scan is
+            // equivalent to a stable sort by descending priority
+            IntArrays.quickSort(positions, 0, found);
+            boolean hasPriority = false;
+            for (int k = 0; k < found; k++) {
+                if ((data[positions[k] * COLUMNS + FLAGS] & Spanned.SPAN_PRIORITY) != 0) {
+                    hasPriority = true;
+                    break;
+                }
+            }
+            if (hasPriority) {
+                IntArrays.mergeSort(positions, 0, found, (x, y) -> Integer.compare(
+                        data[y * COLUMNS + FLAGS] & Spanned.SPAN_PRIORITY,
+                        data[x * COLUMNS + FLAGS] & Spanned.SPAN_PRIORITY));
+            }
+            for (int k = 0; k < found; k++) {
+                out.add(spans[positions[k]]);
+            }
+        }
+        list.clear();
+        sIndexListPool.release(list);
+    }
+
     @Override
     public int getSpanStart(@Nonnull Object span) {
+        final Reference2IntOpenHashMap<Object> positions = getSpanPositions();
+        if (positions != null) {
+            final int i = positions.getInt(span);
+            return i < 0 ? -1 : mSpanData[i * COLUMNS + START];
+        }
         final Object[] spans = mSpans;
         for (int i = mSpanCount - 1; i >= 0; i--) {
             if (spans[i] == span) {
@@ -474,6 +534,11 @@ abstract class SpannableStringInternal implements Spanned, GetChars {
 
     @Override
     public int getSpanEnd(@Nonnull Object span) {
+        final Reference2IntOpenHashMap<Object> positions = getSpanPositions();
+        if (positions != null) {
+            final int i = positions.getInt(span);
+            return i < 0 ? -1 : mSpanData[i * COLUMNS + END];
+        }
         final Object[] spans = mSpans;
         for (int i = mSpanCount - 1; i >= 0; i--) {
             if (spans[i] == span) {
@@ -485,6 +550,11 @@ abstract class SpannableStringInternal implements Spanned, GetChars {
 
     @Override
     public int getSpanFlags(@Nonnull Object span) {
+        final Reference2IntOpenHashMap<Object> positions = getSpanPositions();
+        if (positions != null) {
+            final int i = positions.getInt(span);
+            return i < 0 ? 0 : mSpanData[i * COLUMNS + FLAGS];
+        }
         final Object[] spans = mSpans;
         for (int i = mSpanCount - 1; i >= 0; i--) {
             if (spans[i] == span) {
@@ -496,6 +566,10 @@ abstract class SpannableStringInternal implements Spanned, GetChars {
 
     @Override
     public int nextSpanTransition(int start, int limit, @Nullable Class<?> type) {
+        final SpanIndex index = getSpanIndex(type);
+        if (index != null) {
+            return index.nextSpanTransition(start, limit);
+        }
         final int count = mSpanCount;
         final Object[] spans = mSpans;
         final int[] data = mSpanData;
@@ -514,6 +588,71 @@ abstract class SpannableStringInternal implements Spanned, GetChars {
         return limit;
     }
 
+    private void invalidateIndices() {
+        mSpanIndex = null;
+        mTypedSpanIndices = null;
+        mSpanPositions = null;
+        mQueriesSinceChange = 0;
+    }
+
+    // the first query after a change scans linearly, as the spans may be still changing,
+    // for example, SpanWatchers are queried each time a span is added
+    private boolean shouldIndex() {
+        return mSpanCount >= INDEX_THRESHOLD && mQueriesSinceChange++ > 0;
+    }
+
+    /**
+     * Returns the interval index of spans of the given type, building it if needed, or null
+     * if spans should be scanned linearly.
+     */
+    @Nullable
+    private SpanIndex getSpanIndex(@Nullable Class<?> type) {
+        if (type == null || type == Object.class) {
+            SpanIndex index = mSpanIndex;
+            if (index == null && shouldIndex()) {
+                mSpanIndex = index = new SpanIndex(mSpans, mSpanData, mSpanCount, null);
+            }
+            return index;
+        }
+        ConcurrentHashMap<Class<?>, SpanIndex> indices = mTypedSpanIndices;
+        if (indices != null) {
+            SpanIndex index = indices.get(type);
+            if (index != null) {
+                return index;
+            }
+        }
+        if (!shouldIndex()) {
+            return null;
+        }
+        if (indices == null) {
+            mTypedSpanIndices = indices = new ConcurrentHashMap<>();
+        }
+        final Object[] spans = mSpans;
+        final int[] data = mSpanData;
+        final int count = mSpanCount;
+        return indices.computeIfAbsent(type, t -> new SpanIndex(spans, data, count, t));
+    }
+
+    /**
+     * Returns the map from spans to their positions in the span array, building it if needed,
+     * or null if spans should be scanned linearly.
+     */
+    @Nullable
+    private Reference2IntOpenHashMap<Object> getSpanPositions() {
+        Reference2IntOpenHashMap<Object> positions = mSpanPositions;
+        if (positions == null && shouldIndex()) {
+            final Object[] spans = mSpans;
+            final int count = mSpanCount;
+            positions = new Reference2IntOpenHashMap<>(count);
+            positions.defaultReturnValue(-1);
+            for (int i = 0; i < count; i++) {
+                positions.put(spans[i], i);
+            }
+            mSpanPositions = positions;
+        }
+        return positions;
+    }
+
     private void sendSpanAdded(Object span, int start, int end) {
         final SpanWatcher[] watchers = getSpans(start, end, SpanWatcher.class);
         if (watchers != null) {
@@ -74,6 +74,7 @@ public class StaticLayout extends Layout {
         b.mEllipsizedWidth = width;
         b.mEllipsize = null;
         b.mMaxLines = Integer.MAX_VALUE;
+        b.mBreakStrategy = LineBreaker.BREAK_STRATEGY_SIMPLE;
         return b;
     }
 
@@ -104,6 +105,7 @@ public class StaticLayout extends Layout {
         @Nullable
         private TextUtils.TruncateAt mEllipsize;
         private int mMaxLines;
+        private int mBreakStrategy;
         @Nullable
         private int[] mLeftIndents;
         @Nullable
@@ -277,6 +279,21 @@ public class StaticLayout extends Layout {
             return this;
         }
 
+        /**
+         * Set break strategy, useful for selecting high quality or balanced paragraph
+         * layout options. The default is {@link LineBreaker#BREAK_STRATEGY_SIMPLE}.
+         *
+         * @param breakStrategy break strategy for paragraph layout
+         * @return this builder, useful for chaining
+         * @see LineBreaker#BREAK_STRATEGY_HIGH_QUALITY
+         * @see LineBreaker#BREAK_STRATEGY_BALANCED
+         */
+        @Nonnull
+        public Builder setBreakStrategy(int breakStrategy) {
+            mBreakStrategy = breakStrategy;
+            return this;
+        }
+
         /**
          * Set indents. Arguments are arrays holding an indent amount, one per line, measured in
          * pixels. For lines past the last element in the array, the last element repeats.
@@ -449,7 +466,11 @@ public class StaticLayout extends Layout {
         MeasuredParagraph[] paragraphs = null;
         final Spanned spanned = (source instanceof Spanned) ? (Spanned) source : null;
 
-        //FIXME precomputed text
+        if (source instanceof PrecomputedText precomputed) {
+            if (precomputed.isResultUsable(bufStart, bufEnd, textDir, paint)) {
+                paragraphs = precomputed.getMeasuredParagraphs();
+            }
+        }
         if (paragraphs == null) {
             paragraphs = PrecomputedText.createMeasuredParagraphs(source, bufStart, bufEnd,
                     paint, textDir, /* computeLayout */ false);
@@ -482,7 +503,7 @@ public class StaticLayout extends Layout {
             constraints.setTabStops(variableTabStops, TAB_INCREMENT);
 
             LineBreaker.Result res = LineBreaker.computeLineBreaks(
-                    measuredPara.getMeasuredText(), constraints, indents, mLineCount);
+                    measuredPara.getMeasuredText(), b.mBreakStrategy, constraints, indents, mLineCount);
             int breakCount = res.getLineCount();
             if (breakCount > lineBreakCapacity) {
                 lineBreakCapacity = breakCount;
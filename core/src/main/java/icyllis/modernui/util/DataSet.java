@@ -30,6 +30,7 @@ import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import it.unimi.dsi.fastutil.shorts.ShortArrayList;
 import it.unimi.dsi.fastutil.shorts.ShortList;
 import org.apache.logging.log4j.Marker;
@@ -40,6 +41,9 @@ import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -61,6 +65,11 @@ import java.util.zip.GZIPOutputStream;
  * You can override {@link #initializeIntMap()} and {@link #initializeStringMap()}
  * according to your needs.
  * <p>
+ * Primitive values are stored in type-tagged slots rather than wrapper objects. Typed
+ * getters read the slots directly, and typed setters update an existing slot in place,
+ * so frequent updates of the same key don't allocate. The values are only boxed when
+ * they are exposed as objects, such as {@link #get(int)} and the entry iterators.
+ * <p>
  * Common IO interfaces are {@link DataInput} and {@link DataOutput}, where
  * {@link String} are coded in Java modified UTF-8 format. When the target is local
  * storage, the data will be gzip compressed. You can check the source code to find
@@ -72,10 +81,13 @@ import java.util.zip.GZIPOutputStream;
  * For local IO, calls {@link #inflate(InputStream)} and {@link #deflate(DataSet, OutputStream)}
  * passing FileInputStream and FileOutputStream.
  * <p>
+ * For large local files that are read frequently, calls {@link #readBinary(Path)} and
+ * {@link #writeBinary(DataSet, Path)}. The binary format is uncompressed, nested data sets
+ * and primitive arrays are decoded lazily on first access.
+ * <p>
  * Format conversion between common data-interchange formats such as JSON and Minecraft NBT
  * can be easily done. The default implementations are not provided here.
  */
-//TODO may not use primitive wrapper?
 @SuppressWarnings({"unused", "unchecked", "rawtypes"})
 @NotThreadSafe
 @ParametersAreNonnullByDefault
@@ -98,6 +110,9 @@ public class DataSet {
     protected Int2ObjectMap<Object> mIntMap;
     protected Map<String, Object> mStringMap;
 
+    // whether there are values to be decoded from a binary buffer
+    private boolean mHasLazyValues;
+
     /**
      * Create a new DataSet.
      */
@@ -136,6 +151,59 @@ public class DataSet {
         }
     }
 
+    /**
+     * Reads an uncompressed binary DataSet from a file. The file content is read into memory,
+     * nested data sets and primitive arrays are decoded on first access. No file handle is
+     * held, so the file can be replaced while the returned data set is in use.
+     * <p>
+     * To read a file that is never replaced through a memory-mapped buffer, pass the mapping
+     * to {@link #readBinary(ByteBuffer)}.
+     *
+     * @param path the file written by {@link #writeBinary(DataSet, Path)}
+     * @return the newly read data set
+     */
+    @Nonnull
+    public static DataSet readBinary(Path path) throws IOException {
+        return DataSetCodec.read(path);
+    }
+
+    /**
+     * Reads an uncompressed binary DataSet from a buffer, from its position to its limit.
+     * Nested data sets and primitive arrays are decoded on first access, so the buffer
+     * content must not be modified while the returned data set is in use.
+     *
+     * @param buffer the buffer containing a binary data set
+     * @return the newly read data set
+     */
+    @Nonnull
+    public static DataSet readBinary(ByteBuffer buffer) throws IOException {
+        return DataSetCodec.read(buffer);
+    }
+
+    /**
+     * Writes a DataSet to a file in uncompressed binary format. Values are encoded directly
+     * and written in fixed-size chunks, primitive arrays are copied in bulk. The data is
+     * written to a temporary file in the same directory, which then replaces the file, so
+     * the file is never left partially written, and the source may be a data set read from
+     * the same file by {@link #readBinary(Path)}.
+     *
+     * @param source the data set to write
+     * @param path   the file
+     */
+    public static void writeBinary(DataSet source, Path path) throws IOException {
+        DataSetCodec.write(source, path);
+    }
+
+    /**
+     * Writes a DataSet to a channel in uncompressed binary format, in fixed-size chunks.
+     *
+     * @param source  the data set to write
+     * @param channel the channel, will not be closed
+     */
+    public static void writeBinary(DataSet source, WritableByteChannel channel) throws IOException {
+        DataSetCodec.write(source, channel);
+    }
+
     /**
      * Use an {@link Int2ObjectOpenHashMap} with a load factor of 0.8f.
      *
@@ -166,6 +234,107 @@ public class DataSet {
         if (mStringMap == null) mStringMap = initializeStringMap();
     }
 
+    // called by the binary reader
+    void putLazy(int key, Object value) {
+        createIntMapIfNeeded();
+        mIntMap.put(key, wrap(value));
+        mHasLazyValues |= value instanceof DataSetCodec.LazyValue;
+    }
+
+    void putLazy(String key, Object value) {
+        createStringMapIfNeeded();
+        mStringMap.put(key, wrap(value));
+        mHasLazyValues |= value instanceof DataSetCodec.LazyValue;
+    }
+
+    // updates the existing slot in place, so that no allocation is needed
+    private void putPrimitive(int key, byte type, long bits) {
+        createIntMapIfNeeded();
+        if (mIntMap.get(key) instanceof Primitive p) {
+            p.set(type, bits);
+        } else {
+            mIntMap.put(key, new Primitive(type, bits));
+        }
+    }
+
+    private void putPrimitive(String key, byte type, long bits) {
+        createStringMapIfNeeded();
+        if (mStringMap.get(key) instanceof Primitive p) {
+            p.set(type, bits);
+        } else {
+            mStringMap.put(key, new Primitive(type, bits));
+        }
+    }
+
+    // the maps must be created, decodes the value if needed
+    private Object lookupRaw(int key) {
+        Object o = mIntMap.get(key);
+        if (o instanceof DataSetCodec.LazyValue lazy) {
+            o = lazy.decode();
+            mIntMap.put(key, o);
+        }
+        return o;
+    }
+
+    private Object lookupRaw(String key) {
+        Object o = mStringMap.get(key);
+        if (o instanceof DataSetCodec.LazyValue lazy) {
+            o = lazy.decode();
+            mStringMap.put(key, o);
+        }
+        return o;
+    }
+
+    // same as lookupRaw, but boxes primitive values
+    private Object lookup(int key) {
+        Object o = lookupRaw(key);
+        return o instanceof Primitive p ? p.box() : o;
+    }
+
+    private Object lookup(String key) {
+        Object o = lookupRaw(key);
+        return o instanceof Primitive p ? p.box() : o;
+    }
+
+    // converts a stored value to the value exposed to callers
+    private static Object decode(Object o) {
+        if (o instanceof DataSetCodec.LazyValue lazy)
+            return lazy.decode();
+        if (o instanceof Primitive p)
+            return p.box();
+        return o;
+    }
+
+    // converts a boxed primitive to the value to be stored
+    private static Object wrap(Object o) {
+        if (o instanceof Integer v)
+            return new Primitive(VAL_INT, v);
+        if (o instanceof Float v)
+            return new Primitive(VAL_FLOAT, Float.floatToIntBits(v));
+        if (o instanceof Byte v)
+            return new Primitive(VAL_BYTE, v);
+        if (o instanceof Long v)
+            return new Primitive(VAL_LONG, v);
+        if (o instanceof Double v)
+            return new Primitive(VAL_DOUBLE, Double.doubleToLongBits(v));
+        if (o instanceof Short v)
+            return new Primitive(VAL_SHORT, v);
+        return o;
+    }
+
+    // decodes all values before exposing the maps
+    private void decodeAll() {
+        if (mHasLazyValues) {
+            if (mIntMap != null) {
+                mIntMap.replaceAll((k, v) -> v instanceof DataSetCodec.LazyValue lazy ? lazy.decode() : v);
+            }
+            if (mStringMap != null) {
+                mStringMap.replaceAll((k, v) -> v instanceof DataSetCodec.LazyValue lazy ? lazy.decode() : v);
+            }
+            mHasLazyValues = false;
+        }
+    }
+
     /**
      * Returns the number of key-value mappings in this data set.
      *
@@ -225,7 +394,7 @@ public class DataSet {
     public Object get(int key) {
         if (mIntMap == null)
             return null;
-        return mIntMap.get(key);
+        return lookup(key);
     }
 
     /**
@@ -239,7 +408,7 @@ public class DataSet {
     public Object get(String key) {
         if (mStringMap == null)
             return null;
-        return mStringMap.get(key);
+        return lookup(key);
     }
 
     /**
@@ -254,7 +423,7 @@ public class DataSet {
     public <T> T getValue(int key) {
         if (mIntMap == null)
             return null;
-        Object o = mIntMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -277,7 +446,7 @@ public class DataSet {
     public <T> T getValue(String key) {
         if (mStringMap == null)
             return null;
-        Object o = mStringMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -312,9 +481,11 @@ public class DataSet {
     public byte getByte(int key, byte defValue) {
         if (mIntMap == null)
             return defValue;
-        Object o = mIntMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.byteValue();
         try {
             return ((Number) o).byteValue();
         } catch (ClassCastException e) {
@@ -347,9 +518,11 @@ public class DataSet {
     public short getShort(int key, short defValue) {
         if (mIntMap == null)
             return defValue;
-        Object o = mIntMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.shortValue();
         try {
             return ((Number) o).shortValue();
         } catch (ClassCastException e) {
@@ -382,9 +555,11 @@ public class DataSet {
     public int getInt(int key, int defValue) {
         if (mIntMap == null)
             return defValue;
-        Object o = mIntMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.intValue();
         try {
             return ((Number) o).intValue();
         } catch (ClassCastException e) {
@@ -417,9 +592,11 @@ public class DataSet {
     public long getLong(int key, long defValue) {
         if (mIntMap == null)
             return defValue;
-        Object o = mIntMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.longValue();
         try {
             return ((Number) o).longValue();
         } catch (ClassCastException e) {
@@ -452,9 +629,11 @@ public class DataSet {
     public float getFloat(int key, float defValue) {
         if (mIntMap == null)
             return defValue;
-        Object o = mIntMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.floatValue();
         try {
             return ((Number) o).floatValue();
         } catch (ClassCastException e) {
@@ -487,9 +666,11 @@ public class DataSet {
     public double getDouble(int key, double defValue) {
         if (mIntMap == null)
             return defValue;
-        Object o = mIntMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.doubleValue();
         try {
             return ((Number) o).doubleValue();
         } catch (ClassCastException e) {
@@ -522,9 +703,11 @@ public class DataSet {
     public boolean getBoolean(int key, boolean defValue) {
         if (mIntMap == null)
             return defValue;
-        Object o = mIntMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.byteValue() != 0;
         try {
             return ((Number) o).byteValue() != 0;
         } catch (ClassCastException e) {
@@ -557,9 +740,11 @@ public class DataSet {
     public byte getByte(String key, byte defValue) {
         if (mStringMap == null)
             return defValue;
-        Object o = mStringMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.byteValue();
         try {
             return ((Number) o).byteValue();
         } catch (ClassCastException e) {
@@ -592,9 +777,11 @@ public class DataSet {
     public short getShort(String key, short defValue) {
         if (mStringMap == null)
             return defValue;
-        Object o = mStringMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.shortValue();
         try {
             return ((Number) o).shortValue();
         } catch (ClassCastException e) {
@@ -627,9 +814,11 @@ public class DataSet {
     public int getInt(String key, int defValue) {
         if (mStringMap == null)
             return defValue;
-        Object o = mStringMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.intValue();
         try {
             return ((Number) o).intValue();
         } catch (ClassCastException e) {
@@ -662,9 +851,11 @@ public class DataSet {
     public long getLong(String key, long defValue) {
         if (mStringMap == null)
             return defValue;
-        Object o = mStringMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.longValue();
         try {
             return ((Number) o).longValue();
         } catch (ClassCastException e) {
@@ -697,9 +888,11 @@ public class DataSet {
     public float getFloat(String key, float defValue) {
         if (mStringMap == null)
             return defValue;
-        Object o = mStringMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.floatValue();
         try {
             return ((Number) o).floatValue();
         } catch (ClassCastException e) {
@@ -732,9 +925,11 @@ public class DataSet {
     public double getDouble(String key, double defValue) {
         if (mStringMap == null)
             return defValue;
-        Object o = mStringMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.doubleValue();
         try {
             return ((Number) o).doubleValue();
         } catch (ClassCastException e) {
@@ -767,9 +962,11 @@ public class DataSet {
     public boolean getBoolean(String key, boolean defValue) {
         if (mStringMap == null)
             return defValue;
-        Object o = mStringMap.get(key);
+        Object o = lookupRaw(key);
         if (o == null)
             return defValue;
+        if (o instanceof Primitive p)
+            return p.byteValue() != 0;
         try {
             return ((Number) o).byteValue() != 0;
         } catch (ClassCastException e) {
@@ -789,7 +986,7 @@ public class DataSet {
     public byte[] getByteArray(int key) {
         if (mIntMap == null)
             return null;
-        Object o = mIntMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -811,7 +1008,7 @@ public class DataSet {
     public short[] getShortArray(int key) {
         if (mIntMap == null)
             return null;
-        Object o = mIntMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -833,7 +1030,7 @@ public class DataSet {
     public int[] getIntArray(int key) {
         if (mIntMap == null)
             return null;
-        Object o = mIntMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -855,7 +1052,7 @@ public class DataSet {
     public long[] getLongArray(int key) {
         if (mIntMap == null)
             return null;
-        Object o = mIntMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -877,7 +1074,7 @@ public class DataSet {
     public float[] getFloatArray(int key) {
         if (mIntMap == null)
             return null;
-        Object o = mIntMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -899,7 +1096,7 @@ public class DataSet {
     public double[] getDoubleArray(int key) {
         if (mIntMap == null)
             return null;
-        Object o = mIntMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -921,7 +1118,7 @@ public class DataSet {
     public byte[] getByteArray(String key) {
         if (mStringMap == null)
             return null;
-        Object o = mStringMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -943,7 +1140,7 @@ public class DataSet {
     public short[] getShortArray(String key) {
         if (mStringMap == null)
             return null;
-        Object o = mStringMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -965,7 +1162,7 @@ public class DataSet {
     public int[] getIntArray(String key) {
         if (mStringMap == null)
             return null;
-        Object o = mStringMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -987,7 +1184,7 @@ public class DataSet {
     public long[] getLongArray(String key) {
         if (mStringMap == null)
             return null;
-        Object o = mStringMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1009,7 +1206,7 @@ public class DataSet {
     public float[] getFloatArray(String key) {
         if (mStringMap == null)
             return null;
-        Object o = mStringMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1031,7 +1228,7 @@ public class DataSet {
     public double[] getDoubleArray(String key) {
         if (mStringMap == null)
             return null;
-        Object o = mStringMap.get(key);
+        Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1052,7 +1249,7 @@ public class DataSet {
     public String getString(int key) {
         if (mIntMap == null)
             return null;
-        final Object o = mIntMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1073,7 +1270,7 @@ public class DataSet {
     public String getString(String key) {
         if (mStringMap == null)
             return null;
-        final Object o = mStringMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1098,7 +1295,7 @@ public class DataSet {
     public String getString(int key, String defValue) {
         if (mIntMap == null)
             return defValue;
-        final Object o = mIntMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return defValue;
         try {
@@ -1123,7 +1320,7 @@ public class DataSet {
     public String getString(String key, String defValue) {
         if (mStringMap == null)
             return defValue;
-        final Object o = mStringMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return defValue;
         try {
@@ -1144,7 +1341,7 @@ public class DataSet {
     public UUID getUUID(int key) {
         if (mIntMap == null)
             return null;
-        final Object o = mIntMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1165,7 +1362,7 @@ public class DataSet {
     public UUID getUUID(String key) {
         if (mStringMap == null)
             return null;
-        final Object o = mStringMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1190,7 +1387,7 @@ public class DataSet {
     public UUID getUUID(int key, UUID defValue) {
         if (mIntMap == null)
             return defValue;
-        final Object o = mIntMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return defValue;
         try {
@@ -1215,7 +1412,7 @@ public class DataSet {
     public UUID getUUID(String key, UUID defValue) {
         if (mStringMap == null)
             return defValue;
-        final Object o = mStringMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return defValue;
         try {
@@ -1240,7 +1437,7 @@ public class DataSet {
     public <T> List<T> getList(int key) {
         if (mIntMap == null)
             return null;
-        final Object o = mIntMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1284,7 +1481,7 @@ public class DataSet {
     public DataSet getDataSet(int key) {
         if (mIntMap == null)
             return null;
-        final Object o = mIntMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1328,7 +1525,7 @@ public class DataSet {
     public <T> List<T> getList(String key) {
         if (mStringMap == null)
             return null;
-        final Object o = mStringMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1372,7 +1569,7 @@ public class DataSet {
     public DataSet getDataSet(String key) {
         if (mStringMap == null)
             return null;
-        final Object o = mStringMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1412,7 +1609,7 @@ public class DataSet {
     public ByteList getByteList(int key) {
         if (mIntMap == null)
             return null;
-        final Object o = mIntMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1452,7 +1649,7 @@ public class DataSet {
     public ShortList getShortList(int key) {
         if (mIntMap == null)
             return null;
-        final Object o = mIntMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1492,7 +1689,7 @@ public class DataSet {
     public IntList getIntList(int key) {
         if (mIntMap == null)
             return null;
-        final Object o = mIntMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1532,7 +1729,7 @@ public class DataSet {
     public LongList getLongList(int key) {
         if (mIntMap == null)
             return null;
-        final Object o = mIntMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1572,7 +1769,7 @@ public class DataSet {
     public FloatList getFloatList(int key) {
         if (mIntMap == null)
             return null;
-        final Object o = mIntMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1612,7 +1809,7 @@ public class DataSet {
     public DoubleList getDoubleList(int key) {
         if (mIntMap == null)
             return null;
-        final Object o = mIntMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1652,7 +1849,7 @@ public class DataSet {
     public ByteList getByteList(String key) {
         if (mStringMap == null)
             return null;
-        final Object o = mStringMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1692,7 +1889,7 @@ public class DataSet {
     public ShortList getShortList(String key) {
         if (mStringMap == null)
             return null;
-        final Object o = mStringMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1732,7 +1929,7 @@ public class DataSet {
     public IntList getIntList(String key) {
         if (mStringMap == null)
             return null;
-        final Object o = mStringMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1772,7 +1969,7 @@ public class DataSet {
     public LongList getLongList(String key) {
         if (mStringMap == null)
             return null;
-        final Object o = mStringMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1812,7 +2009,7 @@ public class DataSet {
     public FloatList getFloatList(String key) {
         if (mStringMap == null)
             return null;
-        final Object o = mStringMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1852,7 +2049,7 @@ public class DataSet {
     public DoubleList getDoubleList(String key) {
         if (mStringMap == null)
             return null;
-        final Object o = mStringMap.get(key);
+        final Object o = lookup(key);
         if (o == null)
             return null;
         try {
@@ -1900,7 +2097,7 @@ public class DataSet {
             throw new IllegalArgumentException("You can't put yourself");
         }
         createIntMapIfNeeded();
-        return mIntMap.put(key, value);
+        return decode(mIntMap.put(key, wrap(value)));
     }
 
     /**
@@ -1921,7 +2118,7 @@ public class DataSet {
             throw new IllegalArgumentException("You can't put yourself");
         }
         createStringMapIfNeeded();
-        return mStringMap.put(key, value);
+        return decode(mStringMap.put(key, wrap(value)));
     }
 
     /**
@@ -1931,8 +2128,7 @@ public class DataSet {
      * @param value the byte value to be associated with the specified key
      */
     public void putByte(int key, byte value) {
-        createIntMapIfNeeded();
-        mIntMap.put(key, Byte.valueOf(value));
+        putPrimitive(key, VAL_BYTE, value);
     }
 
     /**
@@ -1942,8 +2138,7 @@ public class DataSet {
      * @param value the short value to be associated with the specified key
      */
     public void putShort(int key, short value) {
-        createIntMapIfNeeded();
-        mIntMap.put(key, Short.valueOf(value));
+        putPrimitive(key, VAL_SHORT, value);
     }
 
     /**
@@ -1953,8 +2148,7 @@ public class DataSet {
      * @param value the int value to be associated with the specified key
      */
     public void putInt(int key, int value) {
-        createIntMapIfNeeded();
-        mIntMap.put(key, Integer.valueOf(value));
+        putPrimitive(key, VAL_INT, value);
     }
 
     /**
@@ -1964,8 +2158,7 @@ public class DataSet {
      * @param value the long value to be associated with the specified key
      */
     public void putLong(int key, long value) {
-        createIntMapIfNeeded();
-        mIntMap.put(key, Long.valueOf(value));
+        putPrimitive(key, VAL_LONG, value);
     }
 
     /**
@@ -1975,8 +2168,7 @@ public class DataSet {
      * @param value the float value to be associated with the specified key
      */
     public void putFloat(int key, float value) {
-        createIntMapIfNeeded();
-        mIntMap.put(key, Float.valueOf(value));
+        putPrimitive(key, VAL_FLOAT, Float.floatToIntBits(value));
     }
 
     /**
@@ -1986,8 +2178,7 @@ public class DataSet {
      * @param value the double value to be associated with the specified key
      */
     public void putDouble(int key, double value) {
-        createIntMapIfNeeded();
-        mIntMap.put(key, Double.valueOf(value));
+        putPrimitive(key, VAL_DOUBLE, Double.doubleToLongBits(value));
     }
 
     /**
@@ -1997,8 +2188,7 @@ public class DataSet {
      * @param value the boolean value to be associated with the specified key
      */
     public void putBoolean(int key, boolean value) {
-        createIntMapIfNeeded();
-        mIntMap.put(key, Byte.valueOf((byte) (value ? 1 : 0)));
+        putPrimitive(key, VAL_BYTE, value ? 1 : 0);
     }
 
     /**
@@ -2205,8 +2395,7 @@ public class DataSet {
      * @param value the byte value to be associated with the specified key
      */
     public void putByte(String key, byte value) {
-        createStringMapIfNeeded();
-        mStringMap.put(key, value);
+        putPrimitive(key, VAL_BYTE, value);
     }
 
     /**
@@ -2216,8 +2405,7 @@ public class DataSet {
      * @param value the short value to be associated with the specified key
      */
     public void putShort(String key, short value) {
-        createStringMapIfNeeded();
-        mStringMap.put(key, value);
+        putPrimitive(key, VAL_SHORT, value);
     }
 
     /**
@@ -2227,8 +2415,7 @@ public class DataSet {
      * @param value the int value to be associated with the specified key
      */
     public void putInt(String key, int value) {
-        createStringMapIfNeeded();
-        mStringMap.put(key, value);
+        putPrimitive(key, VAL_INT, value);
     }
 
     /**
@@ -2238,8 +2425,7 @@ public class DataSet {
      * @param value the long value to be associated with the specified key
      */
     public void putLong(String key, long value) {
-        createStringMapIfNeeded();
-        mStringMap.put(key, value);
+        putPrimitive(key, VAL_LONG, value);
     }
 
     /**
@@ -2249,8 +2435,7 @@ public class DataSet {
      * @param value the float value to be associated with the specified key
      */
     public void putFloat(String key, float value) {
-        createStringMapIfNeeded();
-        mStringMap.put(key, value);
+        putPrimitive(key, VAL_FLOAT, Float.floatToIntBits(value));
     }
 
     /**
@@ -2260,8 +2445,7 @@ public class DataSet {
      * @param value the double value to be associated with the specified key
      */
     public void putDouble(String key, double value) {
-        createStringMapIfNeeded();
-        mStringMap.put(key, value);
+        putPrimitive(key, VAL_DOUBLE, Double.doubleToLongBits(value));
     }
 
     /**
@@ -2271,8 +2455,7 @@ public class DataSet {
      * @param value the boolean value to be associated with the specified key
      */
     public void putBoolean(String key, boolean value) {
-        createStringMapIfNeeded();
-        mStringMap.put(key, (byte) (value ? 1 : 0));
+        putPrimitive(key, VAL_BYTE, value ? 1 : 0);
     }
 
     /**
@@ -2489,7 +2672,7 @@ public class DataSet {
     public Object remove(int key) {
         if (mIntMap == null)
             return null;
-        return mIntMap.remove(key);
+        return decode(mIntMap.remove(key));
     }
 
     /**
@@ -2509,7 +2692,7 @@ public class DataSet {
     public Object remove(String key) {
         if (mStringMap == null)
             return null;
-        return mStringMap.remove(key);
+        return decode(mStringMap.remove(key));
     }
 
     /**
@@ -2537,7 +2720,27 @@ public class DataSet {
         if (mIntMap == null || mIntMap.isEmpty()) {
             return null;
         } else {
-            return Int2ObjectMaps.fastIterator(mIntMap);
+            decodeAll();
+            final ObjectIterator<Int2ObjectMap.Entry<Object>> it = Int2ObjectMaps.fastIterator(mIntMap);
+            // primitive values are boxed on the fly
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Int2ObjectMap.Entry<Object> next() {
+                    final Int2ObjectMap.Entry<Object> e = it.next();
+                    return e.getValue() instanceof Primitive p ?
+                            new AbstractInt2ObjectMap.BasicEntry<>(e.getIntKey(), p.box()) : e;
+                }
+
+                @Override
+                public void remove() {
+                    it.remove();
+                }
+            };
         }
     }
 
@@ -2546,9 +2749,29 @@ public class DataSet {
         if (mStringMap == null || mStringMap.isEmpty()) {
             return null;
         }
+        decodeAll();
         final Set<Map.Entry<String, Object>> entries = mStringMap.entrySet();
-        return entries instanceof Object2ObjectMap.FastEntrySet ?
+        final Iterator<Map.Entry<String, Object>> it = entries instanceof Object2ObjectMap.FastEntrySet ?
                 ((Object2ObjectMap.FastEntrySet) entries).fastIterator() : entries.iterator();
+        // primitive values are boxed on the fly
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, Object> next() {
+                final Map.Entry<String, Object> e = it.next();
+                return e.getValue() instanceof Primitive p ?
+                        new AbstractMap.SimpleImmutableEntry<>(e.getKey(), p.box()) : e;
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+            }
+        };
     }
 
     @Override
@@ -2557,6 +2780,8 @@ public class DataSet {
         if (o == null || getClass() != o.getClass()) return false;
 
         DataSet dataSet = (DataSet) o;
+        decodeAll();
+        dataSet.decodeAll();
 
         if (!Objects.equals(mIntMap, dataSet.mIntMap)) return false;
         return Objects.equals(mStringMap, dataSet.mStringMap);
@@ -2564,6 +2789,7 @@ public class DataSet {
 
     @Override
     public int hashCode() {
+        decodeAll();
         int result = mIntMap != null ? mIntMap.hashCode() : 0;
         result = 31 * result + (mStringMap != null ? mStringMap.hashCode() : 0);
         return result;
@@ -2938,12 +3164,12 @@ public class DataSet {
             do {
                 final int key = input.readInt();
                 switch (id) {
-                    case VAL_BYTE -> map.put(key, Byte.valueOf(input.readByte()));
-                    case VAL_SHORT -> map.put(key, Short.valueOf(input.readShort()));
-                    case VAL_INT -> map.put(key, Integer.valueOf(input.readInt()));
-                    case VAL_LONG -> map.put(key, Long.valueOf(input.readLong()));
-                    case VAL_FLOAT -> map.put(key, Float.valueOf(input.readFloat()));
-                    case VAL_DOUBLE -> map.put(key, Double.valueOf(input.readDouble()));
+                    case VAL_BYTE -> map.put(key, new Primitive(VAL_BYTE, input.readByte()));
+                    case VAL_SHORT -> map.put(key, new Primitive(VAL_SHORT, input.readShort()));
+                    case VAL_INT -> map.put(key, new Primitive(VAL_INT, input.readInt()));
+                    case VAL_LONG -> map.put(key, new Primitive(VAL_LONG, input.readLong()));
+                    case VAL_FLOAT -> map.put(key, new Primitive(VAL_FLOAT, Float.floatToIntBits(input.readFloat())));
+                    case VAL_DOUBLE -> map.put(key, new Primitive(VAL_DOUBLE, Double.doubleToLongBits(input.readDouble())));
                     case VAL_STRING -> map.put(key, input.readUTF());
                     case VAL_UUID -> map.put(key, new UUID(input.readLong(), input.readLong()));
                     case VAL_LIST -> map.put(key, readList(input));
@@ -2959,12 +3185,12 @@ public class DataSet {
             do {
                 final String key = input.readUTF();
                 switch (id) {
-                    case VAL_BYTE -> map.put(key, input.readByte());
-                    case VAL_SHORT -> map.put(key, input.readShort());
-                    case VAL_INT -> map.put(key, input.readInt());
-                    case VAL_LONG -> map.put(key, input.readLong());
-                    case VAL_FLOAT -> map.put(key, input.readFloat());
-                    case VAL_DOUBLE -> map.put(key, input.readDouble());
+                    case VAL_BYTE -> map.put(key, new Primitive(VAL_BYTE, input.readByte()));
+                    case VAL_SHORT -> map.put(key, new Primitive(VAL_SHORT, input.readShort()));
+                    case VAL_INT -> map.put(key, new Primitive(VAL_INT, input.readInt()));
+                    case VAL_LONG -> map.put(key, new Primitive(VAL_LONG, input.readLong()));
+                    case VAL_FLOAT -> map.put(key, new Primitive(VAL_FLOAT, Float.floatToIntBits(input.readFloat())));
+                    case VAL_DOUBLE -> map.put(key, new Primitive(VAL_DOUBLE, Double.doubleToLongBits(input.readDouble())));
                     case VAL_STRING -> map.put(key, input.readUTF());
                     case VAL_UUID -> map.put(key, new UUID(input.readLong(), input.readLong()));
                     case VAL_LIST -> map.put(key, readList(input));
@@ -2975,4 +3201,107 @@ public class DataSet {
         }
         return set;
     }
+
+    /**
+     * A mutable slot of a primitive value, the type tag is one of VAL_BYTE to VAL_DOUBLE.
+     * Floating-point values are stored as their canonical bits, so equals() and hashCode()
+     * are consistent with the wrapper classes.
+     */
+    private static final class Primitive {
+
+        private byte mType;
+        private long mBits;
+
+        Primitive(byte type, long bits) {
+            mType = type;
+            mBits = bits;
+        }
+
+        void set(byte type, long bits) {
+            mType = type;
+            mBits = bits;
+        }
+
+        byte byteValue() {
+            return switch (mType) {
+                case VAL_FLOAT -> (byte) Float.intBitsToFloat((int) mBits);
+                case VAL_DOUBLE -> (byte) Double.longBitsToDouble(mBits);
+                default -> (byte) mBits;
+            };
+        }
+
+        short shortValue() {
+            return switch (mType) {
+                case VAL_FLOAT -> (short) Float.intBitsToFloat((int) mBits);
+                case VAL_DOUBLE -> (short) Double.longBitsToDouble(mBits);
+                default -> (short) mBits;
+            };
+        }
+
+        int intValue() {
+            return switch (mType) {
+                case VAL_FLOAT -> (int) Float.intBitsToFloat((int) mBits);
+                case VAL_DOUBLE -> (int) Double.longBitsToDouble(mBits);
+                default -> (int) mBits;
+            };
+        }
+
+        long longValue() {
+            return switch (mType) {
+                case VAL_FLOAT -> (long) Float.intBitsToFloat((int) mBits);
+                case VAL_DOUBLE -> (long) Double.longBitsToDouble(mBits);
+                default -> mBits;
+            };
+        }
+
+        float floatValue() {
+            return switch (mType) {
+                case VAL_FLOAT -> Float.intBitsToFloat((int) mBits);
+                case VAL_DOUBLE -> (float) Double.longBitsToDouble(mBits);
+                default -> (float) mBits;
+            };
+        }
+
+        double doubleValue() {
+            return switch (mType) {
+                case VAL_FLOAT -> Float.intBitsToFloat((int) mBits);
+                case VAL_DOUBLE -> Double.longBitsToDouble(mBits);
+                default -> (double) mBits;
+            };
+        }
+
+        @Nonnull
+        Number box() {
+            return switch (mType) {
+                case VAL_BYTE -> (byte) mBits;
+                case VAL_SHORT -> (short) mBits;
+                case VAL_INT -> (int) mBits;
+                case VAL_LONG -> mBits;
+                case VAL_FLOAT -> Float.intBitsToFloat((int) mBits);
+                default -> Double.longBitsToDouble(mBits);
+            };
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Primitive p = (Primitive) o;
+            return mType == p.mType && mBits == p.mBits;
+        }
+
+        // same as the wrapper classes
+        @Override
+        public int hashCode() {
+            return switch (mType) {
+                case VAL_LONG, VAL_DOUBLE -> Long.hashCode(mBits);
+                default -> (int) mBits;
+            };
+        }
+
+        @Override
+        public String toString() {
+            return box().toString();
+        }
+    }
 }
@@ -0,0 +1,761 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2019-2022 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.util;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The uncompressed binary format of {@link DataSet}, designed for lazy reads and streaming writes.
+ * <p>
+ * All values are little-endian. Nested data sets are prefixed with their byte length and
+ * primitive arrays are raw, so they can be skipped without decoding. When reading, nested
+ * data sets and primitive arrays of a data set are decoded lazily on first access, other
+ * values are decoded eagerly.
+ * <pre>
+ * file:     int magic, int version, data_set
+ * data_set: int length, { byte type, int key, value }*, byte 0, { byte type, string key, value }*, byte 0
+ * string:   int length, UTF-8 bytes
+ * list:     byte type, [int size, elements] if type is not 0
+ * </pre>
+ * The value type identifiers are the same as {@link DataSet#writeDataSet(DataSet, java.io.DataOutput)}.
+ *
+ * @see DataSet#readBinary(Path)
+ * @see DataSet#writeBinary(DataSet, Path)
+ * @since 3.4
+ */
+final class DataSetCodec {
+
+    private static final int MAGIC = 0x5344554D; // "MUDS"
+    private static final int VERSION = 1;
+
+    static final byte VAL_NULL = 0x00;
+    static final byte VAL_BYTE = 0x01;
+    static final byte VAL_SHORT = 0x02;
+    static final byte VAL_INT = 0x03;
+    static final byte VAL_LONG = 0x04;
+    static final byte VAL_FLOAT = 0x05;
+    static final byte VAL_DOUBLE = 0x06;
+    static final byte VAL_STRING = 0x07;
+    static final byte VAL_UUID = 0x08;
+    static final byte VAL_LIST = 0x09;
+    static final byte VAL_DATA_SET = 0x0A;
+
+    private DataSetCodec() {
+    }
+
+    @Nonnull
+    static DataSet read(@Nonnull Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Binary data set too large: " + size);
+            }
+            // copy rather than map, so that the file can be replaced while the data set is
+            // still in use, a mapped file can't be replaced on some platforms
+            final ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    break;
+                }
+            }
+            return read(buf.flip());
+        }
+    }
+
+    @Nonnull
+    static DataSet read(@Nonnull ByteBuffer buffer) throws IOException {
+        // shared by lazy values, only absolute operations are used
+        final ByteBuffer buf = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buf.getInt(0) != MAGIC) {
+                throw new IOException("Not a binary data set");
+            }
+            final int version = buf.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary data set version " + version);
+            }
+            return new Reader(buf, 8).readDataSet();
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new IOException("Truncated binary data set", e);
+        }
+    }
+
+    static void write(@Nonnull DataSet source, @Nonnull Path path) throws IOException {
+        // replace the file instead of truncating it, so a failed write keeps the old file
+        final Path fileName = path.getFileName();
+        if (fileName == null) {
+            throw new IOException("Not a file: " + path);
+        }
+        final Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), fileName.toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                new Writer(channel).write(source);
+                channel.force(false);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            // no-op if moved
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static void write(@Nonnull DataSet source, @Nonnull WritableByteChannel channel) throws IOException {
+        new Writer(channel).write(source);
+    }
+
+    /**
+     * A value in a buffer that is decoded on first access.
+     */
+    static final class LazyValue {
+
+        private final ByteBuffer mBuf;
+        private final int mPos;
+        private final byte mType;
+
+        LazyValue(ByteBuffer buf, int pos, byte type) {
+            mBuf = buf;
+            mPos = pos;
+            mType = type;
+        }
+
+        // the bounds have been validated when skipping
+        @Nonnull
+        Object decode() {
+            final Reader reader = new Reader(mBuf, mPos);
+            try {
+                if (mType == VAL_DATA_SET) {
+                    return reader.readDataSet();
+                }
+                return reader.readList();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final ByteBuffer mBuf;
+        private int mPos;
+
+        Reader(ByteBuffer buf, int pos) {
+            mBuf = buf;
+            mPos = pos;
+        }
+
+        byte getByte() {
+            return mBuf.get(mPos++);
+        }
+
+        short getShort() {
+            short v = mBuf.getShort(mPos);
+            mPos += 2;
+            return v;
+        }
+
+        int getInt() {
+            int v = mBuf.getInt(mPos);
+            mPos += 4;
+            return v;
+        }
+
+        long getLong() {
+            long v = mBuf.getLong(mPos);
+            mPos += 8;
+            return v;
+        }
+
+        float getFloat() {
+            float v = mBuf.getFloat(mPos);
+            mPos += 4;
+            return v;
+        }
+
+        double getDouble() {
+            double v = mBuf.getDouble(mPos);
+            mPos += 8;
+            return v;
+        }
+
+        @Nonnull
+        String getString() {
+            final int length = getInt();
+            final byte[] bytes = new byte[length];
+            mBuf.get(mPos, bytes);
+            mPos += length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Nonnull
+        ByteBuffer slice(int length) {
+            ByteBuffer slice = mBuf.slice(mPos, length).order(ByteOrder.LITTLE_ENDIAN);
+            mPos += length;
+            return slice;
+        }
+
+        // the type identifier has been read, returns the lazy value or decoded value
+        @Nonnull
+        Object readValue(byte id) throws IOException {
+            return switch (id) {
+                case VAL_BYTE -> getByte();
+                case VAL_SHORT -> getShort();
+                case VAL_INT -> getInt();
+                case VAL_LONG -> getLong();
+                case VAL_FLOAT -> getFloat();
+                case VAL_DOUBLE -> getDouble();
+                case VAL_STRING -> getString();
+                case VAL_UUID -> new UUID(getLong(), getLong());
+                case VAL_LIST -> {
+                    final byte type = mBuf.get(mPos);
+                    final int width = switch (type) {
+                        case VAL_BYTE -> 1;
+                        case VAL_SHORT -> 2;
+                        case VAL_INT, VAL_FLOAT -> 4;
+                        case VAL_LONG, VAL_DOUBLE -> 8;
+                        default -> 0;
+                    };
+                    if (width == 0) {
+                        // lists of objects are decoded eagerly
+                        yield readList();
+                    }
+                    final LazyValue value = new LazyValue(mBuf, mPos, VAL_LIST);
+                    mPos++;
+                    final int size = getInt();
+                    if (size < 0) {
+                        throw new IOException("Negative list size " + size);
+                    }
+                    mPos = Math.addExact(mPos, Math.multiplyExact(size, width));
+                    if (mPos > mBuf.limit()) {
+                        throw new IOException("Truncated list");
+                    }
+                    yield value;
+                }
+                case VAL_DATA_SET -> {
+                    final LazyValue value = new LazyValue(mBuf, mPos, VAL_DATA_SET);
+                    final int length = getInt();
+                    if (length < 0 || mPos + length > mBuf.limit()) {
+                        throw new IOException("Truncated data set");
+                    }
+                    mPos += length;
+                    yield value;
+                }
+                default -> throw new IOException("Unknown value type identifier: " + id);
+            };
+        }
+
+        @Nonnull
+        List<?> readList() throws IOException {
+            final byte id = getByte();
+            if (id == VAL_NULL) {
+                // short path for Object arrays, but do not break primitive-specified arrays
+                return new ArrayList<>();
+            }
+            final int size = getInt();
+            if (size < 0) {
+                throw new IOException("Negative list size " + size);
+            }
+            switch (id) {
+                case VAL_BYTE -> {
+                    final byte[] a = new byte[size];
+                    slice(size).get(a);
+                    return ByteArrayList.wrap(a);
+                }
+                case VAL_SHORT -> {
+                    final short[] a = new short[size];
+                    slice(size << 1).asShortBuffer().get(a);
+                    return ShortArrayList.wrap(a);
+                }
+                case VAL_INT -> {
+                    final int[] a = new int[size];
+                    slice(size << 2).asIntBuffer().get(a);
+                    return IntArrayList.wrap(a);
+                }
+                case VAL_LONG -> {
+                    final long[] a = new long[size];
+                    slice(size << 3).asLongBuffer().get(a);
+                    return LongArrayList.wrap(a);
+                }
+                case VAL_FLOAT -> {
+                    final float[] a = new float[size];
+                    slice(size << 2).asFloatBuffer().get(a);
+                    return FloatArrayList.wrap(a);
+                }
+                case VAL_DOUBLE -> {
+                    final double[] a = new double[size];
+                    slice(size << 3).asDoubleBuffer().get(a);
+                    return DoubleArrayList.wrap(a);
+                }
+                case VAL_STRING -> {
+                    final ArrayList<String> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(getString());
+                    }
+                    return list;
+                }
+                case VAL_UUID -> {
+                    final ArrayList<UUID> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(new UUID(getLong(), getLong()));
+                    }
+                    return list;
+                }
+                case VAL_LIST -> {
+                    final ArrayList<List<?>> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readList());
+                    }
+                    return list;
+                }
+                case VAL_DATA_SET -> {
+                    final ArrayList<DataSet> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readDataSet());
+                    }
+                    return list;
+                }
+                default -> throw new IOException("Unknown element type identifier: " + id);
+            }
+        }
+
+        @Nonnull
+        DataSet readDataSet() throws IOException {
+            final int length = getInt();
+            final int end = mPos + length;
+            if (length < 0 || end > mBuf.limit()) {
+                throw new IOException("Truncated data set");
+            }
+            final DataSet set = new DataSet();
+            byte id = getByte();
+            if (id != VAL_NULL) {
+                do {
+                    final int key = getInt();
+                    set.putLazy(key, readValue(id));
+                } while ((id = getByte()) != VAL_NULL);
+            }
+            id = getByte();
+            if (id != VAL_NULL) {
+                do {
+                    final String key = getString();
+                    set.putLazy(key, readValue(id));
+                } while ((id = getByte()) != VAL_NULL);
+            }
+            if (mPos != end) {
+                throw new IOException("Malformed data set");
+            }
+            return set;
+        }
+    }
+
+    /**
+     * Encodes values into a fixed-size buffer that is flushed to the channel whenever it is
+     * full, so the memory usage doesn't depend on the data size. Primitive arrays are copied
+     * in bulk. Data sets are prefixed with their byte length, so all lengths are measured
+     * in a first pass before anything is written.
+     */
+    private static final class Writer {
+
+        private static final int BUFFER_SIZE = 65536;
+
+        private final WritableByteChannel mChannel;
+        private final ByteBuffer mBuf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        // the byte lengths of all data sets, in writing order
+        private final IntArrayList mLengths = new IntArrayList();
+        private int mNextLength;
+
+        Writer(@Nonnull WritableByteChannel channel) {
+            mChannel = channel;
+        }
+
+        void write(@Nonnull DataSet source) throws IOException {
+            measureDataSet(source);
+            putInt(MAGIC);
+            putInt(VERSION);
+            writeDataSet(source);
+            flush();
+        }
+
+        // returns the byte length of a data set, including its length prefix
+        private int measureDataSet(@Nonnull DataSet set) {
+            final int index = mLengths.size();
+            mLengths.add(0);
+            int length = 0;
+            final Iterator<Int2ObjectMap.Entry<Object>> it = set.intEntryIterator();
+            if (it != null) {
+                while (it.hasNext()) {
+                    final Object v = it.next().getValue();
+                    final byte id = typeOf(v);
+                    if (id != VAL_NULL) {
+                        length += 1 + 4 + measureValue(id, v);
+                    }
+                }
+            }
+            length++;
+            final Iterator<Map.Entry<String, Object>> stringIt = set.stringEntryIterator();
+            if (stringIt != null) {
+                while (stringIt.hasNext()) {
+                    final Map.Entry<String, Object> entry = stringIt.next();
+                    final Object v = entry.getValue();
+                    final byte id = typeOf(v);
+                    if (id != VAL_NULL) {
+                        length += 1 + 4 + utf8Length(entry.getKey()) + measureValue(id, v);
+                    }
+                }
+            }
+            length++;
+            mLengths.set(index, length);
+            return 4 + length;
+        }
+
+        private int measureValue(byte id, @Nonnull Object v) {
+            return switch (id) {
+                case VAL_BYTE -> 1;
+                case VAL_SHORT -> 2;
+                case VAL_INT, VAL_FLOAT -> 4;
+                case VAL_LONG, VAL_DOUBLE -> 8;
+                case VAL_STRING -> 4 + utf8Length((String) v);
+                case VAL_UUID -> 16;
+                case VAL_LIST -> measureList((List<?>) v);
+                case VAL_DATA_SET -> measureDataSet((DataSet) v);
+                default -> 0;
+            };
+        }
+
+        // must match writeList()
+        @SuppressWarnings("unchecked")
+        private int measureList(@Nonnull List<?> list) {
+            final int size = list.size();
+            if (list instanceof ByteArrayList) {
+                return 1 + 4 + size;
+            } else if (list instanceof ShortArrayList) {
+                return 1 + 4 + (size << 1);
+            } else if (list instanceof IntArrayList || list instanceof FloatArrayList) {
+                return 1 + 4 + (size << 2);
+            } else if (list instanceof LongArrayList || list instanceof DoubleArrayList) {
+                return 1 + 4 + (size << 3);
+            } else if (size == 0) {
+                return 1;
+            }
+            final Object e = list.get(0);
+            int length = 1 + 4;
+            if (e instanceof String) {
+                for (String s : (List<String>) list) {
+                    length += 4 + utf8Length(s);
+                }
+            } else if (e instanceof UUID) {
+                length += size << 4;
+            } else if (e instanceof List) {
+                for (List<?> li : (List<List<?>>) list) {
+                    length += measureList(li);
+                }
+            } else if (e instanceof DataSet) {
+                for (DataSet set : (List<DataSet>) list) {
+                    length += measureDataSet(set);
+                }
+            } else {
+                // unsupported element type, written as empty
+                return 1;
+            }
+            return length;
+        }
+
+        private void flush() throws IOException {
+            mBuf.flip();
+            while (mBuf.hasRemaining()) {
+                mChannel.write(mBuf);
+            }
+            mBuf.clear();
+        }
+
+        // makes room for a value of the given bytes, at most 8
+        private void ensure(int bytes) throws IOException {
+            if (mBuf.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        // makes room for at least one element, returns the number of elements that fit
+        private int room(int width) throws IOException {
+            ensure(width);
+            return mBuf.remaining() / width;
+        }
+
+        void putByte(byte v) throws IOException {
+            ensure(1);
+            mBuf.put(v);
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            mBuf.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            ensure(8);
+            mBuf.putLong(v);
+        }
+
+        void putString(@Nonnull String s) throws IOException {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (int i = 0; i < bytes.length; ) {
+                final int n = Math.min(bytes.length - i, room(1));
+                mBuf.put(bytes, i, n);
+                i += n;
+            }
+        }
+
+        // writes the type, the key, and the value; unsupported values are ignored
+        private void writeIntEntry(int key, @Nonnull Object v) throws IOException {
+            final byte id = typeOf(v);
+            if (id != VAL_NULL) {
+                putByte(id);
+                putInt(key);
+                writeValue(id, v);
+            }
+        }
+
+        private void writeStringEntry(@Nonnull String key, @Nonnull Object v) throws IOException {
+            final byte id = typeOf(v);
+            if (id != VAL_NULL) {
+                putByte(id);
+                putString(key);
+                writeValue(id, v);
+            }
+        }
+
+        private void writeValue(byte id, @Nonnull Object v) throws IOException {
+            switch (id) {
+                case VAL_BYTE -> putByte((byte) v);
+                case VAL_SHORT -> {
+                    ensure(2);
+                    mBuf.putShort((short) v);
+                }
+                case VAL_INT -> putInt((int) v);
+                case VAL_LONG -> putLong((long) v);
+                case VAL_FLOAT -> {
+                    ensure(4);
+                    mBuf.putFloat((float) v);
+                }
+                case VAL_DOUBLE -> {
+                    ensure(8);
+                    mBuf.putDouble((double) v);
+                }
+                case VAL_STRING -> putString((String) v);
+                case VAL_UUID -> {
+                    final UUID u = (UUID) v;
+                    putLong(u.getMostSignificantBits());
+                    putLong(u.getLeastSignificantBits());
+                }
+                case VAL_LIST -> writeList((List<?>) v);
+                case VAL_DATA_SET -> writeDataSet((DataSet) v);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void writeList(@Nonnull List<?> list) throws IOException {
+            final int size = list.size();
+            if (list instanceof ByteArrayList l) {
+                putByte(VAL_BYTE);
+                putInt(size);
+                final byte[] a = l.elements();
+                for (int i = 0; i < size; ) {
+                    final int n = Math.min(size - i, room(1));
+                    mBuf.put(a, i, n);
+                    i += n;
+                }
+            } else if (list instanceof ShortArrayList l) {
+                putByte(VAL_SHORT);
+                putInt(size);
+                final short[] a = l.elements();
+                for (int i = 0; i < size; ) {
+                    final int n = Math.min(size - i, room(2));
+                    mBuf.asShortBuffer().put(a, i, n);
+                    mBuf.position(mBuf.position() + (n << 1));
+                    i += n;
+                }
+            } else if (list instanceof IntArrayList l) {
+                putByte(VAL_INT);
+                putInt(size);
+                final int[] a = l.elements();
+                for (int i = 0; i < size; ) {
+                    final int n = Math.min(size - i, room(4));
+                    mBuf.asIntBuffer().put(a, i, n);
+                    mBuf.position(mBuf.position() + (n << 2));
+                    i += n;
+                }
+            } else if (list instanceof LongArrayList l) {
+                putByte(VAL_LONG);
+                putInt(size);
+                final long[] a = l.elements();
+                for (int i = 0; i < size; ) {
+                    final int n = Math.min(size - i, room(8));
+                    mBuf.asLongBuffer().put(a, i, n);
+                    mBuf.position(mBuf.position() + (n << 3));
+                    i += n;
+                }
+            } else if (list instanceof FloatArrayList l) {
+                putByte(VAL_FLOAT);
+                putInt(size);
+                final float[] a = l.elements();
+                for (int i = 0; i < size; ) {
+                    final int n = Math.min(size - i, room(4));
+                    mBuf.asFloatBuffer().put(a, i, n);
+                    mBuf.position(mBuf.position() + (n << 2));
+                    i += n;
+                }
+            } else if (list instanceof DoubleArrayList l) {
+                putByte(VAL_DOUBLE);
+                putInt(size);
+                final double[] a = l.elements();
+                for (int i = 0; i < size; ) {
+                    final int n = Math.min(size - i, room(8));
+                    mBuf.asDoubleBuffer().put(a, i, n);
+                    mBuf.position(mBuf.position() + (n << 3));
+                    i += n;
+                }
+            } else if (size == 0) {
+                // short path for Object arrays, but do not break primitive-specified arrays
+                putByte(VAL_NULL);
+            } else {
+                final Object e = list.get(0);
+                if (e instanceof String) {
+                    putByte(VAL_STRING);
+                    putInt(size);
+                    for (String s : (List<String>) list) {
+                        putString(s);
+                    }
+                } else if (e instanceof UUID) {
+                    putByte(VAL_UUID);
+                    putInt(size);
+                    for (UUID u : (List<UUID>) list) {
+                        putLong(u.getMostSignificantBits());
+                        putLong(u.getLeastSignificantBits());
+                    }
+                } else if (e instanceof List) {
+                    putByte(VAL_LIST);
+                    putInt(size);
+                    for (List<?> li : (List<List<?>>) list) {
+                        writeList(li);
+                    }
+                } else if (e instanceof DataSet) {
+                    putByte(VAL_DATA_SET);
+                    putInt(size);
+                    for (DataSet set : (List<DataSet>) list) {
+                        writeDataSet(set);
+                    }
+                } else {
+                    // unsupported element type, written as empty
+                    putByte(VAL_NULL);
+                }
+            }
+        }
+
+        // the iteration order is the same as measureDataSet()
+        void writeDataSet(@Nonnull DataSet set) throws IOException {
+            putInt(mLengths.getInt(mNextLength++));
+            final Iterator<Int2ObjectMap.Entry<Object>> it = set.intEntryIterator();
+            if (it != null) {
+                while (it.hasNext()) {
+                    final Int2ObjectMap.Entry<Object> entry = it.next();
+                    writeIntEntry(entry.getIntKey(), entry.getValue());
+                }
+            }
+            putByte(VAL_NULL);
+            final Iterator<Map.Entry<String, Object>> stringIt = set.stringEntryIterator();
+            if (stringIt != null) {
+                while (stringIt.hasNext()) {
+                    final Map.Entry<String, Object> entry = stringIt.next();
+                    writeStringEntry(entry.getKey(), entry.getValue());
+                }
+            }
+            putByte(VAL_NULL);
+        }
+    }
+
+    // the byte length of String.getBytes(UTF_8), without encoding
+    private static int utf8Length(@Nonnull String s) {
+        final int len = s.length();
+        int n = len;
+        for (int i = 0; i < len; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                n++;
+            } else if (!Character.isSurrogate(c)) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                // a supplementary code point, 4 bytes for 2 chars
+                n += 2;
+                i++;
+            }
+            // a malformed surrogate is replaced by '?', 1 byte
+        }
+        return n;
+    }
+
+    // the type identifier of a value, or VAL_NULL if not supported
+    private static byte typeOf(@Nonnull Object v) {
+        if (v instanceof Byte) {
+            return VAL_BYTE;
+        } else if (v instanceof Short) {
+            return VAL_SHORT;
+        } else if (v instanceof Integer) {
+            return VAL_INT;
+        } else if (v instanceof Long) {
+            return VAL_LONG;
+        } else if (v instanceof Float) {
+            return VAL_FLOAT;
+        } else if (v instanceof Double) {
+            return VAL_DOUBLE;
+        } else if (v instanceof String) {
+            return VAL_STRING;
+        } else if (v instanceof UUID) {
+            return VAL_UUID;
+        } else if (v instanceof List) {
+            return VAL_LIST;
+        } else if (v instanceof DataSet) {
+            return VAL_DATA_SET;
+        }
+        return VAL_NULL;
+    }
+}
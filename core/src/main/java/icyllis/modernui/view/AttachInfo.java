@@ -121,6 +121,13 @@ final class AttachInfo {
      */
     View mViewRequestingLayout;
 
+    /**
+     * The number of onMeasure() calls and measure cache hits since the current traversal
+     * started, for checking redundant measurement.
+     */
+    int mMeasureCount;
+    int mMeasureCacheHitCount;
+
     AttachInfo(ViewRoot viewRoot, Handler handler, Callbacks callbacks) {
         mViewRoot = viewRoot;
         mHandler = handler;
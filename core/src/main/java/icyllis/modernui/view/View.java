@@ -38,6 +38,7 @@ import icyllis.modernui.transition.Fade;
 import icyllis.modernui.transition.Transition;
 import icyllis.modernui.util.*;
 import icyllis.modernui.view.menu.MenuBuilder;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
 import org.intellij.lang.annotations.MagicConstant;
@@ -2187,6 +2188,14 @@ public class View implements Drawable.Callback {
      */
     int mOldHeightMeasureSpec = Integer.MIN_VALUE;
 
+    /**
+     * Measured sizes keyed by measure specs, cleared when layout is requested, so that
+     * a parent measuring this view several times doesn't call onMeasure() again.
+     * Key is (widthMeasureSpec << 32 | heightMeasureSpec), value is (measuredWidth << 32
+     * | measuredHeight), both including the measured state bits. Lazily created.
+     */
+    private Long2LongOpenHashMap mMeasureCache;
+
     private Drawable mBackground;
     private boolean mBackgroundSizeChanged;
 
@@ -2346,55 +2355,61 @@ public class View implements Drawable.Callback {
 
     /**
      * This method is called by ViewGroup.drawChild() to have each child view draw itself.
+     * The display list of this view is updated if needed, then a reference to it is drawn
+     * to the canvas, so that the render properties are applied when the canvas is replayed.
      */
     final void draw(@Nonnull Canvas canvas, @Nonnull ViewGroup group, boolean clip) {
-        final boolean identity = hasIdentityMatrix();
-        if (clip && identity &&
-                canvas.quickReject(mLeft, mTop, mRight, mBottom)) {
-            // quick rejected
-            return;
-        }
-
-        float alpha = mAlpha * mTransitionAlpha;
-        if (alpha <= 0.001f) {
-            // completely transparent
-            return;
-        }
-
-        computeScroll();
-        int sx = mScrollX;
-        int sy = mScrollY;
-
-        int saveCount = canvas.save();
-        canvas.translate(mLeft, mTop);
-
-        if (mRenderNode.getAnimationMatrix() != null) {
-            canvas.concat(mRenderNode.getAnimationMatrix());
-        }
-        if (!identity) {
-            canvas.concat(getMatrix());
-        }
-
-        // true if clip region is not empty, or quick rejected
-        boolean hasSpace = true;
-        if (clip) {
-            hasSpace = canvas.clipRect(0, 0, mRight - mLeft, mBottom - mTop);
-        }
-
-        canvas.translate(-sx, -sy);
-
-        if (hasSpace) {
-            if (alpha < 0.999f) {
-                canvas.saveLayer(sx, sy, sx + mRight - mLeft, sy + mBottom - mTop, (int) (alpha * 255));
-            }
+        // quick rejection and alpha are resolved when replaying
+        final RenderNode renderNode = updateDisplayListIfDirty();
+        renderNode.setClipToBounds(clip);
+        canvas.drawRenderNode(renderNode);
+    }
 
-            if ((mPrivateFlags & PFLAG_SKIP_DRAW) == PFLAG_SKIP_DRAW) {
-                dispatchDraw(canvas);
-            } else {
-                draw(canvas);
+    /**
+     * Gets the RenderNode for the view, and updates its DisplayList (if needed and supported).
+     * The content of this view is only recorded again if it has been invalidated, otherwise
+     * only the display lists of the children are updated.
+     *
+     * @return the render node of this view
+     */
+    @Nonnull
+    public RenderNode updateDisplayListIfDirty() {
+        final RenderNode renderNode = mRenderNode;
+        if ((mPrivateFlags & PFLAG_DRAWING_CACHE_VALID) == 0 ||
+                (mPrivateFlags & PFLAG_INVALIDATED) != 0 ||
+                !renderNode.hasDisplayList()) {
+            if ((mPrivateFlags & PFLAG_INVALIDATED) == 0 && renderNode.hasDisplayList()) {
+                // only the children need to be updated
+                mPrivateFlags |= PFLAG_DRAWN | PFLAG_DRAWING_CACHE_VALID;
+                dispatchGetDisplayList();
+                return renderNode;
+            }
+
+            // clear the flags before recording, so that invalidation during recording is kept
+            mPrivateFlags |= PFLAG_DRAWN | PFLAG_DRAWING_CACHE_VALID;
+            mPrivateFlags &= ~PFLAG_INVALIDATED;
+
+            final Canvas canvas = renderNode.beginRecording(mRight - mLeft, mBottom - mTop);
+            try {
+                computeScroll();
+                canvas.translate(-mScrollX, -mScrollY);
+                if ((mPrivateFlags & PFLAG_SKIP_DRAW) == PFLAG_SKIP_DRAW) {
+                    dispatchDraw(canvas);
+                } else {
+                    draw(canvas);
+                }
+            } finally {
+                renderNode.endRecording();
             }
         }
-        canvas.restoreToCount(saveCount);
+        return renderNode;
+    }
+
+    /**
+     * Called by {@link #updateDisplayListIfDirty()} when the content of this view is not
+     * changed, but the display lists of the children need to be updated.
+     */
+    void dispatchGetDisplayList() {
     }
 
     /**
@@ -2640,6 +2655,15 @@ public class View implements Drawable.Callback {
      */
     @SuppressWarnings("unchecked")
     public void layout(int l, int t, int r, int b) {
+        if ((mPrivateFlags3 & PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT) != 0) {
+            // the measured size came from the cache, restore the states of onMeasure()
+            onMeasure(mOldWidthMeasureSpec, mOldHeightMeasureSpec);
+            mPrivateFlags3 &= ~PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT;
+            if (mAttachInfo != null) {
+                mAttachInfo.mMeasureCount++;
+            }
+        }
+
         int oldL = mLeft;
         int oldT = mTop;
         int oldB = mBottom;
@@ -2819,14 +2843,32 @@ public class View implements Drawable.Callback {
             needsLayout |= specChanged && (!isSpecExactly || !matchesSpecSize);
         }
 
+        final long key = (long) widthMeasureSpec << 32 | (long) heightMeasureSpec & 0xffffffffL;
+
         if (needsLayout) {
             // remove the flag first anyway
             mPrivateFlags &= ~PFLAG_MEASURED_DIMENSION_SET;
 
             resolveRtlPropertiesIfNeeded();
 
-            // measure ourselves, this should set the measured dimension flag back
-            onMeasure(widthMeasureSpec, heightMeasureSpec);
+            // the cache is cleared on requestLayout(), so cached sizes are still valid
+            final long cached = mMeasureCache == null ? -1 : mMeasureCache.get(key);
+            if (cached == -1) {
+                // measure ourselves, this should set the measured dimension flag back
+                onMeasure(widthMeasureSpec, heightMeasureSpec);
+                mPrivateFlags3 &= ~PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT;
+                if (mAttachInfo != null) {
+                    mAttachInfo.mMeasureCount++;
+                }
+            } else {
+                setMeasuredDimension((int) (cached >> 32), (int) cached);
+                // onMeasure() may have computed states for other specs since, such as
+                // text layouts, so it must be called again before layout
+                mPrivateFlags3 |= PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT;
+                if (mAttachInfo != null) {
+                    mAttachInfo.mMeasureCacheHitCount++;
+                }
+            }
 
             // the flag should be added in onMeasure() by calling setMeasuredDimension()
             if ((mPrivateFlags & PFLAG_MEASURED_DIMENSION_SET) == 0) {
@@ -2840,6 +2882,12 @@ public class View implements Drawable.Callback {
 
         mOldWidthMeasureSpec = widthMeasureSpec;
         mOldHeightMeasureSpec = heightMeasureSpec;
+
+        if (mMeasureCache == null) {
+            mMeasureCache = new Long2LongOpenHashMap(2);
+            mMeasureCache.defaultReturnValue(-1);
+        }
+        mMeasureCache.put(key, (long) mMeasuredWidth << 32 | (long) mMeasuredHeight & 0xffffffffL);
     }
 
     /**
@@ -3840,17 +3888,97 @@ public class View implements Drawable.Callback {
      * {@link #postInvalidate()}.
      */
     public final void invalidate() {
-        if ((mViewFlags & VISIBILITY_MASK) != VISIBLE &&
-                (!(mParent instanceof ViewGroup) ||
-                        !((ViewGroup) mParent).isViewTransitioning(this))) {
+        // the content will be recorded again when it becomes visible
+        mPrivateFlags |= PFLAG_INVALIDATED;
+        mPrivateFlags &= ~PFLAG_DRAWING_CACHE_VALID;
+
+        if (skipInvalidate()) {
             return;
         }
 
+        // the ancestors need to update the display lists of their children, but
+        // they don't need to be recorded again
+        ViewParent parent = mParent;
+        while (parent instanceof View view) {
+            view.mPrivateFlags &= ~PFLAG_DRAWING_CACHE_VALID;
+            parent = view.mParent;
+        }
+
         if (mAttachInfo != null) {
-            mAttachInfo.mViewRoot.invalidate();
+            damage();
         }
     }
 
+    /**
+     * Quick invalidation for View property changes (alpha, translationXY, etc.).
+     * The display lists are not changed, since the properties are applied when replaying.
+     */
+    void invalidateViewProperty() {
+        if (skipInvalidate()) {
+            return;
+        }
+        if (mAttachInfo != null) {
+            // the old and new areas of this view are unknown, but both are in the parent
+            if (mParent instanceof View parent) {
+                parent.damage();
+            } else {
+                mAttachInfo.mViewRoot.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Adds the area where this view can draw to the damage region of the window. The drawing of
+     * a view is clipped to its bounds if its parent clips children, otherwise it's confined to
+     * the parent, and so on. The whole window is damaged if no ancestor confines it.
+     */
+    private void damage() {
+        final AttachInfo ai = mAttachInfo;
+        View target = this;
+        while (target.mParent instanceof ViewGroup parent && !parent.getClipChildren()) {
+            target = parent;
+        }
+        if (!(target.mParent instanceof ViewGroup)) {
+            ai.mViewRoot.invalidate();
+            return;
+        }
+        final RectF bounds = ai.mTmpTransformRect;
+        bounds.set(0, 0, target.mRight - target.mLeft, target.mBottom - target.mTop);
+        View view = target;
+        for (; ; ) {
+            if (view.mRenderNode.getAnimationMatrix() != null) {
+                // not reflected in the view matrix
+                ai.mViewRoot.invalidate();
+                return;
+            }
+            if (!view.hasIdentityMatrix()) {
+                view.getMatrix().transform(bounds);
+            }
+            bounds.offset(view.mLeft, view.mTop);
+            if (!(view.mParent instanceof View parent)) {
+                break;
+            }
+            bounds.offset(-parent.mScrollX, -parent.mScrollY);
+            if (parent instanceof ViewGroup group && group.getClipChildren()) {
+                if (!bounds.intersect(0, 0, parent.mRight - parent.mLeft, parent.mBottom - parent.mTop)) {
+                    // nothing visible
+                    return;
+                }
+            }
+            view = parent;
+        }
+        final Rect dirty = ai.mTmpInvalRect;
+        bounds.roundOut(dirty);
+        ai.mViewRoot.invalidateRect(dirty);
+    }
+
+    // do not invalidate views which are not visible and which are not running an animation
+    private boolean skipInvalidate() {
+        return (mViewFlags & VISIBILITY_MASK) != VISIBLE &&
+                (!(mParent instanceof ViewGroup) ||
+                        !((ViewGroup) mParent).isViewTransitioning(this));
+    }
+
     /**
      * Invalidates the specified Drawable.
      *
@@ -6626,7 +6754,7 @@ public class View implements Drawable.Callback {
      */
     public void setElevation(float elevation) {
         if (mRenderNode.setElevation(elevation)) {
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -6651,7 +6779,7 @@ public class View implements Drawable.Callback {
      */
     public void setTranslationX(float translationX) {
         if (mRenderNode.setTranslationX(translationX)) {
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -6677,7 +6805,7 @@ public class View implements Drawable.Callback {
      */
     public void setTranslationY(float translationY) {
         if (mRenderNode.setTranslationY(translationY)) {
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -6695,7 +6823,7 @@ public class View implements Drawable.Callback {
      */
     public void setTranslationZ(float translationZ) {
         if (mRenderNode.setTranslationZ(translationZ)) {
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -6724,7 +6852,7 @@ public class View implements Drawable.Callback {
      */
     public void setRotation(float rotation) {
         if (mRenderNode.setRotationZ(rotation)) {
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -6754,7 +6882,7 @@ public class View implements Drawable.Callback {
      */
     public void setRotationY(float rotationY) {
         if (mRenderNode.setRotationY(rotationY)) {
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -6784,7 +6912,7 @@ public class View implements Drawable.Callback {
      */
     public void setRotationX(float rotationX) {
         if (mRenderNode.setRotationX(rotationX)) {
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -6812,7 +6940,7 @@ public class View implements Drawable.Callback {
      */
     public void setScaleX(float scaleX) {
         if (mRenderNode.setScaleX(scaleX)) {
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -6840,7 +6968,7 @@ public class View implements Drawable.Callback {
      */
     public void setScaleY(float scaleY) {
         if (mRenderNode.setScaleY(scaleY)) {
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -6873,7 +7001,7 @@ public class View implements Drawable.Callback {
      */
     public void setPivotX(float pivotX) {
         if (mRenderNode.setPivotX(pivotX)) {
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -6905,7 +7033,7 @@ public class View implements Drawable.Callback {
      */
     public void setPivotY(float pivotY) {
         if (mRenderNode.setPivotY(pivotY)) {
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -6927,7 +7055,7 @@ public class View implements Drawable.Callback {
      */
     public void resetPivot() {
         if (mRenderNode.resetPivot()) {
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -7002,7 +7130,8 @@ public class View implements Drawable.Callback {
     public void setAlpha(float alpha) {
         if (mAlpha != alpha) {
             mAlpha = alpha;
-            invalidate();
+            mRenderNode.setAlpha(mAlpha * mTransitionAlpha);
+            invalidateViewProperty();
         }
     }
 
@@ -7016,7 +7145,8 @@ public class View implements Drawable.Callback {
     public final void setTransitionAlpha(float alpha) {
         if (mTransitionAlpha != alpha) {
             mTransitionAlpha = alpha;
-            invalidate();
+            mRenderNode.setAlpha(mAlpha * mTransitionAlpha);
+            invalidateViewProperty();
         }
     }
 
@@ -7043,7 +7173,9 @@ public class View implements Drawable.Callback {
      * @see #getAnimationMatrix()
      */
     public final void setAnimationMatrix(@Nullable Matrix4 matrix) {
-        mRenderNode.setAnimationMatrix(matrix);
+        if (mRenderNode.setAnimationMatrix(matrix)) {
+            invalidateViewProperty();
+        }
     }
 
     /**
@@ -7171,6 +7303,9 @@ public class View implements Drawable.Callback {
 
         onDetachedFromWindow();
 
+        // release the recorded objects
+        mRenderNode.discardDisplayList();
+
         mPrivateFlags &= ~PFLAG_CANCEL_NEXT_UP_EVENT;
         mPrivateFlags3 &= ~PFLAG3_IS_LAID_OUT;
         mPrivateFlags3 &= ~PFLAG3_TEMPORARY_DETACH;
@@ -8294,6 +8429,10 @@ public class View implements Drawable.Callback {
      */
     @CallSuper
     public void requestLayout() {
+        if (mMeasureCache != null) {
+            mMeasureCache.clear();
+        }
+
         if (mAttachInfo != null && mAttachInfo.mViewRequestingLayout == null) {
             // Only trigger request-during-layout logic if this is the view requesting it,
             // not the views in its parent hierarchy
@@ -8333,6 +8472,10 @@ public class View implements Drawable.Callback {
      * on the parent.
      */
     public void forceLayout() {
+        if (mMeasureCache != null) {
+            mMeasureCache.clear();
+        }
+
         mPrivateFlags |= PFLAG_FORCE_LAYOUT;
         mPrivateFlags |= PFLAG_INVALIDATED;
     }
@@ -11473,7 +11616,7 @@ public class View implements Drawable.Callback {
             mTop += offset;
             mBottom += offset;
             mRenderNode.offsetTopAndBottom(offset);
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -11487,7 +11630,7 @@ public class View implements Drawable.Callback {
             mLeft += offset;
             mRight += offset;
             mRenderNode.offsetLeftAndRight(offset);
-            invalidate();
+            invalidateViewProperty();
         }
     }
 
@@ -278,6 +278,30 @@ public abstract class ViewGroup extends View implements ViewParent, ViewManager
         }
     }
 
+    @Override
+    void dispatchGetDisplayList() {
+        final int count = mChildrenCount;
+        final View[] children = mChildren;
+        for (int i = 0; i < count; i++) {
+            final View child = children[i];
+            if ((child.mViewFlags & VISIBILITY_MASK) == VISIBLE) {
+                child.updateDisplayListIfDirty();
+            }
+        }
+        if (mTransientViews != null) {
+            for (final View child : mTransientViews) {
+                if ((child.mViewFlags & VISIBILITY_MASK) == VISIBLE) {
+                    child.updateDisplayListIfDirty();
+                }
+            }
+        }
+        if (mDisappearingChildren != null) {
+            for (final View child : mDisappearingChildren) {
+                child.updateDisplayListIfDirty();
+            }
+        }
+    }
+
     /**
      * Draw one child of this View Group. This method is responsible for getting
      * the canvas in the right state. This includes clipping, translating so
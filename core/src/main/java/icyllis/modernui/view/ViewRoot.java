@@ -23,6 +23,9 @@ import icyllis.modernui.annotation.MainThread;
 import icyllis.modernui.annotation.UiThread;
 import icyllis.modernui.core.*;
 import icyllis.modernui.graphics.Canvas;
+import icyllis.modernui.graphics.Region;
+import icyllis.modernui.graphics.font.GlyphManager;
+import icyllis.modernui.graphics.RenderNode;
 import icyllis.modernui.math.Point;
 import icyllis.modernui.math.Rect;
 import icyllis.modernui.view.View.FocusDirection;
@@ -58,6 +61,11 @@ public abstract class ViewRoot implements ViewParent, AttachInfo.Callbacks {
     private boolean mInvalidated;
     private boolean mKeepInvalidated;
 
+    // the dirty area in window coordinates accumulated since the last frame
+    private final Region mDamageRegion = new Region();
+    private boolean mFullDamage = true;
+    private final Rect mDamageBounds = new Rect();
+
     private boolean mInLayout = false;
     ArrayList<View> mLayoutRequesters = new ArrayList<>();
     boolean mHandlingLayoutInLayoutRequest = false;
@@ -66,9 +74,6 @@ public abstract class ViewRoot implements ViewParent, AttachInfo.Callbacks {
 
     boolean mProcessInputEventsScheduled;
 
-    protected final Object mRenderLock = new Object();
-    protected boolean mRedrawn;
-
     private int mPointerIconType = PointerIcon.TYPE_DEFAULT;
 
     protected View mView;
@@ -89,6 +94,8 @@ public abstract class ViewRoot implements ViewParent, AttachInfo.Callbacks {
         mHandler = new Handler(Looper.myLooper(), this::handleMessage);
         mChoreographer = Choreographer.getInstance();
         mAttachInfo = new AttachInfo(this, mHandler, this);
+        // text drawn with placeholder glyphs is not damaged by any view, redraw all
+        GlyphManager.getInstance().addUploadListener(() -> mHandler.post(this::invalidate));
 
         try {
             Class.forName("icyllis.modernui.text.BoringLayout");
@@ -252,12 +259,18 @@ public abstract class ViewRoot implements ViewParent, AttachInfo.Callbacks {
             int widthSpec = MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY);
             int heightSpec = MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY);
 
+            mAttachInfo.mMeasureCount = 0;
+            mAttachInfo.mMeasureCacheHitCount = 0;
+
             host.measure(widthSpec, heightSpec);
 
             mInLayout = true;
             host.layout(0, 0, host.getMeasuredWidth(), host.getMeasuredHeight());
             mInLayout = false;
 
+            // views may be moved without invalidating their new areas
+            mFullDamage = true;
+
             int numViewsRequestingLayout = mLayoutRequesters.size();
             if (numViewsRequestingLayout > 0) {
                 // requestLayout() was called during layout.
@@ -309,35 +322,48 @@ public abstract class ViewRoot implements ViewParent, AttachInfo.Callbacks {
 
         boolean cancelDraw = mAttachInfo.mTreeObserver.dispatchOnPreDraw();
 
-        synchronized (mRenderLock) {
-            if (!cancelDraw && !mRedrawn) {
-                if (mPendingTransitions != null && mPendingTransitions.size() > 0) {
-                    for (LayoutTransition pendingTransition : mPendingTransitions) {
-                        pendingTransition.startChangingAnimations();
-                    }
-                    mPendingTransitions.clear();
+        if (!cancelDraw) {
+            if (mPendingTransitions != null && mPendingTransitions.size() > 0) {
+                for (LayoutTransition pendingTransition : mPendingTransitions) {
+                    pendingTransition.startChangingAnimations();
                 }
+                mPendingTransitions.clear();
+            }
 
-                if (mAttachInfo.mViewScrollChanged) {
-                    mAttachInfo.mViewScrollChanged = false;
-                    mAttachInfo.mTreeObserver.dispatchOnScrollChanged();
-                }
+            if (mAttachInfo.mViewScrollChanged) {
+                mAttachInfo.mViewScrollChanged = false;
+                mAttachInfo.mTreeObserver.dispatchOnScrollChanged();
+            }
 
-                if (mInvalidated) {
-                    mIsDrawing = true;
-                    Canvas canvas = beginRecording(width, height);
-                    host.draw(canvas);
-                    mIsDrawing = false;
-                    if (mKeepInvalidated) {
-                        mKeepInvalidated = false;
-                    } else {
-                        mInvalidated = false;
-                    }
-                    mRedrawn = true;
+            if (mInvalidated) {
+                // invalidations while drawing are accumulated for the next frame
+                final Rect damage;
+                if (mFullDamage) {
+                    damage = null;
+                } else {
+                    damage = mDamageBounds;
+                    mDamageRegion.getBounds(damage);
+                }
+                mFullDamage = false;
+                mDamageRegion.setEmpty();
+                mIsDrawing = true;
+                // only the invalidated views are recorded again, the others reuse their
+                // display lists, then the whole tree is replayed to the canvas, except the
+                // nodes outside the damage area
+                Canvas canvas = beginRecording(width, height, damage);
+                final RenderNode renderNode = host.updateDisplayListIfDirty();
+                canvas.drawRenderNode(renderNode);
+                // hand off the frame, never wait for render thread
+                endRecording(canvas);
+                mIsDrawing = false;
+                if (mKeepInvalidated) {
+                    mKeepInvalidated = false;
+                } else {
+                    mInvalidated = false;
                 }
-            } else {
-                scheduleTraversals();
             }
+        } else {
+            scheduleTraversals();
         }
     }
 
@@ -409,6 +435,31 @@ public abstract class ViewRoot implements ViewParent, AttachInfo.Callbacks {
         return mInLayout;
     }
 
+    /**
+     * Returns the number of {@link View#onMeasure(int, int)} calls in the last traversal
+     * that performed layout, including the calls before layout to restore the states of
+     * views measured from the cache. Measurement outside traversals is also counted until
+     * the next one starts.
+     *
+     * @return the number of onMeasure() calls
+     * @see #getMeasureCacheHitCount()
+     */
+    public int getMeasureCount() {
+        return mAttachInfo.mMeasureCount;
+    }
+
+    /**
+     * Returns the number of measurements in the last traversal that performed layout,
+     * which reused the measured sizes cached on views, rather than calling
+     * {@link View#onMeasure(int, int)}.
+     *
+     * @return the number of measure cache hits
+     * @see #getMeasureCount()
+     */
+    public int getMeasureCacheHitCount() {
+        return mAttachInfo.mMeasureCacheHitCount;
+    }
+
     /**
      * Called by {@link View#requestLayout()} if the view hierarchy is currently
      * undergoing a layout pass. requestLayout() should not generally be called during layout,
@@ -445,8 +496,25 @@ public abstract class ViewRoot implements ViewParent, AttachInfo.Callbacks {
         return !mHandlingLayoutInLayoutRequest;
     }
 
+    /**
+     * Called to obtain a canvas to record a frame. If the damage rect is not null, only the area
+     * inside it needs to be redrawn, the area outside keeps the contents of the previous frame.
+     *
+     * @param width  the width of the window
+     * @param height the height of the window
+     * @param damage the dirty area in window coordinates, or null to redraw the whole window
+     * @return the canvas to record
+     */
     @Nonnull
-    protected abstract Canvas beginRecording(int width, int height);
+    protected abstract Canvas beginRecording(int width, int height, @Nullable Rect damage);
+
+    /**
+     * Called when a frame is recorded into the canvas returned by {@link #beginRecording(int, int)}.
+     * The implementation should hand off the frame to render thread.
+     *
+     * @param canvas the canvas recorded
+     */
+    protected abstract void endRecording(@Nonnull Canvas canvas);
 
     @MainThread
     public void enqueueInputEvent(@Nonnull InputEvent event) {
@@ -672,6 +740,26 @@ public abstract class ViewRoot implements ViewParent, AttachInfo.Callbacks {
 
     void invalidate() {
         Core.checkUiThread();
+        mFullDamage = true;
+        mInvalidated = true;
+        if (!mWillDrawSoon) {
+            if (mIsDrawing) {
+                mKeepInvalidated = true;
+            }
+            scheduleTraversals();
+        }
+    }
+
+    /**
+     * Adds a dirty rect to the damage region and schedules a frame.
+     *
+     * @param dirty the dirty rect in window coordinates
+     */
+    void invalidateRect(@Nonnull Rect dirty) {
+        Core.checkUiThread();
+        if (!mFullDamage) {
+            mDamageRegion.union(dirty);
+        }
         mInvalidated = true;
         if (!mWillDrawSoon) {
             if (mIsDrawing) {
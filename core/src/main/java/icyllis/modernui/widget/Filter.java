@@ -18,8 +18,8 @@
 
 package icyllis.modernui.widget;
 
+import icyllis.modernui.core.Core;
 import icyllis.modernui.core.Handler;
-import icyllis.modernui.core.HandlerThread;
 import icyllis.modernui.core.Looper;
 import icyllis.modernui.core.Message;
 import org.apache.logging.log4j.Marker;
@@ -46,14 +46,17 @@ public abstract class Filter {
 
     private static final Marker MARKER = MarkerManager.getMarker("Filter");
 
-    private static final String THREAD_NAME = "Filter";
     private static final int FILTER_TOKEN = 0xD0D0F00D;
-    private static final int FINISH_TOKEN = 0xDEADBEEF;
 
-    private Handler mThreadHandler;
-    private HandlerThread mHandlerThread;
     private final Handler mResultHandler;
 
+    // the last posted request, older ones are discarded when they are due, guarded by mLock
+    private RequestArguments mLatestRequest;
+    // the request that is due but not started yet, guarded by mLock
+    private RequestArguments mPendingRequest;
+    // whether a task is performing requests on the shared executor, guarded by mLock
+    private boolean mRunning;
+
     private Delayer mDelayer;
 
     private final Object mLock = new Object();
@@ -106,26 +109,75 @@ public abstract class Filter {
      */
     public final void filter(CharSequence constraint, FilterListener listener) {
         synchronized (mLock) {
-            if (mThreadHandler == null) {
-                mHandlerThread = new HandlerThread(THREAD_NAME);
-                mHandlerThread.start();
-                mThreadHandler = new RequestHandler(mHandlerThread.getLooper());
-            }
-
             final long delay = (mDelayer == null) ? 0 : mDelayer.getPostingDelay(constraint);
 
-            Message message = mThreadHandler.obtainMessage(FILTER_TOKEN);
-
             RequestArguments args = new RequestArguments();
             // make sure we use an immutable copy of the constraint, so that
             // it doesn't change while the filter operation is in progress
             args.constraint = constraint != null ? constraint.toString() : null;
             args.listener = listener;
-            message.obj = args;
 
-            mThreadHandler.removeMessages(FILTER_TOKEN);
-            mThreadHandler.removeMessages(FINISH_TOKEN);
-            mThreadHandler.sendMessageDelayed(message, delay);
+            mLatestRequest = args;
+            mPendingRequest = null;
+            // the token is the lock, results are sent as messages with args
+            mResultHandler.removeCallbacksAndMessages(mLock);
+            if (delay > 0) {
+                mResultHandler.postDelayed(() -> {
+                    synchronized (mLock) {
+                        if (mLatestRequest == args) {
+                            enqueueRequestLocked(args);
+                        }
+                    }
+                }, mLock, delay);
+            } else {
+                enqueueRequestLocked(args);
+            }
+        }
+    }
+
+    private void enqueueRequestLocked(@Nonnull RequestArguments args) {
+        mPendingRequest = args;
+        if (!mRunning) {
+            mRunning = true;
+            // performFiltering() may block, so don't occupy the compute pool
+            Core.getIoExecutor().execute(this::performRequests);
+        }
+    }
+
+    /**
+     * <p>Performs filtering requests one by one on a worker thread, by calling
+     * {@link Filter#performFiltering} and then sending a message with the
+     * results to the results handler. Only the latest pending request is
+     * performed, the task ends when there's no pending request.</p>
+     */
+    private void performRequests() {
+        try {
+            for (;;) {
+                final RequestArguments args;
+                synchronized (mLock) {
+                    args = mPendingRequest;
+                    if (args == null) {
+                        mRunning = false;
+                        return;
+                    }
+                    mPendingRequest = null;
+                }
+                try {
+                    args.results = performFiltering(args.constraint);
+                } catch (Exception e) {
+                    args.results = new FilterResults();
+                    LOGGER.warn(MARKER, "An exception occurred during performFiltering()!", e);
+                } finally {
+                    Message message = mResultHandler.obtainMessage(FILTER_TOKEN);
+                    message.obj = args;
+                    message.sendToTarget();
+                }
+            }
+        } catch (Throwable t) {
+            synchronized (mLock) {
+                mRunning = false;
+            }
+            throw t;
         }
     }
 
@@ -211,61 +263,6 @@ public abstract class Filter {
         void onFilterComplete(int count);
     }
 
-    /**
-     * <p>Worker thread handler. When a new filtering request is posted from
-     * {@link Filter#filter(CharSequence, FilterListener)},
-     * it is sent to this handler.</p>
-     */
-    private class RequestHandler extends Handler {
-
-        public RequestHandler(Looper looper) {
-            super(looper);
-        }
-
-        /**
-         * <p>Handles filtering requests by calling
-         * {@link Filter#performFiltering} and then sending a message
-         * with the results to the results handler.</p>
-         *
-         * @param msg the filtering request
-         */
-        public void handleMessage(@Nonnull Message msg) {
-            int what = msg.what;
-            Message message;
-            switch (what) {
-                case FILTER_TOKEN:
-                    RequestArguments args = (RequestArguments) msg.obj;
-                    try {
-                        args.results = performFiltering(args.constraint);
-                    } catch (Exception e) {
-                        args.results = new FilterResults();
-                        LOGGER.warn(MARKER, "An exception occurred during performFiltering()!", e);
-                    } finally {
-                        message = mResultHandler.obtainMessage(what);
-                        message.obj = args;
-                        message.sendToTarget();
-                    }
-
-                    synchronized (mLock) {
-                        if (mThreadHandler != null) {
-                            Message finishMessage = mThreadHandler.obtainMessage(FINISH_TOKEN);
-                            mThreadHandler.sendMessageDelayed(finishMessage, 3000);
-                        }
-                    }
-                    break;
-                case FINISH_TOKEN:
-                    synchronized (mLock) {
-                        if (mThreadHandler != null) {
-                            mHandlerThread.quit();
-                            mThreadHandler = null;
-                            mHandlerThread = null;
-                        }
-                    }
-                    break;
-            }
-        }
-    }
-
     /**
      * <p>Handles the results of a filtering operation. The results are
      * handled in the UI thread.</p>
@@ -277,7 +274,7 @@ public abstract class Filter {
         }
 
         /**
-         * <p>Messages received from the request handler are processed in the
+         * <p>Messages received from the worker thread are processed in the
          * UI thread. The processing involves calling
          * {@link Filter#publishResults(CharSequence,
          * FilterResults)}
@@ -18,12 +18,14 @@
 
 package icyllis.modernui.widget;
 
+import icyllis.modernui.core.Core;
 import icyllis.modernui.graphics.Canvas;
 import icyllis.modernui.graphics.Image;
 import icyllis.modernui.graphics.drawable.Drawable;
 import icyllis.modernui.graphics.drawable.ImageDrawable;
 import icyllis.modernui.graphics.drawable.LevelListDrawable;
 import icyllis.modernui.math.Matrix4;
+import icyllis.modernui.opengl.TextureManager;
 import icyllis.modernui.util.ColorStateList;
 import icyllis.modernui.view.MeasureSpec;
 import icyllis.modernui.view.View;
@@ -70,6 +72,14 @@ public class ImageView extends View {
 
     private boolean mCropToPadding = false;
 
+    // the image resource loaded by setImageAsync(), it is acquired while attached
+    private String mAsyncNamespace;
+    private String mAsyncPath;
+    private int mAsyncWidth;
+    private int mAsyncHeight;
+    private boolean mAsyncAcquired;
+    private Object mAsyncToken;
+
     private int mBaseline = -1;
     private boolean mBaselineAlignBottom = false;
 
@@ -231,6 +241,11 @@ public class ImageView extends View {
      *                 content
      */
     public void setImageDrawable(@Nullable Drawable drawable) {
+        clearAsyncImage();
+        setImageDrawableInternal(drawable);
+    }
+
+    private void setImageDrawableInternal(@Nullable Drawable drawable) {
         if (mDrawable != drawable) {
             final int oldWidth = mDrawableWidth;
             final int oldHeight = mDrawableHeight;
@@ -297,6 +312,11 @@ public class ImageView extends View {
      * @param image the image to set
      */
     public void setImage(@Nullable Image image) {
+        clearAsyncImage();
+        setImageInternal(image);
+    }
+
+    private void setImageInternal(@Nullable Image image) {
         // Hacky fix to force setImageDrawable to do a full setImageDrawable
         // instead of doing an object reference comparison
         mDrawable = null;
@@ -305,7 +325,94 @@ public class ImageView extends View {
         } else {
             mRecycleImageDrawable.setImage(image);
         }
-        setImageDrawable(mRecycleImageDrawable);
+        setImageDrawableInternal(mRecycleImageDrawable);
+    }
+
+    /**
+     * Loads an image resource as the content of this ImageView asynchronously. The placeholder
+     * is shown until the image is decoded and uploaded, or if the image fails to load. The image
+     * is loaded when this view is attached to a window, and it is kept in the texture cache while
+     * this view is attached.
+     *
+     * @param ns          the application namespace
+     * @param subPath     the sub path to the resource, the same as {@link Image#create(String, String)}
+     * @param placeholder the drawable to show until the image is ready, or null
+     */
+    public void setImageAsync(@Nonnull String ns, @Nonnull String subPath, @Nullable Drawable placeholder) {
+        setImageAsync(ns, subPath, placeholder, 0, 0);
+    }
+
+    /**
+     * Loads an image resource as the content of this ImageView asynchronously, reduced for
+     * the given display size, so that large images take less memory and upload time.
+     * See {@link #setImageAsync(String, String, Drawable)}.
+     *
+     * @param ns          the application namespace
+     * @param subPath     the sub path to the resource, the same as {@link Image#create(String, String)}
+     * @param placeholder the drawable to show until the image is ready, or null
+     * @param width       the display width in pixels, or 0 to keep the full size
+     * @param height      the display height in pixels, or 0 to keep the full size
+     */
+    public void setImageAsync(@Nonnull String ns, @Nonnull String subPath, @Nullable Drawable placeholder,
+                              int width, int height) {
+        clearAsyncImage();
+        mAsyncNamespace = ns;
+        mAsyncPath = "textures/" + subPath;
+        mAsyncWidth = width;
+        mAsyncHeight = height;
+        setImageDrawableInternal(placeholder);
+        // otherwise deferred to onAttachedToWindow(), a detached view never releases it
+        if (isAttachedToWindow()) {
+            acquireAsyncImage();
+        }
+    }
+
+    private void acquireAsyncImage() {
+        final Object token = new Object();
+        mAsyncToken = token;
+        mAsyncAcquired = true;
+        TextureManager.getInstance().acquire(mAsyncNamespace, mAsyncPath,
+                        TextureManager.CACHE_MASK | TextureManager.MIPMAP_MASK, mAsyncWidth, mAsyncHeight)
+                .thenAcceptAsync(texture -> {
+                    if (mAsyncToken != token) {
+                        // replaced or detached
+                        return;
+                    }
+                    final Image current = mDrawable != null && mDrawable == mRecycleImageDrawable
+                            ? mRecycleImageDrawable.getImage() : null;
+                    if (current == null || current.getTexture() != texture) {
+                        setImageInternal(new Image(texture));
+                    }
+                }, Core.getUiThreadExecutor());
+    }
+
+    private void releaseAsyncImage() {
+        if (mAsyncAcquired) {
+            TextureManager.getInstance().release(mAsyncNamespace, mAsyncPath, mAsyncWidth, mAsyncHeight);
+            mAsyncAcquired = false;
+        }
+        mAsyncToken = null;
+    }
+
+    private void clearAsyncImage() {
+        releaseAsyncImage();
+        mAsyncNamespace = null;
+        mAsyncPath = null;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mAsyncPath != null && !mAsyncAcquired) {
+            // it may have been evicted, reload it
+            acquireAsyncImage();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseAsyncImage();
     }
 
     /**
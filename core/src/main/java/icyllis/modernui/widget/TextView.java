@@ -42,6 +42,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A user interface element that displays text to the user. To provide user-editable text,
@@ -187,6 +188,9 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
 
     private TextDirectionHeuristic mTextDir;
 
+    // incremented whenever the text is set, to drop outdated async results
+    private int mTextGeneration;
+
     @Nonnull
     private InputFilter[] mFilters = NO_FILTERS;
 
@@ -1806,11 +1810,21 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
 
         boolean needEditableForNotification = mListeners != null && mListeners.size() > 0;
 
+        PrecomputedText precomputed =
+                (text instanceof PrecomputedText) ? (PrecomputedText) text : null;
         if (type == BufferType.EDITABLE || needEditableForNotification) {
             createEditorIfNeeded();
             Editable t = mEditableFactory.newEditable(text);
             text = t;
             t.setFilters(mFilters);
+        } else if (precomputed != null) {
+            if (mTextDir == null) {
+                mTextDir = getTextDirectionHeuristic();
+            }
+            if (!precomputed.isResultUsable(0, precomputed.length(), mTextDir, mTextPaint)) {
+                throw new IllegalArgumentException(
+                        "PrecomputedText's parameters don't match the parameters of this TextView.");
+            }
         } else if (type == BufferType.SPANNABLE || mMovement != null) {
             text = mSpannableFactory.newSpannable(text);
         } else {
@@ -1882,8 +1896,41 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
         }
     }
 
+    /**
+     * Sets the text to be displayed, the text is measured on background threads, and will
+     * be set on the UI thread when the measurement is done, the current text is kept until
+     * then. If the text is set again before that, the result will be dropped.
+     * <p>
+     * This is useful for large text such as documents, which may take a long time to measure.
+     *
+     * @param text text to be displayed
+     * @return a future that completes with the measured text
+     * @see PrecomputedText#createAsync(CharSequence, icyllis.modernui.graphics.font.FontPaint,
+     * TextDirectionHeuristic, java.util.concurrent.Executor)
+     */
+    @Nonnull
+    public final CompletableFuture<PrecomputedText> setTextAsync(@Nonnull CharSequence text) {
+        if (mTextDir == null) {
+            mTextDir = getTextDirectionHeuristic();
+        }
+        final int generation = ++mTextGeneration;
+        return PrecomputedText.createAsync(text, mTextPaint, mTextDir, null)
+                .whenComplete((result, e) -> {
+                    if (result != null) {
+                        post(() -> {
+                            // the text or the paint may have changed since
+                            if (generation == mTextGeneration &&
+                                    result.isResultUsable(0, result.length(), mTextDir, mTextPaint)) {
+                                setText(result, BufferType.NORMAL);
+                            }
+                        });
+                    }
+                });
+    }
+
     // Update mText and mPrecomputed
     private void setTextInternal(@Nonnull CharSequence text) {
+        mTextGeneration++;
         mText = text;
         mSpannable = (text instanceof Spannable) ? (Spannable) text : null;
         mPrecomputed = (text instanceof PrecomputedText) ? (PrecomputedText) text : null;
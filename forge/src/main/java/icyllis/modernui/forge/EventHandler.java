@@ -20,6 +20,8 @@ package icyllis.modernui.forge;
 
 import icyllis.modernui.ModernUI;
 import icyllis.modernui.core.Core;
+import icyllis.modernui.graphics.font.GlyphManager;
+import icyllis.modernui.opengl.TextureManager;
 import icyllis.modernui.testforge.TestContainerMenu;
 import net.minecraft.client.ProgressOption;
 import net.minecraft.client.gui.screens.Screen;
@@ -127,6 +129,9 @@ final class EventHandler {
             if (event.phase == TickEvent.Phase.END) {
                 Core.flushMainCalls();
                 Core.flushRenderCalls();
+                TextureManager.getInstance().processUploads();
+                // in-game text may not be drawn by a canvas, upload its glyphs every frame
+                GlyphManager.getInstance().nextFrame();
             }
         }
 
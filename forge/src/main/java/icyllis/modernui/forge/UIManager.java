@@ -152,6 +152,8 @@ public final class UIManager implements LifecycleOwner {
     // the UI framebuffer
     private final GLFramebuffer mFramebuffer;
     final GLSurfaceCanvas mCanvas;
+    // drawing immediately on render thread (tooltips and layer), never touches UI thread packets
+    private final GLSurfaceCanvas mRenderCanvas;
     private final Matrix4 mProjectionMatrix = new Matrix4();
 
 
@@ -180,6 +182,7 @@ public final class UIManager implements LifecycleOwner {
 
     private UIManager() {
         mCanvas = GLSurfaceCanvas.initialize();
+        mRenderCanvas = new GLSurfaceCanvas();
         glEnable(GL_MULTISAMPLE);
         mFramebuffer = new GLFramebuffer(4);
         mFramebuffer.addTextureAttachment(GL_COLOR_ATTACHMENT0, GL_RGBA8);
@@ -735,9 +738,10 @@ public final class UIManager implements LifecycleOwner {
         final int oldVertexArray = glGetInteger(GL_VERTEX_ARRAY_BINDING);
         final int oldProgram = glGetInteger(GL_CURRENT_PROGRAM);
 
-        // TODO need multiple canvas instances, tooltip shares this now, but different thread
         mCanvas.setProjection(mProjectionMatrix.setOrthographic(
                 mWindow.getWidth(), mWindow.getHeight(), 0, icyllis.modernui.core.Window.LAST_SYSTEM_WINDOW + 1));
+        // tooltips use their own projection
+        mRenderCanvas.setProjection(mProjectionMatrix);
         mRoot.flushDrawCommands(mCanvas, mFramebuffer, mWindow.getWidth(), mWindow.getHeight());
 
         glBindVertexArray(oldVertexArray);
@@ -787,7 +791,7 @@ public final class UIManager implements LifecycleOwner {
             double cursorY = mouseHandler.ypos() *
                     (double) window.getGuiScaledHeight() / (double) window.getScreenHeight();
             //if (event.getLines().isEmpty()) {
-            mRoot.drawExtTooltipLocked(event, cursorX, cursorY); // need a lock
+            mRoot.drawExtTooltip(event, cursorX, cursorY);
             /*} else {
                 TooltipRenderer.drawTooltip(mCanvas, event.getLines(), event.getFontRenderer(), event.getStack(),
                         event.getMatrixStack(), event.getX(), event.getY(), (float) cursorX, (float) cursorY,
@@ -887,13 +891,19 @@ public final class UIManager implements LifecycleOwner {
         ContextMenuBuilder mContextMenu;
         MenuHelper mContextMenuHelper;
 
+        // only UI thread records into the canvas, render thread consumes the published frames
         @Nonnull
         @Override
-        protected Canvas beginRecording(int width, int height) {
-            mCanvas.reset(width, height);
+        protected Canvas beginRecording(int width, int height, @Nullable Rect damage) {
+            mCanvas.reset(width, height, damage);
             return mCanvas;
         }
 
+        @Override
+        protected void endRecording(@Nonnull Canvas canvas) {
+            mCanvas.publish();
+        }
+
         @Override
         protected boolean dispatchTouchEvent(MotionEvent event) {
             if (mScreen != null && event.getAction() == MotionEvent.ACTION_DOWN) {
@@ -940,48 +950,40 @@ public final class UIManager implements LifecycleOwner {
 
         @RenderThread
         private void flushDrawCommands(GLSurfaceCanvas canvas, GLFramebuffer framebuffer, int width, int height) {
-            // wait UI thread, if slow
-            synchronized (mRenderLock) {
-                boolean blit = true;
-
-                if (mRedrawn) {
-                    mRedrawn = false;
-                    glEnable(GL_STENCIL_TEST);
-                    try {
-                        blit = canvas.draw(framebuffer);
-                    } catch (Throwable t) {
-                        LOGGER.fatal(MARKER,
-                                "Failed to invoke rendering callbacks, please report the issue to related mods", t);
-                        dump();
-                        throw t;
-                    }
-                    glDisable(GL_STENCIL_TEST);
-                }
-
-                final GLTexture layer = framebuffer.getAttachedTexture(GL_COLOR_ATTACHMENT0);
-                if (blit && layer.getWidth() > 0) {
-                    // draw MSAA off-screen target to Minecraft main target (not the default framebuffer)
-                    RenderSystem.blendFunc(GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
-                    glBindFramebuffer(GL_DRAW_FRAMEBUFFER, minecraft.getMainRenderTarget().frameBufferId);
-
-                    // do alpha fade in
-                    int alpha = (int) Math.min(0xff, mElapsedTimeMillis);
-                    alpha = alpha << 8 | alpha;
-                    // premultiplied alpha
-                    canvas.drawLayer(layer, width, height, alpha << 16 | alpha, true);
-                    canvas.draw(null);
-                }
+            final boolean blit;
+            glEnable(GL_STENCIL_TEST);
+            try {
+                blit = canvas.submit(framebuffer);
+            } catch (Throwable t) {
+                LOGGER.fatal(MARKER,
+                        "Failed to invoke rendering callbacks, please report the issue to related mods", t);
+                dump();
+                throw t;
+            }
+            glDisable(GL_STENCIL_TEST);
+
+            final GLTexture layer = framebuffer.getAttachedTexture(GL_COLOR_ATTACHMENT0);
+            if (blit && layer.getWidth() > 0) {
+                // draw MSAA off-screen target to Minecraft main target (not the default framebuffer)
+                RenderSystem.blendFunc(GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
+                glBindFramebuffer(GL_DRAW_FRAMEBUFFER, minecraft.getMainRenderTarget().frameBufferId);
+
+                // do alpha fade in
+                int alpha = (int) Math.min(0xff, mElapsedTimeMillis);
+                alpha = alpha << 8 | alpha;
+                // premultiplied alpha, recorded on render thread, UI thread may be recording now
+                final GLSurfaceCanvas renderCanvas = mRenderCanvas;
+                renderCanvas.reset(width, height);
+                renderCanvas.drawLayer(layer, width, height, alpha << 16 | alpha, true);
+                renderCanvas.draw(null);
             }
         }
 
-        private void drawExtTooltipLocked(@Nonnull RenderTooltipEvent.Pre event, double cursorX, double cursorY) {
-            synchronized (mRenderLock) {
-                if (!mRedrawn) {
-                    TooltipRenderer.drawTooltip(mCanvas, mWindow, event.getPoseStack(), event.getComponents(),
-                            event.getX(), event.getY(), event.getFont(), event.getScreenWidth(),
-                            event.getScreenHeight(), cursorX, cursorY, minecraft.getItemRenderer());
-                }
-            }
+        @RenderThread
+        private void drawExtTooltip(@Nonnull RenderTooltipEvent.Pre event, double cursorX, double cursorY) {
+            TooltipRenderer.drawTooltip(mRenderCanvas, mWindow, event.getPoseStack(), event.getComponents(),
+                    event.getX(), event.getY(), event.getFont(), event.getScreenWidth(),
+                    event.getScreenHeight(), cursorX, cursorY, minecraft.getItemRenderer());
         }
 
         @Override
@@ -19,8 +19,32 @@
 package icyllis.modernui.testforge;
 
 import icyllis.modernui.ModernUI;
+import icyllis.modernui.core.Core;
+import icyllis.modernui.core.Handler;
+import icyllis.modernui.core.HandlerThread;
+import icyllis.modernui.core.NativeImage;
+import icyllis.modernui.graphics.Canvas;
+import icyllis.modernui.graphics.Paint;
+import icyllis.modernui.graphics.RenderNode;
+import icyllis.modernui.text.DynamicLayout;
+import icyllis.modernui.text.SpanSet;
+import icyllis.modernui.text.SpannableString;
+import icyllis.modernui.text.SpannableStringBuilder;
+import icyllis.modernui.text.Spanned;
+import icyllis.modernui.text.SpannedString;
+import icyllis.modernui.text.StaticLayout;
+import icyllis.modernui.text.TextPaint;
 import icyllis.modernui.text.TextUtils;
+import icyllis.modernui.text.style.AbsoluteSizeSpan;
+import icyllis.modernui.text.style.ForegroundColorSpan;
+import icyllis.modernui.text.style.MetricAffectingSpan;
 import icyllis.modernui.util.DataSet;
+import icyllis.modernui.view.MeasureSpec;
+import icyllis.modernui.view.View;
+import icyllis.modernui.view.ViewGroup;
+import icyllis.modernui.widget.BaseAdapter;
+import icyllis.modernui.widget.LinearLayout;
+import icyllis.modernui.widget.ListView;
 import it.unimi.dsi.fastutil.bytes.ByteArrayList;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectRBTreeMap;
@@ -30,13 +54,23 @@ import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.NbtIo;
 import org.github.jamm.MemoryMeter;
+import org.lwjgl.system.MemoryUtil;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.runner.RunnerException;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Fork(2)
 @Threads(2)
@@ -132,6 +166,459 @@ public class TestBenchmark {
         }
     }
 
+    @Benchmark
+    public static void dataSetWriteBinary() {
+        try {
+            DataSet.writeBinary(sDataSet, Path.of("F:/testdata_set1.bin"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Benchmark
+    public static void dataSetReadBinary() {
+        try {
+            DataSet.readBinary(Path.of("F:/testdata_set1.bin"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // primitive slots versus boxed values (the previous storage), per-frame style updates
+    @State(Scope.Thread)
+    public static class PrimitiveState {
+
+        public final DataSet mDataSet = new DataSet();
+        public final Int2ObjectOpenHashMap<Object> mBoxedMap = new Int2ObjectOpenHashMap<>();
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < 64; i++) {
+                mDataSet.putFloat(i, i);
+                mBoxedMap.put(i, Float.valueOf(i));
+            }
+        }
+    }
+
+    @Benchmark
+    public static float dataSetPrimitiveUpdate(PrimitiveState state) {
+        final DataSet set = state.mDataSet;
+        float sum = 0;
+        for (int i = 0; i < 64; i++) {
+            float v = set.getFloat(i) + 1;
+            set.putFloat(i, v);
+            sum += v;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public static float boxedMapUpdate(PrimitiveState state) {
+        final Int2ObjectOpenHashMap<Object> map = state.mBoxedMap;
+        float sum = 0;
+        for (int i = 0; i < 64; i++) {
+            float v = ((Number) map.get(i)).floatValue() + 1;
+            map.put(i, Float.valueOf(v));
+            sum += v;
+        }
+        return sum;
+    }
+
+    // a deep ListView screen, compares ops recorded per frame when a caret blinks
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FrameState {
+
+        public long recordedOps;
+
+        private final ListView mListView = new ListView();
+        private View mCaret;
+
+        @Setup
+        public void setup() {
+            mListView.setAdapter(new BaseAdapter() {
+                @Override
+                public int getCount() {
+                    return 1000;
+                }
+
+                @Override
+                public Object getItem(int position) {
+                    return position;
+                }
+
+                @Override
+                public long getItemId(int position) {
+                    return position;
+                }
+
+                @Nonnull
+                @Override
+                public View getView(int position, @Nullable View convertView, @Nonnull ViewGroup parent) {
+                    if (convertView != null) {
+                        return convertView;
+                    }
+                    LinearLayout row = new LinearLayout();
+                    for (int i = 0; i < 4; i++) {
+                        LinearLayout cell = new LinearLayout();
+                        for (int j = 0; j < 3; j++) {
+                            cell.addView(new BoxView(), new LinearLayout.LayoutParams(20, 20));
+                        }
+                        row.addView(cell);
+                    }
+                    return row;
+                }
+            });
+            mListView.measure(MeasureSpec.makeMeasureSpec(1280, MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(720, MeasureSpec.EXACTLY));
+            mListView.layout(0, 0, 1280, 720);
+            mCaret = ((ViewGroup) ((ViewGroup) mListView.getChildAt(0)).getChildAt(0)).getChildAt(0);
+            mListView.updateDisplayListIfDirty();
+        }
+
+        public void frame() {
+            long ops = RenderNode.getRecordedOpCount();
+            mListView.updateDisplayListIfDirty();
+            recordedOps += RenderNode.getRecordedOpCount() - ops;
+        }
+    }
+
+    static class BoxView extends View {
+
+        @Override
+        protected void onDraw(@Nonnull Canvas canvas) {
+            Paint paint = Paint.take();
+            paint.setColor(0xFF808080);
+            canvas.drawRect(0, 0, getWidth(), getHeight(), paint);
+            canvas.drawRoundRect(2, 2, getWidth() - 2, getHeight() - 2, 3, paint);
+        }
+    }
+
+    // previous behavior, the whole tree is recorded again, recording is single-threaded
+    @Benchmark
+    @Threads(1)
+    public static void frameRecordAll(FrameState state) {
+        invalidateAll(state.mListView);
+        state.frame();
+    }
+
+    // only the dirty subtree is recorded again
+    @Benchmark
+    @Threads(1)
+    public static void frameRecordDirty(FrameState state) {
+        state.mCaret.invalidate();
+        state.frame();
+    }
+
+    private static void invalidateAll(@Nonnull View view) {
+        view.invalidate();
+        if (view instanceof ViewGroup group) {
+            for (int i = 0; i < group.getChildCount(); i++) {
+                invalidateAll(group.getChildAt(i));
+            }
+        }
+    }
+
+    private static boolean sCoreInitialized;
+
+    // the time-base of message queues
+    private static synchronized void initializeCore() {
+        if (!sCoreInitialized) {
+            Core.initialize();
+            sCoreInitialized = true;
+        }
+    }
+
+    // a looper thread with many pending timers, like delayed posts from animations and toasts
+    @State(Scope.Benchmark)
+    public static class QueueState {
+
+        static {
+            initializeCore();
+        }
+
+        private final Object mToken = new Object();
+        private final Runnable mNoop = () -> {
+        };
+
+        private HandlerThread mThread;
+        private Handler mHandler;
+
+        @Setup
+        public void setup() {
+            mThread = new HandlerThread("QueueBenchmark");
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+            // background load, never due during the benchmark
+            Random random = new Random(1007);
+            for (int i = 0; i < 10000; i++) {
+                mHandler.postDelayed(mNoop, 600_000 + random.nextInt(600_000));
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            mThread.quit();
+        }
+    }
+
+    // a burst of short timers, waits until all of them are delivered
+    @Benchmark
+    @Threads(1)
+    public static void queueEnqueueDequeue(QueueState state) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1000);
+        final Runnable r = latch::countDown;
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final long now = Core.timeNanos();
+        for (int i = 0; i < 1000; i++) {
+            state.mHandler.postAtTimeNanos(r, now + random.nextInt(1_000_000));
+        }
+        latch.await();
+    }
+
+    // timers that are cancelled before they are due, like debounced filtering
+    @Benchmark
+    @Threads(1)
+    public static void queueEnqueueRemove(QueueState state) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 1000; i++) {
+            state.mHandler.postDelayed(state.mNoop, state.mToken, 10_000 + random.nextInt(10_000));
+        }
+        state.mHandler.removeCallbacksAndMessages(state.mToken);
+    }
+
+    // worker threads posting results back to a looper thread
+    @State(Scope.Benchmark)
+    public static class PostState {
+
+        static {
+            initializeCore();
+        }
+
+        @Param({"1", "2", "4", "8", "16"})
+        public int producers;
+
+        private HandlerThread mThread;
+        private Handler mHandler;
+        private ExecutorService mProducers;
+
+        @Setup
+        public void setup() {
+            mThread = new HandlerThread("PostBenchmark");
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+            mProducers = Executors.newFixedThreadPool(producers);
+        }
+
+        @TearDown
+        public void tearDown() {
+            mProducers.shutdown();
+            mThread.quit();
+        }
+    }
+
+    // throughput of immediate posts, messages per second should scale with producers
+    @Benchmark
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OperationsPerInvocation(10000)
+    public static void queuePostContended(PostState state) throws InterruptedException {
+        final int producers = state.producers;
+        final CountDownLatch latch = new CountDownLatch(10000);
+        final Runnable r = latch::countDown;
+        for (int p = 0; p < producers; p++) {
+            final int count = 10000 / producers + (p < 10000 % producers ? 1 : 0);
+            state.mProducers.execute(() -> {
+                for (int i = 0; i < count; i++) {
+                    state.mHandler.post(r);
+                }
+            });
+        }
+        latch.await();
+    }
+
+    // a long styled paragraph, iterates metric affecting runs as MeasuredParagraph does,
+    // run with "-prof gc" to compare the allocation rate
+    @State(Scope.Thread)
+    public static class SpanState {
+
+        public final SpanSet<MetricAffectingSpan> mSpanSet = new SpanSet<>(MetricAffectingSpan.class);
+        public Spanned mText;
+
+        @Setup
+        public void setup() {
+            SpannableString text = new SpannableString("Modern UI ".repeat(400));
+            Random random = new Random(1007);
+            for (int i = 0; i < 400; i++) {
+                int start = random.nextInt(text.length() - 20);
+                int end = start + 1 + random.nextInt(20);
+                if ((i & 1) == 0) {
+                    text.setSpan(new AbsoluteSizeSpan(12 + (i & 7)), start, end, 0);
+                } else {
+                    text.setSpan(new ForegroundColorSpan(0xFF000000 | i), start, end, 0);
+                }
+            }
+            mText = new SpannedString(text);
+        }
+    }
+
+    // previous behavior, arrays are allocated for each run
+    @Benchmark
+    public static int spanRunsGetSpans(SpanState state) {
+        final Spanned text = state.mText;
+        final int end = text.length();
+        int count = 0;
+        int spanEnd;
+        for (int spanStart = 0; spanStart < end; spanStart = spanEnd) {
+            spanEnd = text.nextSpanTransition(spanStart, end, MetricAffectingSpan.class);
+            MetricAffectingSpan[] spans = text.getSpans(spanStart, spanEnd, MetricAffectingSpan.class);
+            if (spans != null) {
+                spans = TextUtils.removeEmptySpans(spans, text, MetricAffectingSpan.class);
+                count += spans.length;
+            }
+        }
+        return count;
+    }
+
+    // the span set is reused, no allocation after warmup
+    @Benchmark
+    public static int spanRunsSpanSet(SpanState state) {
+        final Spanned text = state.mText;
+        final SpanSet<MetricAffectingSpan> spans = state.mSpanSet;
+        final int end = text.length();
+        int count = 0;
+        spans.init(text, 0, end);
+        int spanEnd;
+        for (int spanStart = 0; spanStart < end; spanStart = spanEnd) {
+            spanEnd = spans.getNextTransition(spanStart, end);
+            for (int i = 0; i < spans.size(); i++) {
+                if (spans.mSpanStarts[i] < spanEnd && spans.mSpanEnds[i] > spanStart) {
+                    count++;
+                }
+            }
+        }
+        spans.recycle();
+        return count;
+    }
+
+    // a 2048px image shown at smaller sizes, compares decode time and texture bytes
+    // including the mipmap chain, 0 is the full size
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class DecodeState {
+
+        @Param({"0", "1024", "256", "64"})
+        public int displaySize;
+
+        public long textureBytes;
+
+        private ByteBuffer mEncoded;
+
+        @Setup
+        public void setup() throws IOException {
+            Path path = Files.createTempFile("ModernUI", ".png");
+            try (NativeImage image = new NativeImage(NativeImage.Format.RGBA, 2048, 2048, false)) {
+                ByteBuffer pixels = MemoryUtil.memByteBuffer(image.getPixels(), image.getSize());
+                Random random = new Random(1007);
+                for (int i = 0; i < pixels.capacity(); i++) {
+                    pixels.put(i, (byte) ((i >> 6) + random.nextInt(8)));
+                }
+                image.saveToPath(path, NativeImage.SaveFormat.PNG, 0);
+            }
+            byte[] bytes = Files.readAllBytes(path);
+            Files.delete(path);
+            mEncoded = MemoryUtil.memAlloc(bytes.length).put(bytes).flip();
+        }
+
+        @TearDown
+        public void tearDown() {
+            MemoryUtil.memFree(mEncoded);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public static void decodeToDisplaySize(DecodeState state) throws IOException {
+        try (NativeImage image = NativeImage.decode(null, state.mEncoded.rewind(),
+                state.displaySize, state.displaySize)) {
+            long bytes = image.getSize();
+            for (NativeImage level : image.createMipmaps(4)) {
+                bytes += level.getSize();
+                level.close();
+            }
+            state.textureBytes += bytes;
+        }
+    }
+
+    // an editor document of long paragraphs, one character is typed in the middle of it,
+    // the cost per keystroke should not grow with the document size
+    @State(Scope.Thread)
+    public static class EditState {
+
+        @Param({"1000", "10000", "100000"})
+        public int documentLength;
+
+        public SpannableStringBuilder mText;
+        public DynamicLayout mLayout;
+        public int mOffset;
+
+        @Setup
+        public void setup() {
+            StringBuilder text = new StringBuilder(documentLength);
+            while (text.length() < documentLength) {
+                // paragraphs of about 2000 chars
+                text.append(text.length() % 2000 > 1980 ? "Modern UI.\n" : "Modern UI text ");
+            }
+            text.setLength(documentLength);
+            mText = new SpannableStringBuilder(text);
+            mLayout = DynamicLayout.builder(mText, new TextPaint(), 400).build();
+            mOffset = documentLength / 2;
+        }
+
+        // an edit takes much longer than the invocation overhead
+        @TearDown(Level.Invocation)
+        public void undo() {
+            mText.delete(mOffset, mOffset + 1);
+        }
+    }
+
+    @Benchmark
+    public static int dynamicLayoutInsert(EditState state) {
+        state.mText.insert(state.mOffset, "a");
+        return state.mLayout.getLineCount();
+    }
+
+    // a long paragraph broken by each strategy (simple, high quality, balanced), built
+    // concurrently by the benchmark threads to exercise the per-thread break iterators
+    @State(Scope.Thread)
+    public static class BreakState {
+
+        @Param({"0", "1", "2"})
+        public int breakStrategy;
+
+        public final TextPaint mPaint = new TextPaint();
+        public String mText;
+
+        @Setup
+        public void setup() {
+            StringBuilder text = new StringBuilder();
+            Random random = new Random(1007);
+            while (text.length() < 4000) {
+                // words of various lengths
+                text.append("Modern UI text layout".substring(0, 2 + random.nextInt(18))).append(' ');
+            }
+            mText = text.toString();
+        }
+    }
+
+    @Benchmark
+    public static int staticLayoutBreak(BreakState state) {
+        return StaticLayout.builder(state.mText, 0, state.mText.length(), state.mPaint, 400)
+                .setBreakStrategy(state.breakStrategy)
+                .build()
+                .getLineCount();
+    }
+
     @Benchmark
     public static void compoundTagInflation() {
         try {
@@ -21,6 +21,7 @@ package icyllis.modernui.textmc;
 import com.mojang.blaze3d.systems.RenderSystem;
 import com.mojang.blaze3d.vertex.*;
 import com.mojang.math.Matrix4f;
+import icyllis.modernui.graphics.font.GlyphManager;
 import icyllis.modernui.graphics.font.TexturedGlyph;
 import net.minecraft.client.renderer.MultiBufferSource;
 
@@ -54,6 +55,10 @@ class DigitGlyphRender extends BaseGlyphRender {
         if (idx < 0 || idx >= 10)
             return;
         TexturedGlyph glyph = mDigits.getKey()[idx];
+        // re-rasterize if evicted, placeholders render nothing
+        if (glyph == null || !GlyphManager.getInstance().validateGlyph(glyph)) {
+            return;
+        }
         builder.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_COLOR_TEX);
         RenderSystem.bindTexture(glyph.texture);
         x += mOffsetX;
@@ -79,6 +84,10 @@ class DigitGlyphRender extends BaseGlyphRender {
         if (idx < 0 || idx >= 10)
             return;
         TexturedGlyph glyph = mDigits.getKey()[idx];
+        // re-rasterize if evicted, placeholders render nothing
+        if (glyph == null || !GlyphManager.getInstance().validateGlyph(glyph)) {
+            return;
+        }
         VertexConsumer builder = source.getBuffer(TextRenderType.getOrCreate(glyph.texture, seeThrough));
         x += mOffsetX;
         if (idx != 0) {
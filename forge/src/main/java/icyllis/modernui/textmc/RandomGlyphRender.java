@@ -21,6 +21,7 @@ package icyllis.modernui.textmc;
 import com.mojang.blaze3d.systems.RenderSystem;
 import com.mojang.blaze3d.vertex.*;
 import com.mojang.math.Matrix4f;
+import icyllis.modernui.graphics.font.GlyphManager;
 import icyllis.modernui.graphics.font.TexturedGlyph;
 import net.minecraft.client.renderer.MultiBufferSource;
 
@@ -50,6 +51,10 @@ class RandomGlyphRender extends BaseGlyphRender {
                           int b, int a, float res) {
         int idx = RANDOM.nextInt(10);
         TexturedGlyph glyph = mGlyphs.getKey()[idx];
+        // re-rasterize if evicted, placeholders render nothing
+        if (glyph == null || !GlyphManager.getInstance().validateGlyph(glyph)) {
+            return;
+        }
         builder.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_COLOR_TEX);
         RenderSystem.bindTexture(glyph.texture);
         x += mOffsetX;
@@ -73,6 +78,10 @@ class RandomGlyphRender extends BaseGlyphRender {
                           float x, float y, int r, int g, int b, int a, boolean seeThrough, int light, float res) {
         int idx = RANDOM.nextInt(10);
         TexturedGlyph glyph = mGlyphs.getKey()[idx];
+        // re-rasterize if evicted, placeholders render nothing
+        if (glyph == null || !GlyphManager.getInstance().validateGlyph(glyph)) {
+            return;
+        }
         VertexConsumer builder = source.getBuffer(TextRenderType.getOrCreate(glyph.texture, seeThrough));
         x += mOffsetX;
         if (idx != 0) {
@@ -21,6 +21,7 @@ package icyllis.modernui.textmc;
 import com.mojang.blaze3d.systems.RenderSystem;
 import com.mojang.blaze3d.vertex.*;
 import com.mojang.math.Matrix4f;
+import icyllis.modernui.graphics.font.GlyphManager;
 import icyllis.modernui.graphics.font.TexturedGlyph;
 import net.minecraft.client.renderer.MultiBufferSource;
 
@@ -45,7 +46,8 @@ class StandardGlyphRender extends BaseGlyphRender {
     public void drawGlyph(@Nonnull BufferBuilder builder, @Nonnull String input, float x, float y, int r, int g,
                           int b, int a, float res) {
         TexturedGlyph glyph = mGlyph;
-        if (glyph == null) {
+        // re-rasterize if evicted, placeholders render nothing
+        if (glyph == null || !GlyphManager.getInstance().validateGlyph(glyph)) {
             return;
         }
         builder.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_COLOR_TEX);
@@ -67,7 +69,8 @@ class StandardGlyphRender extends BaseGlyphRender {
     public void drawGlyph(@Nonnull Matrix4f matrix, @Nonnull MultiBufferSource source, @Nullable CharSequence input,
                           float x, float y, int r, int g, int b, int a, boolean seeThrough, int light, float res) {
         TexturedGlyph glyph = mGlyph;
-        if (glyph == null) {
+        // re-rasterize if evicted, placeholders render nothing
+        if (glyph == null || !GlyphManager.getInstance().validateGlyph(glyph)) {
             return;
         }
         VertexConsumer builder = source.getBuffer(TextRenderType.getOrCreate(glyph.texture, seeThrough));